@@ -10,6 +10,7 @@ import com.ramapay.app.chat.crypto.ChatKeyStore
 import com.ramapay.app.chat.crypto.MessageEncryption
 import com.ramapay.app.chat.data.ChatDatabase
 import com.ramapay.app.chat.data.MIGRATION_1_2
+import com.ramapay.app.chat.data.MIGRATION_2_3
 import com.ramapay.app.chat.data.dao.ContactDao
 import com.ramapay.app.chat.data.dao.ConversationDao
 import com.ramapay.app.chat.data.dao.GroupDao
@@ -63,7 +64,7 @@ object ChatModule {
             ChatDatabase::class.java,
             "mumblechat_database"
         )
-            .addMigrations(MIGRATION_1_2)
+            .addMigrations(MIGRATION_1_2, MIGRATION_2_3)
             .fallbackToDestructiveMigration()
             .build()
     }
@@ -19,6 +19,7 @@ import com.ramapay.app.chat.data.entity.GroupEntity
 import com.ramapay.app.chat.data.entity.GroupMemberEntity
 import com.ramapay.app.chat.data.entity.GroupRole
 import com.ramapay.app.chat.data.entity.MessageEntity
+import com.ramapay.app.chat.data.entity.MessageFtsEntity
 import com.ramapay.app.chat.data.entity.MessageStatus
 
 /**
@@ -30,12 +31,13 @@ import com.ramapay.app.chat.data.entity.MessageStatus
 @Database(
     entities = [
         MessageEntity::class,
+        MessageFtsEntity::class,
         ConversationEntity::class,
         GroupEntity::class,
         GroupMemberEntity::class,
         ContactEntity::class
     ],
-    version = 2,
+    version = 3,
     exportSchema = false
 )
 @TypeConverters(Converters::class)
@@ -55,6 +57,27 @@ val MIGRATION_1_2 = object : Migration(1, 2) {
     }
 }
 
+/**
+ * Migration from version 2 to 3: index messages by (conversation, timestamp, id) and (group, timestamp, id) for keyset
+ * paging, and add the full text index over message content.
+ */
+val MIGRATION_2_3 = object : Migration(2, 3) {
+    override fun migrate(database: SupportSQLiteDatabase) {
+        database.execSQL("DROP INDEX IF EXISTS `index_messages_conversationId`")
+        database.execSQL("DROP INDEX IF EXISTS `index_messages_groupId`")
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_conversationId_timestamp_id` ON `messages` (`conversationId`, `timestamp`, `id`)")
+        database.execSQL("CREATE INDEX IF NOT EXISTS `index_messages_groupId_timestamp_id` ON `messages` (`groupId`, `timestamp`, `id`)")
+
+        database.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `messages_fts` USING FTS4(`content` TEXT NOT NULL, content=`messages`)")
+        //same triggers Room creates for a new database, keeping the index in step with the content table
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_UPDATE BEFORE UPDATE ON `messages` BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END")
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_BEFORE_DELETE BEFORE DELETE ON `messages` BEGIN DELETE FROM `messages_fts` WHERE `docid`=OLD.`rowid`; END")
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_UPDATE AFTER UPDATE ON `messages` BEGIN INSERT INTO `messages_fts`(`docid`, `content`) VALUES (NEW.`rowid`, NEW.`content`); END")
+        database.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_messages_fts_AFTER_INSERT AFTER INSERT ON `messages` BEGIN INSERT INTO `messages_fts`(`docid`, `content`) VALUES (NEW.`rowid`, NEW.`content`); END")
+        database.execSQL("INSERT INTO `messages_fts`(`messages_fts`) VALUES('rebuild')")
+    }
+}
+
 /**
  * Type converters for Room database.
  */
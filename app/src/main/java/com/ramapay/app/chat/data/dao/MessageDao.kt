@@ -5,7 +5,9 @@ import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.Query
 import androidx.room.Update
+import androidx.room.Upsert
 import com.ramapay.app.chat.data.entity.MessageEntity
+import com.ramapay.app.chat.data.entity.MessageKey
 import com.ramapay.app.chat.data.entity.MessageStatus
 import kotlinx.coroutines.flow.Flow
 
@@ -15,7 +17,11 @@ import kotlinx.coroutines.flow.Flow
 @Dao
 interface MessageDao {
 
-    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    /**
+     * Insert or update in place. REPLACE would delete the old row without running the FTS delete trigger
+     * (recursive_triggers is off), leaving its terms in messages_fts.
+     */
+    @Upsert
     suspend fun insert(message: MessageEntity)
 
     @Insert(onConflict = OnConflictStrategy.IGNORE)
@@ -33,6 +39,68 @@ interface MessageDao {
     @Query("SELECT * FROM messages WHERE groupId = :groupId ORDER BY timestamp ASC")
     fun getMessagesForGroup(groupId: String): Flow<List<MessageEntity>>
 
+    /**
+     * Keys of up to limit messages before the given key, newest first. Reads only the (conversationId, timestamp, id)
+     * index, from the key backwards.
+     */
+    @Query("""
+        SELECT timestamp, id FROM messages
+        WHERE conversationId = :conversationId
+        AND timestamp <= :beforeTimestamp AND (timestamp < :beforeTimestamp OR id < :beforeId)
+        ORDER BY timestamp DESC, id DESC LIMIT :limit
+    """)
+    suspend fun getConversationKeysBefore(conversationId: String, beforeTimestamp: Long, beforeId: String, limit: Int): List<MessageKey>
+
+    /**
+     * Messages from the given key on, oldest first. Re-emits on change but only reads from the key forwards.
+     */
+    @Query("""
+        SELECT * FROM messages
+        WHERE conversationId = :conversationId
+        AND timestamp >= :fromTimestamp AND (timestamp > :fromTimestamp OR id >= :fromId)
+        ORDER BY timestamp ASC, id ASC
+    """)
+    fun getConversationMessagesFrom(conversationId: String, fromTimestamp: Long, fromId: String): Flow<List<MessageEntity>>
+
+    @Query("""
+        SELECT timestamp, id FROM messages
+        WHERE groupId = :groupId
+        AND timestamp <= :beforeTimestamp AND (timestamp < :beforeTimestamp OR id < :beforeId)
+        ORDER BY timestamp DESC, id DESC LIMIT :limit
+    """)
+    suspend fun getGroupKeysBefore(groupId: String, beforeTimestamp: Long, beforeId: String, limit: Int): List<MessageKey>
+
+    @Query("""
+        SELECT * FROM messages
+        WHERE groupId = :groupId
+        AND timestamp >= :fromTimestamp AND (timestamp > :fromTimestamp OR id >= :fromId)
+        ORDER BY timestamp ASC, id ASC
+    """)
+    fun getGroupMessagesFrom(groupId: String, fromTimestamp: Long, fromId: String): Flow<List<MessageEntity>>
+
+    /**
+     * Messages in one conversation matching an FTS query, newest first.
+     */
+    @Query("""
+        SELECT messages.* FROM messages
+        JOIN messages_fts ON messages.rowid = messages_fts.rowid
+        WHERE messages_fts MATCH :match AND messages.conversationId = :conversationId AND messages.isDeleted = 0
+        ORDER BY messages.timestamp DESC, messages.id DESC LIMIT :limit
+    """)
+    suspend fun searchConversation(conversationId: String, match: String, limit: Int): List<MessageEntity>
+
+    /**
+     * Messages across a wallet's conversations matching an FTS query, newest first.
+     */
+    @Query("""
+        SELECT messages.* FROM messages
+        JOIN messages_fts ON messages.rowid = messages_fts.rowid
+        JOIN conversations ON conversations.id = messages.conversationId
+        WHERE messages_fts MATCH :match AND conversations.walletAddress = :walletAddress AND messages.isDeleted = 0
+        ORDER BY messages.timestamp DESC, messages.id DESC LIMIT :limit
+    """)
+    suspend fun search(walletAddress: String, match: String, limit: Int): List<MessageEntity>
+
     @Query("SELECT * FROM messages WHERE status = :status")
     suspend fun getMessagesByStatus(status: MessageStatus): List<MessageEntity>
 
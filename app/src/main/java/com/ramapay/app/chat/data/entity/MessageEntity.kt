@@ -2,6 +2,7 @@ package com.ramapay.app.chat.data.entity
 
 import androidx.room.Entity
 import androidx.room.ForeignKey
+import androidx.room.Fts4
 import androidx.room.Index
 import androidx.room.PrimaryKey
 
@@ -38,8 +39,8 @@ enum class MessageType {
 @Entity(
     tableName = "messages",
     indices = [
-        Index("conversationId"),
-        Index("groupId"),
+        Index("conversationId", "timestamp", "id"),
+        Index("groupId", "timestamp", "id"),
         Index("timestamp"),
         Index("status"),
         Index("senderAddress")
@@ -87,3 +88,32 @@ data class MessageEntity(
         return id.hashCode()
     }
 }
+
+
+/**
+ * Full text index over message content, kept in step with the messages table by triggers Room creates. Search by
+ * matching here and joining back on rowid.
+ */
+@Fts4(contentEntity = MessageEntity::class)
+@Entity(tableName = "messages_fts")
+data class MessageFtsEntity(
+    val content: String
+)
+
+/**
+ * Position of a message in timestamp order, with the id breaking ties between messages sent in the same millisecond.
+ * Pages are read by key from an index rather than by offset, so reaching back into a long conversation costs no more
+ * than reading its latest messages.
+ */
+data class MessageKey(
+    val timestamp: Long,
+    val id: String
+) {
+    companion object {
+        /** Before every message. */
+        val FIRST = MessageKey(Long.MIN_VALUE, "")
+
+        /** After every message. */
+        val LAST = MessageKey(Long.MAX_VALUE, "")
+    }
+}
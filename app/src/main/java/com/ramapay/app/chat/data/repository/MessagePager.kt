@@ -0,0 +1,77 @@
+package com.ramapay.app.chat.data.repository
+
+import com.ramapay.app.chat.data.entity.MessageEntity
+import com.ramapay.app.chat.data.entity.MessageKey
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.filterNotNull
+import kotlinx.coroutines.flow.flatMapLatest
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+
+/**
+ * The latest messages of a conversation or group, reaching back a page at a time.
+ *
+ * Only messages from the start key on are observed, so opening a long conversation reads one page and a new message
+ * re-reads only what is loaded, not the whole history. Loading older messages moves the start key back by a page,
+ * found by key in the index rather than by offset.
+ */
+class MessagePager(
+    private val keysBefore: suspend (before: MessageKey, limit: Int) -> List<MessageKey>,
+    private val messagesFrom: (start: MessageKey) -> Flow<List<MessageEntity>>,
+    private val pageSize: Int = PAGE_SIZE
+) {
+    companion object {
+        const val PAGE_SIZE = 50
+    }
+
+    private val start = MutableStateFlow<MessageKey?>(null)
+    private val mutex = Mutex()
+
+    /**
+     * True once the first message is loaded.
+     */
+    @Volatile
+    var reachedStart = false
+        private set
+
+    /**
+     * Loaded messages, oldest first. Emits nothing until the first page is loaded.
+     */
+    val messages: Flow<List<MessageEntity>> = start.filterNotNull().flatMapLatest { messagesFrom(it) }
+
+    /**
+     * Load the latest page. Does nothing if already loaded.
+     */
+    suspend fun loadLatest() = mutex.withLock {
+        if (start.value == null) movePageBack(MessageKey.LAST)
+    }
+
+    /**
+     * Load the page before those loaded.
+     * @return false if there were no older messages
+     */
+    suspend fun loadOlder(): Boolean = mutex.withLock {
+        val current = start.value
+        when {
+            current == null -> {
+                movePageBack(MessageKey.LAST)
+                true
+            }
+            reachedStart -> false
+            else -> movePageBack(current)
+        }
+    }
+
+    private suspend fun movePageBack(before: MessageKey): Boolean {
+        val keys = keysBefore(before, pageSize)
+        if (keys.size < pageSize) {
+            //from the beginning, so messages arriving out of order with an older timestamp still show
+            reachedStart = true
+            start.value = MessageKey.FIRST
+        } else {
+            start.value = keys.last()
+        }
+        return keys.isNotEmpty()
+    }
+}
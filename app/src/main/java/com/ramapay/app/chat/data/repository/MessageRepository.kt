@@ -34,6 +34,42 @@ class MessageRepository @Inject constructor(
         return messageDao.getMessagesForGroup(groupId)
     }
 
+    /**
+     * Page through a conversation from its latest message back.
+     */
+    fun pageConversation(conversationId: String): MessagePager {
+        return MessagePager(
+            { before, limit -> messageDao.getConversationKeysBefore(conversationId, before.timestamp, before.id, limit) },
+            { start -> messageDao.getConversationMessagesFrom(conversationId, start.timestamp, start.id) }
+        )
+    }
+
+    /**
+     * Page through a group from its latest message back.
+     */
+    fun pageGroup(groupId: String): MessagePager {
+        return MessagePager(
+            { before, limit -> messageDao.getGroupKeysBefore(groupId, before.timestamp, before.id, limit) },
+            { start -> messageDao.getGroupMessagesFrom(groupId, start.timestamp, start.id) }
+        )
+    }
+
+    /**
+     * Search one conversation for messages containing words starting with each word typed, newest first.
+     */
+    suspend fun searchConversation(conversationId: String, text: String, limit: Int = SEARCH_LIMIT): List<MessageEntity> {
+        val match = toMatchQuery(text) ?: return emptyList()
+        return messageDao.searchConversation(conversationId, match, limit)
+    }
+
+    /**
+     * Search all of a wallet's conversations, newest first.
+     */
+    suspend fun search(walletAddress: String, text: String, limit: Int = SEARCH_LIMIT): List<MessageEntity> {
+        val match = toMatchQuery(text) ?: return emptyList()
+        return messageDao.search(walletAddress, match, limit)
+    }
+
     suspend fun getMessageById(messageId: String): MessageEntity? {
         return messageDao.getMessageById(messageId)
     }
@@ -77,4 +113,22 @@ class MessageRepository @Inject constructor(
     suspend fun getLastMessageFrom(senderAddress: String): MessageEntity? {
         return messageDao.getLastMessageFromSender(senderAddress)
     }
+
+    companion object {
+        const val SEARCH_LIMIT = 100
+
+        private val NON_WORD = Regex("[^\\p{L}\\p{N}]+")
+
+        /**
+         * Turn typed text into an FTS MATCH expression: each word as a quoted prefix term, all required. Punctuation
+         * and FTS operators in the text are dropped rather than interpreted.
+         * @return null if there are no words to search for
+         */
+        @JvmStatic
+        fun toMatchQuery(text: String): String? {
+            val words = text.split(NON_WORD).filter { it.isNotEmpty() }
+            if (words.isEmpty()) return null
+            return words.joinToString(" ") { "\"$it*\"" }
+        }
+    }
 }
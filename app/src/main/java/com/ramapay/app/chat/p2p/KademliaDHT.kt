@@ -23,6 +23,7 @@ import javax.inject.Singleton
  * - XOR Distance: bitwise XOR between two NodeIDs
  * - k-buckets: 256 buckets, each holding up to k=20 nodes
  * - Bucket i contains nodes at distance 2^i to 2^(i+1) from us
+ * - NodeIDs are also kept as four longs, so distances are compared a word at a time without allocating
  * 
  * Sybil Resistance:
  * - Wallet signature verification on peer announcements
@@ -31,7 +32,7 @@ import javax.inject.Singleton
  * 
  * Operations:
  * - PING: Check if node is alive
- * - FIND_NODE: Get k closest nodes to a target
+ * - FIND_NODE: Get k closest nodes to a target, iteratively across the network with [lookup]
  * - STORE: Store a key-value pair
  * - FIND_VALUE: Retrieve a stored value
  */
@@ -46,6 +47,8 @@ class KademliaDHT @Inject constructor(
         private const val K = 20  // Max nodes per bucket
         private const val ALPHA = 3  // Parallel lookups
         private const val ID_BITS = 256  // SHA256 = 256 bits
+        private const val ID_BYTES = ID_BITS / 8
+        private const val ID_WORDS = ID_BITS / 64
         
         // Timeouts
         private const val NODE_TIMEOUT_MS = 15 * 60 * 1000L  // 15 minutes
@@ -53,12 +56,40 @@ class KademliaDHT @Inject constructor(
         
         // Sybil resistance
         private const val SIGNATURE_MAX_AGE_MS = 5 * 60 * 1000L  // 5 minutes
+        
+        /**
+         * NodeID as big-endian longs, most significant first.
+         */
+        private fun toWords(nodeId: ByteArray): LongArray {
+            val words = LongArray(ID_WORDS)
+            for (i in 0 until ID_BYTES) {
+                words[i / 8] = (words[i / 8] shl 8) or (nodeId[i].toLong() and 0xFF)
+            }
+            return words
+        }
+        
+        /**
+         * Compare the XOR distances of a and b from target.
+         */
+        private fun compareDistance(a: LongArray, b: LongArray, target: LongArray): Int {
+            for (i in 0 until ID_WORDS) {
+                val da = a[i] xor target[i]
+                val db = b[i] xor target[i]
+                if (da != db) {
+                    // Unsigned comparison
+                    return (da xor Long.MIN_VALUE).compareTo(db xor Long.MIN_VALUE)
+                }
+            }
+            return 0
+        }
     }
     
     /**
      * Our node ID (set on initialization).
      */
     private lateinit var myNodeId: ByteArray
+    @Volatile
+    private var myWords = LongArray(ID_WORDS) // Read by lookups running on packet workers
     private lateinit var myWalletAddress: String
     
     /**
@@ -84,6 +115,7 @@ class KademliaDHT @Inject constructor(
     fun initialize(walletAddress: String) {
         myWalletAddress = walletAddress
         myNodeId = walletToNodeId(walletAddress)
+        myWords = toWords(myNodeId)
         Timber.i("$TAG: Initialized with NodeID: ${myNodeId.toHexString().take(16)}...")
     }
     
@@ -131,7 +163,8 @@ class KademliaDHT @Inject constructor(
         }
         
         val nodeId = walletToNodeId(node.walletAddress)
-        val bucketIndex = getBucketIndex(nodeId)
+        val words = toWords(nodeId)
+        val bucketIndex = getBucketIndex(words)
         
         if (bucketIndex < 0 || bucketIndex >= ID_BITS) {
             Timber.w("$TAG: Invalid bucket index for node: ${node.walletAddress}")
@@ -139,7 +172,7 @@ class KademliaDHT @Inject constructor(
         }
         
         val bucket = kBuckets[bucketIndex]
-        bucket.addNode(node.copy(nodeId = nodeId))
+        bucket.addNode(node.copy(nodeId = nodeId), words)
         
         updateStats()
         Timber.d("$TAG: Added node ${node.walletAddress.take(10)}... to bucket $bucketIndex")
@@ -155,7 +188,8 @@ class KademliaDHT @Inject constructor(
         }
         
         val nodeId = walletToNodeId(node.walletAddress)
-        val bucketIndex = getBucketIndex(nodeId)
+        val words = toWords(nodeId)
+        val bucketIndex = getBucketIndex(words)
         
         if (bucketIndex < 0 || bucketIndex >= ID_BITS) {
             Timber.w("$TAG: Invalid bucket index for node: ${node.walletAddress}")
@@ -163,7 +197,7 @@ class KademliaDHT @Inject constructor(
         }
         
         val bucket = kBuckets[bucketIndex]
-        bucket.addNode(node.copy(nodeId = nodeId))
+        bucket.addNode(node.copy(nodeId = nodeId), words)
         
         updateStats()
         Timber.d("$TAG: Added trusted node ${node.walletAddress.take(10)}... to bucket $bucketIndex")
@@ -217,8 +251,7 @@ class KademliaDHT @Inject constructor(
      * Remove a node from the routing table.
      */
     fun removeNode(walletAddress: String) {
-        val nodeId = walletToNodeId(walletAddress)
-        val bucketIndex = getBucketIndex(nodeId)
+        val bucketIndex = getBucketIndex(toWords(walletToNodeId(walletAddress)))
         
         if (bucketIndex >= 0 && bucketIndex < ID_BITS) {
             kBuckets[bucketIndex].removeNode(walletAddress)
@@ -236,67 +269,126 @@ class KademliaDHT @Inject constructor(
     
     /**
      * Find the K closest nodes to a target NodeID.
+     * 
+     * Nodes in the target's own bucket are closest to it, then those in every bucket below (all at the same order of
+     * distance), then each bucket further out in turn. So buckets are walked outward from the target's and only as
+     * many are sorted as it takes to fill count.
      */
     fun findClosestNodesById(targetId: ByteArray, count: Int = K): List<DHTNode> {
-        val allNodes = mutableListOf<Pair<DHTNode, ByteArray>>()
+        if (targetId.size != ID_BYTES) return emptyList()
+        
+        val target = toWords(targetId)
+        val closest = ArrayList<DHTNode>(count)
+        val group = ArrayList<BucketEntry>()
+        val byDistance = Comparator<BucketEntry> { a, b -> compareDistance(a.words, b.words, target) }
         
-        // Collect all nodes with their XOR distance
-        for (bucket in kBuckets) {
-            for (node in bucket.getNodes()) {
-                val distance = xorDistance(node.nodeId, targetId)
-                allNodes.add(Pair(node, distance))
+        val targetBucket = highestDifferingBit(target)
+        if (targetBucket >= 0) {
+            kBuckets[targetBucket].collect(group)
+            takeClosest(group, byDistance, closest, count)
+            for (i in 0 until targetBucket) {
+                kBuckets[i].collect(group)
             }
+            takeClosest(group, byDistance, closest, count)
         }
-        
-        // Sort by XOR distance and return closest
-        return allNodes
-            .sortedWith { a, b -> compareByteArrays(a.second, b.second) }
-            .take(count)
-            .map { it.first }
+        var i = targetBucket + 1
+        while (i < ID_BITS && closest.size < count) {
+            kBuckets[i++].collect(group)
+            takeClosest(group, byDistance, closest, count)
+        }
+        return closest
+    }
+    
+    private fun takeClosest(
+        group: MutableList<BucketEntry>,
+        byDistance: Comparator<BucketEntry>,
+        closest: MutableList<DHTNode>,
+        count: Int
+    ) {
+        if (closest.size < count) {
+            group.sortWith(byDistance)
+            for (entry in group) {
+                if (closest.size == count) break
+                closest.add(entry.node)
+            }
+        }
+        group.clear()
     }
     
     /**
-     * Get the bucket index for a node ID.
-     * Returns the position of the highest differing bit (0-255).
+     * Iterative FIND_NODE lookup.
+     * 
+     * Starts from the closest nodes in the routing table, asks the ALPHA closest not yet asked in parallel, merges the
+     * nodes they return into a shortlist of the K closest, and repeats until every node in the shortlist has been asked.
+     * Nodes that don't answer are dropped from the shortlist.
+     * 
+     * @param query sends FIND_NODE for the target to a node and returns the nodes it knows, or null if it didn't answer
+     * @return up to K of the closest nodes that answered, closest first
      */
-    private fun getBucketIndex(nodeId: ByteArray): Int {
-        val distance = xorDistance(myNodeId, nodeId)
+    suspend fun lookup(targetId: ByteArray, query: suspend (Contact) -> List<Contact>?): List<Contact> = coroutineScope {
+        require(targetId.size == ID_BYTES) { "Invalid target NodeID size" }
+        
+        val target = toWords(targetId)
+        val byDistance = Comparator<Contact> { a, b -> compareDistance(a.words, b.words, target) }
+        val shortlist = ArrayList<Contact>()
+        val seen = HashSet<Contact>()
+        val asked = HashSet<Contact>()
+        val answered = HashSet<Contact>()
+        
+        fun offer(contact: Contact) {
+            if (!contact.words.contentEquals(myWords) && seen.add(contact)) {
+                shortlist.add(contact)
+            }
+        }
         
-        // Find the highest set bit
-        for (i in 0 until ID_BITS) {
-            val byteIndex = i / 8
-            val bitIndex = 7 - (i % 8)
+        findClosestNodesById(targetId).forEach { offer(Contact(it.nodeId, it.publicIp, it.publicPort)) }
+        
+        while (true) {
+            shortlist.sortWith(byDistance)
+            while (shortlist.size > K) {
+                shortlist.removeAt(shortlist.size - 1)
+            }
             
-            if (byteIndex >= distance.size) break
+            val round = shortlist.filter { it !in asked }.take(ALPHA)
+            if (round.isEmpty()) break
+            asked.addAll(round)
             
-            if ((distance[byteIndex].toInt() shr bitIndex) and 1 == 1) {
-                return ID_BITS - 1 - i
+            val responses = round.map { contact ->
+                async { contact to runCatching { query(contact) }.getOrNull() }
+            }.awaitAll()
+            
+            for ((contact, found) in responses) {
+                if (found == null) {
+                    shortlist.remove(contact)
+                } else {
+                    answered.add(contact)
+                    found.filter { it.nodeId.size == ID_BYTES }.forEach { offer(it) }
+                }
             }
         }
         
-        return 0 // Same node ID (shouldn't happen)
+        shortlist.filter { it in answered }
     }
     
     /**
-     * Calculate XOR distance between two node IDs.
+     * Get the bucket index for a node ID.
+     * Returns the position of the highest differing bit (0-255).
      */
-    private fun xorDistance(a: ByteArray, b: ByteArray): ByteArray {
-        val result = ByteArray(a.size)
-        for (i in a.indices) {
-            result[i] = (a[i].toInt() xor b[i].toInt()).toByte()
-        }
-        return result
+    private fun getBucketIndex(nodeWords: LongArray): Int {
+        return maxOf(0, highestDifferingBit(nodeWords)) // Same node ID shouldn't happen
     }
     
     /**
-     * Compare two byte arrays as big-endian numbers.
+     * Position of the highest bit in which the ID differs from ours, or -1 if it is ours.
      */
-    private fun compareByteArrays(a: ByteArray, b: ByteArray): Int {
-        for (i in a.indices) {
-            val diff = (a[i].toInt() and 0xFF) - (b[i].toInt() and 0xFF)
-            if (diff != 0) return diff
+    private fun highestDifferingBit(nodeWords: LongArray): Int {
+        for (i in 0 until ID_WORDS) {
+            val distance = myWords[i] xor nodeWords[i]
+            if (distance != 0L) {
+                return ID_BITS - 1 - (i * 64 + java.lang.Long.numberOfLeadingZeros(distance))
+            }
         }
-        return 0
+        return -1
     }
     
     /**
@@ -351,8 +443,7 @@ class KademliaDHT @Inject constructor(
      * Mark a node as seen (update last seen time).
      */
     fun markNodeSeen(walletAddress: String) {
-        val nodeId = walletToNodeId(walletAddress)
-        val bucketIndex = getBucketIndex(nodeId)
+        val bucketIndex = getBucketIndex(toWords(walletToNodeId(walletAddress)))
         
         if (bucketIndex >= 0 && bucketIndex < ID_BITS) {
             kBuckets[bucketIndex].touchNode(walletAddress)
@@ -440,33 +531,60 @@ class KademliaDHT @Inject constructor(
         val nodes: List<String>
     )
     
+    /**
+     * A node met during a [lookup]. FIND_NODE responses carry no wallet address, so these are not added to the
+     * routing table.
+     */
+    class Contact(
+        val nodeId: ByteArray,
+        val publicIp: String,
+        val publicPort: Int
+    ) {
+        internal val words = toWords(nodeId)
+        
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            if (other !is Contact) return false
+            return words.contentEquals(other.words)
+        }
+        
+        override fun hashCode(): Int = words.contentHashCode()
+        
+        override fun toString(): String = "Contact($publicIp:$publicPort)"
+    }
+    
+    private class BucketEntry(
+        val node: DHTNode,
+        val words: LongArray
+    )
+    
     /**
      * K-Bucket implementation.
      * Stores up to K nodes, ordered by most recently seen.
      */
     private class KBucket(private val maxSize: Int) {
-        private val nodes = mutableListOf<DHTNode>()
+        private val nodes = mutableListOf<BucketEntry>()
         
         @Synchronized
-        fun addNode(node: DHTNode) {
+        fun addNode(node: DHTNode, words: LongArray) {
             // Check if node already exists
             val existingIndex = nodes.indexOfFirst { 
-                it.walletAddress.equals(node.walletAddress, ignoreCase = true) 
+                it.node.walletAddress.equals(node.walletAddress, ignoreCase = true) 
             }
             
             if (existingIndex >= 0) {
                 // Move to end (most recently seen)
                 nodes.removeAt(existingIndex)
-                nodes.add(node)
+                nodes.add(BucketEntry(node, words))
             } else if (nodes.size < maxSize) {
                 // Add to end
-                nodes.add(node)
+                nodes.add(BucketEntry(node, words))
             } else {
                 // Bucket full - check if oldest node is stale
                 val oldest = nodes.firstOrNull()
-                if (oldest != null && oldest.lastSeen < System.currentTimeMillis() - NODE_TIMEOUT_MS) {
+                if (oldest != null && oldest.node.lastSeen < System.currentTimeMillis() - NODE_TIMEOUT_MS) {
                     nodes.removeAt(0)
-                    nodes.add(node)
+                    nodes.add(BucketEntry(node, words))
                 }
                 // Otherwise, don't add (Kademlia prefers older, stable nodes)
             }
@@ -474,20 +592,28 @@ class KademliaDHT @Inject constructor(
         
         @Synchronized
         fun removeNode(walletAddress: String) {
-            nodes.removeIf { it.walletAddress.equals(walletAddress, ignoreCase = true) }
+            nodes.removeIf { it.node.walletAddress.equals(walletAddress, ignoreCase = true) }
         }
         
         @Synchronized
         fun touchNode(walletAddress: String) {
-            val index = nodes.indexOfFirst { it.walletAddress.equals(walletAddress, ignoreCase = true) }
+            val index = nodes.indexOfFirst { it.node.walletAddress.equals(walletAddress, ignoreCase = true) }
             if (index >= 0) {
-                val node = nodes.removeAt(index)
-                nodes.add(node.copy(lastSeen = System.currentTimeMillis()))
+                val entry = nodes.removeAt(index)
+                nodes.add(BucketEntry(entry.node.copy(lastSeen = System.currentTimeMillis()), entry.words))
             }
         }
         
+        /**
+         * Add this bucket's entries to out, without copying the bucket.
+         */
+        @Synchronized
+        fun collect(out: MutableList<BucketEntry>) {
+            out.addAll(nodes)
+        }
+        
         @Synchronized
-        fun getNodes(): List<DHTNode> = nodes.toList()
+        fun getNodes(): List<DHTNode> = nodes.map { it.node }
         
         @Synchronized
         fun size(): Int = nodes.size
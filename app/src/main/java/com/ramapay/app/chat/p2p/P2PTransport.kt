@@ -6,9 +6,9 @@ import com.ramapay.app.chat.protocol.MessageCodec
 import kotlinx.coroutines.*
 import kotlinx.coroutines.flow.*
 import timber.log.Timber
-import java.net.DatagramPacket
-import java.net.DatagramSocket
 import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.DatagramChannel
 import java.util.concurrent.ConcurrentHashMap
 import javax.inject.Inject
 import javax.inject.Singleton
@@ -24,6 +24,8 @@ import javax.inject.Singleton
  * - Reliable delivery with retries
  * - Peer connection management
  * 
+ * Packets are received on a DatagramChannel into pooled direct buffers and read in place; see PacketReceiver.
+ * 
  * ZERO-COST: Uses only free STUN servers (Google, Cloudflare)
  */
 @Singleton
@@ -39,28 +41,32 @@ class P2PTransport @Inject constructor(
         
         // Ports
         private const val P2P_PORT = 19372
-        private const val RECEIVE_BUFFER_SIZE = 65536
         
-        // Timeouts and retries
-        private const val ACK_TIMEOUT_MS = 5000L
-        private const val MAX_RETRIES = 3
-        private const val RETRY_DELAY_MS = 1000L
+        // Direct buffers for outgoing packets; more concurrent sends than this fall back to the heap
+        private const val SEND_BUFFERS = 8
         
         // Connection limits
         private const val MAX_ACTIVE_CONNECTIONS = 20
+        
+        // How long a node gets to answer FIND_NODE during a lookup
+        private const val FIND_NODE_TIMEOUT_MS = 2000L
     }
     
     // State
     private var myNodeId: ByteArray = ByteArray(32)
     private var myWalletAddress: String = ""
-    private var socket: DatagramSocket? = null
+    private var channel: DatagramChannel? = null
     private var isRunning = false
+    private val sendBuffers = PacketBufferPool(SEND_BUFFERS, MessageCodec.MAX_MESSAGE_SIZE)
     
     // Connections
     private val activeConnections = ConcurrentHashMap<String, PeerConnection>()
     
-    // Pending acknowledgments
-    private val pendingAcks = ConcurrentHashMap<Int, PendingMessage>()
+    // Acknowledged delivery: retransmission, selective ACKs and congestion control per peer
+    private val reliability = ReliableDelivery(messageCodec, ReliableDelivery.Link { data, address -> sendRaw(data, address) })
+    
+    // FIND_NODE requests awaiting a response, by the node asked; responses don't name their target, so one per node
+    private val pendingFindNodes = ConcurrentHashMap<ByteBuffer, PendingFindNode>()
     
     // Message flow
     private val _incomingMessages = MutableSharedFlow<IncomingMessage>(extraBufferCapacity = 100)
@@ -133,14 +139,6 @@ class P2PTransport @Inject constructor(
         val relayed: Boolean
     )
     
-    data class PendingMessage(
-        val sequenceNumber: Int,
-        val encoded: ByteArray,
-        val destination: InetSocketAddress,
-        val sentAt: Long,
-        val retries: Int = 0
-    )
-    
     /**
      * Start the transport layer.
      */
@@ -158,15 +156,16 @@ class P2PTransport @Inject constructor(
         dht.initialize(walletAddress)
         
         try {
-            // Create UDP socket
-            socket = DatagramSocket(P2P_PORT)
-            socket?.soTimeout = 1000
+            // Create UDP channel; blocking, so STUN can use its socket before the receive loop takes over
+            val udpChannel = DatagramChannel.open()
+            udpChannel.bind(InetSocketAddress(P2P_PORT))
+            channel = udpChannel
             
             isRunning = true
             
             // Discover public endpoint via STUN
             _connectionState.value = TransportState.DISCOVERING
-            myPublicEndpoint = stunClient.discoverPublicAddress(socket!!)
+            myPublicEndpoint = stunClient.discoverPublicAddress(udpChannel.socket())
             
             if (myPublicEndpoint != null) {
                 Timber.i("$TAG: Public endpoint: ${myPublicEndpoint?.publicIp}:${myPublicEndpoint?.publicPort}")
@@ -221,8 +220,9 @@ class P2PTransport @Inject constructor(
         }
         activeConnections.clear()
         
-        socket?.close()
-        socket = null
+        reliability.clear()
+        channel?.close()
+        channel = null
         
         _connectionState.value = TransportState.STOPPED
     }
@@ -243,23 +243,25 @@ class P2PTransport @Inject constructor(
         
         Timber.d("$TAG: Connecting to peer: $peerWallet")
         
-        // Find peer info
+        // Find peer info; if bootstrap doesn't know the peer, ask the network
         val peerInfo = bootstrapManager.activePeers.value[peerWallet.lowercase()]
-        if (peerInfo == null) {
-            Timber.w("$TAG: Peer not found in bootstrap: $peerWallet")
+        val endpoint = if (peerInfo != null) {
+            HolePuncher.PeerEndpoint(
+                publicIp = peerInfo.publicIp,
+                publicPort = peerInfo.publicPort,
+                walletAddress = peerWallet
+            )
+        } else {
+            lookupPeer(peerWallet)
+        }
+        if (endpoint == null) {
+            Timber.w("$TAG: Peer not found: $peerWallet")
             return@withContext false
         }
         
         try {
             // Try hole punching
-            val result = holePuncher.punchHole(
-                HolePuncher.PeerEndpoint(
-                    publicIp = peerInfo.publicIp,
-                    publicPort = peerInfo.publicPort,
-                    walletAddress = peerWallet
-                ),
-                myWalletAddress
-            )
+            val result = holePuncher.punchHole(endpoint, myWalletAddress)
             
             if (result.success && result.peerAddress != null) {
                 val connection = PeerConnection(
@@ -288,6 +290,21 @@ class P2PTransport @Inject constructor(
         }
     }
     
+    /**
+     * Find the endpoint of a peer bootstrap doesn't know, with a lookup for its NodeID.
+     * @return the endpoint, or null if no node with that ID answered
+     */
+    private suspend fun lookupPeer(peerWallet: String): HolePuncher.PeerEndpoint? {
+        val peerNodeId = dht.walletToNodeId(peerWallet)
+        val contact = findNode(peerNodeId).firstOrNull { it.nodeId.contentEquals(peerNodeId) } ?: return null
+        Timber.d("$TAG: Found $peerWallet by lookup at $contact")
+        return HolePuncher.PeerEndpoint(
+            publicIp = contact.publicIp,
+            publicPort = contact.publicPort,
+            walletAddress = peerWallet
+        )
+    }
+    
     /**
      * Disconnect from a peer.
      */
@@ -297,14 +314,9 @@ class P2PTransport @Inject constructor(
         
         // Send disconnect message
         runCatching {
-            val encoded = messageCodec.encode(
-                type = MessageCodec.MessageType.DISCONNECT,
-                payload = ByteArray(0),
-                sourceNodeId = myNodeId,
-                destNodeId = connection.nodeId
-            )
-            sendRaw(encoded.bytes, connection.address)
+            sendEncoded(MessageCodec.MessageType.DISCONNECT, ByteArray(0), connection.nodeId, connection.address)
         }
+        reliability.forgetPeer(connection.nodeId)
         
         bootstrapManager.markPeerDisconnected(peerWallet)
         Timber.d("$TAG: Disconnected from $peerWallet")
@@ -333,23 +345,13 @@ class P2PTransport @Inject constructor(
                 flags = (flags.toInt() or MessageCodec.Flags.REQUIRE_ACK.toInt()).toShort()
             }
             
-            val encoded = messageCodec.encode(
-                type = type,
-                payload = payload,
-                sourceNodeId = myNodeId,
-                destNodeId = connection.nodeId,
-                flags = flags
-            )
-            
-            sendRaw(encoded.bytes, connection.address)
-            
             if (requireAck) {
-                pendingAcks[encoded.sequenceNumber] = PendingMessage(
-                    sequenceNumber = encoded.sequenceNumber,
-                    encoded = encoded.bytes,
-                    destination = connection.address,
-                    sentAt = System.currentTimeMillis()
-                )
+                // Sent now or once the peer's congestion window opens
+                if (!reliability.send(type, payload, myNodeId, connection.nodeId, connection.address, flags)) {
+                    return@withContext false
+                }
+            } else {
+                sendEncoded(type, payload, connection.nodeId, connection.address, flags)
             }
             
             // Update stats
@@ -445,8 +447,30 @@ class P2PTransport @Inject constructor(
      * Send raw data.
      */
     private fun sendRaw(data: ByteArray, address: InetSocketAddress) {
-        val packet = DatagramPacket(data, data.size, address.address, address.port)
-        socket?.send(packet)
+        channel?.send(ByteBuffer.wrap(data), address)
+    }
+    
+    /**
+     * Encode a message straight into a pooled direct buffer and send it.
+     * @return sequence number of the message
+     */
+    private fun sendEncoded(
+        type: MessageCodec.MessageType,
+        payload: ByteArray,
+        destNodeId: ByteArray,
+        address: InetSocketAddress,
+        flags: Short = 0
+    ): Int {
+        val pooled = sendBuffers.acquire()
+        val buffer = pooled ?: ByteBuffer.allocate(MessageCodec.MAX_MESSAGE_SIZE)
+        try {
+            val sequenceNumber = messageCodec.encode(buffer, type, payload, myNodeId, destNodeId, flags)
+            buffer.flip()
+            channel?.send(buffer, address)
+            return sequenceNumber
+        } finally {
+            if (pooled != null) sendBuffers.release(pooled)
+        }
     }
     
     /**
@@ -457,66 +481,36 @@ class P2PTransport @Inject constructor(
             "${it.publicIp}:${it.publicPort}".toByteArray(Charsets.UTF_8)
         } ?: ByteArray(0)
         
-        val encoded = messageCodec.encode(
-            type = MessageCodec.MessageType.HANDSHAKE,
-            payload = payload,
-            sourceNodeId = myNodeId,
-            destNodeId = connection.nodeId
-        )
-        
-        sendRaw(encoded.bytes, connection.address)
+        sendEncoded(MessageCodec.MessageType.HANDSHAKE, payload, connection.nodeId, connection.address)
     }
     
     /**
-     * Receive loop - processes incoming messages.
+     * Receive loop - processes incoming messages until the channel is closed.
+     * Packets from one peer are handled in order, different peers in parallel.
      */
     private suspend fun receiveLoop() = withContext(Dispatchers.IO) {
-        val buffer = ByteArray(RECEIVE_BUFFER_SIZE)
-        val packet = DatagramPacket(buffer, buffer.size)
+        val udpChannel = channel ?: return@withContext
         
-        while (isRunning) {
-            try {
-                socket?.receive(packet)
-                
-                val data = buffer.copyOf(packet.length)
-                val senderAddress = InetSocketAddress(packet.address, packet.port)
-                
-                processIncomingPacket(data, senderAddress)
-                
-            } catch (e: java.net.SocketTimeoutException) {
-                // Normal timeout, continue
-            } catch (e: Exception) {
-                if (isRunning) {
-                    Timber.w(e, "$TAG: Receive error")
-                }
+        PacketReceiver(udpChannel, messageCodec, object : PacketReceiver.PacketHandler {
+            override suspend fun onPacket(packet: MessageCodec.PacketView, sender: InetSocketAddress) {
+                processIncomingPacket(packet, sender)
             }
-        }
+        }).run()
     }
     
     /**
-     * Process an incoming packet.
+     * Process an incoming packet, read in place from its receive buffer.
      */
-    private suspend fun processIncomingPacket(data: ByteArray, sender: InetSocketAddress) {
-        val message = messageCodec.decode(data)
-        if (message == null) {
-            Timber.w("$TAG: Failed to decode message from $sender")
-            return
-        }
-        
-        // Find sender wallet
-        val senderWallet = activeConnections.entries
-            .find { it.value.nodeId.contentEquals(message.sourceNodeId) }
-            ?.key
-        
+    private suspend fun processIncomingPacket(message: MessageCodec.PacketView, sender: InetSocketAddress) {
         // Handle ACKs
         if (message.isAck) {
-            pendingAcks.remove(message.sequenceNumber)
+            reliability.onAck(message)
             return
         }
         
-        // Send ACK if required
-        if (message.requiresAck) {
-            sendAck(message.sequenceNumber, message.sourceNodeId, sender)
+        // Send ACK if required; a resent copy of a message already handled is only acknowledged
+        if (message.requiresAck && !reliability.onReceived(message, sender, myNodeId)) {
+            return
         }
         
         // Process by message type
@@ -534,11 +528,16 @@ class P2PTransport @Inject constructor(
             MessageCodec.MessageType.CHAT_ACK,
             MessageCodec.MessageType.CHAT_READ,
             MessageCodec.MessageType.TYPING_INDICATOR -> {
+                // Find sender wallet
+                val senderWallet = activeConnections.entries
+                    .find { message.isFrom(it.value.nodeId) }
+                    ?.key
+                
                 if (senderWallet != null) {
                     _incomingMessages.emit(IncomingMessage(
                         from = senderWallet,
                         type = message.type,
-                        payload = message.payload
+                        payload = message.payload()
                     ))
                 }
             }
@@ -549,51 +548,23 @@ class P2PTransport @Inject constructor(
         }
     }
     
-    /**
-     * Send an ACK for a message.
-     */
-    private fun sendAck(sequenceNumber: Int, destNodeId: ByteArray, address: InetSocketAddress) {
-        val encoded = messageCodec.encode(
-            type = MessageCodec.MessageType.PONG, // Using PONG as ACK
-            payload = ByteArray(0),
-            sourceNodeId = myNodeId,
-            destNodeId = destNodeId,
-            flags = MessageCodec.Flags.IS_ACK
-        )
-        sendRaw(encoded.bytes, address)
-    }
-    
     // Message handlers
     
-    private fun handlePing(message: MessageCodec.DecodedMessage, sender: InetSocketAddress) {
-        val pongPayload = messageCodec.createPongPayload(
-            pingTimestamp = if (message.payload.size >= 8) {
-                java.nio.ByteBuffer.wrap(message.payload).long
-            } else {
-                0L
-            }
-        )
-        
-        val encoded = messageCodec.encode(
-            type = MessageCodec.MessageType.PONG,
-            payload = pongPayload,
-            sourceNodeId = myNodeId,
-            destNodeId = message.sourceNodeId
-        )
-        sendRaw(encoded.bytes, sender)
+    private fun handlePing(message: MessageCodec.PacketView, sender: InetSocketAddress) {
+        val pongPayload = messageCodec.createPongPayload(pingTimestamp = message.payloadLong(0))
+        sendEncoded(MessageCodec.MessageType.PONG, pongPayload, message.sourceNodeId(), sender)
     }
     
-    private fun handlePong(message: MessageCodec.DecodedMessage) {
+    private fun handlePong(message: MessageCodec.PacketView) {
         // Calculate RTT if needed
-        if (message.payload.size >= 16) {
-            val buffer = java.nio.ByteBuffer.wrap(message.payload)
-            val pingTime = buffer.long
+        if (message.payloadLength >= 16) {
+            val pingTime = message.payloadLong(0)
             val rtt = System.currentTimeMillis() - pingTime
             Timber.d("$TAG: Pong received, RTT: ${rtt}ms")
         }
     }
     
-    private suspend fun handleHandshake(message: MessageCodec.DecodedMessage, sender: InetSocketAddress) {
+    private suspend fun handleHandshake(message: MessageCodec.PacketView, sender: InetSocketAddress) {
         Timber.d("$TAG: Received handshake from $sender")
         
         // Send handshake ACK
@@ -601,22 +572,16 @@ class P2PTransport @Inject constructor(
             "${it.publicIp}:${it.publicPort}".toByteArray(Charsets.UTF_8)
         } ?: ByteArray(0)
         
-        val encoded = messageCodec.encode(
-            type = MessageCodec.MessageType.HANDSHAKE_ACK,
-            payload = payload,
-            sourceNodeId = myNodeId,
-            destNodeId = message.sourceNodeId
-        )
-        sendRaw(encoded.bytes, sender)
+        sendEncoded(MessageCodec.MessageType.HANDSHAKE_ACK, payload, message.sourceNodeId(), sender)
     }
     
-    private fun handleHandshakeAck(message: MessageCodec.DecodedMessage) {
+    private fun handleHandshakeAck(message: MessageCodec.PacketView) {
         Timber.d("$TAG: Handshake ACK received")
     }
     
-    private fun handleDisconnect(message: MessageCodec.DecodedMessage) {
+    private fun handleDisconnect(message: MessageCodec.PacketView) {
         val wallet = activeConnections.entries
-            .find { it.value.nodeId.contentEquals(message.sourceNodeId) }
+            .find { message.isFrom(it.value.nodeId) }
             ?.key
         
         if (wallet != null) {
@@ -626,8 +591,8 @@ class P2PTransport @Inject constructor(
         }
     }
     
-    private fun handleFindNode(message: MessageCodec.DecodedMessage, sender: InetSocketAddress) {
-        val targetNodeId = message.payload
+    private fun handleFindNode(message: MessageCodec.PacketView, sender: InetSocketAddress) {
+        val targetNodeId = message.payload()
         val closestNodes = dht.findClosestNodesById(targetNodeId)
         
         val nodeInfoList = closestNodes.map { node ->
@@ -640,24 +605,15 @@ class P2PTransport @Inject constructor(
         
         val responsePayload = messageCodec.createFindNodeResponsePayload(nodeInfoList)
         
-        val encoded = messageCodec.encode(
-            type = MessageCodec.MessageType.FIND_NODE_RESPONSE,
-            payload = responsePayload,
-            sourceNodeId = myNodeId,
-            destNodeId = message.sourceNodeId
-        )
-        sendRaw(encoded.bytes, sender)
+        sendEncoded(MessageCodec.MessageType.FIND_NODE_RESPONSE, responsePayload, message.sourceNodeId(), sender)
     }
     
-    private fun handleFindNodeResponse(message: MessageCodec.DecodedMessage) {
-        val nodes = messageCodec.parseFindNodeResponsePayload(message.payload)
+    private fun handleFindNodeResponse(message: MessageCodec.PacketView) {
+        val nodes = messageCodec.parseFindNodeResponsePayload(message.payload())
         Timber.d("$TAG: Received ${nodes.size} nodes in FIND_NODE response")
         
-        nodes.forEach { nodeInfo ->
-            // Add to DHT (would need wallet address mapping)
-            // For now, log it
-            Timber.d("$TAG: Node: ${nodeInfo.ipString}:${nodeInfo.port}")
-        }
+        // Hand them to the lookup that asked; responses carry no wallet addresses, so they don't go in the DHT
+        pendingFindNodes[ByteBuffer.wrap(message.sourceNodeId())]?.response?.complete(nodes)
     }
     
     /**
@@ -670,21 +626,18 @@ class P2PTransport @Inject constructor(
             // Ping all active connections
             activeConnections.values.forEach { connection ->
                 val pingPayload = messageCodec.createPingPayload()
-                val encoded = messageCodec.encode(
-                    type = MessageCodec.MessageType.PING,
-                    payload = pingPayload,
-                    sourceNodeId = myNodeId,
-                    destNodeId = connection.nodeId
-                )
-                runCatching { sendRaw(encoded.bytes, connection.address) }
+                runCatching {
+                    sendEncoded(MessageCodec.MessageType.PING, pingPayload, connection.nodeId, connection.address)
+                }
             }
             
             // Clean up stale connections
             val staleThreshold = System.currentTimeMillis() - 5 * 60 * 1000 // 5 minutes
             val staleConnections = activeConnections.filter { it.value.lastActivity < staleThreshold }
-            staleConnections.keys.forEach { wallet ->
+            staleConnections.forEach { (wallet, connection) ->
                 Timber.d("$TAG: Removing stale connection: $wallet")
                 activeConnections.remove(wallet)
+                reliability.forgetPeer(connection.nodeId)
                 bootstrapManager.markPeerDisconnected(wallet)
             }
             
@@ -696,35 +649,63 @@ class P2PTransport @Inject constructor(
     }
     
     /**
-     * Retry loop - resends unacknowledged messages.
+     * Retry loop - resends unacknowledged messages as their timeouts expire.
      */
     private suspend fun retryLoop() = withContext(Dispatchers.IO) {
         while (isRunning) {
-            delay(1000) // Check every second
-            
-            val now = System.currentTimeMillis()
-            val toRetry = pendingAcks.values.filter { 
-                now - it.sentAt > ACK_TIMEOUT_MS && it.retries < MAX_RETRIES 
-            }
-            
-            toRetry.forEach { pending ->
-                Timber.d("$TAG: Retrying message ${pending.sequenceNumber} (attempt ${pending.retries + 1})")
-                
-                runCatching { sendRaw(pending.encoded, pending.destination) }
-                
-                pendingAcks[pending.sequenceNumber] = pending.copy(
-                    sentAt = now,
-                    retries = pending.retries + 1
-                )
+            reliability.awaitTick()
+            reliability.processTimeouts()
+        }
+    }
+    
+    /**
+     * Find the nodes closest to a target across the network, with an iterative Kademlia lookup.
+     */
+    suspend fun findNode(targetNodeId: ByteArray): List<KademliaDHT.Contact> = withContext(Dispatchers.IO) {
+        dht.lookup(targetNodeId) { contact -> queryFindNode(contact, targetNodeId) }
+    }
+    
+    /**
+     * Ask one node for the nodes it knows closest to the target.
+     * @return the nodes, or null if it didn't answer in time
+     */
+    private suspend fun queryFindNode(contact: KademliaDHT.Contact, targetNodeId: ByteArray): List<KademliaDHT.Contact>? {
+        val key = ByteBuffer.wrap(contact.nodeId)
+        val pending = PendingFindNode(targetNodeId)
+        while (true) {
+            val asked = pendingFindNodes.putIfAbsent(key, pending) ?: break
+            if (asked.target.contentEquals(targetNodeId)) {
+                // Another lookup is asking the same question; share its answer
+                val nodes = withTimeoutOrNull(FIND_NODE_TIMEOUT_MS) { asked.response.await() } ?: return null
+                return toContacts(nodes)
             }
             
-            // Remove messages that exceeded max retries
-            pendingAcks.entries.removeIf { 
-                it.value.retries >= MAX_RETRIES 
-            }
+            // Asked about another target; wait for that to finish, so this node isn't taken for dead
+            withTimeoutOrNull(FIND_NODE_TIMEOUT_MS) { asked.response.join() }
+            pendingFindNodes.remove(key, asked)
+        }
+        
+        try {
+            sendEncoded(
+                MessageCodec.MessageType.FIND_NODE,
+                messageCodec.createFindNodePayload(targetNodeId),
+                contact.nodeId,
+                InetSocketAddress(contact.publicIp, contact.publicPort)
+            )
+            val nodes = withTimeoutOrNull(FIND_NODE_TIMEOUT_MS) { pending.response.await() } ?: return null
+            return toContacts(nodes)
+        } finally {
+            pendingFindNodes.remove(key, pending)
         }
     }
     
+    private fun toContacts(nodes: List<MessageCodec.NodeInfo>): List<KademliaDHT.Contact> =
+        nodes.map { KademliaDHT.Contact(it.nodeId, it.ipString, it.port) }
+    
+    private class PendingFindNode(val target: ByteArray) {
+        val response = CompletableDeferred<List<MessageCodec.NodeInfo>>()
+    }
+    
     // Public accessors
     
     fun getActiveConnections(): List<PeerConnection> = activeConnections.values.toList()
@@ -0,0 +1,37 @@
+package com.ramapay.app.chat.p2p
+
+import java.nio.ByteBuffer
+import java.util.concurrent.ArrayBlockingQueue
+
+/**
+ * Fixed ring of direct buffers for datagrams, cut from one allocation.
+ *
+ * The receive loop reads each packet straight into a pooled buffer and hands the buffer on until the packet has been
+ * handled, so packets are neither copied nor allocated per receive. acquire() returns null when every buffer is in
+ * use; the caller decides whether to drop or wait.
+ */
+class PacketBufferPool(
+    val bufferCount: Int,
+    val bufferSize: Int
+) {
+    private val free = ArrayBlockingQueue<ByteBuffer>(bufferCount)
+
+    init {
+        val slab = ByteBuffer.allocateDirect(bufferCount * bufferSize)
+        for (i in 0 until bufferCount) {
+            slab.limit((i + 1) * bufferSize).position(i * bufferSize)
+            free.add(slab.slice())
+        }
+    }
+
+    /**
+     * @return a cleared buffer, or null if all are in use
+     */
+    fun acquire(): ByteBuffer? = free.poll()?.also { it.clear() }
+
+    fun release(buffer: ByteBuffer) {
+        free.offer(buffer)
+    }
+
+    val available: Int get() = free.size
+}
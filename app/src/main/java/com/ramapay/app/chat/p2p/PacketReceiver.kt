@@ -0,0 +1,138 @@
+package com.ramapay.app.chat.p2p
+
+import com.ramapay.app.chat.protocol.MessageCodec
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import timber.log.Timber
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.DatagramChannel
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Receive side of the P2P transport.
+ *
+ * One loop reads datagrams from the channel into pooled direct buffers and checks them in place with
+ * [MessageCodec.view]. Each packet then goes to one of a fixed number of workers, picked by the sender's NodeID, so
+ * packets from one peer are handled in order while different peers are handled in parallel. Worker queues are bounded:
+ * when a worker falls behind, its packets are dropped as the network would, rather than stalling the receive loop.
+ * A buffer goes back to the pool once its packet has been handled.
+ *
+ * The loop ends when the channel is closed.
+ */
+class PacketReceiver @JvmOverloads constructor(
+    private val channel: DatagramChannel,
+    private val codec: MessageCodec,
+    private val handler: PacketHandler,
+    private val workerCount: Int = DEFAULT_WORKERS,
+    private val pool: PacketBufferPool = PacketBufferPool(DEFAULT_BUFFERS, RECEIVE_BUFFER_SIZE)
+) {
+    companion object {
+        private const val TAG = "PacketReceiver"
+
+        const val RECEIVE_BUFFER_SIZE = 65536
+        const val DEFAULT_WORKERS = 4
+        const val DEFAULT_BUFFERS = 64
+    }
+
+    /**
+     * Handles a packet on a worker. The view is only valid until this returns.
+     */
+    interface PacketHandler {
+        suspend fun onPacket(packet: MessageCodec.PacketView, sender: InetSocketAddress)
+    }
+
+    private class Received(
+        val packet: MessageCodec.PacketView,
+        val buffer: ByteBuffer,
+        val sender: InetSocketAddress
+    )
+
+    //queues hold what the pool has left after each worker's packet in hand
+    private val queueCapacity = maxOf(1, pool.bufferCount / workerCount - 1)
+    private val queues = List(workerCount) { Channel<Received>(queueCapacity) }
+    private val spare = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE)
+
+    private val received = AtomicLong()
+    private val dropped = AtomicLong()
+
+    val receivedCount: Long get() = received.get()
+    val droppedCount: Long get() = dropped.get()
+
+    fun start(scope: CoroutineScope): Job = scope.launch(Dispatchers.IO) { run() }
+
+    /**
+     * Receive until the channel is closed, then let the workers finish what they hold.
+     */
+    suspend fun run() = coroutineScope {
+        queues.forEach { queue ->
+            launch {
+                for (item in queue) {
+                    try {
+                        handler.onPacket(item.packet, item.sender)
+                    } catch (e: Exception) {
+                        Timber.w(e, "$TAG: Failed to handle packet from ${item.sender}")
+                    } finally {
+                        pool.release(item.buffer)
+                    }
+                }
+            }
+        }
+
+        try {
+            receiveLoop()
+        } finally {
+            queues.forEach { it.close() }
+        }
+    }
+
+    private fun receiveLoop() {
+        while (channel.isOpen) {
+            val buffer = pool.acquire()
+            try {
+                //with every buffer in use the packet is still read, so the socket keeps draining, then dropped
+                val target = buffer ?: spare.also { it.clear() }
+                val sender = channel.receive(target) as? InetSocketAddress
+                if (sender == null) {
+                    release(buffer)
+                    continue
+                }
+                received.incrementAndGet()
+                if (buffer == null) {
+                    dropped.incrementAndGet()
+                    continue
+                }
+
+                buffer.flip()
+                val packet = codec.view(buffer)
+                if (packet == null) {
+                    release(buffer)
+                    continue
+                }
+
+                val queue = queues[(packet.sourceHash() and Int.MAX_VALUE) % workerCount]
+                if (!queue.trySend(Received(packet, buffer, sender)).isSuccess) {
+                    dropped.incrementAndGet()
+                    release(buffer)
+                }
+            } catch (e: ClosedChannelException) {
+                release(buffer)
+                break
+            } catch (e: Exception) {
+                release(buffer)
+                if (channel.isOpen) {
+                    Timber.w(e, "$TAG: Receive error")
+                }
+            }
+        }
+    }
+
+    private fun release(buffer: ByteBuffer?) {
+        if (buffer != null) pool.release(buffer)
+    }
+}
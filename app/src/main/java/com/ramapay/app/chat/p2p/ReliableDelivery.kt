@@ -0,0 +1,448 @@
+package com.ramapay.app.chat.p2p
+
+import com.ramapay.app.chat.protocol.MessageCodec
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import timber.log.Timber
+import java.net.InetSocketAddress
+import java.nio.ByteBuffer
+import java.security.SecureRandom
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.abs
+
+/**
+ * Acknowledged delivery for P2P messages sent with REQUIRE_ACK.
+ *
+ * Messages to each peer are numbered in their own sequence, starting from a random point, so the receiver can
+ * acknowledge cumulatively: an ACK carries the sequence number up to which everything has arrived, flagged
+ * SELECTIVE_ACK, with a bitmap of which of the next [MAX_WINDOW] have arrived as well. A lost ACK is covered by the next.
+ * Each message also carries how far it is past the oldest one the sender is still waiting on, so the receiver knows
+ * where the stream starts even when the first message is lost.
+ *
+ * Unacknowledged messages wait on a [TimerWheel] with a retransmission timeout estimated from round trip times as in
+ * RFC 6298, backing off on each timeout. A message that [DUPLICATE_THRESHOLD] later ones have been acknowledged past is
+ * resent straight away. A congestion window per peer limits how many messages are in flight: it grows by one per ACK
+ * until the first loss, then by one per window, halves when a loss is seen through selective ACKs and drops to one on
+ * a timeout. Messages past the window queue until ACKs open it.
+ */
+class ReliableDelivery @JvmOverloads constructor(
+    private val codec: MessageCodec,
+    private val link: Link,
+    private val clock: Clock = Clock { System.currentTimeMillis() }
+) {
+    companion object {
+        private const val TAG = "ReliableDelivery"
+
+        const val TICK_MS = 10L
+        private const val WHEEL_SLOTS = 1024
+
+        // RFC 6298, with a lower floor than its 1s as mobile round trips are mostly well under that
+        const val INITIAL_RTO_MS = 1000L
+        const val MIN_RTO_MS = 200L
+        const val MAX_RTO_MS = 60_000L
+
+        const val MAX_RETRIES = 6
+        const val INITIAL_WINDOW = 4
+        // Widest span of sequence numbers in flight, as far as the selective ACK bitmap reaches
+        const val MAX_WINDOW = 64
+        const val MAX_QUEUED = 256
+        const val DUPLICATE_THRESHOLD = 3
+    }
+
+    fun interface Link {
+        fun send(data: ByteArray, address: InetSocketAddress)
+    }
+
+    fun interface Clock {
+        fun now(): Long
+    }
+
+    /**
+     * Retransmission timeout from round trip samples, per RFC 6298.
+     */
+    class RttEstimator {
+        var smoothedRtt = 0.0
+            private set
+        var rttVariance = 0.0
+            private set
+        var timeout = INITIAL_RTO_MS
+            private set
+        private var sampled = false
+
+        fun sample(rttMs: Long) {
+            if (!sampled) {
+                smoothedRtt = rttMs.toDouble()
+                rttVariance = rttMs / 2.0
+                sampled = true
+            } else {
+                rttVariance = 0.75 * rttVariance + 0.25 * abs(smoothedRtt - rttMs)
+                smoothedRtt = 0.875 * smoothedRtt + 0.125 * rttMs
+            }
+            timeout = (smoothedRtt + maxOf(TICK_MS.toDouble(), 4 * rttVariance)).toLong().coerceIn(MIN_RTO_MS, MAX_RTO_MS)
+        }
+
+        fun backoff() {
+            timeout = minOf(timeout * 2, MAX_RTO_MS)
+        }
+    }
+
+    private class Outbound(
+        val peer: PeerWindow,
+        val sequenceNumber: Int,
+        val type: MessageCodec.MessageType,
+        val payload: ByteArray,
+        val sourceNodeId: ByteArray,
+        val destNodeId: ByteArray,
+        val flags: Short
+    ) {
+        //encoded when first sent, once its place in the window is known
+        var bytes: ByteArray? = null
+        var sentAt = 0L
+        var retries = 0
+        var acked = false
+        var fastRetransmitted = false
+        var timeout: TimerWheel.Timeout<Outbound>? = null
+    }
+
+    private class PeerWindow(
+        var address: InetSocketAddress,
+        var nextSequence: Int
+    ) {
+        val inFlight = ArrayDeque<Outbound>()
+        val queued = ArrayDeque<Outbound>()
+        val rtt = RttEstimator()
+        var outstanding = 0
+        var congestionWindow = INITIAL_WINDOW.toDouble()
+        var slowStartThreshold = MAX_WINDOW.toDouble()
+        var inRecovery = false
+        var recoveryEnd = 0
+        var forgotten = false
+    }
+
+    private class ReceiveWindow(var cumulative: Int) {
+        var received = 0L
+    }
+
+    private val random = SecureRandom()
+    private val senders = ConcurrentHashMap<ByteBuffer, PeerWindow>()
+    private val receivers = ConcurrentHashMap<ByteBuffer, ReceiveWindow>()
+    private val wheel = TimerWheel<Outbound>(TICK_MS, WHEEL_SLOTS, clock.now())
+    private val wakeups = Channel<Unit>(Channel.CONFLATED)
+
+    private val retransmitted = AtomicLong()
+    private val failed = AtomicLong()
+
+    val retransmitCount: Long get() = retransmitted.get()
+    val failedCount: Long get() = failed.get()
+
+    /**
+     * Send now if the peer's window allows, otherwise queue.
+     * @return false if too many messages are already queued for the peer
+     */
+    @JvmOverloads
+    fun send(
+        type: MessageCodec.MessageType,
+        payload: ByteArray,
+        sourceNodeId: ByteArray,
+        destNodeId: ByteArray,
+        address: InetSocketAddress,
+        flags: Short = 0
+    ): Boolean {
+        val key = ByteBuffer.wrap(destNodeId.copyOf())
+        var sent: Boolean? = null
+        while (sent == null) {
+            val peer = senders.computeIfAbsent(key) { PeerWindow(address, random.nextInt()) }
+            sent = synchronized(peer) {
+                if (peer.forgotten) {
+                    null
+                } else if (peer.queued.size >= MAX_QUEUED) {
+                    Timber.w("$TAG: Send queue full for $address")
+                    false
+                } else {
+                    peer.address = address
+                    val requireAck = (flags.toInt() or MessageCodec.Flags.REQUIRE_ACK.toInt()).toShort()
+                    peer.queued.addLast(Outbound(peer, peer.nextSequence++, type, payload, sourceNodeId, destNodeId, requireAck))
+                    pump(peer)
+                    true
+                }
+            }
+        }
+        return sent
+    }
+
+    /**
+     * Handle an ACK from a peer.
+     */
+    fun onAck(packet: MessageCodec.PacketView) {
+        val peer = senders[ByteBuffer.wrap(packet.sourceNodeId())] ?: return
+        val cumulative = packet.sequenceNumber
+        val selective = packet.isSelectiveAck
+        val bitmap = if (selective) packet.payloadLong(0) else 0L
+
+        synchronized(peer) {
+            if (peer.inFlight.isEmpty()) return
+            //ignore ACKs for anything not in flight, eg from before the stream restarted
+            if (cumulative - peer.inFlight.last().sequenceNumber > 0 ||
+                peer.inFlight.first().sequenceNumber - 1 - cumulative > MAX_WINDOW) return
+
+            val now = clock.now()
+            var newlyAcked = 0
+            for (outbound in peer.inFlight) {
+                if (outbound.acked) continue
+                val distance = outbound.sequenceNumber - cumulative
+                val acked = if (selective) {
+                    distance <= 0 || (distance <= MAX_WINDOW && ((bitmap ushr (distance - 1)) and 1L) != 0L)
+                } else {
+                    distance == 0
+                }
+                if (acked) {
+                    acknowledge(peer, outbound, now)
+                    newlyAcked++
+                }
+            }
+            while (peer.inFlight.firstOrNull()?.acked == true) {
+                peer.inFlight.removeFirst()
+            }
+
+            if (newlyAcked > 0) {
+                if (peer.inRecovery && cumulative - peer.recoveryEnd >= 0) {
+                    peer.inRecovery = false
+                }
+                repeat(newlyAcked) {
+                    peer.congestionWindow += if (peer.congestionWindow < peer.slowStartThreshold) 1.0 else 1.0 / peer.congestionWindow
+                }
+                peer.congestionWindow = minOf(peer.congestionWindow, MAX_WINDOW.toDouble())
+            }
+            if (selective) {
+                retransmitHoles(peer)
+            }
+            pump(peer)
+        }
+    }
+
+    /**
+     * Record a message that asked for an ACK and acknowledge everything received from its sender so far.
+     * @return false if the message is a duplicate that has already been handled
+     */
+    fun onReceived(packet: MessageCodec.PacketView, sender: InetSocketAddress, localNodeId: ByteArray): Boolean {
+        val sourceNodeId = packet.sourceNodeId()
+        val sequenceNumber = packet.sequenceNumber
+        val oldestUnacked = sequenceNumber - packet.windowOffset
+        val window = receivers.computeIfAbsent(ByteBuffer.wrap(sourceNodeId)) { ReceiveWindow(oldestUnacked - 1) }
+
+        val isNew: Boolean
+        val cumulative: Int
+        val bitmap: Long
+        synchronized(window) {
+            if (sequenceNumber - window.cumulative !in -MAX_WINDOW..MAX_WINDOW) {
+                //too far off to be this stream, so the sender has started a new one
+                window.cumulative = oldestUnacked - 1
+                window.received = 0
+            } else if (oldestUnacked - 1 - window.cumulative > 0) {
+                //the sender is no longer waiting on anything before oldestUnacked
+                val skip = oldestUnacked - 1 - window.cumulative
+                window.received = if (skip >= Long.SIZE_BITS) 0L else window.received ushr skip
+                window.cumulative = oldestUnacked - 1
+            }
+            val distance = sequenceNumber - window.cumulative
+            val bit = if (distance in 1..MAX_WINDOW) 1L shl (distance - 1) else 0L
+            isNew = bit != 0L && (window.received and bit) == 0L
+            if (isNew) {
+                window.received = window.received or bit
+            }
+            while ((window.received and 1L) != 0L) {
+                window.received = window.received ushr 1
+                window.cumulative++
+            }
+            cumulative = window.cumulative
+            bitmap = window.received
+        }
+
+        try {
+            val ack = codec.encode(
+                type = MessageCodec.MessageType.ACK,
+                payload = ByteBuffer.allocate(8).putLong(bitmap).array(),
+                sourceNodeId = localNodeId,
+                destNodeId = sourceNodeId,
+                flags = (MessageCodec.Flags.IS_ACK.toInt() or MessageCodec.Flags.SELECTIVE_ACK.toInt()).toShort(),
+                sequenceNumber = cumulative
+            )
+            link.send(ack.bytes, sender)
+        } catch (e: Exception) {
+            Timber.w(e, "$TAG: Failed to send ACK to $sender")
+        }
+        return isNew
+    }
+
+    /**
+     * Drop all state for a peer, eg when it disconnects or starts a new session. Messages still in flight to it are
+     * abandoned.
+     */
+    fun forgetPeer(nodeId: ByteArray) {
+        val key = ByteBuffer.wrap(nodeId)
+        receivers.remove(key)
+        senders.remove(key)?.let { peer ->
+            synchronized(peer) {
+                restart(peer)
+                peer.forgotten = true
+            }
+        }
+    }
+
+    /**
+     * Resend messages whose timeouts have expired.
+     * @return number of messages resent
+     */
+    @JvmOverloads
+    fun processTimeouts(now: Long = clock.now()): Int {
+        val expired = synchronized(wheel) { wheel.advance(now) }
+        var resent = 0
+        for (timeout in expired) {
+            val outbound = timeout.item
+            val peer = outbound.peer
+            synchronized(peer) {
+                if (outbound.acked || timeout !== outbound.timeout || timeout.isCancelled) return@synchronized
+
+                if (outbound.retries >= MAX_RETRIES) {
+                    val dropped = peer.outstanding + peer.queued.size
+                    Timber.w("$TAG: No ACK from ${peer.address} after ${outbound.retries} retries, dropping $dropped messages")
+                    failed.addAndGet(dropped.toLong())
+                    restart(peer)
+                } else {
+                    outbound.retries++
+                    peer.rtt.backoff()
+                    peer.slowStartThreshold = maxOf(peer.outstanding / 2.0, 2.0)
+                    peer.congestionWindow = 1.0
+                    peer.inRecovery = true
+                    peer.recoveryEnd = peer.inFlight.last().sequenceNumber
+                    transmit(outbound)
+                    retransmitted.incrementAndGet()
+                    resent++
+                }
+            }
+        }
+        return resent
+    }
+
+    /**
+     * Wait for the next tick, or until something is sent if nothing is waiting for an ACK.
+     */
+    suspend fun awaitTick() {
+        if (synchronized(wheel) { wheel.isEmpty }) {
+            wakeups.receive()
+        } else {
+            delay(TICK_MS)
+        }
+    }
+
+    /**
+     * Drop all state and wake [awaitTick].
+     */
+    fun clear() {
+        senders.keys.toList().forEach { forgetPeer(it.array()) }
+        receivers.clear()
+        synchronized(wheel) { wheel.clear() }
+        wakeups.trySend(Unit)
+    }
+
+    fun inFlight(nodeId: ByteArray): Int {
+        val peer = senders[ByteBuffer.wrap(nodeId)] ?: return 0
+        return synchronized(peer) { peer.outstanding }
+    }
+
+    fun congestionWindow(nodeId: ByteArray): Double {
+        val peer = senders[ByteBuffer.wrap(nodeId)] ?: return INITIAL_WINDOW.toDouble()
+        return synchronized(peer) { peer.congestionWindow }
+    }
+
+    fun retransmitTimeout(nodeId: ByteArray): Long {
+        val peer = senders[ByteBuffer.wrap(nodeId)] ?: return INITIAL_RTO_MS
+        return synchronized(peer) { peer.rtt.timeout }
+    }
+
+    private fun pump(peer: PeerWindow) {
+        while (peer.queued.isNotEmpty() &&
+            peer.outstanding < maxOf(1, peer.congestionWindow.toInt()) &&
+            peer.inFlight.size < MAX_WINDOW) {
+            val outbound = peer.queued.removeFirst()
+            peer.inFlight.addLast(outbound)
+            peer.outstanding++
+            outbound.bytes = codec.encode(
+                type = outbound.type,
+                payload = outbound.payload,
+                sourceNodeId = outbound.sourceNodeId,
+                destNodeId = outbound.destNodeId,
+                flags = outbound.flags,
+                sequenceNumber = outbound.sequenceNumber,
+                windowOffset = outbound.sequenceNumber - peer.inFlight.first().sequenceNumber
+            ).bytes
+            transmit(outbound)
+        }
+    }
+
+    private fun transmit(outbound: Outbound) {
+        val now = clock.now()
+        outbound.sentAt = now
+        outbound.timeout?.cancel()
+        outbound.timeout = synchronized(wheel) { wheel.schedule(outbound, outbound.peer.rtt.timeout, now) }
+        wakeups.trySend(Unit)
+        try {
+            link.send(outbound.bytes!!, outbound.peer.address)
+        } catch (e: Exception) {
+            //resent on timeout like a lost packet
+            Timber.w(e, "$TAG: Failed to send to ${outbound.peer.address}")
+        }
+    }
+
+    private fun acknowledge(peer: PeerWindow, outbound: Outbound, now: Long) {
+        outbound.acked = true
+        outbound.timeout?.cancel()
+        peer.outstanding--
+        //Karn: a resent message's ACK could be for either copy, so it gives no sample
+        if (outbound.retries == 0) {
+            peer.rtt.sample(now - outbound.sentAt)
+        }
+    }
+
+    /**
+     * Resend any message that enough later ones have been acknowledged past, halving the window once per loss event.
+     */
+    private fun retransmitHoles(peer: PeerWindow) {
+        var ackedAfter = 0
+        for (i in peer.inFlight.indices.reversed()) {
+            val outbound = peer.inFlight[i]
+            if (outbound.acked) {
+                ackedAfter++
+            } else if (ackedAfter >= DUPLICATE_THRESHOLD && !outbound.fastRetransmitted) {
+                if (!peer.inRecovery) {
+                    peer.slowStartThreshold = maxOf(peer.congestionWindow / 2, 2.0)
+                    peer.congestionWindow = peer.slowStartThreshold
+                    peer.inRecovery = true
+                    peer.recoveryEnd = peer.inFlight.last().sequenceNumber
+                }
+                outbound.fastRetransmitted = true
+                outbound.retries++
+                transmit(outbound)
+                retransmitted.incrementAndGet()
+            }
+        }
+    }
+
+    /**
+     * Abandon everything in flight or queued and start a new stream.
+     */
+    private fun restart(peer: PeerWindow) {
+        (peer.inFlight + peer.queued).forEach {
+            it.acked = true
+            it.timeout?.cancel()
+        }
+        peer.inFlight.clear()
+        peer.queued.clear()
+        peer.outstanding = 0
+        peer.nextSequence = random.nextInt()
+        peer.congestionWindow = INITIAL_WINDOW.toDouble()
+        peer.slowStartThreshold = MAX_WINDOW.toDouble()
+        peer.inRecovery = false
+    }
+}
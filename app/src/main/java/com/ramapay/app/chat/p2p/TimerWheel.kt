@@ -0,0 +1,92 @@
+package com.ramapay.app.chat.p2p
+
+/**
+ * Hashed timer wheel.
+ *
+ * Timeouts are filed in a ring of slots by deadline tick, so scheduling and cancelling cost O(1) and advancing only
+ * looks at the slots whose ticks have passed, however many timeouts are pending. A slot holds every timeout whose
+ * deadline hashes to it; those due on a later turn of the wheel stay until their tick comes round. Timeouts fire on the
+ * first advance at or after their deadline, rounded up to a whole tick, never early.
+ *
+ * Not thread safe; callers synchronize.
+ */
+class TimerWheel<T>(
+    private val tickMs: Long,
+    slotCount: Int,
+    startMs: Long
+) {
+    class Timeout<T> internal constructor(
+        val item: T,
+        internal val deadlineTick: Long
+    ) {
+        var isCancelled = false
+            private set
+
+        /**
+         * Cancel the timeout. It stays in its slot until the wheel next passes it.
+         */
+        fun cancel() {
+            isCancelled = true
+        }
+    }
+
+    private val slots = Array(slotCount) { ArrayList<Timeout<T>>() }
+    private val mask = slotCount - 1
+    private var currentTick = startMs / tickMs
+
+    init {
+        require(slotCount > 0 && (slotCount and mask) == 0) { "Slot count must be a power of two: $slotCount" }
+    }
+
+    /**
+     * Timeouts in the wheel, including cancelled ones not yet passed.
+     */
+    var size = 0
+        private set
+
+    val isEmpty: Boolean get() = size == 0
+
+    fun schedule(item: T, delayMs: Long, now: Long): Timeout<T> {
+        val deadlineTick = maxOf(currentTick + 1, (now + delayMs + tickMs - 1) / tickMs)
+        val timeout = Timeout(item, deadlineTick)
+        slots[(deadlineTick and mask.toLong()).toInt()].add(timeout)
+        size++
+        return timeout
+    }
+
+    /**
+     * Move the wheel on to now.
+     * @return timeouts that expired, in no particular order
+     */
+    fun advance(now: Long): List<Timeout<T>> {
+        val targetTick = now / tickMs
+        if (targetTick <= currentTick) return emptyList()
+
+        //after a long gap each slot only needs one pass
+        val steps = minOf(targetTick - currentTick, slots.size.toLong())
+        var expired: MutableList<Timeout<T>>? = null
+        for (step in 1..steps) {
+            val slot = slots[((currentTick + step) and mask.toLong()).toInt()]
+            var kept = 0
+            for (i in slot.indices) {
+                val timeout = slot[i]
+                when {
+                    timeout.isCancelled -> size--
+                    timeout.deadlineTick <= targetTick -> {
+                        size--
+                        (expired ?: ArrayList<Timeout<T>>().also { expired = it }).add(timeout)
+                    }
+                    else -> slot[kept++] = timeout
+                }
+            }
+            while (slot.size > kept) slot.removeAt(slot.size - 1)
+        }
+        currentTick = targetTick
+        return expired ?: emptyList()
+    }
+
+    fun clear() {
+        slots.forEach { it.clear() }
+        size = 0
+    }
+}
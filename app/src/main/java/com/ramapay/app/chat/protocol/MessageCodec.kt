@@ -4,6 +4,7 @@ import timber.log.Timber
 import java.nio.ByteBuffer
 import java.nio.ByteOrder
 import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicInteger
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -20,7 +21,7 @@ import javax.inject.Singleton
  * │                     ROUTING (68 bytes)                      │
  * ├─────────────────────────────────────────────────────────────┤
  * │ Source NodeID (32) │ Dest NodeID (32) │ TTL (1) │ Hops (1)  │
- * │ Reserved (2)                                                │
+ * │ Window offset (2)                                           │
  * ├─────────────────────────────────────────────────────────────┤
  * │                     PAYLOAD (variable)                      │
  * ├─────────────────────────────────────────────────────────────┤
@@ -46,11 +47,25 @@ class MessageCodec @Inject constructor() {
         // Maximum payload size (64 KB)
         const val MAX_PAYLOAD_SIZE = 65536
         
+        // Largest encoded message
+        const val MAX_MESSAGE_SIZE = HEADER_SIZE + ROUTING_SIZE + MAX_PAYLOAD_SIZE + SIGNATURE_SIZE
+        
         // Default TTL
         const val DEFAULT_TTL: Byte = 16
         
         // Convenience flag constants for ChatService
         const val FLAG_ENCRYPTED: Short = 0x0001
+        
+        private const val CHECKSUM_OFFSET = HEADER_SIZE - 4
+        private const val NODE_ID_SIZE = 32
+        
+        // Digest per thread, so encoding and decoding don't create one per message
+        private val md5 = object : ThreadLocal<MessageDigest>() {
+            override fun initialValue(): MessageDigest = MessageDigest.getInstance("MD5")
+        }
+        private val digestOut = object : ThreadLocal<ByteArray>() {
+            override fun initialValue() = ByteArray(16)
+        }
     }
     
     /**
@@ -98,8 +113,12 @@ class MessageCodec @Inject constructor() {
         ENDPOINT_EXCHANGE_RESPONSE(0xA3.toByte());
         
         companion object {
+            private val byValue = arrayOfNulls<MessageType>(256).also { table ->
+                entries.forEach { table[it.value.toInt() and 0xFF] = it }
+            }
+            
             fun fromValue(value: Byte): MessageType? {
-                return entries.find { it.value == value }
+                return byValue[value.toInt() and 0xFF]
             }
         }
     }
@@ -116,6 +135,8 @@ class MessageCodec @Inject constructor() {
         const val RELAY_ALLOWED: Short = 0x0020
         const val FRAGMENTED: Short = 0x0040
         const val LAST_FRAGMENT: Short = 0x0080
+        // On an ACK: the sequence number is cumulative and the payload holds a selective ACK bitmap
+        const val SELECTIVE_ACK: Short = 0x0100
     }
     
     /**
@@ -168,11 +189,14 @@ class MessageCodec @Inject constructor() {
         }
     }
     
-    private var sequenceCounter = 0
+    private val sequenceCounter = AtomicInteger()
     
     /**
-     * Encode a message for transmission.
+     * Encode a message for transmission. The sequence number comes from this codec unless the caller numbers its own
+     * stream, as reliable delivery does per peer; windowOffset is then how far it is past the oldest message the
+     * sender still waits on an ACK for.
      */
+    @JvmOverloads
     fun encode(
         type: MessageType,
         payload: ByteArray,
@@ -180,18 +204,39 @@ class MessageCodec @Inject constructor() {
         destNodeId: ByteArray,
         flags: Short = 0,
         ttl: Byte = DEFAULT_TTL,
-        signature: ByteArray = ByteArray(SIGNATURE_SIZE)
+        signature: ByteArray = ByteArray(SIGNATURE_SIZE),
+        sequenceNumber: Int = sequenceCounter.getAndIncrement(),
+        windowOffset: Int = 0
     ): EncodedMessage {
+        val buffer = ByteBuffer.allocate(HEADER_SIZE + ROUTING_SIZE + payload.size + SIGNATURE_SIZE)
+        encode(buffer, type, payload, sourceNodeId, destNodeId, flags, ttl, signature, sequenceNumber, windowOffset)
+        return EncodedMessage(buffer.array(), sequenceNumber)
+    }
+    
+    /**
+     * Encode a message into buffer from its position, eg a pooled send buffer, leaving the position after it.
+     * @return sequence number of the message
+     */
+    @JvmOverloads
+    fun encode(
+        buffer: ByteBuffer,
+        type: MessageType,
+        payload: ByteArray,
+        sourceNodeId: ByteArray,
+        destNodeId: ByteArray,
+        flags: Short = 0,
+        ttl: Byte = DEFAULT_TTL,
+        signature: ByteArray? = null,
+        sequenceNumber: Int = sequenceCounter.getAndIncrement(),
+        windowOffset: Int = 0
+    ): Int {
         require(payload.size <= MAX_PAYLOAD_SIZE) { "Payload too large: ${payload.size}" }
-        require(sourceNodeId.size == 32) { "Invalid source NodeID size" }
-        require(destNodeId.size == 32) { "Invalid dest NodeID size" }
+        require(sourceNodeId.size == NODE_ID_SIZE) { "Invalid source NodeID size" }
+        require(destNodeId.size == NODE_ID_SIZE) { "Invalid dest NodeID size" }
         
-        val totalSize = HEADER_SIZE + ROUTING_SIZE + payload.size + SIGNATURE_SIZE
-        val buffer = ByteBuffer.allocate(totalSize)
+        val start = buffer.position()
         buffer.order(ByteOrder.BIG_ENDIAN)
         
-        val sequenceNumber = sequenceCounter++
-        
         // Header
         buffer.put(MAGIC)                       // 4 bytes
         buffer.put(VERSION)                     // 1 byte
@@ -206,104 +251,153 @@ class MessageCodec @Inject constructor() {
         buffer.put(destNodeId)                  // 32 bytes
         buffer.put(ttl)                         // 1 byte
         buffer.put(0)                           // Hops (starts at 0)
-        buffer.putShort(0)                      // Reserved (2 bytes)
+        buffer.putShort(windowOffset.toShort()) // Window offset (2 bytes)
         
         // Payload
         buffer.put(payload)
         
         // Signature
-        buffer.put(signature)
+        if (signature != null) {
+            buffer.put(signature)
+        } else {
+            repeat(SIGNATURE_SIZE) { buffer.put(0) }
+        }
         
         // Calculate and insert checksum
-        val bytes = buffer.array()
-        val checksum = calculateChecksum(bytes, HEADER_SIZE - 4)
-        buffer.position(HEADER_SIZE - 4)
-        buffer.putInt(checksum)
+        buffer.putInt(start + CHECKSUM_OFFSET, calculateChecksum(buffer, start, buffer.position() - start))
         
-        return EncodedMessage(buffer.array(), sequenceNumber)
+        return sequenceNumber
     }
     
     /**
      * Decode a received message.
      */
     fun decode(data: ByteArray): DecodedMessage? {
-        if (data.size < HEADER_SIZE + ROUTING_SIZE + SIGNATURE_SIZE) {
-            Timber.w("$TAG: Message too short: ${data.size} bytes")
+        return view(ByteBuffer.wrap(data))?.toDecodedMessage()
+    }
+    
+    /**
+     * Check the message between buffer's position and limit and read it in place, without copying.
+     * The view reads from buffer, so is only valid until the buffer is reused.
+     */
+    fun view(buffer: ByteBuffer): PacketView? {
+        val start = buffer.position()
+        val size = buffer.remaining()
+        if (size < HEADER_SIZE + ROUTING_SIZE + SIGNATURE_SIZE) {
+            Timber.w("$TAG: Message too short: $size bytes")
             return null
         }
         
-        val buffer = ByteBuffer.wrap(data)
         buffer.order(ByteOrder.BIG_ENDIAN)
         
         // Verify magic
-        val magic = ByteArray(4)
-        buffer.get(magic)
-        if (!magic.contentEquals(MAGIC)) {
-            Timber.w("$TAG: Invalid magic bytes")
-            return null
+        for (i in MAGIC.indices) {
+            if (buffer.get(start + i) != MAGIC[i]) {
+                Timber.w("$TAG: Invalid magic bytes")
+                return null
+            }
         }
         
         // Parse header
-        val version = buffer.get()
+        val version = buffer.get(start + 4)
         if (version != VERSION) {
             Timber.w("$TAG: Unsupported version: $version")
             return null
         }
         
-        val typeByte = buffer.get()
+        val typeByte = buffer.get(start + 5)
         val type = MessageType.fromValue(typeByte)
         if (type == null) {
             Timber.w("$TAG: Unknown message type: $typeByte")
             return null
         }
         
-        val flags = buffer.short
-        val payloadLength = buffer.int
-        val sequenceNumber = buffer.int
-        val receivedChecksum = buffer.int
-        
         // Verify payload length
+        val payloadLength = buffer.getInt(start + 8)
         val expectedSize = HEADER_SIZE + ROUTING_SIZE + payloadLength + SIGNATURE_SIZE
-        if (data.size != expectedSize) {
-            Timber.w("$TAG: Size mismatch: expected $expectedSize, got ${data.size}")
+        if (size != expectedSize) {
+            Timber.w("$TAG: Size mismatch: expected $expectedSize, got $size")
             return null
         }
         
         // Verify checksum
-        val calculatedChecksum = calculateChecksum(data, HEADER_SIZE - 4)
-        if (receivedChecksum != calculatedChecksum) {
+        if (buffer.getInt(start + CHECKSUM_OFFSET) != calculateChecksum(buffer, start, size)) {
             Timber.w("$TAG: Checksum mismatch")
             return null
         }
         
-        // Parse routing
-        val sourceNodeId = ByteArray(32)
-        buffer.get(sourceNodeId)
-        val destNodeId = ByteArray(32)
-        buffer.get(destNodeId)
-        val ttl = buffer.get()
-        val hops = buffer.get()
-        buffer.short // Reserved
-        
-        // Parse payload
-        val payload = ByteArray(payloadLength)
-        buffer.get(payload)
+        return PacketView(buffer, start, type)
+    }
+    
+    /**
+     * A checked message read in place from its receive buffer. Fields are read on access; only the parts a handler
+     * asks for are copied out.
+     */
+    class PacketView internal constructor(
+        private val buffer: ByteBuffer,
+        private val start: Int,
+        val type: MessageType
+    ) {
+        val flags: Short get() = buffer.getShort(start + 6)
+        val payloadLength: Int get() = buffer.getInt(start + 8)
+        val sequenceNumber: Int get() = buffer.getInt(start + 12)
+        val ttl: Byte get() = buffer.get(start + HEADER_SIZE + 2 * NODE_ID_SIZE)
+        val hops: Byte get() = buffer.get(start + HEADER_SIZE + 2 * NODE_ID_SIZE + 1)
+        val windowOffset: Int get() = buffer.getShort(start + HEADER_SIZE + 2 * NODE_ID_SIZE + 2).toInt() and 0xFFFF
+        
+        val requiresAck: Boolean get() = (flags.toInt() and Flags.REQUIRE_ACK.toInt()) != 0
+        val isAck: Boolean get() = (flags.toInt() and Flags.IS_ACK.toInt()) != 0
+        val isSelectiveAck: Boolean get() = (flags.toInt() and Flags.SELECTIVE_ACK.toInt()) != 0
+        
+        private val payloadStart: Int get() = start + HEADER_SIZE + ROUTING_SIZE
         
-        // Parse signature
-        val signature = ByteArray(SIGNATURE_SIZE)
-        buffer.get(signature)
+        /**
+         * Hash of the source NodeID, to spread senders over workers
+         */
+        fun sourceHash(): Int = buffer.getInt(start + HEADER_SIZE)
         
-        return DecodedMessage(
+        fun isFrom(nodeId: ByteArray): Boolean {
+            if (nodeId.size != NODE_ID_SIZE) return false
+            for (i in 0 until NODE_ID_SIZE) {
+                if (buffer.get(start + HEADER_SIZE + i) != nodeId[i]) return false
+            }
+            return true
+        }
+        
+        /**
+         * Read a long from the payload, or 0 if the payload is too short.
+         */
+        fun payloadLong(offset: Int): Long {
+            return if (payloadLength >= offset + 8) buffer.getLong(payloadStart + offset) else 0L
+        }
+        
+        fun sourceNodeId(): ByteArray = copy(start + HEADER_SIZE, NODE_ID_SIZE)
+        
+        fun destNodeId(): ByteArray = copy(start + HEADER_SIZE + NODE_ID_SIZE, NODE_ID_SIZE)
+        
+        fun payload(): ByteArray = copy(payloadStart, payloadLength)
+        
+        fun signature(): ByteArray = copy(payloadStart + payloadLength, SIGNATURE_SIZE)
+        
+        fun toDecodedMessage(): DecodedMessage = DecodedMessage(
             type = type,
             flags = flags,
             sequenceNumber = sequenceNumber,
-            sourceNodeId = sourceNodeId,
-            destNodeId = destNodeId,
+            sourceNodeId = sourceNodeId(),
+            destNodeId = destNodeId(),
             ttl = ttl,
             hops = hops,
-            payload = payload,
-            signature = signature
+            payload = payload(),
+            signature = signature()
         )
+        
+        private fun copy(offset: Int, length: Int): ByteArray {
+            val out = ByteArray(length)
+            val view = buffer.duplicate()
+            view.position(offset)
+            view.get(out)
+            return out
+        }
     }
     
     // ========== ChatService Integration Methods ==========
@@ -404,17 +498,22 @@ class MessageCodec @Inject constructor() {
     }
     
     /**
-     * Calculate checksum using first N bytes of the message.
+     * Calculate checksum over the header before the checksum, routing and payload of the message at start.
      */
-    private fun calculateChecksum(data: ByteArray, upToIndex: Int): Int {
-        val digest = MessageDigest.getInstance("MD5")
-        digest.update(data, 0, upToIndex)
+    private fun calculateChecksum(buffer: ByteBuffer, start: Int, size: Int): Int {
+        val digest = md5.get()
+        val region = buffer.duplicate()
+        region.limit(start + CHECKSUM_OFFSET).position(start)
+        digest.update(region)
         // Also include routing and payload in checksum
-        if (data.size > HEADER_SIZE) {
-            digest.update(data, HEADER_SIZE, data.size - HEADER_SIZE - SIGNATURE_SIZE)
+        if (size > HEADER_SIZE) {
+            region.limit(start + size - SIGNATURE_SIZE).position(start + HEADER_SIZE)
+            digest.update(region)
         }
-        val hash = digest.digest()
-        return ByteBuffer.wrap(hash, 0, 4).int
+        val hash = digestOut.get()
+        digest.digest(hash, 0, hash.size)
+        return ((hash[0].toInt() and 0xFF) shl 24) or ((hash[1].toInt() and 0xFF) shl 16) or
+            ((hash[2].toInt() and 0xFF) shl 8) or (hash[3].toInt() and 0xFF)
     }
     
     // Payload builders
@@ -0,0 +1,533 @@
+package com.ramapay.app.chat.relay
+
+import timber.log.Timber
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.util.TreeMap
+import java.util.zip.CRC32
+
+/**
+ * Append-only, segmented log of relay messages.
+ *
+ * Storing a message appends one record with its metadata and encrypted blob; delivery and deletion append small
+ * tombstone records. Nothing is rewritten in place, so each change costs one write however many messages are held.
+ * Memory holds metadata and blob offsets only, indexed by message id and by recipient hash.
+ *
+ * The log is split into numbered segment files of about [segmentBytes]. Once a sealed segment is mostly dead
+ * (delivered, deleted or expired messages) [compact] copies what is still needed to a replacement file under the same
+ * number, so replaying the segments in order still gives the same result. On open, only the last segment can hold a
+ * torn write: its records are checked against their CRC and a bad tail is cut off, while blobs in sealed segments are
+ * skipped rather than read.
+ *
+ * Record layout, big-endian: `[length:int][type:byte][idLength:short][id][fields][crc32:int]`, where length counts
+ * the bytes after itself and the CRC covers type through fields. A PUT's fields end with `[blobLength:int][blob]`.
+ *
+ * Not thread safe; RelayStorage serialises access.
+ */
+class RelayMessageLog @JvmOverloads constructor(
+    private val dir: File,
+    private val segmentBytes: Long = SEGMENT_BYTES,
+    private val compactRatio: Double = COMPACT_RATIO
+) : Closeable {
+
+    companion object {
+        const val SEGMENT_BYTES = 8L * 1024 * 1024
+        const val COMPACT_RATIO = 0.5              // dead share of a sealed segment before it is compacted
+
+        private const val PUT: Byte = 1
+        private const val DELIVERED: Byte = 2
+        private const val DELETE: Byte = 3
+
+        private const val PUT_FIELDS = 8 * 5 + 4   // hashes, times, deliveredAt, blob length
+        private const val CRC_BYTES = 4
+        private const val SEGMENT_PREFIX = "segment-"
+        private const val SEGMENT_SUFFIX = ".log"
+        private const val COMPACT_SUFFIX = ".compact"
+    }
+
+    /**
+     * Metadata of a stored message and where its blob is.
+     */
+    class Entry internal constructor(
+        val id: String,
+        val recipientHash: Long,
+        val senderHash: Long,
+        val receivedAt: Long,
+        val expiresAt: Long,
+        size: Int,
+        deliveredAt: Long
+    ) {
+        var size: Int = size                        // 0 once compaction has dropped a delivered blob
+            internal set
+        var deliveredAt: Long = deliveredAt          // 0 while pending
+            internal set
+        internal var segment = 0
+        internal var blobOffset = 0L
+        internal var recordBytes = 0
+        internal var deliveredInPut = false          // its PUT record says delivered, so no DELIVERED record is needed
+
+        val delivered: Boolean get() = deliveredAt != 0L
+
+        fun isExpired(now: Long): Boolean = now > expiresAt
+
+        /** Bytes of its segment this message still needs; a delivered blob isn't */
+        internal fun liveBytes(): Int = if (delivered) recordBytes - size else recordBytes
+    }
+
+    private class Segment(val number: Int, val file: File) {
+        var bytes = 0L
+        var liveBytes = 0L
+        private var reader: FileChannel? = null
+
+        fun reader(): FileChannel = reader ?: RandomAccessFile(file, "r").channel.also { reader = it }
+
+        fun closeReader() {
+            reader?.close()
+            reader = null
+        }
+
+        fun deadRatio(): Double = if (bytes == 0L) 0.0 else 1.0 - liveBytes.toDouble() / bytes
+    }
+
+    private val entries = HashMap<String, Entry>()
+    private val pendingByRecipient = HashMap<Long, LinkedHashSet<String>>()
+    private val deletedFrom = HashMap<String, Int>()  // deleted id -> segment still holding its PUT
+    private val segments = TreeMap<Int, Segment>()
+    private lateinit var active: Segment
+    private lateinit var writer: FileChannel
+    private val crc = CRC32()
+
+    /** Blob bytes of the messages held */
+    var usedBytes = 0L
+        private set
+
+    val size: Int get() = entries.size
+
+    val segmentCount: Int get() = segments.size
+
+    init {
+        dir.mkdirs()
+        recover(System.currentTimeMillis())
+    }
+
+    fun get(id: String): Entry? = entries[id]
+
+    fun entries(): Collection<Entry> = entries.values
+
+    /**
+     * Pending, unexpired messages for the recipient, oldest first.
+     */
+    fun pendingFor(recipientHash: Long, now: Long): List<Entry> {
+        val ids = pendingByRecipient[recipientHash] ?: return emptyList()
+        return ids.mapNotNull { entries[it] }.filter { !it.isExpired(now) }
+    }
+
+    fun readBlob(entry: Entry): ByteArray {
+        val segment = segments[entry.segment] ?: throw IOException("Segment ${entry.segment} missing")
+        val blob = ByteBuffer.allocate(entry.size)
+        val channel = segment.reader()
+        while (blob.hasRemaining()) {
+            if (channel.read(blob, entry.blobOffset + blob.position()) < 0) {
+                throw IOException("Blob of ${entry.id} truncated")
+            }
+        }
+        return blob.array()
+    }
+
+    /**
+     * Store a message. Storing under an id already held replaces the earlier message.
+     */
+    fun put(
+        id: String,
+        recipientHash: Long,
+        senderHash: Long,
+        receivedAt: Long,
+        expiresAt: Long,
+        blob: ByteArray
+    ): Entry {
+        val entry = Entry(id, recipientHash, senderHash, receivedAt, expiresAt, blob.size, 0)
+        val header = putHeader(entry, blob.size)
+        val start = append(header, ByteBuffer.wrap(blob), crc(header, blob))
+
+        entries[id]?.let { unindex(it) }
+        entry.segment = active.number
+        entry.blobOffset = start + header.limit()
+        entry.recordBytes = header.limit() + blob.size + CRC_BYTES
+        index(entry)
+        return entry
+    }
+
+    fun markDelivered(id: String, deliveredAt: Long): Boolean {
+        val entry = entries[id] ?: return false
+        if (entry.delivered) return true
+
+        append(tombstone(DELIVERED, id, deliveredAt))
+        setDelivered(entry, deliveredAt)
+        return true
+    }
+
+    fun delete(id: String): Boolean {
+        val entry = entries[id] ?: return false
+        append(tombstone(DELETE, id, 0))
+        remove(entry)
+        return true
+    }
+
+    /**
+     * Drop delivered and expired messages. Expired ones need no tombstone as replay skips them.
+     * @return number of messages removed
+     */
+    fun removeDeliveredAndExpired(now: Long): Int {
+        val removed = entries.values.filter { it.delivered || it.isExpired(now) }
+        for (entry in removed) {
+            if (entry.isExpired(now)) {
+                unindex(entry)
+            } else {
+                append(tombstone(DELETE, entry.id, 0))
+                remove(entry)
+            }
+        }
+        return removed.size
+    }
+
+    fun needsCompaction(): Boolean = segments.values.any { isCompactable(it) }
+
+    /**
+     * Rewrite the sealed segments whose dead share has reached the compaction ratio.
+     * @return number of segments compacted
+     */
+    fun compact(now: Long): Int {
+        val due = segments.values.filter { isCompactable(it) }
+        due.forEach { compactSegment(it, now) }
+        return due.size
+    }
+
+    /**
+     * Force written records to the device.
+     */
+    fun sync() {
+        writer.force(false)
+    }
+
+    fun clear() {
+        close()
+        dir.listFiles()?.forEach { it.delete() }
+        segments.clear()
+        entries.clear()
+        pendingByRecipient.clear()
+        deletedFrom.clear()
+        usedBytes = 0
+        openSegment(0)
+    }
+
+    override fun close() {
+        if (::writer.isInitialized && writer.isOpen) writer.close()
+        segments.values.forEach { it.closeReader() }
+    }
+
+    private fun isCompactable(segment: Segment) = segment !== active && segment.deadRatio() >= compactRatio
+
+    // ============ Index ============
+
+    private fun index(entry: Entry) {
+        entries[entry.id] = entry
+        usedBytes += entry.size
+        if (!entry.delivered) {
+            pendingByRecipient.getOrPut(entry.recipientHash) { LinkedHashSet() }.add(entry.id)
+        }
+        segments[entry.segment]?.let { it.liveBytes += entry.liveBytes() }
+    }
+
+    private fun unindex(entry: Entry) {
+        entries.remove(entry.id)
+        usedBytes -= entry.size
+        removePending(entry)
+        segments[entry.segment]?.let { it.liveBytes -= entry.liveBytes() }
+    }
+
+    /**
+     * Unindex a message cancelled by a DELETE record, remembering where its PUT still is
+     */
+    private fun remove(entry: Entry) {
+        unindex(entry)
+        deletedFrom[entry.id] = entry.segment
+    }
+
+    private fun setDelivered(entry: Entry, deliveredAt: Long) {
+        val before = entry.liveBytes()
+        entry.deliveredAt = deliveredAt
+        removePending(entry)
+        segments[entry.segment]?.let { it.liveBytes -= before - entry.liveBytes() }
+    }
+
+    private fun removePending(entry: Entry) {
+        val ids = pendingByRecipient[entry.recipientHash] ?: return
+        ids.remove(entry.id)
+        if (ids.isEmpty()) pendingByRecipient.remove(entry.recipientHash)
+    }
+
+    // ============ Writing ============
+
+    private fun putHeader(entry: Entry, blobSize: Int): ByteBuffer {
+        val header = recordStart(PUT, entry.id, PUT_FIELDS, blobSize + CRC_BYTES)
+            .putLong(entry.recipientHash)
+            .putLong(entry.senderHash)
+            .putLong(entry.receivedAt)
+            .putLong(entry.expiresAt)
+            .putLong(entry.deliveredAt)
+            .putInt(blobSize)
+        header.flip()
+        return header
+    }
+
+    private fun tombstone(type: Byte, id: String, deliveredAt: Long): ByteBuffer {
+        val fields = if (type == DELIVERED) 8 else 0
+        val record = recordStart(type, id, fields + CRC_BYTES, 0)
+        if (type == DELIVERED) record.putLong(deliveredAt)
+        crc.reset()
+        crc.update(record.array(), 4, record.position() - 4)
+        record.putInt(crc.value.toInt())
+        record.flip()
+        return record
+    }
+
+    /**
+     * Buffer with length, type and id written and room for [extra] bytes; [following] bytes will be written after it
+     */
+    private fun recordStart(type: Byte, id: String, extra: Int, following: Int): ByteBuffer {
+        val idBytes = id.toByteArray(Charsets.UTF_8)
+        require(idBytes.size <= 0xFFFF) { "Message id too long" }
+        val bytes = 4 + 1 + 2 + idBytes.size + extra
+        return ByteBuffer.allocate(bytes)
+            .putInt(bytes - 4 + following)
+            .put(type)
+            .putShort(idBytes.size.toShort())
+            .put(idBytes)
+    }
+
+    private fun crc(header: ByteBuffer, blob: ByteArray): ByteBuffer {
+        crc.reset()
+        crc.update(header.array(), 4, header.limit() - 4)
+        crc.update(blob, 0, blob.size)
+        val tail = ByteBuffer.allocate(CRC_BYTES).putInt(crc.value.toInt())
+        tail.flip()
+        return tail
+    }
+
+    /**
+     * Write a record at the end of the active segment, first rolling to a new segment if it won't fit.
+     * A failed write is cut off again so the next record follows the last whole one.
+     * @return where the record starts in the active segment
+     */
+    private fun append(vararg buffers: ByteBuffer): Long {
+        val recordBytes = buffers.sumOf { it.remaining().toLong() }
+        if (active.bytes > 0 && active.bytes + recordBytes > segmentBytes) {
+            writer.close()
+            openSegment(active.number + 1)
+        }
+
+        val start = active.bytes
+        try {
+            while (buffers.any { it.hasRemaining() }) writer.write(buffers)
+        } catch (e: IOException) {
+            writer.truncate(start)
+            writer.position(start)
+            throw e
+        }
+        active.bytes += recordBytes
+        return start
+    }
+
+    private fun openSegment(number: Int) {
+        val segment = segments[number] ?: Segment(number, segmentFile(number)).also { segments[number] = it }
+        segment.bytes = segment.file.length()
+        active = segment
+        writer = RandomAccessFile(segment.file, "rw").channel.also { it.position(segment.bytes) }
+    }
+
+    private fun segmentFile(number: Int) = File(dir, SEGMENT_PREFIX + "%08d".format(number) + SEGMENT_SUFFIX)
+
+    // ============ Recovery ============
+
+    private fun recover(now: Long) {
+        //an interrupted compaction leaves the original segment in place
+        dir.listFiles { f -> f.name.endsWith(COMPACT_SUFFIX) }?.forEach { it.delete() }
+
+        val numbers = dir.listFiles { f -> f.name.startsWith(SEGMENT_PREFIX) && f.name.endsWith(SEGMENT_SUFFIX) }
+            ?.mapNotNull { it.name.removePrefix(SEGMENT_PREFIX).removeSuffix(SEGMENT_SUFFIX).toIntOrNull() }
+            ?.sorted() ?: emptyList()
+
+        for (number in numbers) {
+            val segment = Segment(number, segmentFile(number))
+            segments[number] = segment
+            val last = number == numbers.last()
+            val length = segment.file.length()
+            segment.bytes = replay(segment, verify = last, now = now)
+            if (segment.bytes < length) {
+                Timber.w("Relay log segment $number: ${length - segment.bytes} bytes after the last whole record")
+                if (last) RandomAccessFile(segment.file, "rw").use { it.setLength(segment.bytes) }
+            }
+        }
+
+        openSegment(numbers.lastOrNull() ?: 0)
+    }
+
+    /**
+     * Apply the records of a segment to the index.
+     * @param verify check each record's CRC, which means reading its blob
+     * @return length of the whole records read
+     */
+    private fun replay(segment: Segment, verify: Boolean, now: Long): Long {
+        val length = segment.file.length()
+        if (length == 0L) return 0
+        val buffer = map(segment.file, length)
+
+        var position = 0
+        while (length - position >= 4) {
+            val recordLength = buffer.getInt(position)
+            val end = position.toLong() + 4 + recordLength
+            if (recordLength < 1 + 2 + CRC_BYTES || end > length) break
+            if (verify && !checkCrc(buffer, position + 4, recordLength - CRC_BYTES, buffer.getInt(end.toInt() - CRC_BYTES))) break
+
+            buffer.position(position + 4)
+            val type = buffer.get()
+            val id = readId(buffer)
+            when (type) {
+                PUT -> {
+                    val entry = readPut(buffer, id)
+                    entry.segment = segment.number
+                    entry.blobOffset = buffer.position().toLong()
+                    entry.recordBytes = recordLength + 4
+                    entry.deliveredInPut = entry.delivered
+                    entries[id]?.let { unindex(it) }
+                    if (!entry.isExpired(now)) index(entry)
+                }
+                DELIVERED -> {
+                    val deliveredAt = buffer.long
+                    entries[id]?.let { if (!it.delivered) setDelivered(it, deliveredAt) }
+                }
+                DELETE -> entries[id]?.let { remove(it) }
+                else -> break
+            }
+            position = end.toInt()
+        }
+
+        return position.toLong()
+    }
+
+    private fun readId(buffer: ByteBuffer): String {
+        val idBytes = ByteArray(buffer.short.toInt() and 0xFFFF)
+        buffer.get(idBytes)
+        return String(idBytes, Charsets.UTF_8)
+    }
+
+    private fun readPut(buffer: ByteBuffer, id: String): Entry {
+        val recipientHash = buffer.long
+        val senderHash = buffer.long
+        val receivedAt = buffer.long
+        val expiresAt = buffer.long
+        val deliveredAt = buffer.long
+        val size = buffer.int
+        return Entry(id, recipientHash, senderHash, receivedAt, expiresAt, size, deliveredAt)
+    }
+
+    private fun checkCrc(buffer: ByteBuffer, start: Int, bytes: Int, expected: Int): Boolean {
+        val record = ByteArray(bytes)
+        val view = buffer.duplicate()
+        view.position(start)
+        view.get(record)
+        crc.reset()
+        crc.update(record, 0, bytes)
+        return crc.value.toInt() == expected
+    }
+
+    private fun map(file: File, length: Long): ByteBuffer =
+        RandomAccessFile(file, "r").use { it.channel.map(FileChannel.MapMode.READ_ONLY, 0, length) }
+
+    // ============ Compaction ============
+
+    /**
+     * Copy what a sealed segment still needs to a new file, then swap it in under the same number:
+     * - PUTs of messages held, without the blob once delivered
+     * - DELIVERED and DELETE records for a PUT in an earlier segment
+     */
+    private fun compactSegment(segment: Segment, now: Long) {
+        val target = File(dir, segment.file.name + COMPACT_SUFFIX)
+        val source = map(segment.file, segment.bytes)
+        val moved = ArrayList<Entry>()
+        val offsets = ArrayList<Long>()
+        var written = 0L
+
+        RandomAccessFile(target, "rw").use { out ->
+            out.setLength(0)
+            val channel = out.channel
+            fun copy(vararg buffers: ByteBuffer) {
+                while (buffers.any { it.hasRemaining() }) written += channel.write(buffers)
+            }
+
+            var position = 0
+            while (position < segment.bytes) {
+                val end = position + 4 + source.getInt(position)
+                source.position(position + 4)
+                val type = source.get()
+                val id = readId(source)
+                val entry = entries[id]
+
+                when (type) {
+                    PUT -> if (entry != null && entry.segment == segment.number && !entry.isExpired(now)
+                        && entry.blobOffset == source.position().toLong() + PUT_FIELDS) {
+                        val blob = ByteArray(if (entry.delivered) 0 else entry.size)
+                        source.position(source.position() + PUT_FIELDS)
+                        source.get(blob)
+                        val header = putHeader(entry, blob.size)
+                        moved.add(entry)
+                        offsets.add(written + header.limit())
+                        copy(header, ByteBuffer.wrap(blob), crc(header, blob))
+                    }
+                    DELIVERED -> if (entry != null && !entry.deliveredInPut && entry.segment < segment.number) {
+                        copy(slice(source, position, end))
+                    }
+                    DELETE -> if ((deletedFrom[id] ?: Int.MAX_VALUE) < segment.number) {
+                        copy(slice(source, position, end))
+                    }
+                }
+                position = end
+            }
+            channel.force(true)
+        }
+
+        segment.closeReader()
+        if (!target.renameTo(segment.file)) {
+            target.delete()
+            Timber.w("Relay log: could not replace segment ${segment.number}")
+            return
+        }
+
+        entries.values.filter { it.segment == segment.number && it.isExpired(now) }.forEach { unindex(it) }
+        for ((i, entry) in moved.withIndex()) {
+            if (entry.delivered) {
+                usedBytes -= entry.size
+                entry.size = 0
+                entry.deliveredInPut = true
+            }
+            entry.blobOffset = offsets[i]
+            entry.recordBytes = putHeader(entry, entry.size).limit() + entry.size + CRC_BYTES
+        }
+        //deletes of messages whose PUT was here are no longer needed
+        deletedFrom.values.removeAll { it == segment.number }
+        segment.bytes = written
+        segment.liveBytes = written
+        Timber.d("Relay log compacted segment ${segment.number} to $written bytes")
+    }
+
+    private fun slice(buffer: ByteBuffer, start: Int, end: Int): ByteBuffer {
+        val view = buffer.duplicate()
+        view.limit(end)
+        view.position(start)
+        return view
+    }
+}
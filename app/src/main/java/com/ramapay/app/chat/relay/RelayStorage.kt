@@ -3,15 +3,22 @@ package com.ramapay.app.chat.relay
 import android.content.Context
 import androidx.security.crypto.EncryptedFile
 import androidx.security.crypto.MasterKeys
+import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import kotlinx.coroutines.withContext
 import org.json.JSONArray
+import org.json.JSONException
 import org.json.JSONObject
 import timber.log.Timber
 import java.io.File
+import java.math.BigInteger
+import java.nio.ByteBuffer
 import java.security.MessageDigest
+import java.util.concurrent.atomic.AtomicBoolean
 import javax.inject.Inject
 import javax.inject.Singleton
 
@@ -27,11 +34,11 @@ import javax.inject.Singleton
  * Storage Structure:
  * ```
  * files/relay_messages/
- *   ├── index.json (encrypted message index)
- *   └── messages/
- *       ├── {messageId}.mcm (encrypted message files)
+ *   └── log/
+ *       ├── segment-00000000.log (append-only message log, see RelayMessageLog)
  *       └── ...
  * ```
+ * Storage written by earlier versions (index.json and messages/{messageId}.mcm) is moved into the log on initialize.
  */
 @Singleton
 class RelayStorage @Inject constructor(
@@ -39,6 +46,7 @@ class RelayStorage @Inject constructor(
 ) {
     companion object {
         private const val RELAY_DIR = "relay_messages"
+        private const val LOG_DIR = "log"
         private const val MESSAGES_DIR = "messages"
         private const val INDEX_FILE = "index.json"
         private const val MESSAGE_EXTENSION = ".mcm"
@@ -52,7 +60,7 @@ class RelayStorage @Inject constructor(
     }
     
     private val messagesDir: File by lazy {
-        File(relayDir, MESSAGES_DIR).also { it.mkdirs() }
+        File(relayDir, MESSAGES_DIR)
     }
     
     private val indexFile: File by lazy {
@@ -61,8 +69,13 @@ class RelayStorage @Inject constructor(
     
     private val mutex = Mutex()
     
-    // In-memory index for fast lookups
-    private val messageIndex = mutableMapOf<String, StoredMessage>()
+    // Message log with its in-memory index; only used while holding mutex
+    private val log: RelayMessageLog by lazy {
+        RelayMessageLog(File(relayDir, LOG_DIR))
+    }
+    
+    private val compactionScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val compacting = AtomicBoolean(false)
     
     /**
      * Stored message metadata.
@@ -127,13 +140,12 @@ class RelayStorage @Inject constructor(
         withContext(Dispatchers.IO) {
             mutex.withLock {
                 try {
-                    loadIndex()
-                    Timber.d("RelayStorage initialized with ${messageIndex.size} messages")
+                    migrateIndex()
+                    Timber.d("RelayStorage initialized with ${log.size} messages in ${log.segmentCount} segments")
                 } catch (e: Exception) {
                     Timber.e(e, "Failed to initialize RelayStorage")
-                    // Start fresh if index is corrupted
-                    messageIndex.clear()
                 }
+                compactIfNeeded()
             }
         }
     }
@@ -142,7 +154,10 @@ class RelayStorage @Inject constructor(
      * Check if we can accept more messages based on storage limit.
      */
     suspend fun canAccept(messageSize: Long, storageLimitMB: Long): Boolean {
-        val currentUsage = getCurrentStorageUsage()
+        return fits(getCurrentStorageUsage(), messageSize, storageLimitMB)
+    }
+    
+    private fun fits(currentUsage: Long, messageSize: Long, storageLimitMB: Long): Boolean {
         val limitBytes = storageLimitMB * 1024 * 1024
         return currentUsage + messageSize <= minOf(limitBytes, MAX_STORAGE_BYTES)
     }
@@ -170,12 +185,12 @@ class RelayStorage @Inject constructor(
             try {
                 val messageSize = encryptedBlob.size.toLong()
                 
-                // Check storage capacity
-                if (!canAccept(messageSize, storageLimitMB)) {
+                // Check storage capacity (canAccept would wait on the lock held here)
+                if (!fits(log.usedBytes, messageSize, storageLimitMB)) {
                     // Try cleanup first
                     cleanupExpiredInternal()
                     
-                    if (!canAccept(messageSize, storageLimitMB)) {
+                    if (!fits(log.usedBytes, messageSize, storageLimitMB)) {
                         Timber.w("Storage full, cannot accept message $messageId")
                         return@withContext false
                     }
@@ -184,24 +199,16 @@ class RelayStorage @Inject constructor(
                 val now = System.currentTimeMillis()
                 val ttlMs = ttlDays.toLong() * 24 * 60 * 60 * 1000
                 
-                val storedMessage = StoredMessage(
+                val entry = log.put(
                     id = messageId,
-                    recipientKeyHash = hashAddress(recipientAddress),
-                    senderKeyHash = hashAddress(senderAddress),
+                    recipientHash = hashAddress(recipientAddress),
+                    senderHash = hashAddress(senderAddress),
                     receivedAt = now,
                     expiresAt = now + ttlMs,
-                    size = messageSize
+                    blob = encryptedBlob
                 )
                 
-                // Write message file
-                val messageFile = File(messagesDir, "$messageId$MESSAGE_EXTENSION")
-                messageFile.writeBytes(encryptedBlob)
-                
-                // Update index
-                messageIndex[messageId] = storedMessage
-                saveIndex()
-                
-                Timber.d("Stored message $messageId for ${storedMessage.recipientKeyHash} (${messageSize} bytes, TTL: $ttlDays days)")
+                Timber.d("Stored message $messageId for ${toHex(entry.recipientHash)} (${messageSize} bytes, TTL: $ttlDays days)")
                 true
                 
             } catch (e: Exception) {
@@ -216,23 +223,12 @@ class RelayStorage @Inject constructor(
      */
     suspend fun getMessagesFor(recipientAddress: String): List<FullMessage> = withContext(Dispatchers.IO) {
         mutex.withLock {
-            val recipientHash = hashAddress(recipientAddress)
-            val now = System.currentTimeMillis()
-            
-            messageIndex.values
-                .filter { it.recipientKeyHash == recipientHash && !it.isExpired() && !it.delivered }
-                .mapNotNull { metadata ->
+            log.pendingFor(hashAddress(recipientAddress), System.currentTimeMillis())
+                .mapNotNull { entry ->
                     try {
-                        val messageFile = File(messagesDir, "${metadata.id}$MESSAGE_EXTENSION")
-                        if (messageFile.exists()) {
-                            FullMessage(metadata, messageFile.readBytes())
-                        } else {
-                            // Clean up orphaned index entry
-                            messageIndex.remove(metadata.id)
-                            null
-                        }
+                        FullMessage(toStoredMessage(entry), log.readBlob(entry))
                     } catch (e: Exception) {
-                        Timber.e(e, "Failed to read message ${metadata.id}")
+                        Timber.e(e, "Failed to read message ${entry.id}")
                         null
                     }
                 }
@@ -244,21 +240,15 @@ class RelayStorage @Inject constructor(
      */
     suspend fun markDelivered(messageId: String): Boolean = withContext(Dispatchers.IO) {
         mutex.withLock {
-            val message = messageIndex[messageId] ?: return@withContext false
-            
-            // Update metadata
-            messageIndex[messageId] = message.copy(
-                delivered = true,
-                deliveredAt = System.currentTimeMillis()
-            )
-            
-            // Delete the message file (no longer needed)
-            val messageFile = File(messagesDir, "$messageId$MESSAGE_EXTENSION")
-            if (messageFile.exists()) {
-                messageFile.delete()
+            try {
+                // The blob is dropped when its segment is compacted
+                if (!log.markDelivered(messageId, System.currentTimeMillis())) return@withContext false
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to mark message $messageId delivered")
+                return@withContext false
             }
             
-            saveIndex()
+            compactIfNeeded()
             Timber.d("Marked message $messageId as delivered")
             true
         }
@@ -269,13 +259,13 @@ class RelayStorage @Inject constructor(
      */
     suspend fun delete(messageId: String) = withContext(Dispatchers.IO) {
         mutex.withLock {
-            messageIndex.remove(messageId)
-            val messageFile = File(messagesDir, "$messageId$MESSAGE_EXTENSION")
-            if (messageFile.exists()) {
-                messageFile.delete()
+            try {
+                log.delete(messageId)
+                compactIfNeeded()
+                Timber.d("Deleted message $messageId")
+            } catch (e: Exception) {
+                Timber.e(e, "Failed to delete message $messageId")
             }
-            saveIndex()
-            Timber.d("Deleted message $messageId")
         }
     }
     
@@ -290,34 +280,48 @@ class RelayStorage @Inject constructor(
     }
     
     private fun cleanupExpiredInternal(): Int {
-        val now = System.currentTimeMillis()
-        val expiredIds = messageIndex.values
-            .filter { it.expiresAt < now || it.delivered }
-            .map { it.id }
-        
-        var cleanedCount = 0
-        for (id in expiredIds) {
-            messageIndex.remove(id)
-            val messageFile = File(messagesDir, "$id$MESSAGE_EXTENSION")
-            if (messageFile.exists() && messageFile.delete()) {
-                cleanedCount++
-            }
+        val cleanedCount = try {
+            log.removeDeliveredAndExpired(System.currentTimeMillis())
+        } catch (e: Exception) {
+            Timber.e(e, "Failed to clean up messages")
+            0
         }
         
         if (cleanedCount > 0) {
-            saveIndex()
             Timber.d("Cleaned up $cleanedCount expired/delivered messages")
+            compactIfNeeded()
         }
         
         return cleanedCount
     }
     
+    /**
+     * Compact mostly dead log segments in the background, once at a time.
+     * Called with mutex held; the compaction takes it again when it runs.
+     */
+    private fun compactIfNeeded() {
+        if (!log.needsCompaction() || !compacting.compareAndSet(false, true)) return
+        
+        compactionScope.launch {
+            try {
+                mutex.withLock {
+                    val compacted = log.compact(System.currentTimeMillis())
+                    Timber.d("Compacted $compacted relay log segments")
+                }
+            } catch (e: Exception) {
+                Timber.e(e, "Relay log compaction failed")
+            } finally {
+                compacting.set(false)
+            }
+        }
+    }
+    
     /**
      * Get current storage usage in bytes.
      */
     suspend fun getCurrentStorageUsage(): Long = withContext(Dispatchers.IO) {
         mutex.withLock {
-            messageIndex.values.sumOf { it.size }
+            log.usedBytes
         }
     }
     
@@ -333,7 +337,8 @@ class RelayStorage @Inject constructor(
      */
     suspend fun getPendingMessageCount(): Int = withContext(Dispatchers.IO) {
         mutex.withLock {
-            messageIndex.values.count { !it.delivered && !it.isExpired() }
+            val now = System.currentTimeMillis()
+            log.entries().count { !it.delivered && !it.isExpired(now) }
         }
     }
     
@@ -342,7 +347,7 @@ class RelayStorage @Inject constructor(
      */
     suspend fun getDeliveredCount(): Int = withContext(Dispatchers.IO) {
         mutex.withLock {
-            messageIndex.values.count { it.delivered }
+            log.entries().count { it.delivered }
         }
     }
     
@@ -351,14 +356,14 @@ class RelayStorage @Inject constructor(
      */
     suspend fun getStatistics(): StorageStatistics = withContext(Dispatchers.IO) {
         mutex.withLock {
-            val pending = messageIndex.values.filter { !it.delivered && !it.isExpired() }
-            val delivered = messageIndex.values.filter { it.delivered }
+            val now = System.currentTimeMillis()
+            val pending = log.entries().filter { !it.delivered && !it.isExpired(now) }
             
             StorageStatistics(
                 pendingMessages = pending.size,
-                deliveredMessages = delivered.size,
-                pendingStorageBytes = pending.sumOf { it.size },
-                totalStorageBytes = getCurrentStorageUsage(),
+                deliveredMessages = log.entries().count { it.delivered },
+                pendingStorageBytes = pending.sumOf { it.size.toLong() },
+                totalStorageBytes = log.usedBytes,
                 oldestMessageTimestamp = pending.minOfOrNull { it.receivedAt },
                 newestMessageTimestamp = pending.maxOfOrNull { it.receivedAt }
             )
@@ -377,50 +382,76 @@ class RelayStorage @Inject constructor(
     /**
      * Hash address to first 8 bytes for privacy.
      */
-    private fun hashAddress(address: String): String {
+    private fun hashAddress(address: String): Long {
         val digest = MessageDigest.getInstance("SHA-256")
         val hash = digest.digest(address.lowercase().toByteArray())
-        return hash.take(8).joinToString("") { "%02x".format(it) }
+        return ByteBuffer.wrap(hash).long
     }
     
+    private fun toHex(keyHash: Long): String = "%016x".format(keyHash)
+    
+    private fun fromHex(keyHash: String): Long = BigInteger(keyHash, 16).toLong()
+    
+    private fun toStoredMessage(entry: RelayMessageLog.Entry) = StoredMessage(
+        id = entry.id,
+        recipientKeyHash = toHex(entry.recipientHash),
+        senderKeyHash = toHex(entry.senderHash),
+        receivedAt = entry.receivedAt,
+        expiresAt = entry.expiresAt,
+        size = entry.size.toLong(),
+        delivered = entry.delivered,
+        deliveredAt = if (entry.delivered) entry.deliveredAt else null
+    )
+    
     /**
-     * Load index from disk.
+     * Move pending messages from the JSON index and message files of earlier versions into the log.
+     * The old files are only deleted once the log has synced; if the migration fails they are kept and it is retried
+     * on the next initialize.
      */
-    private fun loadIndex() {
-        messageIndex.clear()
-        
+    private fun migrateIndex() {
         if (!indexFile.exists()) {
             return
         }
         
-        try {
-            val json = indexFile.readText()
-            val array = JSONArray(json)
-            
-            for (i in 0 until array.length()) {
-                val messageJson = array.getJSONObject(i)
-                val message = StoredMessage.fromJson(messageJson)
-                messageIndex[message.id] = message
+        val array = try {
+            JSONArray(indexFile.readText())
+        } catch (e: JSONException) {
+            Timber.e(e, "Relay index is unreadable, dropping it")
+            deleteIndex()
+            return
+        }
+        
+        var migrated = 0
+        for (i in 0 until array.length()) {
+            val message = try {
+                StoredMessage.fromJson(array.getJSONObject(i))
+            } catch (e: JSONException) {
+                Timber.w(e, "Skipping unreadable relay index entry")
+                continue
             }
-        } catch (e: Exception) {
-            Timber.e(e, "Failed to load index, starting fresh")
-            messageIndex.clear()
+            val messageFile = File(messagesDir, "${message.id}$MESSAGE_EXTENSION")
+            if (message.delivered || message.isExpired() || !messageFile.exists()) continue
+            if (log.get(message.id) != null) continue // moved by an earlier attempt
+            
+            log.put(
+                id = message.id,
+                recipientHash = fromHex(message.recipientKeyHash),
+                senderHash = fromHex(message.senderKeyHash),
+                receivedAt = message.receivedAt,
+                expiresAt = message.expiresAt,
+                blob = messageFile.readBytes()
+            )
+            migrated++
         }
+        
+        log.sync()
+        Timber.d("Migrated $migrated relay messages to the message log")
+        deleteIndex()
     }
     
-    /**
-     * Save index to disk.
-     */
-    private fun saveIndex() {
-        try {
-            val array = JSONArray()
-            messageIndex.values.forEach { message ->
-                array.put(message.toJson())
-            }
-            indexFile.writeText(array.toString())
-        } catch (e: Exception) {
-            Timber.e(e, "Failed to save index")
-        }
+    private fun deleteIndex() {
+        messagesDir.deleteRecursively()
+        indexFile.delete()
     }
     
     /**
@@ -428,8 +459,8 @@ class RelayStorage @Inject constructor(
      */
     suspend fun clearAll() = withContext(Dispatchers.IO) {
         mutex.withLock {
-            messageIndex.clear()
-            messagesDir.listFiles()?.forEach { it.delete() }
+            log.clear()
+            messagesDir.deleteRecursively()
             if (indexFile.exists()) {
                 indexFile.delete()
             }
@@ -20,6 +20,7 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.ramapay.app.R
 import com.ramapay.app.chat.core.ChatService
@@ -42,6 +43,7 @@ class ConversationActivity : AppCompatActivity() {
     companion object {
         const val EXTRA_CONVERSATION_ID = "conversation_id"
         const val EXTRA_PEER_ADDRESS = "peer_address"
+        private const val LOAD_OLDER_THRESHOLD = 10
     }
 
     private lateinit var binding: ActivityConversationBinding
@@ -49,6 +51,7 @@ class ConversationActivity : AppCompatActivity() {
     private lateinit var messageAdapter: MessageListAdapter
     private var peerAddress: String = ""
     private var isUserBlocked: Boolean = false
+    private var newestMessageId: String? = null
     
     @Inject
     lateinit var chatService: ChatService
@@ -324,7 +327,7 @@ class ConversationActivity : AppCompatActivity() {
     
     private fun exportChat() {
         lifecycleScope.launch {
-            val messages = viewModel.messages.value
+            val messages = viewModel.getAllMessages()
             if (messages.isEmpty()) {
                 Toast.makeText(this@ConversationActivity, "No messages to export", Toast.LENGTH_SHORT).show()
                 return@launch
@@ -377,6 +380,15 @@ class ConversationActivity : AppCompatActivity() {
                 reverseLayout = false
             }
             adapter = messageAdapter
+            addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    // Load older messages as the top comes into view
+                    val first = (recyclerView.layoutManager as LinearLayoutManager).findFirstVisibleItemPosition()
+                    if (dy < 0 && first in 0 until LOAD_OLDER_THRESHOLD) {
+                        viewModel.loadOlderMessages()
+                    }
+                }
+            })
         }
     }
     
@@ -465,8 +477,10 @@ class ConversationActivity : AppCompatActivity() {
                 launch {
                     viewModel.messages.collect { messages ->
                         messageAdapter.submitList(messages)
-                        // Scroll to bottom on new message
-                        if (messages.isNotEmpty()) {
+                        // Scroll to bottom on new message, not when older ones are loaded above
+                        val newest = messages.lastOrNull()?.id
+                        if (newest != null && newest != newestMessageId) {
+                            newestMessageId = newest
                             binding.recyclerMessages.post {
                                 binding.recyclerMessages.smoothScrollToPosition(messages.size - 1)
                             }
@@ -15,6 +15,7 @@ import androidx.lifecycle.Lifecycle
 import androidx.lifecycle.lifecycleScope
 import androidx.lifecycle.repeatOnLifecycle
 import androidx.recyclerview.widget.LinearLayoutManager
+import androidx.recyclerview.widget.RecyclerView
 import com.google.android.material.dialog.MaterialAlertDialogBuilder
 import com.ramapay.app.R
 import com.ramapay.app.chat.core.ChatService
@@ -35,7 +36,8 @@ class GroupChatActivity : AppCompatActivity() {
 
     companion object {
         const val EXTRA_GROUP_ID = "group_id"
-        
+        private const val LOAD_OLDER_THRESHOLD = 10
+
         fun createIntent(context: Context, groupId: String): Intent {
             return Intent(context, GroupChatActivity::class.java).apply {
                 putExtra(EXTRA_GROUP_ID, groupId)
@@ -47,6 +49,7 @@ class GroupChatActivity : AppCompatActivity() {
     private val viewModel: GroupChatViewModel by viewModels()
     private lateinit var messageAdapter: MessageListAdapter
     private var groupId: String = ""
+    private var newestMessageId: String? = null
 
     @Inject
     lateinit var chatService: ChatService
@@ -152,6 +155,15 @@ class GroupChatActivity : AppCompatActivity() {
                 reverseLayout = false
             }
             adapter = messageAdapter
+            addOnScrollListener(object : RecyclerView.OnScrollListener() {
+                override fun onScrolled(recyclerView: RecyclerView, dx: Int, dy: Int) {
+                    // Load older messages as the top comes into view
+                    val first = (recyclerView.layoutManager as LinearLayoutManager).findFirstVisibleItemPosition()
+                    if (dy < 0 && first in 0 until LOAD_OLDER_THRESHOLD) {
+                        viewModel.loadOlderMessages()
+                    }
+                }
+            })
         }
     }
 
@@ -234,7 +246,10 @@ class GroupChatActivity : AppCompatActivity() {
                 launch {
                     viewModel.messages.collect { messages ->
                         messageAdapter.submitList(messages)
-                        if (messages.isNotEmpty()) {
+                        // Scroll to bottom on new message, not when older ones are loaded above
+                        val newest = messages.lastOrNull()?.id
+                        if (newest != null && newest != newestMessageId) {
+                            newestMessageId = newest
                             binding.recyclerMessages.post {
                                 binding.recyclerMessages.smoothScrollToPosition(messages.size - 1)
                             }
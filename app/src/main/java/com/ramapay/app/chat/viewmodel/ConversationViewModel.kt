@@ -9,15 +9,15 @@ import com.ramapay.app.chat.data.entity.ContactEntity
 import com.ramapay.app.chat.data.entity.MessageEntity
 import com.ramapay.app.chat.data.entity.MessageType
 import com.ramapay.app.chat.data.repository.ConversationRepository
+import com.ramapay.app.chat.data.repository.MessagePager
 import com.ramapay.app.chat.data.repository.MessageRepository
 import com.ramapay.app.chat.blockchain.MumbleChatBlockchainService
 import dagger.hilt.android.lifecycle.HiltViewModel
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
-import kotlinx.coroutines.flow.stateIn
+import kotlinx.coroutines.flow.first
 import kotlinx.coroutines.launch
 import timber.log.Timber
 import javax.inject.Inject
@@ -65,6 +65,9 @@ class ConversationViewModel @Inject constructor(
 
     private var typingJob: Job? = null
 
+    private var pager: MessagePager? = null
+    private var loadOlderJob: Job? = null
+
     /**
      * Load conversation and messages.
      */
@@ -84,16 +87,46 @@ class ConversationViewModel @Inject constructor(
             conversationRepository.markAsRead(convId)
         }
 
-        // Observe messages
+        // Observe the latest page of messages, reaching back as older ones are loaded
+        val messagePager = messageRepository.pageConversation(convId)
+        pager = messagePager
         viewModelScope.launch {
-            messageRepository.getMessagesForConversation(convId)
-                .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
-                .collect { messageList ->
-                    _messages.value = messageList
-                }
+            messagePager.messages.collect { messageList ->
+                _messages.value = messageList
+            }
+        }
+        viewModelScope.launch {
+            messagePager.loadLatest()
+        }
+    }
+
+    /**
+     * Load the page of messages before those shown, e.g. when scrolled near the top.
+     */
+    fun loadOlderMessages() {
+        val messagePager = pager ?: return
+        if (messagePager.reachedStart || loadOlderJob?.isActive == true) return
+        loadOlderJob = viewModelScope.launch {
+            messagePager.loadOlder()
         }
     }
 
+    /**
+     * Every message in the conversation, not just those loaded, for export.
+     */
+    suspend fun getAllMessages(): List<MessageEntity> {
+        val id = conversationId ?: return emptyList()
+        return messageRepository.getMessagesForConversation(id).first()
+    }
+
+    /**
+     * Search this conversation's messages, newest first.
+     */
+    suspend fun searchMessages(text: String): List<MessageEntity> {
+        val id = conversationId ?: return emptyList()
+        return messageRepository.searchConversation(id, text)
+    }
+
     /**
      * Send a text message.
      */
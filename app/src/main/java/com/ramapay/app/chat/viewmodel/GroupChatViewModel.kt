@@ -8,13 +8,13 @@ import com.ramapay.app.chat.data.entity.GroupEntity
 import com.ramapay.app.chat.data.entity.MessageEntity
 import com.ramapay.app.chat.data.entity.MessageType
 import com.ramapay.app.chat.data.repository.GroupRepository
+import com.ramapay.app.chat.data.repository.MessagePager
 import com.ramapay.app.chat.data.repository.MessageRepository
 import dagger.hilt.android.lifecycle.HiltViewModel
+import kotlinx.coroutines.Job
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
-import kotlinx.coroutines.flow.SharingStarted
 import kotlinx.coroutines.flow.StateFlow
-import kotlinx.coroutines.flow.stateIn
 import kotlinx.coroutines.launch
 import timber.log.Timber
 import javax.inject.Inject
@@ -32,6 +32,9 @@ class GroupChatViewModel @Inject constructor(
 
     private var groupId: String? = null
 
+    private var pager: MessagePager? = null
+    private var loadOlderJob: Job? = null
+
     val currentWalletAddress: String
         get() = walletBridge.getCurrentWalletAddress() ?: ""
 
@@ -72,13 +75,27 @@ class GroupChatViewModel @Inject constructor(
             groupRepository.markAsRead(id)
         }
 
-        // Observe messages
+        // Observe the latest page of messages, reaching back as older ones are loaded
+        val messagePager = messageRepository.pageGroup(id)
+        pager = messagePager
         viewModelScope.launch {
-            messageRepository.getMessagesForGroup(id)
-                .stateIn(viewModelScope, SharingStarted.WhileSubscribed(5000), emptyList())
-                .collect { messageList ->
-                    _messages.value = messageList
-                }
+            messagePager.messages.collect { messageList ->
+                _messages.value = messageList
+            }
+        }
+        viewModelScope.launch {
+            messagePager.loadLatest()
+        }
+    }
+
+    /**
+     * Load the page of messages before those shown, e.g. when scrolled near the top.
+     */
+    fun loadOlderMessages() {
+        val messagePager = pager ?: return
+        if (messagePager.reachedStart || loadOlderJob?.isActive == true) return
+        loadOlderJob = viewModelScope.launch {
+            messagePager.loadOlder()
         }
     }
 
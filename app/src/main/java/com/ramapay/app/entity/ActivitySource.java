@@ -0,0 +1,42 @@
+package com.ramapay.app.entity;
+
+import com.ramapay.app.ui.widget.entity.TokenTransferData;
+
+import java.util.List;
+
+/**
+ * Wallet activity read on demand from live, newest first cursors, so a long history is never copied into memory.
+ * Transactions and event cards are separate sequences; the reader merges them by time.
+ */
+public interface ActivitySource
+{
+    int getTransactionCount();
+
+    /**
+     * @return time of the transaction at index, in seconds
+     */
+    long getTransactionTime(int index);
+
+    TransactionMeta getTransaction(int index);
+
+    /**
+     * @return token transfers caused by the transaction, newest first
+     */
+    List<TokenTransferData> getTransfers(TransactionMeta tm);
+
+    int getEventCount();
+
+    /**
+     * @return time of the event at index, in seconds
+     */
+    long getEventTime(int index);
+
+    EventMeta getEvent(int index);
+
+    /**
+     * @param listener called when rows are added, removed or changed
+     */
+    void setChangeListener(Runnable listener);
+
+    void close();
+}
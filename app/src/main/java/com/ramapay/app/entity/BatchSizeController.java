@@ -0,0 +1,188 @@
+package com.ramapay.app.entity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Learns the JSON-RPC batch size each chain's node will accept.
+ *
+ * A chain with no history starts with a small probe batch. After GROW_AFTER full batches succeed the limit doubles,
+ * up to the chain ceiling. A rejected batch halves the limit; once it falls below MIN_BATCH batching is switched
+ * off for RETRY_INTERVAL, after which the chain is probed again. An oversized response is a payload problem rather
+ * than a capability problem, so it only shrinks the limit.
+ *
+ * Learned limits are handed to the Store so they survive a restart. The Store is read on first use rather than when
+ * it is attached, so attaching it never blocks the caller on storage.
+ */
+public class BatchSizeController
+{
+    public static final int PROBE_BATCH = 4;
+    public static final int MIN_BATCH = 2;
+    public static final int GROW_AFTER = 3;
+    public static final long RETRY_INTERVAL = 24 * 60 * 60 * 1000L;
+
+    public interface Store
+    {
+        Map<Long, Limit> load();
+        void save(long chainId, Limit limit);
+    }
+
+    public static class Limit
+    {
+        public final int batchLimit;
+        public final long timeStamp;
+
+        public Limit(int batchLimit, long timeStamp)
+        {
+            this.batchLimit = batchLimit;
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    private static class ChainState
+    {
+        int limit;
+        int successes;
+        long disabledUntil;
+    }
+
+    private final Map<Long, ChainState> chainStates = new ConcurrentHashMap<>();
+    private final LongToIntFunction ceiling;
+    private volatile Store store;
+    private volatile boolean storeLoaded = true;
+
+    public BatchSizeController(LongToIntFunction ceiling)
+    {
+        this.ceiling = ceiling;
+    }
+
+    /**
+     * Attach persistent storage; the learned limits are seeded from it on first use
+     */
+    public void setStore(Store store)
+    {
+        this.store = store;
+        this.storeLoaded = store == null;
+    }
+
+    /**
+     * @return number of requests to send per batch; 0 means don't batch
+     */
+    public int getLimit(long chainId)
+    {
+        ChainState state = getState(chainId);
+        synchronized (state)
+        {
+            if (state.limit == 0 && state.disabledUntil > 0 && System.currentTimeMillis() > state.disabledUntil)
+            {
+                //time to probe this chain again
+                state.limit = Math.min(PROBE_BATCH, ceiling.applyAsInt(chainId));
+                state.disabledUntil = 0;
+                state.successes = 0;
+            }
+
+            return state.limit;
+        }
+    }
+
+    public void onSuccess(long chainId, int batchSize)
+    {
+        ChainState state = getState(chainId);
+        int newLimit;
+        synchronized (state)
+        {
+            //only a full batch tells us the node can take the current limit
+            if (state.limit == 0 || batchSize < state.limit) return;
+            if (++state.successes < GROW_AFTER) return;
+
+            state.successes = 0;
+            newLimit = Math.min(state.limit * 2, ceiling.applyAsInt(chainId));
+            if (newLimit == state.limit) return;
+            state.limit = newLimit;
+        }
+
+        persist(chainId, newLimit);
+    }
+
+    public void onError(long chainId)
+    {
+        ChainState state = getState(chainId);
+        int newLimit;
+        synchronized (state)
+        {
+            if (state.limit == 0) return;
+            state.successes = 0;
+            newLimit = state.limit / 2;
+            if (newLimit < MIN_BATCH)
+            {
+                newLimit = 0;
+                state.disabledUntil = System.currentTimeMillis() + RETRY_INTERVAL;
+            }
+            state.limit = newLimit;
+        }
+
+        persist(chainId, newLimit);
+    }
+
+    public void onOversizedResponse(long chainId, int batchSize)
+    {
+        ChainState state = getState(chainId);
+        int newLimit;
+        synchronized (state)
+        {
+            state.successes = 0;
+            newLimit = Math.max(MIN_BATCH, Math.min(state.limit, batchSize) / 2);
+            if (newLimit == state.limit) return;
+            state.limit = newLimit;
+        }
+
+        persist(chainId, newLimit);
+    }
+
+    /**
+     * Node messages for a batch that was understood but produced too large a response. Rate limiting (429) is not one:
+     * splitting the batch would only send more requests to a node that is throttling.
+     */
+    public static boolean isOversizedResponse(String message)
+    {
+        if (message == null) return false;
+        String lower = message.toLowerCase();
+        if (lower.contains("429") || lower.contains("too many requests") || lower.contains("rate limit")) return false;
+        return lower.contains("413") || lower.contains("too large") || lower.contains("response size")
+                || (lower.contains("exceeds") && lower.contains("size"));
+    }
+
+    private ChainState getState(long chainId)
+    {
+        if (!storeLoaded) loadStore();
+        return chainStates.computeIfAbsent(chainId, id -> {
+            ChainState state = new ChainState();
+            state.limit = Math.min(PROBE_BATCH, ceiling.applyAsInt(id));
+            return state;
+        });
+    }
+
+    private synchronized void loadStore()
+    {
+        Store s = store;
+        if (storeLoaded || s == null) return;
+
+        for (Map.Entry<Long, Limit> entry : s.load().entrySet())
+        {
+            ChainState state = new ChainState();
+            Limit limit = entry.getValue();
+            state.limit = Math.min(limit.batchLimit, ceiling.applyAsInt(entry.getKey()));
+            state.disabledUntil = state.limit == 0 ? limit.timeStamp + RETRY_INTERVAL : 0;
+            chainStates.putIfAbsent(entry.getKey(), state);
+        }
+
+        storeLoaded = true;
+    }
+
+    private void persist(long chainId, int limit)
+    {
+        Store s = store;
+        if (s != null) s.save(chainId, new Limit(limit, System.currentTimeMillis()));
+    }
+}
@@ -3,6 +3,7 @@ package com.ramapay.app.entity;
 import android.util.Pair;
 
 import com.ramapay.app.entity.tokens.Token;
+import com.ramapay.app.entity.tokenscript.FunctionResultCache;
 import com.ramapay.app.repository.EthereumNetworkBase;
 import com.ramapay.app.repository.TokensRealmSource;
 import com.ramapay.app.repository.entity.RealmAuxData;
@@ -18,6 +19,7 @@ import org.web3j.protocol.core.DefaultBlockParameter;
 import org.web3j.protocol.core.Response;
 import org.web3j.protocol.core.methods.request.EthFilter;
 import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
 import org.web3j.utils.Numeric;
 
 import java.io.IOException;
@@ -44,7 +46,6 @@ public class EventSync
 
     private final Token token;
 
-    private static final HashSet<Long> batchProcessingError = new HashSet<>();
 
     public EventSync(Token token)
     {
@@ -367,6 +368,7 @@ public class EventSync
 
     public void updateEventReads(Realm realm, SyncDef sync, BigInteger currentBlock, int evReads)
     {
+        if (currentBlock != null) FunctionResultCache.getInstance().setChainBlock(token.tokenInfo.chainId, currentBlock.longValue());
         switch (sync.state)
         {
             //update current read-from block (either we completed a successful
@@ -470,6 +472,10 @@ public class EventSync
 
         HashSet<BigInteger> sendTokenIds = token.processLogsAndStoreTransferEvents(sendLogs, transferEvent, txHashes, realm);
 
+        //results of contract calls read before these transfers are now stale
+        FunctionResultCache.getInstance().onTransfers(token.tokenInfo.chainId, token.getAddress(),
+                Math.max(lastLogBlock(receiveLogs), lastLogBlock(sendLogs)));
+
         //register Transaction fetches
         for (String txHash : txHashes)
         {
@@ -479,35 +485,55 @@ public class EventSync
         return new Pair<>(eventCount, new Pair<>(rcvTokenIds, sendTokenIds));
     }
 
+    private static long lastLogBlock(EthLog ethLogs)
+    {
+        long block = 0;
+        for (EthLog.LogResult<?> ethLog : ethLogs.getLogs())
+        {
+            if (ethLog.get() instanceof Log && ((Log) ethLog.get()).getBlockNumber() != null)
+            {
+                block = Math.max(block, ((Log) ethLog.get()).getBlockNumber().longValue());
+            }
+        }
+
+        return block;
+    }
+
     private Pair<EthLog, EthLog> getTxLogs(Web3j web3j, EthFilter receiveFilter, EthFilter sendFilter) throws LogOverflowException, IOException
     {
-        if (EthereumNetworkBase.getBatchProcessingLimit(token.tokenInfo.chainId) > 0 && !batchProcessingError.contains(token.tokenInfo.chainId))
+        if (EthereumNetworkBase.getBatchProcessingLimit(token.tokenInfo.chainId) >= 2)
         {
             return getBatchTxLogs(web3j, receiveFilter, sendFilter);
         }
         else
         {
-            EthLog receiveLogs = web3j.ethGetLogs(receiveFilter).send();
+            return getSingleTxLogs(web3j, receiveFilter, sendFilter);
+        }
+    }
 
-            if (receiveLogs.hasError())
-            {
-                throw new LogOverflowException(receiveLogs.getError());
-            }
+    private Pair<EthLog, EthLog> getSingleTxLogs(Web3j web3j, EthFilter receiveFilter, EthFilter sendFilter) throws LogOverflowException, IOException
+    {
+        EthLog receiveLogs = web3j.ethGetLogs(receiveFilter).send();
 
-            EthLog sentLogs = web3j.ethGetLogs(sendFilter).send();
+        if (receiveLogs.hasError())
+        {
+            throw new LogOverflowException(receiveLogs.getError());
+        }
 
-            if (sentLogs.hasError())
-            {
-                throw new LogOverflowException(sentLogs.getError());
-            }
+        EthLog sentLogs = web3j.ethGetLogs(sendFilter).send();
 
-            return new Pair<>(receiveLogs, sentLogs);
+        if (sentLogs.hasError())
+        {
+            throw new LogOverflowException(sentLogs.getError());
         }
+
+        return new Pair<>(receiveLogs, sentLogs);
     }
 
     private Pair<EthLog, EthLog> getBatchTxLogs(Web3j web3j, EthFilter receiveFilter, EthFilter sendFilter) throws LogOverflowException, IOException
     {
         BatchResponse rsp;
+        long chainId = token.tokenInfo.chainId;
 
         try
         {
@@ -520,13 +546,22 @@ public class EventSync
         {
             rsp = null;
         }
+        catch (IOException e)
+        {
+            if (!BatchSizeController.isOversizedResponse(e.getMessage())) throw e;
+            //logs are too large to fetch together; the node can still batch
+            EthereumNetworkBase.setBatchResponseOversized(chainId, 2);
+            return getSingleTxLogs(web3j, receiveFilter, sendFilter);
+        }
 
         if (rsp == null || rsp.getResponses().size() != 2)
         {
-            batchProcessingError.add(token.tokenInfo.chainId);
-            return getTxLogs(web3j, receiveFilter, sendFilter);
+            EthereumNetworkBase.setBatchProcessingError(chainId);
+            return getSingleTxLogs(web3j, receiveFilter, sendFilter);
         }
 
+        EthereumNetworkBase.setBatchProcessingSuccess(chainId, 2);
+
         EthLog receiveLogs = (EthLog) rsp.getResponses().get(0);
         EthLog sendLogs = (EthLog) rsp.getResponses().get(1);
 
@@ -25,6 +25,8 @@ import org.web3j.utils.Numeric;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 /**
@@ -64,6 +66,17 @@ public class Transaction implements Parcelable
     public static final TransactionDecoder decoder = new TransactionDecoder();
     public static ParseMagicLink parser = null;
 
+    //decoded inputs of recently viewed transactions, so rebinding the Activity list doesn't decode again
+    private static final int DECODE_CACHE_SIZE = 256;
+    private static final Map<String, TransactionInput> decodedInputs = new LinkedHashMap<String, TransactionInput>(DECODE_CACHE_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, TransactionInput> eldest)
+        {
+            return size() > DECODE_CACHE_SIZE;
+        }
+    };
+
     //placeholder for error
     public Transaction()
     {
@@ -704,7 +717,29 @@ public class Transaction implements Parcelable
     {
         if (transactionInput == null && hasInput() && Utils.isAddressValid(walletAddress))
         {
-            transactionInput = decoder.decodeInput(this, walletAddress);
+            if (TextUtils.isEmpty(hash))
+            {
+                transactionInput = decoder.decodeInput(this, walletAddress);
+                return;
+            }
+
+            String key = chainId + "-" + hash + "-" + walletAddress.toLowerCase(Locale.ROOT);
+            TransactionInput decoded;
+            synchronized (decodedInputs)
+            {
+                decoded = decodedInputs.get(key);
+            }
+
+            if (decoded == null)
+            {
+                decoded = decoder.decodeInput(this, walletAddress);
+                synchronized (decodedInputs)
+                {
+                    decodedInputs.put(key, decoded);
+                }
+            }
+
+            transactionInput = new TransactionInput(decoded); //own copy as the type may be adjusted for the token being viewed
         }
     }
 
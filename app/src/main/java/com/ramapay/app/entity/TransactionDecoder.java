@@ -1,7 +1,6 @@
 package com.ramapay.app.entity;
 
 import static com.ramapay.app.entity.TransactionDecoder.ReadState.ARGS;
-import static org.web3j.crypto.Keys.ADDRESS_LENGTH_IN_HEX;
 
 import com.ramapay.app.web3.entity.Web3Transaction;
 
@@ -10,9 +9,8 @@ import org.web3j.crypto.Sign;
 import org.web3j.utils.Numeric;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import timber.log.Timber;
@@ -20,24 +18,34 @@ import timber.log.Timber;
 /**
  * Created by James on 2/02/2018.
  *
- * TransactionDecoder currently only decode a transaction input in the
- * string format, which is strictly a string starting with "0x" and
- * with an even number of hex digits followed. (Probably should be
- * bytes but we work with string for now.) It is used only for one
- * thing at the moment: decodeInput(), which returns the decoded
- * input.
+ * TransactionDecoder decodes a transaction input, a string starting with "0x" followed by an even number of hex
+ * digits. The input is converted to bytes once and read with a per-call cursor, so a single decoder can be shared
+ * between threads; known function selectors are held as ints in a sorted table built once for all decoders.
  */
 
 public class TransactionDecoder
 {
     public static final int FUNCTION_LENGTH = 10;
-    private final static List<String> endContractSignatures = new ArrayList<>();
+    private static final int SELECTOR_LENGTH = 4;
+    private static final int WORD_LENGTH = 32;
+    private static final int ADDRESS_LENGTH = 20;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
 
-    private int parseIndex;
-    private Map<String, FunctionData> functionList;
+    private static final String[] endContractSignatures = {
+            buildMethodId("endContract()"),
+            buildMethodId("selfdestruct()"),
+            buildMethodId("kill()") };
 
-    private ReadState state = ARGS;
-    private int sigCount = 0;
+    //contract type heuristics for getContractType
+    private static final String BALANCE_METHOD = Numeric.cleanHexPrefix(buildMethodId("balanceOf(address)"));
+    private static final String IS_STORMBIRD = Numeric.cleanHexPrefix(buildMethodId("isStormBirdContract()"));
+    private static final String IS_STORMBIRD2 = Numeric.cleanHexPrefix(buildMethodId("isStormBird()"));
+    private static final String TRADE = Numeric.cleanHexPrefix(buildMethodId("trade(uint256,uint256[],uint8,bytes32,bytes32)"));
+    private static final String TRADE_LEGACY = Numeric.cleanHexPrefix(buildMethodId("trade(uint256,uint16[],uint8,bytes32,bytes32)"));
+
+    private static final SelectorTable knownFunctions = buildKnownFunctions();
+
+    private volatile SelectorTable functionTable;
 
     private FunctionData getUnknownFunction()
     {
@@ -46,16 +54,14 @@ public class TransactionDecoder
 
     public TransactionDecoder()
     {
-        setupKnownFunctions();
+        functionTable = knownFunctions;
     }
 
     public TransactionInput decodeInput(String input)
     {
-        ParseStage parseState = ParseStage.PARSE_FUNCTION;
-        parseIndex = 0;
         //1. check function
         TransactionInput thisData = new TransactionInput();
-        if (input == null || input.length() < 10)
+        if (input == null || input.length() < FUNCTION_LENGTH)
         {
             thisData.functionData = getUnknownFunction();
             return thisData;
@@ -63,25 +69,9 @@ public class TransactionDecoder
 
         try
         {
-            while (parseIndex < input.length() && !(parseState == ParseStage.FINISH))
+            if (setFunction(thisData, input) == ParseStage.PARSE_ARGS)
             {
-                switch (parseState)
-                {
-                    case PARSE_FUNCTION: //get function
-                        parseState = setFunction(thisData, readBytes(input, FUNCTION_LENGTH), input.length());
-                        break;
-                    case PARSE_ARGS: //now get params
-                        parseState = getParams(thisData, input);
-                        break;
-                    case FINISH:
-                        break;
-                    case ERROR:
-                        //Perform any future error handling here
-                        parseState = ParseStage.FINISH;
-                        break;
-                }
-
-                if (parseIndex < 0) break; //error
+                getParams(thisData, new Calldata(input));
             }
         }
         catch (Exception e)
@@ -108,24 +98,20 @@ public class TransactionDecoder
         return thisData;
     }
 
-    private ParseStage setFunction(TransactionInput thisData, String input, int length)
+    private ParseStage setFunction(TransactionInput thisData, String input)
     {
         //first get expected arg list:
-        FunctionData data = functionList.get(input);
+        long selector = readSelector(input);
+        FunctionData data = selector >= 0 ? functionTable.get((int) selector) : null;
 
         if (data != null)
         {
             thisData.functionData = data;
-            thisData.arrayValues.clear();
-            thisData.addresses.clear();
-            thisData.sigData.clear();
-            thisData.miscData.clear();
-            thisData.functionData.functionRawHex = input;
         }
         else
         {
             thisData.functionData = getUnknownFunction();
-            thisData.functionData.functionRawHex = input;
+            thisData.functionData.functionRawHex = input.substring(0, FUNCTION_LENGTH);
             return ParseStage.ERROR;
         }
 
@@ -138,38 +124,32 @@ public class TransactionDecoder
         SIGNATURE
     }
 
-    private ParseStage getParams(TransactionInput thisData, String input)
+    private ParseStage getParams(TransactionInput thisData, Calldata calldata)
     {
-        state = ARGS;
-        BigInteger count;
-        StringBuilder sb = new StringBuilder();
+        int count;
         if (thisData.functionData != null && thisData.functionData.args != null)
         {
             for (String type : thisData.functionData.args)
             {
-                String argData = read256bits(input);
-                if (argData.equals("0")) break;
+                if (!calldata.hasWord()) break;
+                int argIndex = calldata.skipWord();
                 switch (type)
                 {
                     case "bytes":
-                        sb.setLength(0);
-                        argData = read256bits(input);
-                        BigInteger dataCount = Numeric.toBigInt(argData);
-                        String hexBytes = readBytes(input, dataCount.intValue());
+                        int dataCount = calldata.hasWord() ? calldata.intAt(calldata.skipWord()) : 0;
+                        if (dataCount < 0) return ParseStage.FINISH;
+                        String hexBytes = calldata.readHexChars(dataCount);
                         thisData.miscData.add(hexBytes);
                         thisData.hexArgs.add(Numeric.prependHexPrefix(hexBytes));
                         break;
                     case "string":
-                        count = new BigInteger(argData, 16);
-                        sb.setLength(0);
-                        argData = read256bits(input);
-                        if (count.intValue() > argData.length())
-                            count = BigInteger.valueOf(argData.length());
-                        for (int index = 0; index < (count.intValue() * 2); index += 2)
+                        count = calldata.intAt(argIndex);
+                        if (!calldata.hasWord() || count > WORD_LENGTH) return ParseStage.FINISH;
+                        int stringIndex = calldata.skipWord();
+                        StringBuilder sb = new StringBuilder();
+                        for (int index = 0; index < count; index++)
                         {
-                            int v = Integer.parseInt(argData.substring(index, index + 2), 16);
-                            char c = (char) v;
-                            sb.append(c);
+                            sb.append((char) (calldata.data[stringIndex + index] & 0xFF));
                         }
                         thisData.miscData.add(Numeric.cleanHexPrefix(sb.toString()));
 
@@ -177,47 +157,48 @@ public class TransactionDecoder
                         thisData.hexArgs.add(new String(Numeric.hexStringToByteArray(sb.toString())));
                         break;
                     case "address":
-                        if (argData.length() >= 64 - ADDRESS_LENGTH_IN_HEX)
-                        {
-                            String addr = Numeric.prependHexPrefix(argData.substring(64 - ADDRESS_LENGTH_IN_HEX));
-                            thisData.addresses.add(addr);
-                            thisData.hexArgs.add(addr);
-                        }
+                        String addr = "0x" + calldata.hex(argIndex + WORD_LENGTH - ADDRESS_LENGTH, ADDRESS_LENGTH);
+                        thisData.addresses.add(addr);
+                        thisData.hexArgs.add(addr);
                         break;
                     case "bytes32":
-                        addArg(thisData, argData);
+                        addArg(thisData, calldata, calldata.hex(argIndex, WORD_LENGTH));
                         break;
                     case "bytes32[]":
                     case "uint16[]":
                     case "uint256[]":
-                        count = new BigInteger(argData, 16);
-                        for (int i = 0; i < count.intValue(); i++)
+                        count = calldata.intAt(argIndex);
+                        for (int i = 0; i < count; i++)
                         {
-                            String inputData = read256bits(input);
+                            if (!calldata.hasWord())
+                            {
+                                thisData.arrayValues.add(BigInteger.ZERO);
+                                thisData.hexArgs.add("0");
+                                break;
+                            }
+                            String inputData = calldata.hex(calldata.skipWord(), WORD_LENGTH);
                             thisData.arrayValues.add(new BigInteger(inputData, 16));
                             thisData.hexArgs.add(inputData);
-                            if (inputData.equals("0")) break;
                         }
                         break;
                     case "uint256":
                     case "uint":
-                        addArg(thisData, argData);
+                        addArg(thisData, calldata, calldata.hex(argIndex, WORD_LENGTH));
                         break;
                     case "uint8": //In our standards, we will put uint8 as the signature marker
                         if (thisData.functionData.hasSig)
                         {
-                            state = ReadState.SIGNATURE;
-                            sigCount = 0;
+                            calldata.state = ReadState.SIGNATURE;
+                            calldata.sigCount = 0;
                         }
-                        addArg(thisData, argData);
+                        addArg(thisData, calldata, calldata.hex(argIndex, WORD_LENGTH));
                         break;
                     case "nodata":
                         //no need to store this data - eg placeholder to indicate presence of a vararg
                         break;
                     case "bool":
                         //zero or one?
-                        BigInteger val = new BigInteger(argData, 16);
-                        thisData.hexArgs.add(val.longValue() == 0 ? "false" : "true");
+                        thisData.hexArgs.add(calldata.isZero(argIndex + WORD_LENGTH - 8, 8) ? "false" : "true");
                         break;
                     default:
                         break;
@@ -232,146 +213,93 @@ public class TransactionDecoder
         return ParseStage.FINISH;
     }
 
-    private void addArg(TransactionInput thisData, String input)
+    private void addArg(TransactionInput thisData, Calldata calldata, String input)
     {
-        switch (state)
+        switch (calldata.state)
         {
             case ARGS:
-                thisData.miscData.add(Numeric.cleanHexPrefix(input));
+                thisData.miscData.add(input);
                 break;
             case SIGNATURE:
                 thisData.sigData.add(input);
-                if (++sigCount == 3) state = ARGS;
+                if (++calldata.sigCount == 3) calldata.state = ARGS;
                 break;
         }
         thisData.hexArgs.add(input);
     }
 
-    private String readBytes(String input, int bytes)
-    {
-        if ((parseIndex + bytes) <= input.length())
-        {
-            String value = input.substring(parseIndex, parseIndex + bytes);
-            parseIndex += bytes;
-            return value;
-        }
-        else
-        {
-            return "0";
-        }
-    }
-
-    private String read256bits(String input)
-    {
-        if ((parseIndex + 64) <= input.length())
-        {
-            String value = input.substring(parseIndex, parseIndex + 64);
-            parseIndex += 64;
-            return value;
-        }
-        else
-        {
-            return "0";
-        }
-    }
-
-    private void addFunction(String method, ContractType type, boolean hasSig)
-    {
-        String methodId = buildMethodId(method);
-        FunctionData data = functionList.get(methodId);
-        if (data != null)
-        {
-            data.addType(type);
-        }
-        else
-        {
-            data = new FunctionData(method, type, hasSig);
-            functionList.put(buildMethodId(method), data);
-        }
-    }
-
-    private void setupKnownFunctions()
+    private static SelectorTable buildKnownFunctions()
     {
-        functionList = new HashMap<>();
-        addFunction("transferFrom(address,address,uint16[])", ContractType.ERC875_LEGACY, false);
-        addFunction("transfer(address,uint16[])", ContractType.ERC875_LEGACY, false);
-        addFunction("trade(uint256,uint16[],uint8,bytes32,bytes32)", ContractType.ERC875_LEGACY, true);
-        addFunction("passTo(uint256,uint16[],uint8,bytes32,bytes32,address)", ContractType.ERC875_LEGACY, true);
-        addFunction("loadNewTickets(bytes32[])", ContractType.ERC875_LEGACY, false);
-        addFunction("balanceOf(address)", ContractType.ERC875_LEGACY, false);
-
-        addFunction("transfer(address,uint256)", ContractType.ERC20, false);
-        addFunction("transfer(address,uint)", ContractType.ERC20, false);
-        addFunction("transferFrom(address,address,uint256)", ContractType.ERC20, false);
-        addFunction("approve(address,uint256)", ContractType.ERC20, false);
-        addFunction("approve(address,uint)", ContractType.ERC20, false);
-        addFunction("allocateTo(address,uint256)", ContractType.ERC20, false);
-        addFunction("allowance(address,address)", ContractType.ERC20, false);
-        addFunction("transferFrom(address,address,uint)", ContractType.ERC20, false);
-        addFunction("approveAndCall(address,uint,bytes)", ContractType.ERC20, false);
-        addFunction("balanceOf(address)", ContractType.ERC20, false);
-        addFunction("transferAnyERC20Token(address,uint)", ContractType.ERC20, false);
-        addFunction("delegate(address)", ContractType.ERC20, false);
-        addFunction("mint(address,uint)", ContractType.ERC20, false);
-        addFunction("swapExactTokensForTokens(uint256,uint256,address[],address,uint256)", ContractType.ERC20, false);
-        addFunction("withdraw(address,uint256,address)", ContractType.ERC20, false);
-        addFunction("deposit(address,uint256,address,uint16)", ContractType.ERC20, false);
-        addFunction("deposit()", ContractType.ERC20, false);
-
-        addFunction("transferFrom(address,address,uint256[])", ContractType.ERC875, false);
-        addFunction("transfer(address,uint256[])", ContractType.ERC875, false);
-        addFunction("trade(uint256,uint256[],uint8,bytes32,bytes32)", ContractType.ERC875, true);
-        addFunction("passTo(uint256,uint256[],uint8,bytes32,bytes32,address)", ContractType.ERC875, true);
-        addFunction("loadNewTickets(uint256[])", ContractType.ERC875, false);
-        addFunction("balanceOf(address)", ContractType.ERC875, false);
-
-        addFunction("endContract()", ContractType.CREATION, false);
-        addFunction("selfdestruct()", ContractType.CREATION, false);
-        addFunction("kill()", ContractType.CREATION, false);
-
-        addFunction("safeTransferFrom(address,address,uint256,bytes)", ContractType.ERC721, false);
-        addFunction("safeTransferFrom(address,address,uint256)", ContractType.ERC721, false);
-        addFunction("transferFrom(address,address,uint256)", ContractType.ERC721, false);
-        addFunction("approve(address,uint256)", ContractType.ERC721, false);
-        addFunction("setApprovalForAll(address,bool)", ContractType.ERC721, false);
-        addFunction("getApproved(address,address,uint256)", ContractType.ERC721, false);
-        addFunction("isApprovedForAll(address,address)", ContractType.ERC721, false);
-        addFunction("transfer(address,uint256)", ContractType.ERC721_LEGACY, false);
-        addFunction("giveBirth(uint256,uint256)", ContractType.ERC721, false);
-        addFunction("breedWithAuto(uint256,uint256)", ContractType.ERC721, false);
-        addFunction("ownerOf(uint256)", ContractType.ERC721, false);
-        addFunction("createSaleAuction(uint256,uint256,uint256,uint256)", ContractType.ERC721, false);
-        addFunction("mixGenes(uint256,uint256,uint256)", ContractType.ERC721, false);
-        addFunction("tokensOfOwner(address)", ContractType.ERC721, false);
-        addFunction("store(uint256)", ContractType.ERC721, false);
-        addFunction("remix(uint256,bytes)", ContractType.ERC721, false);
-
-        addFunction("safeTransferFrom(address,address,uint256,uint256,bytes)", ContractType.ERC1155, false);
-        addFunction("safeBatchTransferFrom(address,address,uint256[],uint256[],bytes)", ContractType.ERC1155, false);
-
-        addFunction("dropCurrency(uint32,uint32,uint32,uint8,bytes32,bytes32,address)", ContractType.CURRENCY, true);
-        addFunction("withdraw(uint256)", ContractType.CURRENCY, false); //0x2e1a7d4d0000000000000000000000000000000000000000000000000000000000000001
-
-        addFunctionImmediate("commitNFT()", "0x521d83f0", ContractType.ERC721, false);
+        SelectorTable table = new SelectorTable();
+        table.addFunction("transferFrom(address,address,uint16[])", ContractType.ERC875_LEGACY, false);
+        table.addFunction("transfer(address,uint16[])", ContractType.ERC875_LEGACY, false);
+        table.addFunction("trade(uint256,uint16[],uint8,bytes32,bytes32)", ContractType.ERC875_LEGACY, true);
+        table.addFunction("passTo(uint256,uint16[],uint8,bytes32,bytes32,address)", ContractType.ERC875_LEGACY, true);
+        table.addFunction("loadNewTickets(bytes32[])", ContractType.ERC875_LEGACY, false);
+        table.addFunction("balanceOf(address)", ContractType.ERC875_LEGACY, false);
+
+        table.addFunction("transfer(address,uint256)", ContractType.ERC20, false);
+        table.addFunction("transfer(address,uint)", ContractType.ERC20, false);
+        table.addFunction("transferFrom(address,address,uint256)", ContractType.ERC20, false);
+        table.addFunction("approve(address,uint256)", ContractType.ERC20, false);
+        table.addFunction("approve(address,uint)", ContractType.ERC20, false);
+        table.addFunction("allocateTo(address,uint256)", ContractType.ERC20, false);
+        table.addFunction("allowance(address,address)", ContractType.ERC20, false);
+        table.addFunction("transferFrom(address,address,uint)", ContractType.ERC20, false);
+        table.addFunction("approveAndCall(address,uint,bytes)", ContractType.ERC20, false);
+        table.addFunction("balanceOf(address)", ContractType.ERC20, false);
+        table.addFunction("transferAnyERC20Token(address,uint)", ContractType.ERC20, false);
+        table.addFunction("delegate(address)", ContractType.ERC20, false);
+        table.addFunction("mint(address,uint)", ContractType.ERC20, false);
+        table.addFunction("swapExactTokensForTokens(uint256,uint256,address[],address,uint256)", ContractType.ERC20, false);
+        table.addFunction("withdraw(address,uint256,address)", ContractType.ERC20, false);
+        table.addFunction("deposit(address,uint256,address,uint16)", ContractType.ERC20, false);
+        table.addFunction("deposit()", ContractType.ERC20, false);
+
+        table.addFunction("transferFrom(address,address,uint256[])", ContractType.ERC875, false);
+        table.addFunction("transfer(address,uint256[])", ContractType.ERC875, false);
+        table.addFunction("trade(uint256,uint256[],uint8,bytes32,bytes32)", ContractType.ERC875, true);
+        table.addFunction("passTo(uint256,uint256[],uint8,bytes32,bytes32,address)", ContractType.ERC875, true);
+        table.addFunction("loadNewTickets(uint256[])", ContractType.ERC875, false);
+        table.addFunction("balanceOf(address)", ContractType.ERC875, false);
+
+        table.addFunction("endContract()", ContractType.CREATION, false);
+        table.addFunction("selfdestruct()", ContractType.CREATION, false);
+        table.addFunction("kill()", ContractType.CREATION, false);
+
+        table.addFunction("safeTransferFrom(address,address,uint256,bytes)", ContractType.ERC721, false);
+        table.addFunction("safeTransferFrom(address,address,uint256)", ContractType.ERC721, false);
+        table.addFunction("transferFrom(address,address,uint256)", ContractType.ERC721, false);
+        table.addFunction("approve(address,uint256)", ContractType.ERC721, false);
+        table.addFunction("setApprovalForAll(address,bool)", ContractType.ERC721, false);
+        table.addFunction("getApproved(address,address,uint256)", ContractType.ERC721, false);
+        table.addFunction("isApprovedForAll(address,address)", ContractType.ERC721, false);
+        table.addFunction("transfer(address,uint256)", ContractType.ERC721_LEGACY, false);
+        table.addFunction("giveBirth(uint256,uint256)", ContractType.ERC721, false);
+        table.addFunction("breedWithAuto(uint256,uint256)", ContractType.ERC721, false);
+        table.addFunction("ownerOf(uint256)", ContractType.ERC721, false);
+        table.addFunction("createSaleAuction(uint256,uint256,uint256,uint256)", ContractType.ERC721, false);
+        table.addFunction("mixGenes(uint256,uint256,uint256)", ContractType.ERC721, false);
+        table.addFunction("tokensOfOwner(address)", ContractType.ERC721, false);
+        table.addFunction("store(uint256)", ContractType.ERC721, false);
+        table.addFunction("remix(uint256,bytes)", ContractType.ERC721, false);
+
+        table.addFunction("safeTransferFrom(address,address,uint256,uint256,bytes)", ContractType.ERC1155, false);
+        table.addFunction("safeBatchTransferFrom(address,address,uint256[],uint256[],bytes)", ContractType.ERC1155, false);
+
+        table.addFunction("dropCurrency(uint32,uint32,uint32,uint8,bytes32,bytes32,address)", ContractType.CURRENCY, true);
+        table.addFunction("withdraw(uint256)", ContractType.CURRENCY, false); //0x2e1a7d4d0000000000000000000000000000000000000000000000000000000000000001
+
+        table.addFunctionImmediate("commitNFT()", "0x521d83f0", ContractType.ERC721, false);
+        return table;
     }
 
-    private void addFunctionImmediate(String functionBody, String functionHash, ContractType type, boolean hasSig)
+    public synchronized void addScanFunction(String methodSignature, boolean hasSig)
     {
-        FunctionData data = functionList.get(functionHash);
-        if (data != null)
-        {
-            data.addType(type);
-        }
-        else
-        {
-            data = new FunctionData(functionBody, type, hasSig);
-            functionList.put(functionHash, data);
-        }
-    }
-
-    public void addScanFunction(String methodSignature, boolean hasSig)
-    {
-        addFunction(methodSignature, ContractType.OTHER, hasSig);
+        //copy on write, so decodes in progress on other threads keep a consistent table
+        SelectorTable table = functionTable.copy();
+        table.addFunction(methodSignature, ContractType.OTHER, hasSig);
+        functionTable = table;
     }
 
     public ContractType getContractType(String input)
@@ -382,17 +310,11 @@ public class TransactionDecoder
         int highestCount = 0;
 
         //improve heuristic:
-        String balanceMethod = Numeric.cleanHexPrefix(buildMethodId("balanceOf(address)"));
-        String isStormbird = Numeric.cleanHexPrefix(buildMethodId("isStormBirdContract()"));
-        String isStormbird2 = Numeric.cleanHexPrefix(buildMethodId("isStormBird()"));
-        String trade = Numeric.cleanHexPrefix(buildMethodId("trade(uint256,uint256[],uint8,bytes32,bytes32)"));
-        String tradeLegacy = Numeric.cleanHexPrefix(buildMethodId("trade(uint256,uint16[],uint8,bytes32,bytes32)"));
-
-        if (input.contains(balanceMethod))
+        if (input.contains(BALANCE_METHOD))
         {
-            if (input.contains(isStormbird) || input.contains(isStormbird2) || input.contains(tradeLegacy) || input.contains(trade))
+            if (input.contains(IS_STORMBIRD) || input.contains(IS_STORMBIRD2) || input.contains(TRADE_LEGACY) || input.contains(TRADE))
             {
-                if (input.contains(tradeLegacy))
+                if (input.contains(TRADE_LEGACY))
                 {
                     return ContractType.ERC875_LEGACY;
                 }
@@ -408,14 +330,13 @@ public class TransactionDecoder
         }
 
         //ERC721/x or ERC20
-
-        for (String signature : functionList.keySet())
+        SelectorTable table = functionTable;
+        for (int i = 0; i < table.size; i++)
         {
-            String cleanSig = Numeric.cleanHexPrefix(signature);
-            int index = input.indexOf(cleanSig);
+            int index = input.indexOf(table.selectorHex[i]);
             if (index >= 0)
             {
-                FunctionData data = functionList.get(signature);
+                FunctionData data = table.functions[i];
                 for (ContractType type : data.contractType)
                 {
                     int count = 0;
@@ -495,11 +416,6 @@ public class TransactionDecoder
             return false;
         }
 
-        if (endContractSignatures.size() == 0)
-        {
-            buildEndContractSigs();
-        }
-
         for (String sig : endContractSignatures)
         {
             if (input.equals(sig)) return true;
@@ -508,11 +424,190 @@ public class TransactionDecoder
         return false;
     }
 
-    private static void buildEndContractSigs()
+    /**
+     * @return the function selector of input, or -1 if it doesn't start with one
+     */
+    private static long readSelector(String input)
+    {
+        if (!input.startsWith("0x")) return -1;
+        long selector = 0;
+        for (int i = 2; i < FUNCTION_LENGTH; i++)
+        {
+            int digit = Character.digit(input.charAt(i), 16);
+            if (digit < 0) return -1;
+            selector = (selector << 4) | digit;
+        }
+
+        return selector;
+    }
+
+    private static int selectorValue(String methodId)
     {
-        endContractSignatures.add(buildMethodId("endContract()"));
-        endContractSignatures.add(buildMethodId("selfdestruct()"));
-        endContractSignatures.add(buildMethodId("kill()"));
+        return (int) Long.parseLong(Numeric.cleanHexPrefix(methodId), 16);
     }
-}
 
+    /**
+     * Function definitions keyed by 4 byte selector, in selector order for binary search.
+     * A table is only modified while it is being built; after that changes are made to a copy.
+     */
+    private static class SelectorTable
+    {
+        private int[] selectors = new int[64];
+        private FunctionData[] functions = new FunctionData[64];
+        private String[] selectorHex = new String[64];
+        private int size;
+
+        FunctionData get(int selector)
+        {
+            int index = Arrays.binarySearch(selectors, 0, size, selector);
+            return index >= 0 ? functions[index] : null;
+        }
+
+        void addFunction(String method, ContractType type, boolean hasSig)
+        {
+            addFunctionImmediate(method, buildMethodId(method), type, hasSig);
+        }
+
+        void addFunctionImmediate(String functionBody, String functionHash, ContractType type, boolean hasSig)
+        {
+            int selector = selectorValue(functionHash);
+            int index = Arrays.binarySearch(selectors, 0, size, selector);
+            if (index >= 0)
+            {
+                functions[index].addType(type);
+                return;
+            }
+
+            FunctionData data = new FunctionData(functionBody, type, hasSig);
+            data.functionRawHex = functionHash;
+
+            if (size == selectors.length)
+            {
+                selectors = Arrays.copyOf(selectors, size * 2);
+                functions = Arrays.copyOf(functions, size * 2);
+                selectorHex = Arrays.copyOf(selectorHex, size * 2);
+            }
+
+            index = -(index + 1);
+            System.arraycopy(selectors, index, selectors, index + 1, size - index);
+            System.arraycopy(functions, index, functions, index + 1, size - index);
+            System.arraycopy(selectorHex, index, selectorHex, index + 1, size - index);
+            selectors[index] = selector;
+            functions[index] = data;
+            selectorHex[index] = Numeric.cleanHexPrefix(functionHash);
+            size++;
+        }
+
+        SelectorTable copy()
+        {
+            SelectorTable table = new SelectorTable();
+            table.selectors = Arrays.copyOf(selectors, selectors.length);
+            table.selectorHex = Arrays.copyOf(selectorHex, selectorHex.length);
+            table.functions = new FunctionData[functions.length];
+            table.size = size;
+            for (int i = 0; i < size; i++)
+            {
+                //functions are shared with other tables, so copy before any type can be added
+                FunctionData data = functions[i];
+                FunctionData copy = new FunctionData(data.functionFullName, data.contractType.get(0), data.hasSig);
+                for (int t = 1; t < data.contractType.size(); t++) copy.addType(data.contractType.get(t));
+                copy.functionRawHex = data.functionRawHex;
+                table.functions[i] = copy;
+            }
+
+            return table;
+        }
+    }
+
+    /**
+     * Transaction input converted to bytes, with the read position and state of one decode
+     */
+    private static class Calldata
+    {
+        final byte[] data;
+        private int index;
+        ReadState state = ARGS;
+        int sigCount = 0;
+
+        /**
+         * @param input hex string starting with "0x" and a function selector; read as far as the first non-hex digit
+         */
+        Calldata(String input)
+        {
+            int length = (input.length() - 2) / 2;
+            byte[] bytes = new byte[length];
+            int count = 0;
+            for (; count < length; count++)
+            {
+                int hi = Character.digit(input.charAt(2 + count * 2), 16);
+                int lo = Character.digit(input.charAt(3 + count * 2), 16);
+                if (hi < 0 || lo < 0) break;
+                bytes[count] = (byte) ((hi << 4) | lo);
+            }
+
+            data = count == length ? bytes : Arrays.copyOf(bytes, count);
+            index = SELECTOR_LENGTH;
+        }
+
+        boolean hasWord()
+        {
+            return index + WORD_LENGTH <= data.length;
+        }
+
+        /**
+         * Step over the next 32 byte word
+         * @return offset of the word
+         */
+        int skipWord()
+        {
+            int offset = index;
+            index += WORD_LENGTH;
+            return offset;
+        }
+
+        /**
+         * @return the low 32 bits of the word at offset, as BigInteger.intValue() gives
+         */
+        int intAt(int wordOffset)
+        {
+            int offset = wordOffset + WORD_LENGTH - 4;
+            return ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                    | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        }
+
+        boolean isZero(int offset, int length)
+        {
+            for (int i = offset; i < offset + length; i++)
+            {
+                if (data[i] != 0) return false;
+            }
+
+            return true;
+        }
+
+        /**
+         * Read a number of hex digits, or "0" if the input is too short
+         */
+        String readHexChars(int hexCount)
+        {
+            int byteCount = (hexCount + 1) / 2;
+            if (index + byteCount > data.length) return "0";
+            String value = hex(index, byteCount);
+            index += byteCount;
+            return (hexCount & 1) == 0 ? value : value.substring(0, hexCount);
+        }
+
+        String hex(int offset, int length)
+        {
+            char[] chars = new char[length * 2];
+            for (int i = 0; i < length; i++)
+            {
+                int v = data[offset + i] & 0xFF;
+                chars[i * 2] = HEX_DIGITS[v >>> 4];
+                chars[i * 2 + 1] = HEX_DIGITS[v & 0x0F];
+            }
+
+            return new String(chars);
+        }
+    }
+}
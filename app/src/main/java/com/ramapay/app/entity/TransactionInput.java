@@ -62,6 +62,21 @@ public class TransactionInput
         hexArgs = new ArrayList<>();
     }
 
+    /**
+     * Copy of a decoded input. The argument lists are only written by the decoder so they are shared
+     */
+    public TransactionInput(TransactionInput decoded)
+    {
+        functionData = decoded.functionData;
+        arrayValues = decoded.arrayValues;
+        addresses = decoded.addresses;
+        sigData = decoded.sigData;
+        miscData = decoded.miscData;
+        hexArgs = decoded.hexArgs;
+        tradeAddress = decoded.tradeAddress;
+        type = decoded.type;
+    }
+
     //Addresses are in 256bit format
     public boolean containsAddress(String address)
     {
@@ -25,6 +25,7 @@ import com.ramapay.app.entity.nftassets.NFTAsset;
 import com.ramapay.app.entity.tokendata.TokenGroup;
 import com.ramapay.app.repository.EthereumNetworkBase;
 import com.ramapay.app.repository.EventResult;
+import com.ramapay.app.repository.JsonRpcBatcher;
 import com.ramapay.app.repository.TokenRepository;
 import com.ramapay.app.repository.entity.RealmNFTAsset;
 import com.ramapay.app.repository.entity.RealmToken;
@@ -43,8 +44,6 @@ import org.web3j.abi.datatypes.Function;
 import org.web3j.abi.datatypes.Type;
 import org.web3j.abi.datatypes.generated.Uint256;
 import org.web3j.protocol.Web3j;
-import org.web3j.protocol.core.BatchRequest;
-import org.web3j.protocol.core.BatchResponse;
 import org.web3j.protocol.core.DefaultBlockParameter;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.Request;
@@ -81,6 +80,7 @@ public class ERC721Token extends Token
 {
     private final Map<BigInteger, NFTAsset> tokenBalanceAssets;
     private static final Map<String, Boolean> balanceChecks = new ConcurrentHashMap<>();
+    private static final JsonRpcBatcher batcher = new JsonRpcBatcher(EthereumNetworkBase.getBatchController());
 
     public ERC721Token(TokenInfo tokenInfo, Map<BigInteger, NFTAsset> balanceList, BigDecimal balance, long blancaTime, String networkName, ContractType type)
     {
@@ -460,23 +460,25 @@ public class ERC721Token extends Token
 
     private void updateEnumerableBatchBalance(Web3j web3j, long currentBalance, HashSet<BigInteger> tokenIdsHeld, Realm realm) throws IOException
     {
-        BatchRequest requests = web3j.newBatch();
-
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>();
         for (long tokenIndex = 0; tokenIndex < currentBalance; tokenIndex++)
         {
             requests.add(getContractCall(web3j, tokenOfOwnerByIndex(BigInteger.valueOf(tokenIndex)), getAddress()));
-            if (requests.getRequests().size() >= EthereumNetworkBase.getBatchProcessingLimit(tokenInfo.chainId))
-            {
-                //do this send
-                handleEnumerableRequests(requests, tokenIdsHeld);
-                requests = web3j.newBatch();
-            }
         }
 
-        if (!requests.getRequests().isEmpty())
+        //process responses
+        boolean batchError = false;
+        for (Response<?> rsp : batcher.send(web3j, tokenInfo.chainId, requests, 1))
+        {
+            BigInteger tokenId = getTokenId(rsp);
+            if (tokenId != null) tokenIdsHeld.add(tokenId);
+            else batchError |= isBatchCallError(rsp);
+        }
+
+        if (batchError)
         {
-            //do final call
-            handleEnumerableRequests(requests, tokenIdsHeld);
+            // node doesn't handle this call inside a batch; one bad batch counts once
+            EthereumNetworkBase.setBatchProcessingError(tokenInfo.chainId);
         }
     }
 
@@ -499,24 +501,6 @@ public class ERC721Token extends Token
         return -1;
     }
 
-    private void handleEnumerableRequests(BatchRequest requests, HashSet<BigInteger> tokenIdsHeld) throws IOException
-    {
-        BatchResponse responses = requests.send();
-        if (responses.getResponses().size() != requests.getRequests().size())
-        {
-            EthereumNetworkBase.setBatchProcessingError(tokenInfo.chainId);
-            return;
-        }
-
-        //process responses
-        for (Response<?> rsp : responses.getResponses())
-        {
-            BigInteger tokenId = getTokenId(rsp);
-            if (tokenId == null) continue;
-            tokenIdsHeld.add(tokenId);
-        }
-    }
-
     private BigInteger getTokenId(Response<?> rsp)
     {
         List<TypeReference<Type>> outputParams = Utils.convert(Collections.singletonList(new TypeReference<Uint256>() {}));
@@ -527,15 +511,14 @@ public class ERC721Token extends Token
             if (!TextUtils.isEmpty(tokenIdStr)) return new BigInteger(tokenIdStr);
         }
 
-        if (rsp.hasError())
-        {
-            // remove batch processing ability for this RPC
-            EthereumNetworkBase.setBatchProcessingError(tokenInfo.chainId);
-        }
-
         return null;
     }
 
+    private static boolean isBatchCallError(Response<?> rsp)
+    {
+        return rsp.hasError() && (rsp.getError().getMessage() == null || !rsp.getError().getMessage().contains("revert"));
+    }
+
     private void updateRealmBalance(Realm realm, Set<BigInteger> tokenIds, Set<BigInteger> allMovingTokens)
     {
         boolean updated = false;
@@ -667,65 +650,50 @@ public class ERC721Token extends Token
 
         for (BigInteger tokenId : eventIds)
         {
-            String owner = callSmartContractFunction(tokenInfo.chainId, ownerOf(tokenId), getAddress(), getWallet());
-            if (TextUtils.isEmpty(owner) || owner.equalsIgnoreCase(getWallet()))
-            {
-                heldTokens.add(tokenId);
-            }
+            checkOwner(tokenId, heldTokens);
         }
 
         return heldTokens;
     }
 
-    private HashSet<BigInteger> checkBatchBalances(Web3j web3j, HashSet<BigInteger> eventIds) throws IOException
+    private void checkOwner(BigInteger tokenId, Set<BigInteger> heldTokens)
     {
-        HashSet<BigInteger> heldTokens = new HashSet<>();
-        List<BigInteger> balanceIds = new ArrayList<>();
-        BatchRequest requests = web3j.newBatch();
-        for (BigInteger tokenId : eventIds)
-        {
-            requests.add(getContractCall(web3j, ownerOf(tokenId), getAddress()));
-            balanceIds.add(tokenId);
-            if (requests.getRequests().size() >= EthereumNetworkBase.getBatchProcessingLimit(tokenInfo.chainId))
-            {
-                //do this send
-                handleRequests(requests, balanceIds, heldTokens);
-                requests = web3j.newBatch();
-            }
-        }
-
-        if (requests.getRequests().size() > 0)
+        String owner = callSmartContractFunction(tokenInfo.chainId, ownerOf(tokenId), getAddress(), getWallet());
+        if (TextUtils.isEmpty(owner) || owner.equalsIgnoreCase(getWallet()))
         {
-            //do final call
-            handleRequests(requests, balanceIds, heldTokens);
+            heldTokens.add(tokenId);
         }
-
-        return heldTokens;
     }
 
-    private void handleRequests(BatchRequest requests, List<BigInteger> balanceIds, HashSet<BigInteger> heldTokens) throws IOException
+    private HashSet<BigInteger> checkBatchBalances(Web3j web3j, HashSet<BigInteger> eventIds) throws IOException
     {
-        int index = 0;
-        BatchResponse responses = requests.send();
-        if (responses.getResponses().size() != requests.getRequests().size())
+        HashSet<BigInteger> heldTokens = new HashSet<>();
+        Map<Long, BigInteger> requestTokenIds = new HashMap<>();
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>();
+        for (BigInteger tokenId : eventIds)
         {
-            EthereumNetworkBase.setBatchProcessingError(tokenInfo.chainId);
-            return;
+            Request<?, EthCall> request = getContractCall(web3j, ownerOf(tokenId), getAddress());
+            requestTokenIds.put(request.getId(), tokenId);
+            requests.add(request);
         }
 
-        //process responses
-        for (Response<?> rsp : responses.getResponses())
+        //process responses; replies may come back in any order
+        for (Response<?> rsp : batcher.send(web3j, tokenInfo.chainId, requests, 1))
         {
-            BigInteger tokenId = balanceIds.get(index);
-            if (isOwner(rsp, tokenId))
+            BigInteger tokenId = requestTokenIds.remove(rsp.getId());
+            if (tokenId != null && isOwner(rsp, tokenId))
             {
                 heldTokens.add(tokenId);
             }
+        }
 
-            index++;
+        //no readable reply for these, check them individually
+        for (BigInteger tokenId : requestTokenIds.values())
+        {
+            checkOwner(tokenId, heldTokens);
         }
 
-        balanceIds.clear();
+        return heldTokens;
     }
 
     private boolean isOwner(Response<?> rsp, BigInteger tokenId)
@@ -0,0 +1,126 @@
+package com.ramapay.app.entity.tokenscript;
+
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recent TokenScript contract call results, held in front of the RealmAuxData function results.
+ *
+ * Entries are keyed by chain, contract, function selector and a hash of the encoded arguments plus the calling wallet,
+ * so attributes and tokenIds making the same call share a result. Each holds the raw return value and the block it was
+ * read at. EventSync reports the wallet's transfer events per contract; a result read at or after the newest transfer
+ * block is still current, one read before it is stale. Contracts EventSync doesn't watch (eg ERC20) have no transfer
+ * history here, so callers fall back to the last transaction time for those.
+ */
+public class FunctionResultCache
+{
+    public static final int MEMORY_ENTRIES = 1024;
+
+    private static final FunctionResultCache instance = new FunctionResultCache(MEMORY_ENTRIES);
+
+    public static class Entry
+    {
+        public final String value;
+        public final long resultTime;
+        public final long block;
+
+        Entry(String value, long resultTime, long block)
+        {
+            this.value = value;
+            this.resultTime = resultTime;
+            this.block = block;
+        }
+    }
+
+    private final Map<String, Entry> results;
+    private final Map<String, Long> lastTransfer = new HashMap<>(); //chain-contract -> newest transfer block seen
+    private final Map<Long, Long> chainBlocks = new HashMap<>();
+
+    public static FunctionResultCache getInstance()
+    {
+        return instance;
+    }
+
+    FunctionResultCache(int memoryEntries)
+    {
+        results = new LinkedHashMap<>(memoryEntries, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+            {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    public static String key(long chainId, String contract, String walletAddress, String encodedFunction)
+    {
+        String data = Numeric.cleanHexPrefix(encodedFunction);
+        String selector = data.substring(0, Math.min(8, data.length()));
+        String args = Numeric.cleanHexPrefix(walletAddress != null ? walletAddress : "") + data.substring(selector.length());
+        return chainId + "-" + contract.toLowerCase() + "-" + selector + "-" + Hash.sha3(Numeric.prependHexPrefix(args.toLowerCase()));
+    }
+
+    public synchronized Entry get(String key)
+    {
+        return results.get(key);
+    }
+
+    public synchronized void put(String key, String value, long resultTime, long block)
+    {
+        results.put(key, new Entry(value, resultTime, block));
+    }
+
+    /**
+     * @return true if EventSync has reported on this contract, so its results can be checked against transfers
+     */
+    public synchronized boolean isWatched(long chainId, String contract)
+    {
+        return lastTransfer.containsKey(contractKey(chainId, contract));
+    }
+
+    /**
+     * @return true if a result read at block is no older than the contract's newest transfer
+     */
+    public synchronized boolean isCurrent(long chainId, String contract, long block)
+    {
+        Long transferBlock = lastTransfer.get(contractKey(chainId, contract));
+        return transferBlock != null && block > 0 && block >= transferBlock;
+    }
+
+    /**
+     * EventSync read the wallet's transfers for this contract
+     * @param block newest transfer block found, or 0 if there were none
+     */
+    public synchronized void onTransfers(long chainId, String contract, long block)
+    {
+        String key = contractKey(chainId, contract);
+        Long known = lastTransfer.get(key);
+        if (known == null || block > known) lastTransfer.put(key, block);
+    }
+
+    public synchronized void setChainBlock(long chainId, long block)
+    {
+        Long known = chainBlocks.get(chainId);
+        if (known == null || block > known) chainBlocks.put(chainId, block);
+    }
+
+    /**
+     * @return latest block known for the chain, or 0. Stamping a result with this is safe: it is no later than the
+     * block the call actually read
+     */
+    public synchronized long getChainBlock(long chainId)
+    {
+        Long block = chainBlocks.get(chainId);
+        return block != null ? block : 0;
+    }
+
+    private static String contractKey(long chainId, String contract)
+    {
+        return chainId + "-" + contract.toLowerCase();
+    }
+}
@@ -6,7 +6,10 @@ import static org.web3j.protocol.core.methods.request.Transaction.createEthCallT
 import android.text.TextUtils;
 
 import com.ramapay.app.entity.UpdateType;
+import com.ramapay.app.entity.BatchSizeController;
 import com.ramapay.app.entity.tokens.Token;
+import com.ramapay.app.repository.EthereumNetworkBase;
+import com.ramapay.app.repository.JsonRpcBatcher;
 import com.ramapay.app.repository.TokenRepository;
 import com.ramapay.app.util.BalanceUtils;
 import com.ramapay.app.util.Utils;
@@ -130,7 +133,10 @@ import org.web3j.abi.datatypes.generated.Uint88;
 import org.web3j.abi.datatypes.generated.Uint96;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
 import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
 import org.web3j.protocol.core.methods.response.EthCall;
 import org.web3j.protocol.core.methods.response.EthLog;
 import org.web3j.protocol.core.methods.response.Log;
@@ -144,10 +150,13 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import io.reactivex.Observable;
 import io.reactivex.Single;
 import io.reactivex.schedulers.Schedulers;
 import timber.log.Timber;
@@ -162,6 +171,39 @@ public abstract class TokenscriptFunction
 
     private final Map<String, Attribute> localAttrs = new ConcurrentHashMap<>();
     private final Map<String, String> refTags = new ConcurrentHashMap<>();
+    private final BatchSizeController batchLimits = EthereumNetworkBase.getBatchController();
+    private final JsonRpcBatcher batcher = new JsonRpcBatcher(batchLimits);
+    private final FunctionResultCache resultCache = FunctionResultCache.getInstance();
+
+    //a contract call needed by one or more (tokenId, attribute) pairs
+    private static class AttrCall
+    {
+        final ContractAddress address;
+        final Function function;
+        final List<AttrTarget> targets = new ArrayList<>();
+
+        AttrCall(ContractAddress address, Function function)
+        {
+            this.address = address;
+            this.function = function;
+        }
+    }
+
+    private static class AttrTarget
+    {
+        final BigInteger resultKey;
+        final BigInteger tokenId;
+        final Attribute attr;
+        final TransactionResult cachedResult;
+
+        AttrTarget(BigInteger resultKey, BigInteger tokenId, Attribute attr, TransactionResult cachedResult)
+        {
+            this.resultKey = resultKey;
+            this.tokenId = tokenId;
+            this.attr = attr;
+            this.cachedResult = cachedResult;
+        }
+    }
 
     public Function generateTransactionFunction(Token token, BigInteger tokenId, TokenDefinition definition, FunctionDefinition function, AttributeInterface attrIf)
     {
@@ -777,25 +819,63 @@ public abstract class TokenscriptFunction
     public Single<TransactionResult> fetchResultFromEthereum(Token token, ContractAddress contractAddress, Attribute attr,
                                                                  BigInteger tokenId, TokenDefinition definition, AttributeInterface attrIf)
     {
-        return Single.fromCallable(() -> {
-            TransactionResult transactionResult = new TransactionResult(contractAddress.chainId, contractAddress.address, tokenId, attr);
-            Function transaction = generateTransactionFunction(token, tokenId, definition, attr.function, attrIf);
+        return Single.fromCallable(() -> fetchResultFromEthereum(token, contractAddress, attr, tokenId,
+                generateTransactionFunction(token, tokenId, definition, attr.function, attrIf)));
+    }
 
-            String result;
-            if (transaction.getInputParameters() == null)
-            {
-                //couldn't validate all the input param values
-                result = "";
-            }
-            else
+    private TransactionResult fetchResultFromEthereum(Token token, ContractAddress contractAddress, Attribute attr, BigInteger tokenId, Function transaction)
+    {
+        TransactionResult transactionResult = new TransactionResult(contractAddress.chainId, contractAddress.address, tokenId, attr);
+
+        String result;
+        long block = resultCache.getChainBlock(contractAddress.chainId); //taken before the call, so it can't be later than the state read
+        if (transaction.getInputParameters() == null)
+        {
+            //couldn't validate all the input param values
+            result = "";
+        }
+        else
+        {
+            //now push the transaction
+            result = callSmartContractFunction(TokenRepository.getWeb3jService(contractAddress.chainId), transaction, contractAddress.address, token.getWallet());
+        }
+
+        transactionResult.result = handleTransactionResult(transactionResult, transaction, result, attr, System.currentTimeMillis());
+        cacheResult(token, contractAddress, transaction, result, transactionResult, block);
+        return transactionResult;
+    }
+
+    /**
+     * Hold a live call result in memory, stamped with the block it was read at
+     */
+    private void cacheResult(Token token, ContractAddress contractAddress, Function function, String value, TransactionResult txResult, long block)
+    {
+        if (txResult.resultTime <= 0 || value == null) return; //no live result
+        txResult.resultBlock = block;
+        resultCache.put(FunctionResultCache.key(contractAddress.chainId, contractAddress.address, token.getWallet(), FunctionEncoder.encode(function)),
+                value, txResult.resultTime, block);
+    }
+
+    /**
+     * Find the last result of a contract call: from memory if this call was made recently, otherwise from the database
+     */
+    private TransactionResult getCachedResult(Token token, ContractAddress contractAddress, Attribute attr, BigInteger tokenId, Function function,
+                                              AttributeInterface attrIf)
+    {
+        if (function.getInputParameters() != null)
+        {
+            FunctionResultCache.Entry entry = resultCache.get(FunctionResultCache.key(contractAddress.chainId, contractAddress.address,
+                    token.getWallet(), FunctionEncoder.encode(function)));
+            if (entry != null)
             {
-                //now push the transaction
-                result = callSmartContractFunction(TokenRepository.getWeb3jService(contractAddress.chainId), transaction, contractAddress.address, token.getWallet());
+                TransactionResult txResult = new TransactionResult(contractAddress.chainId, contractAddress.address, tokenId, attr);
+                txResult.result = handleTransactionResult(txResult, function, entry.value, attr, entry.resultTime);
+                txResult.resultBlock = entry.block;
+                if (txResult.resultTime > 0) return txResult;
             }
+        }
 
-            transactionResult.result = handleTransactionResult(transactionResult, transaction, result, attr, System.currentTimeMillis());
-            return transactionResult;
-        });
+        return attrIf.getFunctionResult(contractAddress, attr, tokenId);
     }
 
     public String callSmartContract(long chainId, String contractAddress, Function function)
@@ -946,27 +1026,205 @@ public abstract class TokenscriptFunction
         }
         else
         {
-            ContractAddress useAddress = new ContractAddress(attr.function); //always use the function attribute's address
-            long lastTxUpdate = attrIf.getLastTokenUpdate(useAddress.chainId, useAddress.address);
-            TransactionResult cachedResult = attrIf.getFunctionResult(useAddress, attr, useTokenId); //Needs to allow for multiple tokenIds
-            boolean shouldUseCache = checkUpdateRequired(attrIf, attr, cachedResult, update,
-                    itemView == ViewType.ITEM_VIEW, lastTxUpdate, useAddress);
+            //resolving the call's arguments may itself need contract calls, so do it on subscription
+            return Single.defer(() -> {
+                ContractAddress useAddress = new ContractAddress(attr.function); //always use the function attribute's address
+                long lastTxUpdate = attrIf.getLastTokenUpdate(useAddress.chainId, useAddress.address);
+                boolean isItemView = itemView == ViewType.ITEM_VIEW;
+                TransactionResult storedResult = attrIf.getFunctionResult(useAddress, attr, useTokenId); //Needs to allow for multiple tokenIds
+                if (checkUpdateRequired(attrIf, attr, storedResult, update, isItemView, lastTxUpdate, useAddress)) //can we use wallet's known data?
+                {
+                    return resultFromDatabase(storedResult, attr);
+                }
 
-            if (shouldUseCache) //can we use wallet's known data or cached value?
+                //stored value is stale; resolve the call, which may need contract calls of its own, and check for a recent result in memory
+                Function function = generateTransactionFunction(token, useTokenId, td, attr.function, attrIf);
+                TransactionResult cachedResult = getCachedResult(token, useAddress, attr, useTokenId, function, attrIf);
+                if (checkUpdateRequired(attrIf, attr, cachedResult, update, isItemView, lastTxUpdate, useAddress))
+                {
+                    return resultFromDatabase(cachedResult, attr);
+                }
+                else  //if cached value is invalid or if value is dynamic
+                {
+                    final String walletAddress = attrIf.getWalletAddr();
+                    return Single.fromCallable(() -> fetchResultFromEthereum(token, useAddress, attr, useTokenId, function))       // Fetch function result from blockchain
+                            .map(transactionResult -> addParseResultIfValid(token, useTokenId, attr, transactionResult))// only cache live transaction result
+                            .map(result -> restoreFromDBIfRequired(result, cachedResult))  // If network unavailable restore value from cache
+                            .map(txResult -> attrIf.storeAuxData(walletAddress, txResult))                                     // store new data
+                            .map(result -> parseFunctionResult(result, attr))
+                            .subscribeOn(Schedulers.io());    // write returned data into attribute
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetch attributes for many tokenIds at once, eg to find which actions each token of an NFT collection allows.
+     *
+     * Each value is found as fetchAttrResult would, but the contract calls still needed are gathered first. Calls
+     * with the same chain, contract and encoded function are made once for every tokenId that needs them, and are
+     * sent per chain as JSON-RPC batches, in the order required lists them. Each batch's results are stored in one write.
+     *
+     * @param required attributes needed, keyed by the tokenId their results are filed under
+     * @return partial results, tokenId to attribute name to value: first those known without calls, then one per batch
+     */
+    public Observable<Map<BigInteger, Map<String, TokenScriptResult.Attribute>>> fetchAttrResults(Token token, Map<BigInteger, List<Attribute>> required,
+                                                                                                    TokenDefinition td, AttributeInterface attrIf,
+                                                                                                    UpdateType update)
+    {
+        return Observable.create(emitter -> {
+            Map<BigInteger, Map<String, TokenScriptResult.Attribute>> known = new HashMap<>();
+            Map<Long, Map<String, AttrCall>> chainCalls = new LinkedHashMap<>();
+            List<TransactionResult> unresolvable = new ArrayList<>();
+
+            for (Map.Entry<BigInteger, List<Attribute>> entry : required.entrySet())
             {
-                return resultFromDatabase(cachedResult, attr);
+                for (Attribute attr : entry.getValue())
+                {
+                    BigInteger useTokenId = attr.usesTokenId() ? entry.getKey() : BigInteger.ZERO;
+                    if (attr.function == null || attr.event != null || token.getAttributeResult(attr.name, useTokenId) != null)
+                    {
+                        //static, event or already known values need no contract call
+                        addAttrResult(known, entry.getKey(), attr, fetchAttrResult(token, attr, useTokenId, td, attrIf, ViewType.VIEW, update).blockingGet());
+                        continue;
+                    }
+
+                    ContractAddress useAddress = new ContractAddress(attr.function);
+                    long lastTxUpdate = attrIf.getLastTokenUpdate(useAddress.chainId, useAddress.address);
+                    TransactionResult storedResult = attrIf.getFunctionResult(useAddress, attr, useTokenId);
+                    if (checkUpdateRequired(attrIf, attr, storedResult, update, false, lastTxUpdate, useAddress))
+                    {
+                        addAttrResult(known, entry.getKey(), attr, parseFunctionResult(storedResult, attr));
+                        continue;
+                    }
+
+                    //only resolve the call once the stored value is found stale
+                    Function function = generateTransactionFunction(token, useTokenId, td, attr.function, attrIf);
+                    TransactionResult cachedResult = getCachedResult(token, useAddress, attr, useTokenId, function, attrIf);
+                    if (checkUpdateRequired(attrIf, attr, cachedResult, update, false, lastTxUpdate, useAddress))
+                    {
+                        addAttrResult(known, entry.getKey(), attr, parseFunctionResult(cachedResult, attr));
+                        continue;
+                    }
+
+                    AttrTarget target = new AttrTarget(entry.getKey(), useTokenId, attr, cachedResult);
+                    if (function.getInputParameters() == null)
+                    {
+                        //couldn't validate all the input param values
+                        unresolvable.add(completeAttrCall(token, useAddress, function, target, "", 0, known));
+                        continue;
+                    }
+
+                    String callKey = useAddress.address.toLowerCase() + "-" + FunctionEncoder.encode(function);
+                    Map<String, AttrCall> calls = chainCalls.computeIfAbsent(useAddress.chainId, k -> new LinkedHashMap<>());
+                    AttrCall call = calls.get(callKey);
+                    if (call == null)
+                    {
+                        call = new AttrCall(useAddress, function);
+                        calls.put(callKey, call);
+                    }
+                    call.targets.add(target);
+                }
             }
-            else  //if cached value is invalid or if value is dynamic
+
+            if (!unresolvable.isEmpty()) attrIf.storeAuxData(attrIf.getWalletAddr(), unresolvable);
+            if (!known.isEmpty()) emitter.onNext(known);
+
+            for (Map.Entry<Long, Map<String, AttrCall>> chainEntry : chainCalls.entrySet())
             {
-                final String walletAddress = attrIf.getWalletAddr();
-                return fetchResultFromEthereum(token, useAddress, attr, useTokenId, td, attrIf)       // Fetch function result from blockchain
-                        .map(transactionResult -> addParseResultIfValid(token, useTokenId, attr, transactionResult))// only cache live transaction result
-                        .map(result -> restoreFromDBIfRequired(result, cachedResult))  // If network unavailable restore value from cache
-                        .map(txResult -> attrIf.storeAuxData(walletAddress, txResult))                                     // store new data
-                        .map(result -> parseFunctionResult(result, attr))
-                        .subscribeOn(Schedulers.io());    // write returned data into attribute
+                long chainId = chainEntry.getKey();
+                List<AttrCall> calls = new ArrayList<>(chainEntry.getValue().values());
+                int index = 0;
+                while (index < calls.size() && !emitter.isDisposed())
+                {
+                    int size = Math.max(BatchSizeController.MIN_BATCH, batchLimits.getLimit(chainId));
+                    List<AttrCall> batch = calls.subList(index, Math.min(index + size, calls.size()));
+                    index += batch.size();
+                    emitter.onNext(sendAttrCalls(token, chainId, batch, attrIf));
+                }
             }
+
+            emitter.onComplete();
+        });
+    }
+
+    private Map<BigInteger, Map<String, TokenScriptResult.Attribute>> sendAttrCalls(Token token, long chainId, List<AttrCall> batch, AttributeInterface attrIf)
+    {
+        Web3j web3j = getWeb3jService(chainId);
+        Map<Long, AttrCall> callsById = new HashMap<>();
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>(batch.size());
+        for (AttrCall call : batch)
+        {
+            Request<?, EthCall> request = web3j.ethCall(createEthCallTransaction(token.getWallet(), call.address.address,
+                    FunctionEncoder.encode(call.function)), DefaultBlockParameterName.LATEST);
+            callsById.put(request.getId(), call);
+            requests.add(request);
         }
+
+        Map<AttrCall, String> values = new HashMap<>();
+        long block = readChainBlock(web3j, chainId);
+        try
+        {
+            for (Response<?> rsp : batcher.send(web3j, chainId, requests, 1))
+            {
+                AttrCall call = callsById.get(rsp.getId());
+                if (call != null && rsp instanceof EthCall) values.put(call, ((EthCall) rsp).getValue());
+            }
+        }
+        catch (IOException e)
+        {
+            //Connection error. Use cached values
+        }
+
+        Map<BigInteger, Map<String, TokenScriptResult.Attribute>> results = new HashMap<>();
+        List<TransactionResult> toStore = new ArrayList<>();
+        for (AttrCall call : batch)
+        {
+            for (AttrTarget target : call.targets)
+            {
+                toStore.add(completeAttrCall(token, call.address, call.function, target, values.get(call), block, results));
+            }
+        }
+
+        attrIf.storeAuxData(attrIf.getWalletAddr(), toStore);
+        return results;
+    }
+
+    /**
+     * Read the chain's block number ahead of a batch; the batch may be split or answered out of order, so this is
+     * fetched on its own. Calls made after it read state at least this new, so their results can be stamped with it.
+     */
+    private long readChainBlock(Web3j web3j, long chainId)
+    {
+        try
+        {
+            EthBlockNumber blockNumber = web3j.ethBlockNumber().send();
+            if (!blockNumber.hasError()) resultCache.setChainBlock(chainId, blockNumber.getBlockNumber().longValue());
+        }
+        catch (IOException | RuntimeException e)
+        {
+            //Connection error. Use the last known block
+        }
+
+        return resultCache.getChainBlock(chainId);
+    }
+
+    private TransactionResult completeAttrCall(Token token, ContractAddress address, Function function, AttrTarget target, String value,
+                                               long block, Map<BigInteger, Map<String, TokenScriptResult.Attribute>> results)
+    {
+        TransactionResult txResult = new TransactionResult(address.chainId, address.address, target.tokenId, target.attr);
+        txResult.result = handleTransactionResult(txResult, function, value, target.attr, System.currentTimeMillis());
+        cacheResult(token, address, function, value, txResult, block);
+        addParseResultIfValid(token, target.tokenId, target.attr, txResult);
+        restoreFromDBIfRequired(txResult, target.cachedResult);
+        addAttrResult(results, target.resultKey, target.attr, parseFunctionResult(txResult, target.attr));
+        return txResult;
+    }
+
+    private static void addAttrResult(Map<BigInteger, Map<String, TokenScriptResult.Attribute>> results, BigInteger key, Attribute attr,
+                                      TokenScriptResult.Attribute result)
+    {
+        if (result != null) results.computeIfAbsent(key, k -> new HashMap<>()).put(attr.name, result);
     }
 
     private boolean checkUpdateRequired(AttributeInterface attrIf, Attribute attr,
@@ -980,7 +1238,7 @@ public abstract class TokenscriptFunction
                 return isItemView || !(cachedResult.resultTime == 0); //only update if no result
             }
             case UPDATE_IF_REQUIRED -> {
-                return (isItemView || (!attr.isVolatile() && ((attrIf.resolveOptimisedAttr(useAddress, attr, cachedResult) || !cachedResult.needsUpdating(lastTxUpdate)))));
+                return (isItemView || (!attr.isVolatile() && ((attrIf.resolveOptimisedAttr(useAddress, attr, cachedResult) || isResultCurrent(cachedResult, lastTxUpdate, useAddress)))));
             }
             case ALWAYS_UPDATE -> {
                 return isItemView;
@@ -990,6 +1248,22 @@ public abstract class TokenscriptFunction
         return true;
     }
 
+    /**
+     * A result is current if no transfer of the contract has been seen since the block it was read at. Contracts
+     * without transfer tracking fall back to the time of their last transaction.
+     */
+    private boolean isResultCurrent(TransactionResult cachedResult, long lastTxUpdate, ContractAddress useAddress)
+    {
+        if (resultCache.isWatched(useAddress.chainId, useAddress.address))
+        {
+            return resultCache.isCurrent(useAddress.chainId, useAddress.address, cachedResult.resultBlock);
+        }
+        else
+        {
+            return !cachedResult.needsUpdating(lastTxUpdate);
+        }
+    }
+
     private Single<TokenScriptResult.Attribute> getEventResult(TransactionResult txResult, Attribute attr, BigInteger tokenId, AttributeInterface attrIf)
     {
         //fetch the function
@@ -1058,6 +1332,7 @@ public abstract class TokenscriptFunction
         {
             result.result = cachedResult.result;
             result.resultTime = cachedResult.resultTime;
+            result.resultBlock = cachedResult.resultBlock;
         }
 
         return result;
@@ -580,6 +580,31 @@ public class AWRealmMigration implements RealmMigration
             }
             oldVersion = 57;
         }
+
+        // Version 58: Learned JSON-RPC batch limits
+        if (oldVersion == 57)
+        {
+            RealmObjectSchema realmData = schema.get("RealmBatchLimit");
+            if (realmData == null)
+            {
+                schema.create("RealmBatchLimit")
+                        .addField("chainId", long.class, FieldAttribute.PRIMARY_KEY)
+                        .addField("batchLimit", int.class)
+                        .addField("timeStamp", long.class);
+            }
+            oldVersion = 58;
+        }
+
+        // Version 59: Block number stamp for TokenScript function results
+        if (oldVersion == 58)
+        {
+            RealmObjectSchema realmData = schema.get("RealmAuxData");
+            if (realmData != null && !realmData.hasField("resultBlock"))
+            {
+                realmData.addField("resultBlock", long.class);
+            }
+            oldVersion = 59;
+        }
     }
 
     @Override
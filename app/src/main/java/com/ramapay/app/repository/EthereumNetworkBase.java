@@ -60,6 +60,7 @@ import android.text.TextUtils;
 import android.util.LongSparseArray;
 
 import com.ramapay.app.C;
+import com.ramapay.app.entity.BatchSizeController;
 import com.ramapay.app.R;
 import com.ramapay.app.entity.ContractLocator;
 import com.ramapay.app.entity.ContractType;
@@ -887,60 +888,55 @@ public abstract class EthereumNetworkBase implements EthereumNetworkRepositoryTy
     public static final int INFURA_BATCH_LIMIT = 512;
     public static final String INFURA_DOMAIN = "infura.io";
 
+    public static final int DEFAULT_BATCH_CEILING = 64;
+
+    private static final BatchSizeController batchController = new BatchSizeController(EthereumNetworkBase::batchProcessingCeiling);
+
+    /**
+     * Provide persistent storage for the learned batch limits; called once the Realm is available
+     */
+    public static void setBatchLimitStore(BatchSizeController.Store store)
+    {
+        batchController.setStore(store);
+    }
+
     public static void setBatchProcessingError(long chainId)
     {
-        batchProcessingLimitMap.put(chainId, 0);
+        batchController.onError(chainId);
     }
 
-    //TODO: Refactor when we bump the version of java to allow switch on Long (Finally!!)
-    //Also TODO: add a test to check these batch limits of each chain we support
-    private static int batchProcessingLimit(long chainId)
+    public static void setBatchProcessingSuccess(long chainId, int batchSize)
+    {
+        batchController.onSuccess(chainId, batchSize);
+    }
+
+    public static void setBatchResponseOversized(long chainId, int batchSize)
+    {
+        batchController.onOversizedResponse(chainId, batchSize);
+    }
+
+    //Upper bound for the adaptive batch size; the working limit is learned per chain by BatchSizeController
+    private static int batchProcessingCeiling(long chainId)
     {
-        //for now return don't batch
-        return 0;
-        /*
         NetworkInfo info = builtinNetworkMap.get(chainId);
-        if (info.rpcServerUrl.contains(INFURA_DOMAIN)) //infura supported chains can handle tx batches of 1000 and up
+        if (info != null && info.rpcServerUrl != null && info.rpcServerUrl.contains(INFURA_DOMAIN)) //infura supported chains can handle tx batches of 1000 and up
         {
             return INFURA_BATCH_LIMIT;
         }
-        else if (info.rpcServerUrl.contains("klaytn") || info.rpcServerUrl.contains("rpc.ankr.com"))
-        {
-            return 0;
-        }
-        else if (chainId == GNOSIS_ID)
-        {
-            return 6; //TODO: Check limit:
-        }
-        else if (info.rpcServerUrl.contains("cronos.org"))
-        {
-            return 5; //TODO: Check limit
-        }
         else
         {
-            return 32;
+            return DEFAULT_BATCH_CEILING;
         }
-         */
     }
 
-    private static final LongSparseArray<Integer> batchProcessingLimitMap = new LongSparseArray<>();
-
-    //Init the batch limits
-    private static void setBatchProcessingLimits()
+    public static int getBatchProcessingLimit(long chainId)
     {
-        for (int i = 0; i < builtinNetworkMap.size(); i++)
-        {
-            NetworkInfo info = builtinNetworkMap.valueAt(i);
-            batchProcessingLimitMap.put(info.chainId, batchProcessingLimit(info.chainId));
-        }
+        return batchController.getLimit(chainId);
     }
 
-    public static int getBatchProcessingLimit(long chainId)
+    public static BatchSizeController getBatchController()
     {
-        if (batchProcessingLimitMap.size() == 0) setBatchProcessingLimits(); //If batch limits not set, init them and proceed
-        {
-            return batchProcessingLimitMap.get(chainId, 0); //default to zero / no batching
-        }
+        return batchController;
     }
 
     @Override
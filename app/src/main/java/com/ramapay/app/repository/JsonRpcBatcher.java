@@ -0,0 +1,108 @@
+package com.ramapay.app.repository;
+
+import com.ramapay.app.entity.BatchSizeController;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Sends JSON-RPC calls to a node in batches sized by the chain's learned batch limit, falling back to one call at a
+ * time if the node won't batch. Match responses to requests by id; a batch reply need not keep the request order.
+ */
+public class JsonRpcBatcher
+{
+    private final BatchSizeController batchLimits;
+
+    public JsonRpcBatcher(BatchSizeController batchLimits)
+    {
+        this.batchLimits = batchLimits;
+    }
+
+    /**
+     * Send requests in batches of the chain's limit, keeping groups of groupSize requests in the same batch
+     * @return responses that could be read
+     */
+    public List<Response<?>> send(Web3j web3j, long chainId, List<Request<?, ? extends Response<?>>> requests, int groupSize) throws IOException
+    {
+        List<Response<?>> responses = new ArrayList<>(requests.size());
+        int index = 0;
+        while (index < requests.size())
+        {
+            int limit = batchLimits.getLimit(chainId);
+            if (limit < BatchSizeController.MIN_BATCH)
+            {
+                sendSingle(requests.subList(index, requests.size()), responses);
+                break;
+            }
+
+            int size = Math.max(groupSize, limit - limit % groupSize);
+            List<Request<?, ? extends Response<?>>> chunk = requests.subList(index, Math.min(index + size, requests.size()));
+            BatchRequest batch = web3j.newBatch();
+            for (Request<?, ? extends Response<?>> request : chunk) batch.add(request);
+
+            BatchResponse batchResponse = sendBatch(chainId, batch);
+            if (batchResponse != null) responses.addAll(batchResponse.getResponses());
+            else sendSingle(chunk, responses);
+
+            index += chunk.size();
+        }
+
+        return responses;
+    }
+
+    /**
+     * Send a JSON-RPC batch and feed the outcome back to the adaptive batch limit
+     * @return responses, or null if the node rejected the batch and the calls should be made individually
+     */
+    private BatchResponse sendBatch(long chainId, BatchRequest batch) throws IOException
+    {
+        int size = batch.getRequests().size();
+        try
+        {
+            BatchResponse responses = batch.send();
+            if (responses.getResponses().size() == size)
+            {
+                batchLimits.onSuccess(chainId, size);
+                return responses;
+            }
+        }
+        catch (ClassCastException e)
+        {
+            //node replied with a single error object instead of an array
+        }
+        catch (IOException e)
+        {
+            if (!BatchSizeController.isOversizedResponse(e.getMessage())) throw e;
+            batchLimits.onOversizedResponse(chainId, size);
+            return null;
+        }
+
+        batchLimits.onError(chainId);
+        return null;
+    }
+
+    private void sendSingle(List<Request<?, ? extends Response<?>>> requests, List<Response<?>> responses) throws IOException
+    {
+        for (Request<?, ? extends Response<?>> request : requests)
+        {
+            try
+            {
+                responses.add(request.send());
+            }
+            catch (RuntimeException e)
+            {
+                //malformed reply for this call only
+                Timber.w(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.ramapay.app.repository;
+
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal ABI codec for Multicall3 aggregate3((address,bool,bytes)[]) returns ((bool,bytes)[])
+ *
+ * The encoding is written by hand rather than through web3j's struct support; that path relies on reflection
+ * over generated struct classes and is too heavy to run for every balance refresh.
+ */
+public class Multicall3
+{
+    public static final String ADDRESS = "0xcA11bde05977b3631167028862bE2a173976CA11";
+    public static final String AGGREGATE3_SELECTOR = "0x82ad56cb";
+
+    private static final int WORD = 32;
+
+    public static class Call
+    {
+        public final String target;
+        public final byte[] callData;
+        public final boolean allowFailure;
+
+        public Call(String target, byte[] callData, boolean allowFailure)
+        {
+            this.target = target;
+            this.callData = callData;
+            this.allowFailure = allowFailure;
+        }
+    }
+
+    public static class Result
+    {
+        public final boolean success;
+        public final byte[] returnData;
+
+        public Result(boolean success, byte[] returnData)
+        {
+            this.success = success;
+            this.returnData = returnData;
+        }
+    }
+
+    public static String encodeAggregate3(List<Call> calls)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeBytes(out, Numeric.hexStringToByteArray(AGGREGATE3_SELECTOR));
+        writeWord(out, WORD); //offset to calls array
+        writeWord(out, calls.size());
+
+        //tuple offsets are relative to the start of the array body (after the length word)
+        long offset = (long) WORD * calls.size();
+        for (Call call : calls)
+        {
+            writeWord(out, offset);
+            offset += tupleSize(call);
+        }
+
+        for (Call call : calls)
+        {
+            writeBytes(out, Numeric.toBytesPadded(Numeric.toBigInt(call.target), WORD));
+            writeWord(out, call.allowFailure ? 1 : 0);
+            writeWord(out, 3 * WORD); //offset to callData within the tuple
+            writeWord(out, call.callData.length);
+            writeBytes(out, call.callData);
+            writeBytes(out, new byte[padding(call.callData.length)]);
+        }
+
+        return Numeric.toHexString(out.toByteArray());
+    }
+
+    /**
+     * Decodes the aggregate3 return value
+     * @param result hex result of the eth_call
+     * @return one Result per Call, in order
+     * @throws IllegalArgumentException if the result is not a well formed aggregate3 return
+     */
+    public static List<Result> decodeAggregate3(String result)
+    {
+        byte[] data = Numeric.hexStringToByteArray(result);
+        if (data.length < 2 * WORD)
+        {
+            throw new IllegalArgumentException("Multicall result too short: " + data.length);
+        }
+
+        int arrayStart = readInt(data, 0);
+        int count = readInt(data, arrayStart);
+        int base = arrayStart + WORD;
+        List<Result> results = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++)
+        {
+            int tupleStart = base + readInt(data, base + i * WORD);
+            boolean success = readInt(data, tupleStart) != 0;
+            int bytesStart = tupleStart + readInt(data, tupleStart + WORD);
+            int length = readInt(data, bytesStart);
+            if (bytesStart + WORD + length > data.length)
+            {
+                throw new IllegalArgumentException("Multicall return data overruns result");
+            }
+            byte[] returnData = new byte[length];
+            System.arraycopy(data, bytesStart + WORD, returnData, 0, length);
+            results.add(new Result(success, returnData));
+        }
+
+        return results;
+    }
+
+    private static int tupleSize(Call call)
+    {
+        return 4 * WORD + call.callData.length + padding(call.callData.length);
+    }
+
+    private static int padding(int length)
+    {
+        return (WORD - (length % WORD)) % WORD;
+    }
+
+    private static void writeWord(ByteArrayOutputStream out, long value)
+    {
+        writeBytes(out, Numeric.toBytesPadded(BigInteger.valueOf(value), WORD));
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes)
+    {
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static int readInt(byte[] data, int index)
+    {
+        if (index < 0 || index + WORD > data.length)
+        {
+            throw new IllegalArgumentException("Multicall offset out of range: " + index);
+        }
+
+        for (int i = index; i < index + WORD - 4; i++)
+        {
+            if (data[i] != 0) throw new IllegalArgumentException("Multicall word out of range at: " + index);
+        }
+
+        int value = ((data[index + 28] & 0xFF) << 24) | ((data[index + 29] & 0xFF) << 16)
+                | ((data[index + 30] & 0xFF) << 8) | (data[index + 31] & 0xFF);
+        if (value < 0) throw new IllegalArgumentException("Multicall word out of range at: " + index);
+        return value;
+    }
+}
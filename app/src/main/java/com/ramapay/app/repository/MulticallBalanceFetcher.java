@@ -0,0 +1,251 @@
+package com.ramapay.app.repository;
+
+import static org.web3j.protocol.core.methods.request.Transaction.createEthCallTransaction;
+
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongFunction;
+
+import timber.log.Timber;
+
+/**
+ * Fetches uint256 balanceOf(owner) for many tokens on one chain, packing the calls into Multicall3 aggregate3 requests.
+ *
+ * Chunk size is tracked per chain: it starts at DEFAULT_CHUNK_SIZE and halves each time the node rejects the call
+ * (gas cap, response size). A chain with no Multicall3 deployment (eth_call returns "0x") is remembered and
+ * served with single eth_calls from then on.
+ *
+ * Balance values follow TokenRepository.checkUint256Balance: -1 node or call error, -2 no contract code ("0x")
+ */
+public class MulticallBalanceFetcher
+{
+    private static final String TAG = "MULTICALL";
+    public static final BigDecimal BALANCE_ERROR = BigDecimal.valueOf(-1);
+    public static final BigDecimal BALANCE_NO_CONTRACT = BigDecimal.valueOf(-2);
+
+    public static final int DEFAULT_CHUNK_SIZE = 200;
+    private static final int MIN_CHUNK_SIZE = 8;
+
+    private final LongFunction<Web3j> serviceProvider;
+    private final Map<Long, Integer> chunkSizes = new ConcurrentHashMap<>();
+    private final Set<Long> noMulticallChains = ConcurrentHashMap.newKeySet();
+
+    public MulticallBalanceFetcher(LongFunction<Web3j> serviceProvider)
+    {
+        this.serviceProvider = serviceProvider;
+    }
+
+    /**
+     * @param chainId chain to query
+     * @param owner wallet address
+     * @param tokenAddresses contract addresses on this chain
+     * @return map of lower-case contract address to raw balance
+     */
+    public Map<String, BigDecimal> fetchBalances(long chainId, String owner, Collection<String> tokenAddresses)
+    {
+        Set<String> unique = new LinkedHashSet<>();
+        for (String address : tokenAddresses) unique.add(address.toLowerCase());
+        List<String> addresses = new ArrayList<>(unique);
+
+        Map<String, BigDecimal> balances = new HashMap<>();
+        if (addresses.isEmpty()) return balances;
+
+        byte[] callData = Numeric.hexStringToByteArray(FunctionEncoder.encode(balanceOf(owner)));
+
+        if (!hasMulticall(chainId))
+        {
+            fetchSingle(chainId, owner, addresses, callData, balances);
+            return balances;
+        }
+
+        int index = 0;
+        while (index < addresses.size())
+        {
+            int chunkSize = getChunkSize(chainId);
+            List<String> chunk = addresses.subList(index, Math.min(index + chunkSize, addresses.size()));
+
+            switch (fetchChunk(chainId, owner, chunk, callData, balances))
+            {
+                case DONE:
+                    index += chunk.size();
+                    break;
+                case TOO_LARGE:
+                    if (chunkSize <= MIN_CHUNK_SIZE)
+                    {
+                        fetchSingle(chainId, owner, chunk, callData, balances);
+                        index += chunk.size();
+                    }
+                    else
+                    {
+                        chunkSizes.put(chainId, Math.max(MIN_CHUNK_SIZE, chunkSize / 2));
+                    }
+                    break;
+                case NOT_DEPLOYED:
+                    Timber.tag(TAG).d("No Multicall3 on chain %s, using single calls", chainId);
+                    noMulticallChains.add(chainId);
+                    fetchSingle(chainId, owner, addresses.subList(index, addresses.size()), callData, balances);
+                    index = addresses.size();
+                    break;
+                case NODE_ERROR:
+                    for (String address : chunk) balances.put(address, BALANCE_ERROR);
+                    index += chunk.size();
+                    break;
+            }
+        }
+
+        return balances;
+    }
+
+    private static Function balanceOf(String owner)
+    {
+        return new Function("balanceOf",
+                Collections.singletonList(new Address(owner)),
+                Collections.singletonList(new TypeReference<Uint256>() {}));
+    }
+
+    public boolean hasMulticall(long chainId)
+    {
+        return !noMulticallChains.contains(chainId);
+    }
+
+    public int getChunkSize(long chainId)
+    {
+        Integer size = chunkSizes.get(chainId);
+        return size != null ? size : DEFAULT_CHUNK_SIZE;
+    }
+
+    private enum ChunkResult
+    {
+        DONE, TOO_LARGE, NOT_DEPLOYED, NODE_ERROR
+    }
+
+    private ChunkResult fetchChunk(long chainId, String owner, List<String> chunk, byte[] callData, Map<String, BigDecimal> balances)
+    {
+        List<Multicall3.Call> calls = new ArrayList<>(chunk.size());
+        for (String address : chunk)
+        {
+            calls.add(new Multicall3.Call(address, callData, true));
+        }
+
+        try
+        {
+            EthCall response = serviceProvider.apply(chainId)
+                    .ethCall(createEthCallTransaction(owner, Multicall3.ADDRESS, Multicall3.encodeAggregate3(calls)),
+                            DefaultBlockParameterName.LATEST)
+                    .send();
+
+            if (response.hasError())
+            {
+                //out of gas, response too large or call limit; retry with a smaller batch
+                Timber.tag(TAG).d("Multicall error on %s (%s): %s", chainId, chunk.size(), response.getError().getMessage());
+                return ChunkResult.TOO_LARGE;
+            }
+
+            String value = response.getValue();
+            if (value == null || Numeric.cleanHexPrefix(value).isEmpty())
+            {
+                return ChunkResult.NOT_DEPLOYED;
+            }
+
+            List<Multicall3.Result> results = Multicall3.decodeAggregate3(value);
+            if (results.size() != chunk.size())
+            {
+                return ChunkResult.TOO_LARGE;
+            }
+
+            for (int i = 0; i < chunk.size(); i++)
+            {
+                balances.put(chunk.get(i), decodeBalance(results.get(i)));
+            }
+
+            return ChunkResult.DONE;
+        }
+        catch (IllegalArgumentException e)
+        {
+            Timber.tag(TAG).w(e);
+            return ChunkResult.TOO_LARGE;
+        }
+        catch (IOException e)
+        {
+            return ChunkResult.NODE_ERROR;
+        }
+        catch (Exception e)
+        {
+            Timber.tag(TAG).w(e);
+            return ChunkResult.NODE_ERROR;
+        }
+    }
+
+    private void fetchSingle(long chainId, String owner, List<String> addresses, byte[] callData, Map<String, BigDecimal> balances)
+    {
+        String encoded = Numeric.toHexString(callData);
+        for (String address : addresses)
+        {
+            BigDecimal balance = BALANCE_ERROR;
+            try
+            {
+                EthCall response = serviceProvider.apply(chainId)
+                        .ethCall(createEthCallTransaction(owner, address, encoded), DefaultBlockParameterName.LATEST)
+                        .send();
+
+                String value = response.getValue();
+                if (!response.hasError() && value != null)
+                {
+                    balance = decodeBalance(Numeric.hexStringToByteArray(value), true);
+                }
+            }
+            catch (Exception e)
+            {
+                //network error, keep previous balance
+            }
+
+            balances.put(address, balance);
+        }
+    }
+
+    private static BigDecimal decodeBalance(Multicall3.Result result)
+    {
+        return decodeBalance(result.returnData, result.success);
+    }
+
+    private static BigDecimal decodeBalance(byte[] returnData, boolean success)
+    {
+        if (!success)
+        {
+            return BALANCE_ERROR;
+        }
+        else if (returnData.length == 0)
+        {
+            return BALANCE_NO_CONTRACT;
+        }
+        else if (returnData.length < 32)
+        {
+            return BALANCE_ERROR;
+        }
+        else
+        {
+            return new BigDecimal(new BigInteger(1, Arrays.copyOfRange(returnData, 0, 32)));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.ramapay.app.repository;
+
+import static com.ramapay.app.repository.TokensRealmSource.EVENT_CARDS;
+
+import com.ramapay.app.entity.ActivitySource;
+import com.ramapay.app.entity.EventMeta;
+import com.ramapay.app.entity.TransactionMeta;
+import com.ramapay.app.repository.entity.RealmAuxData;
+import com.ramapay.app.repository.entity.RealmTransaction;
+import com.ramapay.app.repository.entity.RealmTransfer;
+import com.ramapay.app.ui.widget.entity.TokenTransferData;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.realm.Realm;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+
+/**
+ * ActivitySource over live RealmResults. Rows are only read from the database when asked for, and the cursors
+ * follow database writes; must be used on the thread that owns the Realm instance.
+ */
+public class RealmActivitySource implements ActivitySource
+{
+    private final Realm realm;
+    private final RealmResults<RealmTransaction> transactions;
+    private final RealmResults<RealmAuxData> events;
+    private Runnable changeListener;
+
+    public RealmActivitySource(Realm realm, List<Long> networkFilters)
+    {
+        this.realm = realm;
+        Long[] chainIds = networkFilters.toArray(new Long[0]);
+        transactions = filterChains(realm.where(RealmTransaction.class), chainIds)
+                .sort("timeStamp", Sort.DESCENDING)
+                .findAll();
+        events = filterChains(realm.where(RealmAuxData.class), chainIds)
+                .endsWith("instanceKey", EVENT_CARDS)
+                .sort("resultTime", Sort.DESCENDING)
+                .findAll();
+
+        transactions.addChangeListener(results -> onChange());
+        events.addChangeListener(results -> onChange());
+    }
+
+    @Override
+    public int getTransactionCount()
+    {
+        return transactions.isValid() ? transactions.size() : 0;
+    }
+
+    @Override
+    public long getTransactionTime(int index)
+    {
+        return transactions.get(index).getTimeStamp();
+    }
+
+    @Override
+    public TransactionMeta getTransaction(int index)
+    {
+        RealmTransaction item = transactions.get(index);
+        return new TransactionMeta(item.getHash(), item.getTimeStamp(), item.getTo(), item.getChainId(), item.getBlockNumber());
+    }
+
+    @Override
+    public List<TokenTransferData> getTransfers(TransactionMeta tm)
+    {
+        List<TokenTransferData> transferData = new ArrayList<>();
+        Set<String> seenTransferKeys = new HashSet<>();
+        RealmResults<RealmTransfer> transfers = realm.where(RealmTransfer.class)
+                .equalTo("hash", RealmTransfer.databaseKey(tm.chainId, tm.hash))
+                .findAll();
+
+        //list of transfers, descending in time to give ordered list; if there's only 1 transfer, keep the transaction timestamp
+        long nextTransferTime = transfers.size() == 1 ? tm.getTimeStamp() : tm.getTimeStamp() - 1;
+        for (RealmTransfer rt : transfers)
+        {
+            String transferKey = rt.getTokenAddress() + "_" + rt.getEventName() + "_" + rt.getTransferDetail();
+            if (seenTransferKeys.add(transferKey))
+            {
+                transferData.add(new TokenTransferData(rt.getHash(), tm.chainId,
+                        rt.getTokenAddress(), rt.getEventName(), rt.getTransferDetail(), nextTransferTime));
+                nextTransferTime--;
+            }
+        }
+
+        return transferData;
+    }
+
+    @Override
+    public int getEventCount()
+    {
+        return events.isValid() ? events.size() : 0;
+    }
+
+    @Override
+    public long getEventTime(int index)
+    {
+        return events.get(index).getResultTime();
+    }
+
+    @Override
+    public EventMeta getEvent(int index)
+    {
+        RealmAuxData item = events.get(index);
+        return new EventMeta(item.getTransactionHash(), item.getEventName(), item.getFunctionId(), item.getResultTime(), item.getChainId());
+    }
+
+    @Override
+    public void setChangeListener(Runnable listener)
+    {
+        changeListener = listener;
+    }
+
+    @Override
+    public void close()
+    {
+        changeListener = null;
+        transactions.removeAllChangeListeners();
+        events.removeAllChangeListeners();
+    }
+
+    private void onChange()
+    {
+        if (changeListener != null) changeListener.run();
+    }
+
+    private static <T> RealmQuery<T> filterChains(RealmQuery<T> query, Long[] chainIds)
+    {
+        return chainIds.length > 0 ? query.in("chainId", chainIds) : query.alwaysFalse();
+    }
+}
@@ -0,0 +1,71 @@
+package com.ramapay.app.repository;
+
+import static com.ramapay.app.repository.TokensRealmSource.TICKER_DB;
+
+import com.ramapay.app.entity.BatchSizeController;
+import com.ramapay.app.repository.entity.RealmBatchLimit;
+import com.ramapay.app.service.RealmManager;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import timber.log.Timber;
+
+/**
+ * Keeps the learned JSON-RPC batch limits in the ticker database, which is shared across wallets
+ */
+public class RealmBatchLimitStore implements BatchSizeController.Store
+{
+    private final RealmManager realmManager;
+
+    public RealmBatchLimitStore(RealmManager realmManager)
+    {
+        this.realmManager = realmManager;
+    }
+
+    @Override
+    public Map<Long, BatchSizeController.Limit> load()
+    {
+        Map<Long, BatchSizeController.Limit> limits = new HashMap<>();
+        try (Realm realm = realmManager.getRealmInstance(TICKER_DB))
+        {
+            RealmResults<RealmBatchLimit> results = realm.where(RealmBatchLimit.class).findAll();
+            for (RealmBatchLimit rbl : results)
+            {
+                limits.put(rbl.getChainId(), new BatchSizeController.Limit(rbl.getBatchLimit(), rbl.getTimeStamp()));
+            }
+        }
+        catch (Exception e)
+        {
+            Timber.w(e);
+        }
+
+        return limits;
+    }
+
+    @Override
+    public void save(long chainId, BatchSizeController.Limit limit)
+    {
+        try (Realm realm = realmManager.getRealmInstance(TICKER_DB))
+        {
+            realm.executeTransaction(r -> {
+                RealmBatchLimit rbl = r.where(RealmBatchLimit.class)
+                        .equalTo("chainId", chainId)
+                        .findFirst();
+
+                if (rbl == null)
+                {
+                    rbl = r.createObject(RealmBatchLimit.class, chainId);
+                }
+
+                rbl.setBatchLimit(limit.batchLimit, limit.timeStamp);
+            });
+        }
+        catch (Exception e)
+        {
+            Timber.w(e);
+        }
+    }
+}
@@ -13,6 +13,7 @@ import com.ramapay.app.entity.tokens.Token;
 import com.ramapay.app.entity.tokens.TokenCardMeta;
 import com.ramapay.app.entity.tokens.TokenInfo;
 import com.ramapay.app.service.AssetDefinitionService;
+import com.ramapay.app.service.PortfolioValuation;
 import com.ramapay.token.entity.ContractAddress;
 
 import java.math.BigDecimal;
@@ -81,6 +82,8 @@ public interface TokenLocalSource
 
     Single<Pair<Double, Double>> getTotalValue(String currentAddress, List<Long> networkFilters);
 
+    Single<PortfolioValuation.Snapshot> getValuationSnapshot(String currentAddress, List<Long> networkFilters);
+
     Map<String, Long> getTickerTimeMap(long chainId, List<TokenCardMeta> erc20Tokens);
 
     void deleteTickers();
@@ -12,7 +12,6 @@ import android.util.Pair;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.ramapay.app.C;
 import com.ramapay.app.entity.ContractLocator;
 import com.ramapay.app.entity.ContractType;
 import com.ramapay.app.entity.ImageEntry;
@@ -28,9 +27,9 @@ import com.ramapay.app.entity.tokens.Ticket;
 import com.ramapay.app.entity.tokens.Token;
 import com.ramapay.app.entity.tokens.TokenCardMeta;
 import com.ramapay.app.entity.tokens.TokenInfo;
-import com.ramapay.app.service.AWHttpServiceWaterfall;
 import com.ramapay.app.service.AssetDefinitionService;
 import com.ramapay.app.service.OkLinkService;
+import com.ramapay.app.service.PortfolioValuation;
 import com.ramapay.app.service.TickerService;
 import com.ramapay.app.util.Utils;
 import com.ramapay.app.util.ens.AWEnsResolver;
@@ -66,10 +65,9 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Observable;
 import io.reactivex.Single;
@@ -104,7 +102,7 @@ public class TokenRepository implements TokenRepositoryType {
     private static final int NODE_COMMS_ERROR = -1;
     private static final int CONTRACT_BALANCE_NULL = -2;
 
-    private final Map<Long, Web3j> web3jNodeServers;
+    private final MulticallBalanceFetcher balanceFetcher;
     private AWEnsResolver ensResolver;
     private String currentAddress;
 
@@ -119,33 +117,20 @@ public class TokenRepository implements TokenRepositoryType {
         this.context = context;
         this.tickerService = tickerService;
 
-        web3jNodeServers = new ConcurrentHashMap<>();
+        balanceFetcher = new MulticallBalanceFetcher(this::getService);
         currentAddress = ethereumNetworkRepository.getCurrentWalletAddress();
 
-        okClient = new OkHttpClient.Builder()
-                .connectTimeout(C.CONNECT_TIMEOUT * 4, TimeUnit.SECONDS) //events can take longer to render
-                .connectTimeout(C.READ_TIMEOUT * 4, TimeUnit.SECONDS)
-                .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        okClient = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.EVENTS);
     }
 
     private void buildWeb3jClient(NetworkInfo networkInfo)
     {
-        AWHttpServiceWaterfall publicNodeService = new AWHttpServiceWaterfall(networkInfo.rpcUrls, networkInfo.chainId, okClient, KeyProviderFactory.get().getInfuraKey(),
-                KeyProviderFactory.get().getInfuraSecret(), KeyProviderFactory.get().getKlaytnKey(), false);
-        //AWHttpService publicNodeService = new AWHttpService(networkInfo.rpcServerUrl, networkInfo.backupNodeUrl, networkInfo.chainId, okClient, KeyProviderFactory.get().getInfuraKey(),
-        //        KeyProviderFactory.get().getInfuraSecret(), KeyProviderFactory.get().getKlaytnKey(), false);
-        web3jNodeServers.put(networkInfo.chainId, Web3j.build(publicNodeService));
+        Web3jClientRegistry.invalidate(networkInfo.chainId);
     }
 
     private Web3j getService(long chainId)
     {
-        if (!web3jNodeServers.containsKey(chainId))
-        {
-            buildWeb3jClient(ethereumNetworkRepository.getNetworkByChain(chainId));
-        }
-        return web3jNodeServers.get(chainId);
+        return Web3jClientRegistry.getWeb3j(ethereumNetworkRepository.getNetworkByChain(chainId), Web3jClientRegistry.ClientType.EVENTS);
     }
 
     @Override
@@ -220,6 +205,12 @@ public class TokenRepository implements TokenRepositoryType {
         return localSource.getTotalValue(currentAddress, networkFilters);
     }
 
+    @Override
+    public Single<PortfolioValuation.Snapshot> getValuationSnapshot(String currentAddress, List<Long> networkFilters)
+    {
+        return localSource.getValuationSnapshot(currentAddress, networkFilters);
+    }
+
     @Override
     public Single<List<String>> getTickerUpdateList(List<Long> networkFilter)
     {
@@ -582,15 +573,74 @@ public class TokenRepository implements TokenRepositoryType {
     private Single<Token[]> updateBalances(Wallet wallet, Token[] tokens)
     {
         return Single.fromCallable(() -> {
+            Map<Long, List<String>> chainTokens = new HashMap<>();
             for (Token t : tokens)
             {
-                //get balance of any token here
-                if (t.isERC20() || t.isNonFungible()) t.balance = checkUint256Balance(wallet, t.tokenInfo.chainId, t.getAddress());
+                if (t.isERC20() || t.isNonFungible())
+                {
+                    chainTokens.computeIfAbsent(t.tokenInfo.chainId, k -> new ArrayList<>()).add(t.getAddress());
+                }
+            }
+
+            Map<Long, Map<String, BigDecimal>> chainBalances = new HashMap<>();
+            for (Map.Entry<Long, List<String>> entry : chainTokens.entrySet())
+            {
+                chainBalances.put(entry.getKey(), balanceFetcher.fetchBalances(entry.getKey(), wallet.address, entry.getValue()));
+            }
+
+            for (Token t : tokens)
+            {
+                Map<String, BigDecimal> balances = chainBalances.get(t.tokenInfo.chainId);
+                BigDecimal balance = balances != null ? balances.get(t.getAddress().toLowerCase()) : null;
+                if (balance != null) t.balance = balance;
             }
             return tokens;
         });
     }
 
+    /**
+     * Refresh balanceOf for a set of ERC20 tokens on one chain using multicall batches
+     * @param walletAddress
+     * @param chainId
+     * @param tokenMetas tokens on chainId to refresh
+     * @return tokens whose stored balance changed, with the new balance applied
+     */
+    @Override
+    public Single<List<Token>> updateChainBalances(String walletAddress, long chainId, List<TokenCardMeta> tokenMetas)
+    {
+        return Single.fromCallable(() -> {
+            Wallet wallet = new Wallet(walletAddress);
+            List<String> addresses = new ArrayList<>(tokenMetas.size());
+            for (TokenCardMeta tcm : tokenMetas)
+            {
+                if (tcm.getChain() == chainId) addresses.add(tcm.getAddress());
+            }
+
+            Map<String, BigDecimal> balances = balanceFetcher.fetchBalances(chainId, walletAddress, addresses);
+            List<Token> updated = new ArrayList<>();
+
+            for (Map.Entry<String, BigDecimal> entry : balances.entrySet())
+            {
+                BigDecimal balance = entry.getValue();
+                if (balance.equals(MulticallBalanceFetcher.BALANCE_ERROR)) continue;
+                Token token = fetchToken(chainId, walletAddress, entry.getKey());
+                if (token == null) continue;
+
+                if (balance.equals(MulticallBalanceFetcher.BALANCE_NO_CONTRACT))
+                {
+                    checkDestroyedToken(wallet, token);
+                }
+                else if (localSource.updateTokenBalance(wallet, token, balance, null))
+                {
+                    token.balance = balance;
+                    updated.add(token);
+                }
+            }
+
+            return updated;
+        }).subscribeOn(Schedulers.io());
+    }
+
     private BigDecimal checkUint256Balance(@NonNull Wallet wallet, long chainId, String tokenAddress)
     {
         BigDecimal balance = BigDecimal.valueOf(-1);
@@ -1304,32 +1354,12 @@ public class TokenRepository implements TokenRepositoryType {
 
     public static Web3j getWeb3jServiceForEvents(long chainId)
     {
-        OkHttpClient okClient = new OkHttpClient.Builder()
-                .connectTimeout(C.CONNECT_TIMEOUT * 3, TimeUnit.SECONDS) //events can take longer to render
-                .connectTimeout(C.READ_TIMEOUT * 3, TimeUnit.SECONDS)
-                .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
-
-        String[] rpcUrls = EthereumNetworkBase.getNetwork(chainId).rpcUrls;
-
-        AWHttpServiceWaterfall publicNodeService = new AWHttpServiceWaterfall(rpcUrls, chainId, okClient, KeyProviderFactory.get().getInfuraKey(),
-                KeyProviderFactory.get().getInfuraSecret(), KeyProviderFactory.get().getKlaytnKey(), false);
-        return Web3j.build(publicNodeService);
+        return Web3jClientRegistry.getWeb3jForEvents(chainId);
     }
 
     public static Web3j getWeb3jService(long chainId)
     {
-        OkHttpClient okClient = new OkHttpClient.Builder()
-                .connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
-                .connectTimeout(C.READ_TIMEOUT * 3, TimeUnit.SECONDS)
-                .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
-
-        AWHttpServiceWaterfall publicNodeService = new AWHttpServiceWaterfall(EthereumNetworkBase.getNetwork(chainId).rpcUrls, chainId, okClient, KeyProviderFactory.get().getInfuraKey(),
-                KeyProviderFactory.get().getInfuraSecret(), KeyProviderFactory.get().getKlaytnKey(), false);
-        return Web3j.build(publicNodeService);
+        return Web3jClientRegistry.getWeb3j(chainId);
     }
 
     public static String callSmartContractFunction(long chainId,
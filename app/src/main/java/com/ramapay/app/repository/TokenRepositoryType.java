@@ -15,6 +15,7 @@ import com.ramapay.app.entity.tokens.Token;
 import com.ramapay.app.entity.tokens.TokenCardMeta;
 import com.ramapay.app.entity.tokens.TokenInfo;
 import com.ramapay.app.service.AssetDefinitionService;
+import com.ramapay.app.service.PortfolioValuation;
 import com.ramapay.token.entity.ContractAddress;
 
 import java.math.BigDecimal;
@@ -31,6 +32,8 @@ public interface TokenRepositoryType
 
     Single<BigDecimal> updateTokenBalance(String walletAddress, Token token);
 
+    Single<List<Token>> updateChainBalances(String walletAddress, long chainId, List<TokenCardMeta> tokenMetas);
+
     Single<ContractLocator> getTokenResponse(String address, long chainId, String method);
 
     Single<Token> checkInterface(Token tokens, Wallet wallet);
@@ -97,6 +100,8 @@ public interface TokenRepositoryType
 
     Single<Pair<Double, Double>> getTotalValue(String currentAddress, List<Long> networkFilters);
 
+    Single<PortfolioValuation.Snapshot> getValuationSnapshot(String currentAddress, List<Long> networkFilters);
+
     Single<List<String>> getTickerUpdateList(List<Long> networkFilter);
 
     TokenGroup getTokenGroup(long chainId, String address, ContractType type);
@@ -28,6 +28,7 @@ import com.ramapay.app.repository.entity.RealmNFTAsset;
 import com.ramapay.app.repository.entity.RealmToken;
 import com.ramapay.app.repository.entity.RealmTokenTicker;
 import com.ramapay.app.service.AssetDefinitionService;
+import com.ramapay.app.service.PortfolioValuation;
 import com.ramapay.app.service.RealmManager;
 import com.ramapay.app.util.Utils;
 import com.ramapay.token.entity.ContractAddress;
@@ -36,7 +37,6 @@ import com.google.gson.JsonSyntaxException;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -70,6 +70,7 @@ public class TokensRealmSource implements TokenLocalSource
         this.realmManager = realmManager;
         this.ethereumNetworkRepository = ethereumNetworkRepository;
         this.tokensMappingRepository = tokensMappingRepository;
+        EthereumNetworkBase.setBatchLimitStore(new RealmBatchLimitStore(realmManager));
     }
 
     public static String databaseKey(long chainId, String address)
@@ -1101,37 +1102,36 @@ public class TokensRealmSource implements TokenLocalSource
 
     @Override
     public Single<Pair<Double, Double>> getTotalValue(String currentAddress, List<Long> networkFilters)
+    {
+        return getValuationSnapshot(currentAddress, networkFilters)
+                .map(snapshot -> PortfolioValuation.computeTotals(snapshot).toPair());
+    }
+
+    @Override
+    public Single<PortfolioValuation.Snapshot> getValuationSnapshot(String currentAddress, List<Long> networkFilters)
     {
         final Wallet wallet = new Wallet(currentAddress);
-        return calculateWalletValue(fetchTokenMetasForUpdate(wallet, networkFilters), wallet);
+        return Single.fromCallable(() -> buildValuationSnapshot(fetchTokenMetasForUpdate(wallet, networkFilters), wallet));
     }
 
-    private Single<Pair<Double, Double>> calculateWalletValue(TokenCardMeta[] metas, Wallet wallet)
+    private PortfolioValuation.Snapshot buildValuationSnapshot(TokenCardMeta[] metas, Wallet wallet)
     {
-        return Single.fromCallable(() -> {
-            //fetch all token tickers
-            Map<Long, Map<String, TokenTicker>> tickerMap = fetchAllTokenTickers();
-            BigDecimal historicalBalance = BigDecimal.ZERO;
-            BigDecimal newBalance = BigDecimal.ZERO;
-            BigDecimal hundred = BigDecimal.valueOf(100);
-            for (TokenCardMeta meta : metas)
+        //fetch all token tickers
+        Map<Long, Map<String, TokenTicker>> tickerMap = fetchAllTokenTickers();
+        List<PortfolioValuation.Holding> holdings = new ArrayList<>();
+        for (TokenCardMeta meta : metas)
+        {
+            if (meta.hasPositiveBalance() && !meta.isNFT() && meta.group != TokenGroup.SPAM) //Currently we don't add NFT value. TODO: potentially get value from OpenSea
             {
                 long chainId = meta.getChain();
-                String address = meta.isEthereum() ? "eth" : meta.getAddress();
-                Map<String, TokenTicker> localTickers = tickerMap.get(chainId);
-                TokenTicker ticker = localTickers != null ? localTickers.get(address) : null;
-                if (ticker != null && meta.hasPositiveBalance() && !meta.isNFT() && meta.group != TokenGroup.SPAM) //Currently we don't add NFT value. TODO: potentially get value from OpenSea
-                {
-                    Token t = fetchToken(chainId, wallet, meta.getAddress());
-                    BigDecimal correctedBalance = t.getCorrectedBalance(18);
-                    BigDecimal fiatValue = correctedBalance.multiply(new BigDecimal(ticker.price)).setScale(18, RoundingMode.DOWN);
-                    historicalBalance = historicalBalance.add(fiatValue.add(fiatValue.multiply((new BigDecimal(ticker.percentChange24h).divide(hundred)).negate())));
-                    newBalance = newBalance.add(fiatValue);
-                }
+                Token t = fetchToken(chainId, wallet, meta.getAddress());
+                if (t == null) continue;
+                String address = meta.isEthereum() ? PortfolioValuation.BASE_TICKER : meta.getAddress();
+                holdings.add(new PortfolioValuation.Holding(chainId, address, t.getCorrectedBalance(18)));
             }
+        }
 
-            return new Pair<>(newBalance.doubleValue(), historicalBalance.doubleValue());
-        });
+        return new PortfolioValuation.Snapshot(holdings, tickerMap);
     }
 
     private Map<Long, Map<String, TokenTicker>> fetchAllTokenTickers()
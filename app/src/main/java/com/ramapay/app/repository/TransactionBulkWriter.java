@@ -0,0 +1,316 @@
+package com.ramapay.app.repository;
+
+import android.text.TextUtils;
+
+import com.ramapay.app.entity.Transaction;
+import com.ramapay.app.entity.transactions.TransferEvent;
+import com.ramapay.app.repository.entity.RealmTransaction;
+import com.ramapay.app.repository.entity.RealmTransfer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+
+/**
+ * Bulk write path for transactions and transfers read from block explorers.
+ *
+ * Rather than a findFirst() per item, the stored rows for a page are resolved with batched in() queries up front.
+ * Existing rows are updated in place and new rows are built unmanaged and written with one insertOrUpdate.
+ * Methods that take a Realm expect to be called inside a write transaction.
+ */
+public class TransactionBulkWriter
+{
+    static final int QUERY_BATCH = 500; //keep in() queries to a reasonable size
+
+    private static final IngestStats ingestStats = new IngestStats();
+
+    /**
+     * @return those hashes which already have a stored transaction
+     */
+    public static Set<String> findKnownHashes(Realm r, Collection<String> hashes)
+    {
+        return new HashSet<>(findTransactions(r, hashes).keySet());
+    }
+
+    public static Map<String, RealmTransaction> findTransactions(Realm r, Collection<String> hashes)
+    {
+        Map<String, RealmTransaction> found = new HashMap<>();
+        for (List<String> batch : partition(hashes, QUERY_BATCH))
+        {
+            RealmResults<RealmTransaction> results = r.where(RealmTransaction.class)
+                    .in("hash", batch.toArray(new String[0]))
+                    .findAll();
+
+            for (RealmTransaction realmTx : results)
+            {
+                found.put(realmTx.getHash(), realmTx);
+            }
+        }
+
+        return found;
+    }
+
+    /**
+     * Store a page of transactions from the explorer's transaction list. Fee fields already recorded for a stored
+     * transaction are kept, since the explorer doesn't report them.
+     */
+    public static void writeTransactions(Realm r, List<Transaction> txList)
+    {
+        Map<String, RealmTransaction> stored = findTransactions(r, hashesOf(txList));
+        Map<String, RealmTransaction> inserts = new HashMap<>();
+
+        for (Transaction tx : txList)
+        {
+            String oldGasFeeMax = "";
+            String oldPriorityFee = "";
+            RealmTransaction realmTx = stored.get(tx.hash);
+
+            if (realmTx == null)
+            {
+                realmTx = inserts.get(tx.hash);
+                if (realmTx == null)
+                {
+                    realmTx = newTransaction(tx.hash);
+                    inserts.put(tx.hash, realmTx);
+                }
+            }
+            else
+            {
+                oldGasFeeMax = !TextUtils.isEmpty(realmTx.getMaxFeePerGas()) ? realmTx.getMaxFeePerGas() : tx.maxFeePerGas;
+                oldPriorityFee = !TextUtils.isEmpty(realmTx.getPriorityFee()) ? realmTx.getPriorityFee() : tx.maxPriorityFee;
+            }
+
+            TransactionsRealmCache.fill(realmTx, tx);
+            realmTx.setMaxFeePerGas(oldGasFeeMax);
+            realmTx.setMaxPriorityFee(oldPriorityFee);
+        }
+
+        if (inserts.size() > 0) r.insertOrUpdate(inserts.values());
+    }
+
+    /**
+     * Store transactions read from the node. These are complete, so every field is written, as putTransaction does
+     */
+    public static void writeNodeTransactions(Realm r, List<Transaction> txList)
+    {
+        Map<String, RealmTransaction> stored = findTransactions(r, hashesOf(txList));
+        List<RealmTransaction> inserts = new ArrayList<>();
+
+        for (Transaction tx : txList)
+        {
+            RealmTransaction realmTx = stored.get(tx.hash);
+            if (realmTx == null)
+            {
+                realmTx = newTransaction(tx.hash);
+                stored.put(tx.hash, realmTx);
+                inserts.add(realmTx);
+            }
+
+            TransactionsRealmCache.fill(realmTx, tx);
+        }
+
+        if (inserts.size() > 0) r.insertOrUpdate(inserts);
+    }
+
+    /**
+     * Store the transactions synthesised from transfer events, indexed by the token contract
+     * @param txFetches if not null, receives hashes not yet stored; these are written from the event and need fetching.
+     *                  If null (eg Covalent, which supplies full transactions) the event data is always written
+     */
+    public static void writeEventTransactions(Realm r, Map<String, Transaction> txWriteMap, Set<String> txFetches)
+    {
+        List<String> hashes = new ArrayList<>(txWriteMap.size());
+        for (Transaction tx : txWriteMap.values()) hashes.add(tx.hash);
+
+        Map<String, RealmTransaction> known = findTransactions(r, hashes);
+        Map<String, RealmTransaction> inserts = new HashMap<>();
+
+        for (Map.Entry<String, Transaction> entry : txWriteMap.entrySet())
+        {
+            String contractAddress = entry.getKey();
+            Transaction tx = entry.getValue();
+            RealmTransaction realmTx = known.get(tx.hash);
+
+            if (realmTx == null)
+            {
+                realmTx = newTransaction(tx.hash);
+                known.put(tx.hash, realmTx); //a later contract in the same page updates this object
+                inserts.put(tx.hash, realmTx);
+                //fetch the actual transaction here
+                if (txFetches != null) txFetches.add(tx.hash);
+            }
+            else if (realmTx.getContractAddress() == null || !realmTx.getContractAddress().equalsIgnoreCase(contractAddress))
+            {
+                realmTx.setContractAddress(contractAddress);
+            }
+
+            if (realmTx.getInput() == null || realmTx.getInput().length() <= 10 || txFetches == null)
+            {
+                TransactionsRealmCache.fill(realmTx, tx);
+                realmTx.setContractAddress(contractAddress); //for indexing by contract (eg Token Activity)
+            }
+        }
+
+        if (inserts.size() > 0) r.insertOrUpdate(inserts.values());
+    }
+
+    /**
+     * Store transfer events, skipping any already recorded for the transaction or repeated within the page
+     */
+    public static void writeTransfers(Realm r, long chainId, Map<String, List<TransferEvent>> transferEventMap)
+    {
+        List<String> hashKeys = new ArrayList<>(transferEventMap.size());
+        for (String hash : transferEventMap.keySet()) hashKeys.add(RealmTransfer.databaseKey(chainId, hash));
+
+        Set<String> existingTransferKeys = new HashSet<>();
+        for (List<String> batch : partition(hashKeys, QUERY_BATCH))
+        {
+            RealmResults<RealmTransfer> existingTransfers = r.where(RealmTransfer.class)
+                    .in("hash", batch.toArray(new String[0]))
+                    .findAll();
+
+            for (RealmTransfer existing : existingTransfers)
+            {
+                existingTransferKeys.add(transferKey(RealmTransfer.databaseKey(existing.getChain(), existing.getHash()),
+                        existing.getTokenAddress(), existing.getEventName(), existing.getTransferDetail()));
+            }
+        }
+
+        List<RealmTransfer> inserts = new ArrayList<>();
+        for (Map.Entry<String, List<TransferEvent>> entry : transferEventMap.entrySet())
+        {
+            String hashKey = RealmTransfer.databaseKey(chainId, entry.getKey());
+            for (TransferEvent thisEvent : entry.getValue())
+            {
+                //existing set also collects keys added in this page
+                if (!existingTransferKeys.add(transferKey(hashKey, thisEvent.contractAddress, thisEvent.activityName, thisEvent.valueList)))
+                {
+                    continue;
+                }
+
+                RealmTransfer realmTransfer = new RealmTransfer();
+                realmTransfer.setHashKey(chainId, entry.getKey());
+                realmTransfer.setTokenAddress(thisEvent.contractAddress);
+                realmTransfer.setEventName(thisEvent.activityName);
+                realmTransfer.setTransferDetail(thisEvent.valueList);
+                inserts.add(realmTransfer);
+            }
+        }
+
+        if (inserts.size() > 0) r.insert(inserts);
+    }
+
+    /**
+     * Record the time taken to ingest one page, including the write transaction commit
+     */
+    public static void recordPage(int items, long nanos)
+    {
+        ingestStats.record(items, nanos);
+    }
+
+    public static IngestStats getStats()
+    {
+        return ingestStats;
+    }
+
+    static <T> List<List<T>> partition(Collection<T> items, int size)
+    {
+        List<List<T>> batches = new ArrayList<>();
+        List<T> batch = new ArrayList<>(Math.min(size, items.size()));
+        for (T item : items)
+        {
+            batch.add(item);
+            if (batch.size() == size)
+            {
+                batches.add(batch);
+                batch = new ArrayList<>(size);
+            }
+        }
+
+        if (batch.size() > 0) batches.add(batch);
+        return batches;
+    }
+
+    private static RealmTransaction newTransaction(String hash)
+    {
+        RealmTransaction realmTx = new RealmTransaction();
+        realmTx.setHash(hash);
+        return realmTx;
+    }
+
+    private static List<String> hashesOf(List<Transaction> txList)
+    {
+        List<String> hashes = new ArrayList<>(txList.size());
+        for (Transaction tx : txList) hashes.add(tx.hash);
+        return hashes;
+    }
+
+    private static String transferKey(String hashKey, String tokenAddress, String eventName, String transferDetail)
+    {
+        return hashKey + "_" + tokenAddress + "_" + eventName + "_" + transferDetail;
+    }
+
+    public static class IngestStats
+    {
+        private long pages;
+        private long items;
+        private long totalNanos;
+        private long lastPageNanos;
+        private long maxPageNanos;
+
+        synchronized void record(int pageItems, long nanos)
+        {
+            pages++;
+            items += pageItems;
+            totalNanos += nanos;
+            lastPageNanos = nanos;
+            maxPageNanos = Math.max(maxPageNanos, nanos);
+        }
+
+        public synchronized long getPages()
+        {
+            return pages;
+        }
+
+        public synchronized long getItems()
+        {
+            return items;
+        }
+
+        public synchronized double getAveragePageMs()
+        {
+            return pages > 0 ? totalNanos / 1e6 / pages : 0;
+        }
+
+        public synchronized double getLastPageMs()
+        {
+            return lastPageNanos / 1e6;
+        }
+
+        public synchronized double getMaxPageMs()
+        {
+            return maxPageNanos / 1e6;
+        }
+
+        public synchronized double getItemsPerSecond()
+        {
+            return totalNanos > 0 ? items * (double) TimeUnit.SECONDS.toNanos(1) / totalNanos : 0;
+        }
+
+        @Override
+        public synchronized String toString()
+        {
+            return String.format(Locale.ROOT, "%d pages, %d items, avg %.1fms/page, last %.1fms, max %.1fms, %.0f items/s",
+                    pages, items, getAveragePageMs(), getLastPageMs(), getMaxPageMs(), getItemsPerSecond());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.ramapay.app.repository;
+
+import com.ramapay.app.entity.BatchSizeController;
+import com.ramapay.app.entity.Transaction;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlock;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.EthTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.LongFunction;
+
+/**
+ * Resolves transaction hashes on one chain from its node using JSON-RPC batches.
+ *
+ * Each hash needs eth_getTransactionByHash and eth_getTransactionReceipt; both go in the same batch, sized by the
+ * chain's learned batch limit. Block timestamps come from a block time cache shared by all chains, and the blocks
+ * still unknown are then read in one further batch, so transactions in the same block cost one lookup. If the node
+ * won't batch, the calls are made one at a time.
+ */
+public class TransactionHashResolver
+{
+    static final int BLOCK_CACHE_SIZE = 512;
+
+    private static final Map<String, Long> blockTimes = new LinkedHashMap<String, Long>(BLOCK_CACHE_SIZE, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest)
+        {
+            return size() > BLOCK_CACHE_SIZE;
+        }
+    };
+
+    public static class Result
+    {
+        public final List<Transaction> mined = new ArrayList<>();
+        public final Set<String> pending = new HashSet<>(); //known to the node but not yet in a block
+    }
+
+    private final LongFunction<Web3j> serviceProvider;
+    private final JsonRpcBatcher batcher;
+
+    public TransactionHashResolver(LongFunction<Web3j> serviceProvider, BatchSizeController batchLimits)
+    {
+        this.serviceProvider = serviceProvider;
+        this.batcher = new JsonRpcBatcher(batchLimits);
+    }
+
+    /**
+     * @return the mined transactions, and those hashes still pending; hashes the node doesn't know, or whose receipt
+     * or block couldn't be read, are in neither
+     */
+    public Result resolve(long chainId, Collection<String> hashes) throws IOException
+    {
+        Result result = new Result();
+        List<String> unique = new ArrayList<>(new LinkedHashSet<>(hashes));
+        if (unique.isEmpty()) return result;
+
+        Web3j web3j = serviceProvider.apply(chainId);
+        Map<String, org.web3j.protocol.core.methods.response.Transaction> txs = new HashMap<>();
+        Map<String, TransactionReceipt> receipts = new HashMap<>();
+
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>(unique.size() * 2);
+        for (String hash : unique)
+        {
+            requests.add(web3j.ethGetTransactionByHash(hash));
+            requests.add(web3j.ethGetTransactionReceipt(hash));
+        }
+
+        for (Response<?> rsp : batcher.send(web3j, chainId, requests, 2))
+        {
+            if (rsp instanceof EthTransaction)
+            {
+                EthTransaction etx = (EthTransaction) rsp;
+                if (etx.getResult() != null) txs.put(etx.getResult().getHash(), etx.getResult());
+            }
+            else if (rsp instanceof EthGetTransactionReceipt)
+            {
+                TransactionReceipt receipt = ((EthGetTransactionReceipt) rsp).getResult();
+                if (receipt != null) receipts.put(receipt.getTransactionHash(), receipt);
+            }
+        }
+
+        //read each block not already known, once
+        Set<String> blocks = new LinkedHashSet<>();
+        for (org.web3j.protocol.core.methods.response.Transaction tx : txs.values())
+        {
+            if (isMined(tx) && getBlockTime(chainId, tx.getBlockHash()) == null) blocks.add(tx.getBlockHash());
+        }
+
+        if (!blocks.isEmpty())
+        {
+            List<Request<?, ? extends Response<?>>> blockRequests = new ArrayList<>(blocks.size());
+            for (String blockHash : blocks) blockRequests.add(web3j.ethGetBlockByHash(blockHash, false));
+
+            for (Response<?> rsp : batcher.send(web3j, chainId, blockRequests, 1))
+            {
+                EthBlock.Block block = rsp instanceof EthBlock ? ((EthBlock) rsp).getBlock() : null;
+                if (block != null && block.getHash() != null && block.getTimestampRaw() != null)
+                {
+                    putBlockTime(chainId, block.getHash(), block.getTimestamp().longValue());
+                }
+            }
+        }
+
+        for (String hash : unique)
+        {
+            org.web3j.protocol.core.methods.response.Transaction tx = txs.get(hash);
+            if (tx == null) continue;
+            if (!isMined(tx))
+            {
+                result.pending.add(hash);
+                continue;
+            }
+
+            Long blockTime = getBlockTime(chainId, tx.getBlockHash());
+            TransactionReceipt receipt = receipts.get(hash);
+            if (blockTime == null || receipt == null) continue; //try again on a later pass
+
+            result.mined.add(new Transaction(tx, chainId, receipt.isStatusOK(), blockTime));
+        }
+
+        return result;
+    }
+
+    private static boolean isMined(org.web3j.protocol.core.methods.response.Transaction tx)
+    {
+        return tx.getBlockHash() != null && tx.getBlockNumberRaw() != null;
+    }
+
+    private static Long getBlockTime(long chainId, String blockHash)
+    {
+        synchronized (blockTimes)
+        {
+            return blockTimes.get(chainId + "-" + blockHash);
+        }
+    }
+
+    private static void putBlockTime(long chainId, String blockHash, long time)
+    {
+        synchronized (blockTimes)
+        {
+            blockTimes.put(chainId + "-" + blockHash, time);
+        }
+    }
+}
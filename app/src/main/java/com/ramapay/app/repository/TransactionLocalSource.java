@@ -5,7 +5,9 @@ import com.ramapay.app.entity.Transaction;
 import com.ramapay.app.entity.Wallet;
 import com.ramapay.app.repository.entity.RealmAuxData;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 
 import io.reactivex.Single;
 import io.realm.Realm;
@@ -13,6 +15,8 @@ import io.realm.Realm;
 public interface TransactionLocalSource {
 	Transaction fetchTransaction(Wallet wallet, String hash);
 	Transaction putTransaction(Wallet wallet, Transaction tx);
+	void putTransactions(Wallet wallet, List<Transaction> txList);
+	Set<String> fetchKnownHashes(Wallet wallet, Collection<String> hashes);
 	Realm getRealmInstance(Wallet wallet);
 
 	Single<ActivityMeta[]> fetchActivityMetas(Wallet wallet, List<Long> networkFilters, long fetchTime, int fetchLimit);
@@ -21,7 +21,10 @@ import com.ramapay.app.service.RealmManager;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import io.reactivex.Single;
 import io.realm.Case;
@@ -261,6 +264,34 @@ public class TransactionsRealmCache implements TransactionLocalSource {
         return tx;
     }
 
+    @Override
+    public void putTransactions(Wallet wallet, List<Transaction> txList)
+    {
+        if (txList.isEmpty()) return;
+        try (Realm instance = realmManager.getRealmInstance(wallet))
+        {
+            instance.executeTransaction(r -> TransactionBulkWriter.writeNodeTransactions(r, txList));
+        }
+        catch (Exception e)
+        {
+            //do not record
+            Timber.w(e);
+        }
+    }
+
+    @Override
+    public Set<String> fetchKnownHashes(Wallet wallet, Collection<String> hashes)
+    {
+        try (Realm instance = realmManager.getRealmInstance(wallet))
+        {
+            return TransactionBulkWriter.findKnownHashes(instance, hashes);
+        }
+        catch (Exception e)
+        {
+            return new HashSet<>();
+        }
+    }
+
     @Override
     public Single<Boolean> deleteAllTickers()
     {
@@ -0,0 +1,259 @@
+package com.ramapay.app.repository;
+
+import com.ramapay.app.C;
+import com.ramapay.app.entity.NetworkInfo;
+import com.ramapay.app.service.AWHttpServiceWaterfall;
+
+import org.web3j.protocol.Web3j;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+
+/**
+ * Process wide home for node and API HTTP clients.
+ *
+ * Every client handed out is derived from one base OkHttpClient, so they all share a single connection pool and
+ * dispatcher; only the timeouts differ per ClientType. HTTP/2 is offered first so nodes that support it multiplex
+ * concurrent calls over one connection.
+ *
+ * Web3j instances are cached per chain and client type. An entry is rebuilt when the chain's RPC urls change
+ * (eg a custom network was edited) or after invalidate(). Replaced instances are dropped rather than shut down:
+ * callers may still hold them, and Web3j.shutdown() would stop web3j's shared executor.
+ */
+public class Web3jClientRegistry
+{
+    public enum ClientType
+    {
+        RPC,    //node calls
+        EVENTS, //log queries, which can take longer to return
+        API     //third party REST services
+    }
+
+    private static final int MAX_IDLE_CONNECTIONS = 16;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+    private static final int MAX_REQUESTS_PER_HOST = 16;
+
+    private static final AtomicLong callCount = new AtomicLong();
+    private static final AtomicLong connectionsAcquired = new AtomicLong();
+    private static final AtomicLong connectionsOpened = new AtomicLong();
+    private static final AtomicLong http2Connections = new AtomicLong();
+    private static final AtomicLong handshakeCount = new AtomicLong();
+    private static final AtomicLong handshakeNanos = new AtomicLong();
+
+    private static final ConnectionPool connectionPool = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+    private static final OkHttpClient baseClient = buildBaseClient();
+    private static final Map<ClientType, OkHttpClient> clients = new ConcurrentHashMap<>();
+    private static final Map<String, ServiceEntry> services = new ConcurrentHashMap<>();
+
+    private static class ServiceEntry
+    {
+        final String[] rpcUrls;
+        final Web3j web3j;
+
+        ServiceEntry(String[] rpcUrls, Web3j web3j)
+        {
+            this.rpcUrls = rpcUrls;
+            this.web3j = web3j;
+        }
+    }
+
+    public static class Stats
+    {
+        public final long calls;
+        public final long connectionsAcquired;
+        public final long connectionsOpened;
+        public final long http2Connections;
+        public final long handshakes;
+        public final long handshakeNanos;
+        public final int poolConnections;
+        public final int idleConnections;
+
+        Stats()
+        {
+            calls = callCount.get();
+            connectionsAcquired = Web3jClientRegistry.connectionsAcquired.get();
+            connectionsOpened = Web3jClientRegistry.connectionsOpened.get();
+            http2Connections = Web3jClientRegistry.http2Connections.get();
+            handshakes = handshakeCount.get();
+            handshakeNanos = Web3jClientRegistry.handshakeNanos.get();
+            poolConnections = connectionPool.connectionCount();
+            idleConnections = connectionPool.idleConnectionCount();
+        }
+
+        /**
+         * @return fraction of calls served on an already open connection
+         */
+        public double getReuseRate()
+        {
+            if (connectionsAcquired == 0) return 0;
+            return (double) Math.max(0, connectionsAcquired - connectionsOpened) / connectionsAcquired;
+        }
+
+        public double getAverageHandshakeMs()
+        {
+            if (handshakes == 0) return 0;
+            return handshakeNanos / 1e6 / handshakes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format(Locale.ROOT, "calls=%d acquired=%d opened=%d h2=%d reuse=%.3f tls=%d (%.1fms avg) pool=%d idle=%d",
+                    calls, connectionsAcquired, connectionsOpened, http2Connections, getReuseRate(), handshakes,
+                    getAverageHandshakeMs(), poolConnections, idleConnections);
+        }
+    }
+
+    private Web3jClientRegistry() { }
+
+    public static OkHttpClient getClient(ClientType type)
+    {
+        return clients.computeIfAbsent(type, Web3jClientRegistry::buildClient);
+    }
+
+    public static Web3j getWeb3j(long chainId)
+    {
+        return getWeb3j(EthereumNetworkBase.getNetwork(chainId), ClientType.RPC);
+    }
+
+    public static Web3j getWeb3jForEvents(long chainId)
+    {
+        return getWeb3j(EthereumNetworkBase.getNetwork(chainId), ClientType.EVENTS);
+    }
+
+    public static Web3j getWeb3j(NetworkInfo networkInfo, ClientType type)
+    {
+        KeyProvider keys = KeyProviderFactory.get();
+        return getWeb3j(networkInfo.chainId, networkInfo.rpcUrls, type,
+                keys.getInfuraKey(), keys.getInfuraSecret(), keys.getKlaytnKey());
+    }
+
+    public static Web3j getWeb3j(long chainId, String[] rpcUrls, ClientType type, String infuraKey, String infuraSecret, String klaytnKey)
+    {
+        String key = type.name() + "-" + chainId;
+        ServiceEntry entry = services.get(key);
+        if (entry == null || !Arrays.equals(entry.rpcUrls, rpcUrls))
+        {
+            entry = services.compute(key, (k, current) -> {
+                if (current != null && Arrays.equals(current.rpcUrls, rpcUrls)) return current;
+                AWHttpServiceWaterfall nodeService = new AWHttpServiceWaterfall(rpcUrls, chainId, getClient(type),
+                        infuraKey, infuraSecret, klaytnKey, false);
+                nodeService.setHedgedRequests(type == ClientType.RPC);
+                return new ServiceEntry(rpcUrls.clone(), Web3j.build(nodeService));
+            });
+        }
+
+        return entry.web3j;
+    }
+
+    /**
+     * Drop the cached services for a chain; the next request rebuilds them from the current network settings
+     */
+    public static void invalidate(long chainId)
+    {
+        for (ClientType type : ClientType.values())
+        {
+            services.remove(type.name() + "-" + chainId);
+        }
+    }
+
+    public static Stats getStats()
+    {
+        return new Stats();
+    }
+
+    private static OkHttpClient buildBaseClient()
+    {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .dispatcher(dispatcher)
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .eventListenerFactory(call -> new MetricsListener())
+                .retryOnConnectionFailure(true)
+                .build();
+    }
+
+    private static OkHttpClient buildClient(ClientType type)
+    {
+        OkHttpClient.Builder builder = baseClient.newBuilder();
+        switch (type)
+        {
+            case RPC:
+                builder.connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                        .readTimeout(C.READ_TIMEOUT * 3, TimeUnit.SECONDS)
+                        .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS);
+                break;
+            case EVENTS:
+                builder.connectTimeout(C.CONNECT_TIMEOUT * 3, TimeUnit.SECONDS)
+                        .readTimeout(C.READ_TIMEOUT * 4, TimeUnit.SECONDS)
+                        .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS);
+                break;
+            case API:
+            default:
+                builder.connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                        .readTimeout(C.READ_TIMEOUT, TimeUnit.SECONDS)
+                        .writeTimeout(C.WRITE_TIMEOUT, TimeUnit.SECONDS);
+                break;
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * One instance per call, so handshake timing needs no synchronisation
+     */
+    private static class MetricsListener extends EventListener
+    {
+        private long handshakeStart;
+
+        @Override
+        public void callStart(Call call)
+        {
+            callCount.incrementAndGet();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol)
+        {
+            connectionsOpened.incrementAndGet();
+            if (protocol == Protocol.HTTP_2) http2Connections.incrementAndGet();
+        }
+
+        @Override
+        public void secureConnectStart(Call call)
+        {
+            handshakeStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake)
+        {
+            handshakeCount.incrementAndGet();
+            handshakeNanos.addAndGet(System.nanoTime() - handshakeStart);
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection)
+        {
+            connectionsAcquired.incrementAndGet();
+        }
+    }
+}
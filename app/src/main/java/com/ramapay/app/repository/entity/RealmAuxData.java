@@ -41,6 +41,7 @@ public class RealmAuxData extends RealmObject
     private String result;
     private long resultTime;
     private long resultReceivedTime; //allows us to filter new events
+    private long resultBlock; //block a function result was read at
 
     public String getInstanceKey()
     {
@@ -133,6 +134,16 @@ public class RealmAuxData extends RealmObject
         this.resultTime = resultTime;
     }
 
+    public long getResultBlock()
+    {
+        return resultBlock;
+    }
+
+    public void setResultBlock(long resultBlock)
+    {
+        this.resultBlock = resultBlock;
+    }
+
     public String getAddress()
     {
         return instanceKey.split("-")[0];
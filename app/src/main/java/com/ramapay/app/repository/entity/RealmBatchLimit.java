@@ -0,0 +1,37 @@
+package com.ramapay.app.repository.entity;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * Learned JSON-RPC batch size for a chain, see BatchSizeController
+ */
+public class RealmBatchLimit extends RealmObject
+{
+    @PrimaryKey
+    private long chainId;
+
+    private int batchLimit;
+    private long timeStamp;
+
+    public long getChainId()
+    {
+        return chainId;
+    }
+
+    public int getBatchLimit()
+    {
+        return batchLimit;
+    }
+
+    public long getTimeStamp()
+    {
+        return timeStamp;
+    }
+
+    public void setBatchLimit(int batchLimit, long timeStamp)
+    {
+        this.batchLimit = batchLimit;
+        this.timeStamp = timeStamp;
+    }
+}
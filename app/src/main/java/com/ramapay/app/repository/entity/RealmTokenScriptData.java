@@ -28,6 +28,11 @@ public class RealmTokenScriptData extends RealmObject
     private boolean hasEvents; //TokenScript has events
     private String schemaUID;
 
+    public String getInstanceKey()
+    {
+        return instanceKey;
+    }
+
     public long getChainId()
     {
         String chainId = instanceKey.split("-")[1];
@@ -31,6 +31,11 @@ public class RealmTransaction extends RealmObject {
         return hash;
     }
 
+    //only for unmanaged objects built for a bulk insert; the key of a stored transaction can't change
+    public void setHash(String hash) {
+        this.hash = hash;
+    }
+
     public String getBlockNumber() {
         return blockNumber;
     }
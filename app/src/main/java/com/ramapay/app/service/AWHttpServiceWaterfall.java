@@ -9,21 +9,37 @@ import android.text.TextUtils;
 
 import com.google.gson.JsonParseException;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.web3j.protocol.http.HttpService;
 
 import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.Call;
 import okhttp3.CipherSuite;
 import okhttp3.ConnectionSpec;
 import okhttp3.Headers;
@@ -94,6 +110,18 @@ public class AWHttpServiceWaterfall extends HttpService
 
     public static final String DEFAULT_URL = "http://localhost:8545/";
 
+    private static final String BLOCK_NUMBER_METHOD = "\"eth_blockNumber\"";
+
+    private static final int HEDGE_THREADS = 16;
+
+    //when every hedge thread is busy, requests go unhedged rather than spawning more threads
+    private static final ExecutorService HEDGE_EXECUTOR = new ThreadPoolExecutor(0, HEDGE_THREADS, 30, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread thread = new Thread(r, "rpc-hedge");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     private static final Logger log = LoggerFactory.getLogger(org.web3j.protocol.http.HttpService.class);
 
     private final OkHttpClient httpClient;
@@ -104,8 +132,10 @@ public class AWHttpServiceWaterfall extends HttpService
     private final String infuraKey;
     private final String klaytnKey;
     private final long chainId;
-    private final Random random = new Random();
+    private final EndpointScorer scorer;
+    private volatile boolean hedgedRequests;
 
+    //instances are shared between threads through Web3jClientRegistry; guard with synchronized (headers)
     private final HashMap<String, String> headers = new HashMap<>();
 
     public AWHttpServiceWaterfall(String[] urls, long chainId, OkHttpClient httpClient, String infuraKey, String infuraSecret, String klaytnKey, boolean includeRawResponses)
@@ -118,44 +148,208 @@ public class AWHttpServiceWaterfall extends HttpService
         this.infuraSecret = infuraSecret;
         this.klaytnKey = klaytnKey;
         this.chainId = chainId;
+        this.scorer = EndpointScorer.forChain(chainId);
+    }
+
+    public void setHedgedRequests(boolean hedge)
+    {
+        this.hedgedRequests = hedge;
     }
 
     @Override
     protected InputStream performIO(String request) throws IOException
     {
-        // Start at a random point within the URLs
-        int startIndex = random.nextInt(urls.length);
+        // Best scoring endpoint first, falling through the rest in rank order
+        List<String> ranked = scorer.rank(urls);
+        Set<String> tried = new HashSet<>();
 
-        // Round-robin try all URLs
-        for (int count = 0; count < urls.length; count++)
+        for (String url : ranked)
         {
-            String url = urls[(startIndex + count) % urls.length];
+            if (!tried.add(url)) continue;
 
             try
             {
-                okhttp3.Response response = performSingleIO(url, request);
-
-                // Check if the response is valid (2xx status code)
-                if (response.isSuccessful())
+                InputStream result;
+                if (hedgedRequests && tried.size() == 1 && ranked.size() > 1 && canHedge(request))
                 {
-                    return processResponse(response);
+                    result = performHedgedIO(url, ranked.get(1), request, tried);
                 }
                 else
                 {
-                    Timber.d("Response was %s, retrying...", response.code());
+                    result = performTimedIO(url, request);
+                }
+
+                if (result != null)
+                {
+                    return result;
                 }
             }
             catch (IOException e)
             {
                 log.warn("Request to {} failed: {}", url, e.getMessage());
-                // Optionally, re-throw for specific error handling at a higher level
             }
         }
 
         throw new IOException("All requests failed!");
     }
 
-    private okhttp3.Response performSingleIO(String url, String request) throws IOException
+    /**
+     * Send to the primary; if it hasn't answered by its p95 latency, also send to the runner-up and take whichever
+     * succeeds first. The losing request is cancelled so it doesn't hold a hedge thread.
+     */
+    private InputStream performHedgedIO(String primary, String secondary, String request, Set<String> tried) throws IOException
+    {
+        long hedgeDelay = scorer.getP95(primary);
+        if (hedgeDelay <= 0)
+        {
+            return performTimedIO(primary, request);
+        }
+
+        Map<String, Call> calls = new ConcurrentHashMap<>();
+        Map<Future<InputStream>, String> pending = new HashMap<>();
+        CompletionService<InputStream> completion = new ExecutorCompletionService<>(HEDGE_EXECUTOR);
+        try
+        {
+            pending.put(completion.submit(() -> performTimedIO(primary, request, calls)), primary);
+        }
+        catch (RejectedExecutionException e)
+        {
+            return performTimedIO(primary, request);
+        }
+
+        try
+        {
+            Future<InputStream> done = completion.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null)
+            {
+                try
+                {
+                    pending.put(completion.submit(() -> performTimedIO(secondary, request, calls)), secondary);
+                    tried.add(secondary);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    //no spare hedge thread; keep waiting on the primary
+                }
+            }
+
+            while (!pending.isEmpty())
+            {
+                if (done == null) done = completion.take();
+                pending.remove(done);
+                try
+                {
+                    InputStream result = done.get();
+                    if (result != null) return result;
+                }
+                catch (ExecutionException e)
+                {
+                    log.warn("Hedged request failed: {}", e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                }
+                done = null;
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for node");
+        }
+        finally
+        {
+            for (Map.Entry<Future<InputStream>, String> loser : pending.entrySet())
+            {
+                Call call = calls.get(loser.getValue());
+                if (call != null) call.cancel();
+                loser.getKey().cancel(true);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return response stream, or null if the node returned a non 2xx status
+     */
+    private InputStream performTimedIO(String url, String request) throws IOException
+    {
+        return performTimedIO(url, request, null);
+    }
+
+    /**
+     * @param calls if not null, the in-flight call is registered here by url so a hedge can cancel it
+     */
+    private InputStream performTimedIO(String url, String request, Map<String, Call> calls) throws IOException
+    {
+        long startTime = System.nanoTime();
+        Call call = httpClient.newCall(buildRequest(url, request));
+        if (calls != null) calls.put(url, call);
+        try
+        {
+            okhttp3.Response response = call.execute();
+
+            // Check if the response is valid (2xx status code)
+            if (!response.isSuccessful())
+            {
+                Timber.d("Response was %s, retrying...", response.code());
+                response.close();
+                scorer.onError(url);
+                return null;
+            }
+
+            InputStream result = processResponse(response);
+            if (request.contains(BLOCK_NUMBER_METHOD))
+            {
+                result = recordBlockHeight(url, result);
+            }
+            scorer.onSuccess(url, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            return result;
+        }
+        catch (IOException e)
+        {
+            //a hedge loser that was cancelled hasn't failed
+            if (!call.isCanceled()) scorer.onError(url);
+            throw e;
+        }
+    }
+
+    private InputStream recordBlockHeight(String url, InputStream result) throws IOException
+    {
+        byte[] body = readAll(result);
+        try
+        {
+            String height = new JSONObject(new String(body, StandardCharsets.UTF_8)).optString("result");
+            if (height.startsWith("0x"))
+            {
+                scorer.onBlockHeight(url, Long.parseLong(height.substring(2), 16));
+            }
+        }
+        catch (JSONException | NumberFormatException e)
+        {
+            //batch request or unexpected result; nothing to record
+        }
+
+        return new ByteArrayInputStream(body);
+    }
+
+    private static byte[] readAll(InputStream stream) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = stream.read(buffer)) != -1)
+        {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    //never duplicate a transaction broadcast
+    private static boolean canHedge(String request)
+    {
+        return !request.contains("eth_sendRawTransaction") && !request.contains("eth_sendTransaction");
+    }
+
+    private Request buildRequest(String url, String request)
     {
         RequestBody requestBody;
         try
@@ -167,15 +361,11 @@ public class AWHttpServiceWaterfall extends HttpService
             requestBody = RequestBody.create("", MEDIA_TYPE_TEXT);
         }
 
-        addRequiredSecrets(url);
-
-        Request httpRequest = new Request.Builder()
+        return new Request.Builder()
                 .url(url)
-                .headers(buildHeaders())
+                .headers(buildHeaders(url))
                 .post(requestBody)
                 .build();
-
-        return httpClient.newCall(httpRequest).execute();
     }
 
     private InputStream processResponse(Response response) throws IOException
@@ -247,32 +437,45 @@ public class AWHttpServiceWaterfall extends HttpService
         }
     }
 
-    private void addRequiredSecrets(String url)
+    private void addRequiredSecrets(String url, Map<String, String> requestHeaders)
     {
         if (!TextUtils.isEmpty(infuraKey) && url.endsWith(infuraKey) && !TextUtils.isEmpty(infuraSecret)) //primary InfuraKey has secret
         {
-            addHeader("Authorization", "Basic " + infuraSecret);
+            requestHeaders.put("Authorization", "Basic " + infuraSecret);
         }
         else if (!TextUtils.isEmpty(klaytnKey) && (chainId == KLAYTN_BAOBAB_ID || chainId == KLAYTN_ID))
         {
-            addHeader("x-chain-id", Long.toString(chainId));
-            addHeader("Authorization", "Basic " + klaytnKey);
+            requestHeaders.put("x-chain-id", Long.toString(chainId));
+            requestHeaders.put("Authorization", "Basic " + klaytnKey);
         }
     }
 
-    private Headers buildHeaders()
+    //secrets are per url, so build them into a copy rather than the shared map
+    private Headers buildHeaders(String url)
     {
-        return Headers.of(headers);
+        Map<String, String> requestHeaders;
+        synchronized (headers)
+        {
+            requestHeaders = new HashMap<>(headers);
+        }
+        addRequiredSecrets(url, requestHeaders);
+        return Headers.of(requestHeaders);
     }
 
     public void addHeader(String key, String value)
     {
-        headers.put(key, value);
+        synchronized (headers)
+        {
+            headers.put(key, value);
+        }
     }
 
     public void addHeaders(Map<String, String> headersToAdd)
     {
-        headers.putAll(headersToAdd);
+        synchronized (headers)
+        {
+            headers.putAll(headersToAdd);
+        }
     }
 
     public HashMap<String, String> getHeaders()
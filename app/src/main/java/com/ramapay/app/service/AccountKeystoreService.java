@@ -7,6 +7,7 @@ import com.ramapay.token.entity.Signable;
 import org.web3j.crypto.RawTransaction;
 
 import java.math.BigInteger;
+import java.util.List;
 
 import io.reactivex.Completable;
 import io.reactivex.Single;
@@ -75,6 +76,30 @@ public interface AccountKeystoreService {
 			String password,
 			byte[] message);
 
+	/**
+	 * Unlock the wallet's key once for a run of signatures. Authentication must already have happened, as for signing.
+	 * @param wallet keystore or HD {@link Wallet}
+	 * @return session; close it when the run is done
+	 */
+	Single<SigningSession> openSigningSession(Wallet wallet);
+
+	/**
+	 * Sign a batch of transactions with an open session
+	 * @return a signature per transaction, in order; failed if the session closed part way
+	 */
+	Single<List<SignatureFromKey>> signTransactions(
+			SigningSession session,
+			long chainId,
+			List<RawTransaction> transactions);
+
+	/**
+	 * Sign a batch of messages with an open session
+	 * @return a signature per message, in order; failed if the session closed part way
+	 */
+	Single<List<SignatureFromKey>> signMessages(
+			SigningSession session,
+			List<Signable> messages);
+
 	/**
 	 * Check if there is an address in the keystore
 	 * @param address {@link Wallet} address
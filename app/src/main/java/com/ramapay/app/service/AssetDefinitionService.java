@@ -90,6 +90,7 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -107,6 +108,9 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -144,6 +148,8 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
     private static final String ASSET_DEFINITION_DB = "ASSET-db.realm";
     private static final String BUNDLED_SCRIPT = "bundled";
     private static final long CHECK_TX_LOGS_INTERVAL = 20;
+    private static final int SCRIPT_LOAD_CONCURRENCY = 4;
+    private static final long SCRIPT_LOAD_TIMEOUT = 30000; //ms
     private static final String EIP5169_ISSUER = "EIP5169-IPFS";
     private static final String TS_EXTENSION = ".tsml";
     private final Context context;
@@ -155,8 +161,9 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
     private final TokenLocalSource tokenLocalSource;
     private final RamaPayService ramaPayService;
     private TokenDefinition cachedDefinition = null;
+    private final TokenDefinitionCache definitionCache;
     private final ConcurrentHashMap<String, EventDefinition> eventList = new ConcurrentHashMap<>(); //List of events built during file load
-    private final Semaphore assetLoadingLock;  // used to block if someone calls getAssetDefinitionASync() while loading
+    private volatile TokenScriptLoadTracker scriptLoad;  // used to block if someone calls getAssetDefinitionASync() while loading
     private Disposable eventListener;           // timer thread that periodically checks event logs for scripts that require events
     private final Semaphore eventConnection;
     private FragmentMessenger homeMessenger;
@@ -185,7 +192,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         {
         }; //no overridden functions
         tokenLocalSource = trs;
-        assetLoadingLock = new Semaphore(1);
+        definitionCache = new TokenDefinitionCache(new File(ctx.getCacheDir(), "tokenscript"));
         eventConnection = new Semaphore(1);
         //deleteAllEventData();
         loadAssetScripts();
@@ -205,70 +212,150 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
      */
     private void loadAssetScripts()
     {
-        try
+        final TokenScriptLoadTracker tracker = new TokenScriptLoadTracker();
+        scriptLoad = tracker; // callers now wait on this load
+
+        loadInternalAssets();
+
+        Completable.fromAction(() -> loadScriptFiles(tracker))
+                .subscribeOn(Schedulers.io())
+                .subscribe(() -> finishLoading(tracker), e -> {
+                    Timber.e(e);
+                    finishLoading(tracker);
+                }).isDisposed();
+    }
+
+    /**
+     * Load the TokenScript files:
+     * 1. Signed files downloaded from server.
+     * 2. Files placed in the Android OS external directory (Android/data/<App Package Name>/files)
+     * 3. Files placed in the /RamaPay directory.
+     * Depending on the order placed, files can be overridden. A file downloaded from the server is
+     * overridden by a script for the same token placed in the /RamaPay directory.
+     *
+     * Files are hashed in parallel and compared with the hash stored for their path; unchanged scripts are skipped.
+     * Changed and new scripts are parsed on a bounded set of workers, each being published as soon as it's ready.
+     */
+    private void loadScriptFiles(TokenScriptLoadTracker tracker) throws Exception
+    {
+        Map<String, StoredScript> stored = readStoredScripts();
+
+        List<File> fileList = new ArrayList<>();
+        for (File file : buildFileList())
         {
-            assetLoadingLock.acquire(); // acquire the semaphore here to prevent attributes from being fetched until loading is complete
-            // See flow above for details
+            if (file.isFile() && allowableExtension(file) && file.canRead()) fileList.add(file);
         }
-        catch (InterruptedException e)
+
+        //hash in parallel, keeping the priority order of the file list
+        List<String> hashes = Observable.range(0, fileList.size())
+                .concatMapEager(i -> Observable.fromCallable(() -> hashScriptFile(fileList.get(i)))
+                        .subscribeOn(Schedulers.io()), SCRIPT_LOAD_CONCURRENCY, 1)
+                .toList()
+                .blockingGet();
+
+        List<String> handledHashes = new ArrayList<>();
+        List<String> removedHashes = new ArrayList<>();
+        List<ScriptLoad> loads = new ArrayList<>();
+        for (int i = 0; i < fileList.size(); i++)
         {
-            Timber.e(e);
+            String hash = hashes.get(i);
+            File file = fileList.get(i);
+            StoredScript previous = stored.remove(file.getAbsolutePath());
+            if (hash.isEmpty() || handledHashes.contains(hash)) continue; //unreadable, or same script at a higher priority
+            handledHashes.add(hash);
+
+            if (previous != null && previous.fileHash.equals(hash))
+            {
+                tracker.addUnchanged();
+                //only need to populate events; the definition will come from the definition cache
+                if (previous.hasEvents) loads.add(new ScriptLoad(file, null, false));
+            }
+            else if (previous != null)
+            {
+                tracker.addPending(previous.keys);
+                removedHashes.add(previous.fileHash);
+                loads.add(new ScriptLoad(file, previous.keys, true));
+            }
+            else
+            {
+                tracker.addUnknown();
+                loads.add(new ScriptLoad(file, null, true));
+            }
         }
 
-        //List<String> handledHashes = checkRealmScriptsForChanges();
-        //loadNewFiles(handledHashes);
+        //scripts whose file has gone
+        for (StoredScript script : stored.values()) removedHashes.add(script.fileHash);
+        removedHashes.removeAll(handledHashes); //entries are deleted by hash; keep those still in use at another path
+        deleteTokenScriptsFromRealm(removedHashes);
 
-        //executes after observable completes due to blockingForEach
-        loadInternalAssets();
-        finishLoading();
+        tracker.scanComplete(fileList.size());
+
+        Observable.fromIterable(loads)
+                .flatMap(load -> Completable.fromAction(() -> loadScript(load, tracker))
+                        .subscribeOn(Schedulers.io()).toObservable(), SCRIPT_LOAD_CONCURRENCY)
+                .ignoreElements()
+                .blockingAwait();
     }
 
-    private List<String> checkRealmScriptsForChanges()
+    private String hashScriptFile(File file)
     {
-        //1. Signed files downloaded from server.
-        //2. Files placed in the Android OS external directory (Android/data/<App Package Name>/files)
-        //3. Files placed in the /RamaPay directory.
-        //Depending on the order placed, files can be overridden. A file downloaded from the server is
-        //overridden by a script for the same token placed in the /RamaPay directory.
+        try
+        {
+            TokenScriptFile tsf = new TokenScriptFile(context, file.getAbsolutePath());
+            String hash = definitionCache.contentHash(tsf.getAbsolutePath(), tsf.lastModified() + ":" + tsf.length(), tsf::getInputStream);
+            return hash != null ? hash : "";
+        }
+        catch (Exception e)
+        {
+            handleFileLoadError(e, file);
+            return "";
+        }
+    }
 
-        //First check all the previously parsed scripts to check for any changes
-        List<String> handledHashes = new ArrayList<>();
+    private void loadScript(ScriptLoad load, TokenScriptLoadTracker tracker)
+    {
+        final TokenScriptFile tsf = new TokenScriptFile(context, load.file.getAbsolutePath());
+        try
+        {
+            final TokenDefinition td = loadDefinition(tsf);
+            final List<ContractLocator> originContracts = getOriginContracts(td);
+            if (load.store)
+            {
+                cacheSignature(load.file, td).blockingGet();
+                fileLoadComplete(originContracts, tsf, td);
+                tracker.published(load.previousKeys);
+            }
+        }
+        catch (Exception e)
+        {
+            handleFileLoadError(e, load.file);
+            if (load.store) tracker.failed(load.previousKeys);
+        }
+    }
+
+    /**
+     * @return stored script entries, other than bundled scripts, keyed by file path
+     */
+    private Map<String, StoredScript> readStoredScripts()
+    {
+        Map<String, StoredScript> stored = new HashMap<>();
         try (Realm realm = realmManager.getRealmInstance(ASSET_DEFINITION_DB))
         {
             RealmResults<RealmTokenScriptData> realmData = realm.where(RealmTokenScriptData.class)
+                    .notEqualTo("fileHash", BUNDLED_SCRIPT)
                     .findAll();
 
+            //note that if a contract has multiple origins the script has more than one entry
             for (RealmTokenScriptData entry : realmData)
             {
-                if (handledHashes.contains(entry.getFileHash()))
-                    continue; //already checked - note that if a contract has multiple origins it could have more than one entry
-                //get file
-                TokenScriptFile tsf = new TokenScriptFile(context, entry.getFilePath());
-                handledHashes.add(entry.getFileHash());
-                if (!tsf.exists() || tsf.fileChanged(entry.getFileHash()))
+                if (TextUtils.isEmpty(entry.getFilePath()) || TextUtils.isEmpty(entry.getFileHash())) continue;
+                StoredScript script = stored.get(entry.getFilePath());
+                if (script == null)
                 {
-                    deleteTokenScriptFromRealm(realm, entry.getFileHash());
-
-                    if (tsf.exists())
-                    {
-                        handledHashes.add(tsf.calcMD5()); //add the hash of the new file
-                        //re-parse script, file hash has changed
-                        final TokenDefinition td = parseFile(tsf.getInputStream());
-                        cacheSignature(tsf, td)
-                                .map(definition -> getOriginContracts(td))
-                                .subscribeOn(Schedulers.io())
-                                .observeOn(Schedulers.io())
-                                .subscribe(success -> fileLoadComplete(success, tsf, td),
-                                        error -> handleFileLoadError(error, tsf))
-                                .isDisposed();
-                    }
-                }
-                else if (entry.hasEvents())
-                {
-                    //populate events
-                    TokenDefinition td = parseFile(tsf.getInputStream());
-                    addToEventList(td);
+                    script = new StoredScript(entry.getFileHash(), entry.hasEvents());
+                    stored.put(entry.getFilePath(), script);
                 }
+                script.keys.add(entry.getInstanceKey());
             }
         }
         catch (Exception e)
@@ -276,64 +363,74 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             Timber.e(e);
         }
 
-        return handledHashes;
+        return stored;
     }
 
-    private void loadNewFiles(List<String> handledHashes)
+    private void deleteTokenScriptsFromRealm(List<String> fileHashes)
     {
-        //Now parse each file found to check for
-        Observable.fromIterable(buildFileList())
-                .filter(File::isFile)
-                .filter(this::allowableExtension)
-                .filter(File::canRead)
-                .subscribeOn(Schedulers.io())
-                .observeOn(Schedulers.io())
-                .blockingForEach(file -> {  //load sequentially
-                    try
-                    {
-                        final TokenScriptFile tsf = new TokenScriptFile(context, file.getAbsolutePath());
-                        final String hash = tsf.calcMD5();
-                        if (handledHashes.contains(hash)) return; //already handled this?
-                        final TokenDefinition td = parseFile(tsf.getInputStream());
-                        cacheSignature(file, td)
-                                .map(definition -> getOriginContracts(td))
-                                .subscribeOn(Schedulers.io())
-                                .observeOn(Schedulers.io())
-                                .subscribe(success -> fileLoadComplete(success, tsf, td),
-                                        error -> handleFileLoadError(error, file))
-                                .isDisposed();
-                    }
-                    catch (Exception e)
-                    {
-                        handledHashes.add(new TokenScriptFile(context, file.getAbsolutePath()).calcMD5());
-                        handleFileLoadError(e, file);
-                    }
-                });
+        if (fileHashes.isEmpty()) return;
+        try (Realm realm = realmManager.getRealmInstance(ASSET_DEFINITION_DB))
+        {
+            realm.executeTransaction(r -> {
+                for (String fileHash : fileHashes)
+                {
+                    deleteTokenScriptFromRealm(r, fileHash);
+                }
+            });
+        }
+        catch (Exception e)
+        {
+            Timber.e(e);
+        }
     }
 
-    private void deleteTokenScriptFromRealm(Realm realm, String fileHash) throws RealmException
+    private void deleteTokenScriptFromRealm(Realm r, String fileHash) throws RealmException
     {
-        //delete from realm
-        realm.executeTransactionAsync(r -> {
-            //have to remove all instances of this hash
-            RealmResults<RealmTokenScriptData> hashInstances = r.where(RealmTokenScriptData.class)
-                    .equalTo("fileHash", fileHash)
-                    .findAll();
+        //have to remove all instances of this hash
+        RealmResults<RealmTokenScriptData> hashInstances = r.where(RealmTokenScriptData.class)
+                .equalTo("fileHash", fileHash)
+                .findAll();
 
-            RealmCertificateData realmCert = r.where(RealmCertificateData.class)
-                    .equalTo("instanceKey", fileHash)
-                    .findFirst();
+        RealmCertificateData realmCert = r.where(RealmCertificateData.class)
+                .equalTo("instanceKey", fileHash)
+                .findFirst();
 
-            if (realmCert != null) realmCert.deleteFromRealm();
+        if (realmCert != null) realmCert.deleteFromRealm();
 
-            //now delete all associated event data; script event descriptions may have changed
-            for (RealmTokenScriptData script : hashInstances)
-            {
-                deleteEventDataForScript(script);
-            }
+        //now delete all associated event data; script event descriptions may have changed
+        for (RealmTokenScriptData script : hashInstances)
+        {
+            deleteEventDataForScript(script);
+        }
 
-            hashInstances.deleteAllFromRealm();
-        });
+        hashInstances.deleteAllFromRealm();
+    }
+
+    private static class StoredScript
+    {
+        final String fileHash;
+        final boolean hasEvents;
+        final List<String> keys = new ArrayList<>();
+
+        StoredScript(String fileHash, boolean hasEvents)
+        {
+            this.fileHash = fileHash;
+            this.hasEvents = hasEvents;
+        }
+    }
+
+    private static class ScriptLoad
+    {
+        final File file;
+        final List<String> previousKeys; //keys from the stored version of a changed script
+        final boolean store;             //false if the script is unchanged and only needs its events populating
+
+        ScriptLoad(File file, List<String> previousKeys, boolean store)
+        {
+            this.file = file;
+            this.previousKeys = previousKeys;
+            this.store = store;
+        }
     }
 
     private void deleteEventDataForScript(RealmTokenScriptData scriptData)
@@ -496,8 +593,6 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             Timber.e(e);
         }
 
-        if (fileList.size() == 0) finishLoading();
-
         return fileList;
     }
 
@@ -830,7 +925,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                 else
                 {
                     TokenScriptFile tf = new TokenScriptFile(context, tsData.getFilePath());
-                    cachedDefinition = parseFile(tf.getInputStream());
+                    cachedDefinition = loadDefinition(tf);
                 }
                 result = cachedDefinition;
             }
@@ -907,7 +1002,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             TokenScriptFile tsf = locateTokenScriptFile(attn.getTSKey() + TS_EXTENSION); //try easy find
             if (tsf.exists())
             {
-                return parseFile(tsf.getInputStream());
+                return loadDefinition(tsf);
             }
 
             //load filenames that are sufficient length to be attestation definitions
@@ -932,7 +1027,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                 if (f.isFile() && f.canRead() && allowableExtension(f))
                 {
                     tsf = new TokenScriptFile(context, f.getAbsolutePath());
-                    TokenDefinition td = parseFile(tsf.getInputStream());
+                    TokenDefinition td = loadDefinition(tsf);
                     if (td.getAttestation() != null && td.matchCollection(attn.getAttestationCollectionId(td)))
                     {
                         return td;
@@ -980,7 +1075,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                         continue;
                     }
 
-                    TokenDefinition td = parseFile(tsf.getInputStream());
+                    TokenDefinition td = loadDefinition(tsf);
                     if (td.matchCollection(attn.getAttestationCollectionId(td)))
                     {
                         tsfReturn = tsf;
@@ -1054,7 +1149,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         try
         {
             TokenScriptFile tsf = getTokenScriptFile(token);
-            cachedDefinition = parseFile(tsf.getInputStream());
+            cachedDefinition = loadDefinition(tsf);
             return cachedDefinition;
         }
         catch (Exception e)
@@ -1099,26 +1194,26 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             contractName = "ethereum";
         }
 
-        // hold until asset definitions have finished loading
-        waitForAssets();
+        // hold until this token's script has finished loading
+        waitForAssets(token.getTSKey());
 
         return getAssetDefinitionASync(getDefinition(token.getTSKey()), token.tokenInfo.chainId, contractName);
     }
 
-    private void waitForAssets()
+    /**
+     * Wait for the startup load of a script
+     * @param tsKey script key, or null to wait for all scripts
+     */
+    private void waitForAssets(String tsKey)
     {
         try
         {
-            assetLoadingLock.acquire();
+            if (!scriptLoad.waitFor(tsKey, SCRIPT_LOAD_TIMEOUT)) Timber.w("Timed out waiting for TokenScript load: %s", tsKey);
         }
         catch (InterruptedException e)
         {
             Timber.e(e);
         }
-        finally
-        {
-            assetLoadingLock.release();
-        }
     }
 
     public String getTokenName(long chainId, String address, int count)
@@ -1201,10 +1296,36 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
 
     private TokenDefinition parseFile(InputStream xmlInputStream) throws Exception
     {
-        Locale locale = context.getResources().getConfiguration().getLocales().get(0);
-
         return new TokenDefinition(
-                xmlInputStream, locale, this);
+                xmlInputStream, getLocale(), this);
+    }
+
+    /**
+     * Fetch the parsed definition for a script file from the definition cache, only parsing the XML if this
+     * version of the file hasn't been seen before
+     */
+    private TokenDefinition loadDefinition(TokenScriptFile tsf) throws Exception
+    {
+        String hash = definitionCache.contentHash(tsf.getAbsolutePath(), tsf.lastModified() + ":" + tsf.length(), tsf::getInputStream);
+        if (hash == null) throw new FileNotFoundException(tsf.getAbsolutePath());
+        return definitionCache.load(TokenDefinitionCache.key(hash, getLocale()), () -> parseFile(tsf.getInputStream()));
+    }
+
+    private TokenDefinition loadBundledDefinition(String asset) throws Exception
+    {
+        //bundled scripts only change with the app
+        String hash = definitionCache.contentHash(asset, String.valueOf(BuildConfig.VERSION_CODE), () -> context.getResources().getAssets().open(asset));
+        return definitionCache.load(TokenDefinitionCache.key(hash, getLocale()), () -> {
+            try (InputStream input = context.getResources().getAssets().open(asset))
+            {
+                return parseFile(input);
+            }
+        });
+    }
+
+    private Locale getLocale()
+    {
+        return context.getResources().getConfiguration().getLocales().get(0);
     }
 
     private Single<TokenDefinition> handleNewTSFile(File newFile)
@@ -1223,7 +1344,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         try
         {
             tsf = new TokenScriptFile(context, newFile.getAbsolutePath());
-            decodeTs = parseFile(tsf.getInputStream());
+            decodeTs = loadDefinition(tsf);
         }
         catch (Exception e)
         {
@@ -1594,9 +1715,10 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         };
     }
 
-    private void finishLoading()
+    private void finishLoading(TokenScriptLoadTracker tracker)
     {
-        assetLoadingLock.release();
+        tracker.loadComplete();
+        Timber.i("%s", tracker);
         //remove event listener update for now
         /*if (Utils.isAddressValid(tokensService.getCurrentAddress()))
         {
@@ -1626,9 +1748,9 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
      */
     private boolean addContractAssets(String asset)
     {
-        try (InputStream input = context.getResources().getAssets().open(asset))
+        try
         {
-            TokenDefinition token = parseFile(input);
+            TokenDefinition token = loadBundledDefinition(asset);
             TokenScriptFile tsf = new TokenScriptFile(context, asset);
             ContractInfo holdingContracts = token.contracts.get(token.holdingToken);
             if (holdingContracts != null)
@@ -1662,9 +1784,9 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
     private TokenDefinition getBundledDefinition(String asset)
     {
         TokenDefinition td = null;
-        try (InputStream input = context.getResources().getAssets().open(asset))
+        try
         {
-            td = parseFile(input);
+            td = loadBundledDefinition(asset);
         }
         catch (Exception e)
         {
@@ -1759,7 +1881,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
 
     public void startEventListener()
     {
-        if (assetLoadingLock.availablePermits() == 0) return;
+        if (!scriptLoad.isComplete()) return;
 
         if (eventListener != null && !eventListener.isDisposed()) eventListener.dispose();
         eventListener = Observable.interval(0, CHECK_TX_LOGS_INTERVAL, TimeUnit.SECONDS)
@@ -2322,60 +2444,113 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
     public Single<Map<BigInteger, List<String>>> fetchFunctionMap(Token token, @NotNull List<BigInteger> tokenIds,
                                                                   ContractType type, UpdateType update)
     {
-        return Single.fromCallable(() -> {
-            List<ActionModifier> modifiers = getAllowedTypes(type);
-            Map<BigInteger, List<String>> validActions = new HashMap<>();
+        return streamFunctionMap(token, tokenIds, type, update)
+                .reduceWith(HashMap::new, (validActions, partial) -> {
+                    validActions.putAll(partial);
+                    return validActions;
+                });
+    }
+
+    /**
+     * As fetchFunctionMap, but emits the functions for each group of tokenIds as soon as all the attributes they
+     * depend on have arrived. Attribute values are fetched for all the tokenIds together in batches. Once the fetch
+     * ends, tokenIds still missing an attribute are evaluated with the results they have.
+     *
+     * @param token
+     * @return partial maps of tokenIds to lists of allowed functions; each tokenId appears at most once
+     */
+    public Observable<Map<BigInteger, List<String>>> streamFunctionMap(Token token, @NotNull List<BigInteger> tokenIds,
+                                                                       ContractType type, UpdateType update)
+    {
+        return Observable.defer(() -> {
             TokenDefinition td = getAssetDefinition(token);
-            if (td != null)
+            if (td == null)
             {
-                Map<String, TSAction> actions = td.getActions();
-                //first gather all attrs required - do this so if there's multiple actions using the same attribute for a tokenId we aren't fetching the value repeatedly
-                List<String> requiredAttrNames = getRequiredAttributeNames(actions, td);
-                Map<BigInteger, Map<String, TokenScriptResult.Attribute>> attrResults   // Map of attribute results vs tokenId
-                        = getRequiredAttributeResults(requiredAttrNames, tokenIds, td, token, update); // Map of all required attribute values vs all the tokenIds
-
-                //What about for ERC20?
-                //ERC20!
+                return Observable.empty();
+            }
 
-                for (BigInteger tokenId : tokenIds)
-                {
-                    for (String actionName : actions.keySet())
-                    {
-                        TSAction action = actions.get(actionName);
-                        if (action == null || !modifiers.contains(action.modifier))
+            List<ActionModifier> modifiers = getAllowedTypes(type);
+            Map<String, TSAction> actions = td.getActions();
+            //first gather all attrs required - do this so if there's multiple actions using the same attribute for a tokenId we aren't fetching the value repeatedly
+            List<String> requiredAttrNames = getRequiredAttributeNames(actions, td);
+            Map<BigInteger, Map<String, TokenScriptResult.Attribute>> attrResults = new HashMap<>(); // Map of attribute results vs tokenId
+            List<BigInteger> waiting = new ArrayList<>(new LinkedHashSet<>(tokenIds));
+
+            return tokenscriptUtility.fetchAttrResults(token, getRequiredAttributes(requiredAttrNames, tokenIds, td), td, this, update)
+                    .startWith(new HashMap<>()) //tokenIds needing no attributes are ready now
+                    .onErrorReturnItem(new HashMap<>()) //evaluate with the results fetched so far
+                    .map(partial -> {
+                        for (Map.Entry<BigInteger, Map<String, TokenScriptResult.Attribute>> entry : partial.entrySet())
                         {
-                            continue; //do not include attestations if this isn't an attestation fetch
+                            attrResults.computeIfAbsent(entry.getKey(), k -> new HashMap<>()).putAll(entry.getValue());
                         }
 
-                        TSSelection selection = action.exclude != null ? td.getSelection(action.exclude) : null;
-                        if (selection == null)
-                        {
-                            if (!validActions.containsKey(tokenId))
-                                validActions.put(tokenId, new ArrayList<>());
-                            validActions.get(tokenId).add(actionName);
-                        }
-                        else
-                        {
-                            //get required Attribute Results for this tokenId & selection
-                            List<String> requiredAttributeNames = selection.getRequiredAttrs();
-                            Map<String, TokenScriptResult.Attribute> idAttrResults = getAttributeResultsForTokenIds(td, attrResults, requiredAttributeNames, tokenId);
-                            addIntrinsicAttributes(idAttrResults, token, tokenId); //adding intrinsic attributes eg ownerAddress, tokenId, contractAddress
-
-                            //Now evaluate the selection
-                            boolean exclude = EvaluateSelection.evaluate(selection.head, idAttrResults);
-                            if (!exclude || selection.denialMessage != null)
-                            {
-                                if (!validActions.containsKey(tokenId))
-                                    validActions.put(tokenId, new ArrayList<>());
-                                validActions.get(tokenId).add(actionName);
-                            }
-                        }
-                    }
-                }
+                        return takeValidActions(waiting, false, token, td, actions, modifiers, attrResults, requiredAttrNames);
+                    })
+                    //a failed or empty attribute call must not hide the token's other actions, or its denial message
+                    .concatWith(Observable.fromCallable(() -> takeValidActions(waiting, true, token, td, actions, modifiers, attrResults, requiredAttrNames)))
+                    .filter(validActions -> !validActions.isEmpty());
+        });
+    }
+
+    /**
+     * Evaluate the waiting tokenIds whose required attributes have all arrived, or all of them if noMoreResults
+     * @return valid actions of the tokenIds evaluated, which are removed from waiting
+     */
+    private Map<BigInteger, List<String>> takeValidActions(List<BigInteger> waiting, boolean noMoreResults, Token token, TokenDefinition td,
+                                                           Map<String, TSAction> actions, List<ActionModifier> modifiers,
+                                                           Map<BigInteger, Map<String, TokenScriptResult.Attribute>> attrResults,
+                                                           List<String> requiredAttrNames)
+    {
+        Map<BigInteger, List<String>> validActions = new HashMap<>();
+        Iterator<BigInteger> itr = waiting.iterator();
+        while (itr.hasNext())
+        {
+            BigInteger tokenId = itr.next();
+            if (!noMoreResults && !hasRequiredAttributes(td, attrResults, requiredAttrNames, tokenId)) continue;
+            itr.remove();
+            addValidActions(validActions, token, tokenId, td, actions, modifiers, attrResults);
+        }
+
+        return validActions;
+    }
+
+    private void addValidActions(Map<BigInteger, List<String>> validActions, Token token, BigInteger tokenId, TokenDefinition td,
+                                 Map<String, TSAction> actions, List<ActionModifier> modifiers,
+                                 Map<BigInteger, Map<String, TokenScriptResult.Attribute>> attrResults)
+    {
+        for (String actionName : actions.keySet())
+        {
+            TSAction action = actions.get(actionName);
+            if (action == null || !modifiers.contains(action.modifier))
+            {
+                continue; //do not include attestations if this isn't an attestation fetch
             }
 
-            return validActions;
-        });
+            TSSelection selection = action.exclude != null ? td.getSelection(action.exclude) : null;
+            if (selection == null)
+            {
+                if (!validActions.containsKey(tokenId))
+                    validActions.put(tokenId, new ArrayList<>());
+                validActions.get(tokenId).add(actionName);
+            }
+            else
+            {
+                //get required Attribute Results for this tokenId & selection
+                List<String> requiredAttributeNames = selection.getRequiredAttrs();
+                Map<String, TokenScriptResult.Attribute> idAttrResults = getAttributeResultsForTokenIds(td, attrResults, requiredAttributeNames, tokenId);
+                addIntrinsicAttributes(idAttrResults, token, tokenId); //adding intrinsic attributes eg ownerAddress, tokenId, contractAddress
+
+                //Now evaluate the selection
+                boolean exclude = EvaluateSelection.evaluate(selection.head, idAttrResults);
+                if (!exclude || selection.denialMessage != null)
+                {
+                    if (!validActions.containsKey(tokenId))
+                        validActions.put(tokenId, new ArrayList<>());
+                    validActions.get(tokenId).add(actionName);
+                }
+            }
+        }
     }
 
     private List<ActionModifier> getAllowedTypes(ContractType type)
@@ -2449,21 +2624,25 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         {
             BigInteger useTokenId = td.useZeroForTokenIdAgnostic(attributeName, tokenId);
 
-            if (!attrResults.containsKey(useTokenId))
+            TokenScriptResult.Attribute result = attrResults.containsKey(useTokenId) ? attrResults.get(useTokenId).get(attributeName) : null;
+            if (result == null)
             {
-                continue;
+                continue; //not fetched
             }
 
-            results.put(attributeName, attrResults.get(useTokenId).get(attributeName));
+            results.put(attributeName, result);
         }
 
         return results;
     }
 
-    private Map<BigInteger, Map<String, TokenScriptResult.Attribute>> getRequiredAttributeResults(List<String> requiredAttrNames, List<BigInteger> tokenIds,
-                                                                                                  TokenDefinition td, Token token, UpdateType update)
+    /**
+     * @return attributes to fetch, keyed by the tokenId their results are filed under; tokenId agnostic attributes
+     * are fetched once, under zero
+     */
+    private Map<BigInteger, List<Attribute>> getRequiredAttributes(List<String> requiredAttrNames, List<BigInteger> tokenIds, TokenDefinition td)
     {
-        Map<BigInteger, Map<String, TokenScriptResult.Attribute>> resultSet = new HashMap<>();
+        Map<BigInteger, List<Attribute>> required = new LinkedHashMap<>();
         for (BigInteger tokenId : tokenIds)
         {
             for (String attrName : requiredAttrNames)
@@ -2471,16 +2650,25 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                 Attribute attr = td.attributes.get(attrName);
                 if (attr == null) continue;
                 BigInteger useTokenId = td.useZeroForTokenIdAgnostic(attrName, tokenId);
-                TokenScriptResult.Attribute attrResult = tokenscriptUtility.fetchAttrResult(token, attr, useTokenId, td, this, ViewType.VIEW, update).blockingGet();
-                if (attrResult != null)
-                {
-                    Map<String, TokenScriptResult.Attribute> tokenIdMap = resultSet.computeIfAbsent(useTokenId, k -> new HashMap<>());
-                    tokenIdMap.put(attrName, attrResult);
-                }
+                List<Attribute> attrs = required.computeIfAbsent(useTokenId, k -> new ArrayList<>());
+                if (!attrs.contains(attr)) attrs.add(attr);
             }
         }
 
-        return resultSet;
+        return required;
+    }
+
+    private boolean hasRequiredAttributes(TokenDefinition td, Map<BigInteger, Map<String, TokenScriptResult.Attribute>> attrResults,
+                                          List<String> requiredAttrNames, BigInteger tokenId)
+    {
+        for (String attrName : requiredAttrNames)
+        {
+            if (td.attributes.get(attrName) == null) continue;
+            Map<String, TokenScriptResult.Attribute> results = attrResults.get(td.useZeroForTokenIdAgnostic(attrName, tokenId));
+            if (results == null || !results.containsKey(attrName)) return false;
+        }
+
+        return true;
     }
 
     private List<String> getRequiredAttributeNames(Map<String, TSAction> actions, TokenDefinition td)
@@ -2626,6 +2814,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             if (realmToken != null)
             {
                 tr.resultTime = realmToken.getResultTime();
+                tr.resultBlock = realmToken.getResultBlock();
                 tr.result = realmToken.getResult();
             }
         }
@@ -2645,23 +2834,31 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         if (tResult.result == null || tResult.resultTime < 0) return tResult;
         try (Realm realm = realmManager.getRealmInstance(walletAddress))
         {
-            ContractAddress cAddr = new ContractAddress(tResult.contractChainId, tResult.contractAddress);
-            String databaseKey = functionKey(cAddr, tResult.tokenId, tResult.attrId);
-            realm.executeTransaction(r -> {
-                RealmAuxData realmToken = r.where(RealmAuxData.class)
-                        .equalTo("instanceKey", databaseKey)
-                        .equalTo("chainId", tResult.contractChainId)
-                        .findFirst();
+            realm.executeTransaction(r -> writeAuxData(r, tResult));
+        }
+        catch (Exception e)
+        {
+            Timber.e(e);
+        }
 
-                if (realmToken == null)
-                {
-                    createAuxData(r, tResult, databaseKey);
-                }
-                else if (tResult.result != null)
+        return tResult;
+    }
+
+    /**
+     * Store a batch of function results in one write
+     */
+    @Override
+    public void storeAuxData(String walletAddress, List<TransactionResult> tResults)
+    {
+        if (tokensService.getCurrentAddress() == null || !Utils.isAddressValid(tokensService.getCurrentAddress()))
+            return;
+        try (Realm realm = realmManager.getRealmInstance(walletAddress))
+        {
+            realm.executeTransaction(r -> {
+                for (TransactionResult tResult : tResults)
                 {
-                    realmToken.setResult(tResult.result);
-                    realmToken.setResultTime(tResult.resultTime);
-                    realmToken.setResultReceivedTime(System.currentTimeMillis());
+                    if (tResult.result == null || tResult.resultTime < 0) continue;
+                    writeAuxData(r, tResult);
                 }
             });
         }
@@ -2669,8 +2866,28 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         {
             Timber.e(e);
         }
+    }
 
-        return tResult;
+    private void writeAuxData(Realm r, TransactionResult tResult)
+    {
+        ContractAddress cAddr = new ContractAddress(tResult.contractChainId, tResult.contractAddress);
+        String databaseKey = functionKey(cAddr, tResult.tokenId, tResult.attrId);
+        RealmAuxData realmToken = r.where(RealmAuxData.class)
+                .equalTo("instanceKey", databaseKey)
+                .equalTo("chainId", tResult.contractChainId)
+                .findFirst();
+
+        if (realmToken == null)
+        {
+            createAuxData(r, tResult, databaseKey);
+        }
+        else if (tResult.result != null)
+        {
+            realmToken.setResult(tResult.result);
+            realmToken.setResultTime(tResult.resultTime);
+            realmToken.setResultBlock(tResult.resultBlock);
+            realmToken.setResultReceivedTime(System.currentTimeMillis());
+        }
     }
 
     private void updateEventBlockTimes()
@@ -2755,6 +2972,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         {
             RealmAuxData realmData = realm.createObject(RealmAuxData.class, dataBaseKey);
             realmData.setResultTime(tResult.resultTime);
+            realmData.setResultBlock(tResult.resultBlock);
             realmData.setResult(tResult.result);
             realmData.setChainId(tResult.contractChainId);
             realmData.setFunctionId(tResult.method);
@@ -3075,12 +3293,21 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
         }
     }
 
+    /**
+     * Progress and timings of the most recent TokenScript load, including time to first definition and total load time
+     */
+    public TokenScriptLoadTracker getScriptLoadStatus()
+    {
+        return scriptLoad;
+    }
+
     /**
      * Clear the currently cached definition. This forces the service to reload the definition so it's clean for the next usage.
      */
     public void clearCache()
     {
         cachedDefinition = null;
+        definitionCache.clearMemory();
     }
 
     public ContractLocator getHoldingContract(String importFileName)
@@ -3131,7 +3358,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
             {
                 loadAssetScripts();
             }
-            waitForAssets();
+            waitForAssets(null);
             List<TokenLocator> tokenLocators = new ArrayList<>();
             List<File> fileList = buildFileList();
             Collections.reverse(fileList); // the manager expects the priority order in reverse - lowest priority first
@@ -3144,12 +3371,11 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                     .blockingForEach(file -> {
                         try
                         {
-                            FileInputStream input = new FileInputStream(file);
-                            TokenDefinition tokenDef = parseFile(input);
+                            TokenScriptFile tsf = new TokenScriptFile(context, file.getAbsolutePath());
+                            TokenDefinition tokenDef = loadDefinition(tsf);
                             ContractInfo origins = tokenDef.contracts.get(tokenDef.holdingToken);
                             if (origins.addresses.size() > 0)
                             {
-                                TokenScriptFile tsf = new TokenScriptFile(context, file.getAbsolutePath());
                                 tokenLocators.add(new TokenLocator(tokenDef.getTokenName(1), origins, tsf));
                             }
                         } // TODO: Catch specific tokenscript parse errors to report tokenscript errors.
@@ -3189,7 +3415,7 @@ public class AssetDefinitionService implements ParseResult, AttributeInterface
                 }
                 else
                 {
-                    td = parseFile(tf.getInputStream());
+                    td = loadDefinition(tf);
                     cachedDefinition = td;
                 }
 
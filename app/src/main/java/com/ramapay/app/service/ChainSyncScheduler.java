@@ -0,0 +1,272 @@
+package com.ramapay.app.service;
+
+import android.text.format.DateUtils;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which chains' token transfers to read from their block explorer, and when.
+ *
+ * Up to MAX_CONCURRENT_SYNCS chains are read at once. Each explorer host has its own request budget, shared by every
+ * chain it serves, so one slow or strict explorer can't hold up the others. Due chains are served pending first, then
+ * those with recent activity, then the rest; within each group the chain that has waited longest goes first.
+ *
+ * Sync lag is the time since a chain's transfers were last read in full, or since the chain was first seen if they
+ * never have been.
+ */
+public class ChainSyncScheduler
+{
+    public static final int MAX_CONCURRENT_SYNCS = 4;
+    static final long PENDING_INTERVAL = 5 * DateUtils.SECOND_IN_MILLIS;
+    static final long ACTIVE_INTERVAL = 15 * DateUtils.SECOND_IN_MILLIS;
+    static final long IDLE_INTERVAL = 60 * DateUtils.SECOND_IN_MILLIS;
+    static final long RETRY_INTERVAL = 30 * DateUtils.SECOND_IN_MILLIS;
+    static final long RECENT_ACTIVITY = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+    //explorer budget; free tier Etherscan style APIs allow around 5 calls/s per key, leave room for the other callers
+    static final int EXPLORER_BURST = 6;
+    static final long EXPLORER_REQUEST_SPACING = 500; //ms per request once the burst is used
+
+    private static final int PENDING = 0;
+    private static final int ACTIVE = 1;
+    private static final int IDLE = 2;
+
+    private static class Chain
+    {
+        final long chainId;
+        final long firstSeen;
+        String explorer;
+        int requests;
+        long lastSync;
+        long lastActivity;
+        long retryAfter;
+        boolean running;
+        boolean requested;
+        int group;
+
+        Chain(long chainId, long firstSeen)
+        {
+            this.chainId = chainId;
+            this.firstSeen = firstSeen;
+        }
+
+        long syncedAt()
+        {
+            return lastSync > 0 ? lastSync : firstSeen;
+        }
+    }
+
+    private static final Comparator<Chain> PRIORITY = (a, b) -> {
+        int cmp = Integer.compare(a.group, b.group);
+        return cmp != 0 ? cmp : Long.compare(a.syncedAt(), b.syncedAt());
+    };
+
+    private final Map<Long, Chain> chains = new HashMap<>();
+    private final Map<String, RequestBudget> budgets = new HashMap<>();
+    private final Set<Long> pendingChains = new HashSet<>();
+    private int running;
+
+    /**
+     * Register a chain, or update its explorer details
+     * @param explorerApi explorer API URL; chains sharing a host share a budget
+     * @param requests explorer calls needed to read the chain's transfers
+     */
+    public synchronized void setChain(long chainId, String explorerApi, int requests, long now)
+    {
+        Chain chain = chains.get(chainId);
+        if (chain == null)
+        {
+            chain = new Chain(chainId, now);
+            chains.put(chainId, chain);
+        }
+
+        chain.explorer = explorerHost(explorerApi);
+        chain.requests = requests;
+    }
+
+    public synchronized void setPendingChains(Set<Long> pending)
+    {
+        pendingChains.clear();
+        pendingChains.addAll(pending);
+    }
+
+    public synchronized void setPendingChain(long chainId)
+    {
+        pendingChains.add(chainId);
+    }
+
+    /**
+     * Transfers or transactions were just seen on the chain; read it again now and more often for a while
+     */
+    public synchronized void noteActivity(long chainId, long now)
+    {
+        Chain chain = chains.get(chainId);
+        if (chain == null) return;
+        chain.lastActivity = now;
+        chain.retryAfter = 0;
+        chain.requested = true;
+    }
+
+    /**
+     * Choose the chains to read now. Each chosen chain is marked running and its explorer budget charged.
+     * @param chainIds chains enabled for the wallet
+     * @return chains to read, most urgent first
+     */
+    public synchronized List<Long> nextSyncs(List<Long> chainIds, long now)
+    {
+        List<Long> starting = new ArrayList<>();
+        if (running >= MAX_CONCURRENT_SYNCS) return starting;
+
+        List<Chain> due = new ArrayList<>();
+        for (long chainId : chainIds)
+        {
+            Chain chain = chains.get(chainId);
+            if (chain == null || chain.running || chain.requests == 0 || now < chain.retryAfter) continue;
+            chain.group = pendingChains.contains(chainId) ? PENDING
+                    : (chain.lastActivity > 0 && now - chain.lastActivity < RECENT_ACTIVITY) ? ACTIVE : IDLE;
+            if (chain.requested || chain.lastSync == 0 || now - chain.lastSync >= interval(chain.group)) due.add(chain);
+        }
+
+        due.sort(PRIORITY);
+        for (Chain chain : due)
+        {
+            if (running >= MAX_CONCURRENT_SYNCS) break;
+            RequestBudget budget = budgets.get(chain.explorer);
+            if (budget == null)
+            {
+                budget = new RequestBudget(EXPLORER_BURST, EXPLORER_REQUEST_SPACING);
+                budgets.put(chain.explorer, budget);
+            }
+
+            if (!budget.tryAcquire(chain.requests, now)) continue; //this explorer is busy; others may still start
+
+            chain.running = true;
+            chain.requested = false;
+            running++;
+            starting.add(chain.chainId);
+        }
+
+        return starting;
+    }
+
+    /**
+     * @param foundTransfers true if any new transfers were read
+     */
+    public synchronized void syncComplete(long chainId, boolean foundTransfers, long now)
+    {
+        Chain chain = chains.get(chainId);
+        if (chain == null || !chain.running) return;
+        finish(chain);
+        chain.lastSync = now;
+        if (foundTransfers) chain.lastActivity = now;
+    }
+
+    public synchronized void syncFailed(long chainId, long now)
+    {
+        Chain chain = chains.get(chainId);
+        if (chain == null || !chain.running) return;
+        finish(chain);
+        chain.retryAfter = now + RETRY_INTERVAL;
+    }
+
+    /**
+     * The chain's explorer refused a read for its rate limit; as syncFailed, and every chain on that explorer waits
+     * for its budget to refill
+     */
+    public synchronized void syncRateLimited(long chainId, long now)
+    {
+        Chain chain = chains.get(chainId);
+        if (chain == null || !chain.running) return;
+        RequestBudget budget = budgets.get(chain.explorer);
+        if (budget != null) budget.onRateLimited(now);
+        syncFailed(chainId, now);
+    }
+
+    /**
+     * @return ms since the chain's transfers were last read in full, or -1 if the chain isn't known
+     */
+    public synchronized long getSyncLag(long chainId, long now)
+    {
+        Chain chain = chains.get(chainId);
+        return chain != null ? now - chain.syncedAt() : -1;
+    }
+
+    public synchronized Map<Long, Long> getSyncLags(long now)
+    {
+        Map<Long, Long> lags = new HashMap<>();
+        for (Chain chain : chains.values()) lags.put(chain.chainId, now - chain.syncedAt());
+        return lags;
+    }
+
+    public synchronized String lagReport(long now)
+    {
+        StringBuilder sb = new StringBuilder("Transfer sync lag:");
+        long maxLag = 0;
+        for (Chain chain : chains.values())
+        {
+            long lag = now - chain.syncedAt();
+            maxLag = Math.max(maxLag, lag);
+            sb.append(String.format(Locale.ROOT, " %d=%ds%s", chain.chainId, lag / DateUtils.SECOND_IN_MILLIS, chain.running ? "*" : ""));
+        }
+
+        sb.append(String.format(Locale.ROOT, "; max %ds, %d running", maxLag / DateUtils.SECOND_IN_MILLIS, running));
+        return sb.toString();
+    }
+
+    public synchronized int getRunning()
+    {
+        return running;
+    }
+
+    /**
+     * Forget all chains, eg on wallet change. Reads still in flight are ignored when they complete.
+     */
+    public synchronized void clear()
+    {
+        chains.clear();
+        budgets.clear();
+        pendingChains.clear();
+        running = 0;
+    }
+
+    private void finish(Chain chain)
+    {
+        chain.running = false;
+        running--;
+    }
+
+    private static long interval(int group)
+    {
+        switch (group)
+        {
+            case PENDING:
+                return PENDING_INTERVAL;
+            case ACTIVE:
+                return ACTIVE_INTERVAL;
+            default:
+                return IDLE_INTERVAL;
+        }
+    }
+
+    private static String explorerHost(String explorerApi)
+    {
+        if (explorerApi == null) return "";
+        try
+        {
+            String host = URI.create(explorerApi).getHost();
+            return host != null ? host : explorerApi;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return explorerApi;
+        }
+    }
+}
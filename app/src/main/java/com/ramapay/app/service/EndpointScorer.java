@@ -0,0 +1,192 @@
+package com.ramapay.app.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Tracks the health of each RPC endpoint of one chain and ranks them for the next request.
+ *
+ * Each endpoint keeps an EWMA of latency and of error rate, plus the last block height it reported. The score is
+ * the expected latency inflated by the error rate, plus a penalty for every block the node is behind the best
+ * height seen on the chain. Lower is better. Endpoints with no samples, or none for EXPLORE_INTERVAL, rank first
+ * so every node gets measured and a node that was slow once is eventually given another chance.
+ */
+public class EndpointScorer
+{
+    static final double ALPHA = 0.2;
+    static final long EXPLORE_INTERVAL = 60 * 1000L;
+    static final double ERROR_PENALTY = 10.0;     //an endpoint failing every call scores as 11x its latency
+    static final long BLOCK_LAG_PENALTY_MS = 500; //per block behind
+    static final long FAILED_LATENCY_MS = 5000;   //latency charged to an endpoint with only failures
+    private static final int LATENCY_WINDOW = 32;
+    private static final int MIN_P95_SAMPLES = 8;
+
+    private static final Map<Long, EndpointScorer> chainScorers = new ConcurrentHashMap<>();
+
+    public static EndpointScorer forChain(long chainId)
+    {
+        return chainScorers.computeIfAbsent(chainId, id -> new EndpointScorer(System::currentTimeMillis));
+    }
+
+    public static class Health
+    {
+        public final String url;
+        public final long latencyMs; //-1 until a request succeeds
+        public final long p95Ms;
+        public final double errorRate;
+        public final long blockLag;
+        public final long samples;
+        public final double score;
+
+        Health(String url, long latencyMs, long p95Ms, double errorRate, long blockLag, long samples, double score)
+        {
+            this.url = url;
+            this.latencyMs = latencyMs;
+            this.p95Ms = p95Ms;
+            this.errorRate = errorRate;
+            this.blockLag = blockLag;
+            this.samples = samples;
+            this.score = score;
+        }
+    }
+
+    private static class Endpoint
+    {
+        double latency = -1; //EWMA, ms
+        double errorRate;
+        long blockHeight;
+        long samples;
+        long lastSample;
+        final long[] window = new long[LATENCY_WINDOW];
+        int windowCount;
+        int windowIndex;
+    }
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final LongSupplier clock;
+    private volatile long bestBlock;
+
+    EndpointScorer(LongSupplier clock)
+    {
+        this.clock = clock;
+    }
+
+    public void onSuccess(String url, long latencyMs)
+    {
+        Endpoint e = get(url);
+        synchronized (e)
+        {
+            e.latency = e.latency < 0 ? latencyMs : ALPHA * latencyMs + (1 - ALPHA) * e.latency;
+            e.errorRate = (1 - ALPHA) * e.errorRate;
+            e.window[e.windowIndex] = latencyMs;
+            e.windowIndex = (e.windowIndex + 1) % LATENCY_WINDOW;
+            e.windowCount = Math.min(e.windowCount + 1, LATENCY_WINDOW);
+            record(e);
+        }
+    }
+
+    public void onError(String url)
+    {
+        Endpoint e = get(url);
+        synchronized (e)
+        {
+            e.errorRate = ALPHA + (1 - ALPHA) * e.errorRate;
+            record(e);
+        }
+    }
+
+    public void onBlockHeight(String url, long blockHeight)
+    {
+        Endpoint e = get(url);
+        synchronized (e)
+        {
+            e.blockHeight = Math.max(e.blockHeight, blockHeight);
+        }
+        if (blockHeight > bestBlock) bestBlock = blockHeight;
+    }
+
+    /**
+     * @return urls ordered best first
+     */
+    public List<String> rank(String[] urls)
+    {
+        List<String> ranked = new ArrayList<>(Arrays.asList(urls));
+        if (ranked.size() < 2) return ranked;
+
+        //shuffle first so equal scores (eg several unmeasured endpoints) spread the load
+        Collections.shuffle(ranked);
+        long now = clock.getAsLong();
+        Map<String, Double> scores = new HashMap<>();
+        for (String url : ranked) scores.put(url, score(url, now));
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        return ranked;
+    }
+
+    /**
+     * @return latency beyond which a hedged request is worth sending, or 0 if there aren't enough samples
+     */
+    public long getP95(String url)
+    {
+        Endpoint e = endpoints.get(url);
+        if (e == null) return 0;
+        long[] samples;
+        synchronized (e)
+        {
+            if (e.windowCount < MIN_P95_SAMPLES) return 0;
+            samples = Arrays.copyOf(e.window, e.windowCount);
+        }
+        Arrays.sort(samples);
+        return samples[(int) Math.ceil(samples.length * 0.95) - 1];
+    }
+
+    public Health getHealth(String url)
+    {
+        Endpoint e = get(url);
+        synchronized (e)
+        {
+            return new Health(url, Math.round(e.latency), getP95(url), e.errorRate,
+                    blockLag(e), e.samples, score(url, clock.getAsLong()));
+        }
+    }
+
+    public List<Health> getHealth(String[] urls)
+    {
+        List<Health> health = new ArrayList<>();
+        for (String url : urls) health.add(getHealth(url));
+        return health;
+    }
+
+    private double score(String url, long now)
+    {
+        Endpoint e = get(url);
+        synchronized (e)
+        {
+            if (e.samples == 0 || now - e.lastSample > EXPLORE_INTERVAL) return -1;
+            double latency = e.latency < 0 ? FAILED_LATENCY_MS : e.latency;
+            return latency * (1 + ERROR_PENALTY * e.errorRate) + blockLag(e) * BLOCK_LAG_PENALTY_MS;
+        }
+    }
+
+    private long blockLag(Endpoint e)
+    {
+        return e.blockHeight > 0 ? Math.max(0, bestBlock - e.blockHeight) : 0;
+    }
+
+    private void record(Endpoint e)
+    {
+        e.samples++;
+        e.lastSample = clock.getAsLong();
+    }
+
+    private Endpoint get(String url)
+    {
+        return endpoints.computeIfAbsent(url, u -> new Endpoint());
+    }
+}
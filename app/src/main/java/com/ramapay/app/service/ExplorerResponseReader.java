@@ -0,0 +1,131 @@
+package com.ramapay.app.service;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streams the result array of a block explorer API response (Etherscan 'result', Covalent 'data.items')
+ * straight into entity objects, without first materialising the body as a String and a JSONObject tree.
+ * Elements are handed over in chunks so callers can process or store a page without holding all of it.
+ */
+public class ExplorerResponseReader
+{
+    public static final int CHUNK_SIZE = 200;
+    private static final String STATUS = "status";
+
+    public interface ChunkConsumer<T>
+    {
+        void accept(List<T> chunk) throws Exception;
+    }
+
+    /**
+     * The explorer sent a rate limit message in place of the results, eg Etherscan's
+     * {"status":"0","message":"NOTOK","result":"Max rate limit reached"}, which arrives with HTTP 200
+     */
+    public static class RateLimitedException extends IOException
+    {
+        public RateLimitedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * Read the array found at path, passing elements to consumer in chunks of at most chunkSize.
+     * A missing path or a non-array value reads nothing, unless the value is a rate limit message.
+     * @return number of elements read
+     * @throws RateLimitedException if the explorer refused the call for its rate limit
+     */
+    public static <T> int readArray(Reader source, Gson gson, Class<T> type, int chunkSize,
+                                    ChunkConsumer<T> consumer, String... path) throws Exception
+    {
+        int count = 0;
+        try (JsonReader reader = new JsonReader(source))
+        {
+            reader.setLenient(true);
+            if (!seek(reader, path)) return 0;
+
+            List<T> chunk = new ArrayList<>(chunkSize);
+            reader.beginArray();
+            while (reader.hasNext())
+            {
+                T element = gson.fromJson(reader, type);
+                if (element == null) continue;
+                chunk.add(element);
+                count++;
+                if (chunk.size() == chunkSize)
+                {
+                    consumer.accept(chunk);
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+
+            if (chunk.size() > 0) consumer.accept(chunk);
+        }
+
+        return count;
+    }
+
+    public static <T> List<T> readList(Reader source, Gson gson, Class<T> type, String... path) throws Exception
+    {
+        List<T> elements = new ArrayList<>();
+        readArray(source, gson, type, CHUNK_SIZE, elements::addAll, path);
+        return elements;
+    }
+
+    private static boolean seek(JsonReader reader, String[] path) throws IOException
+    {
+        try
+        {
+            if (reader.peek() == JsonToken.END_DOCUMENT) return false;
+        }
+        catch (EOFException e)
+        {
+            return false; //empty body
+        }
+
+        String status = null;
+        for (String name : path)
+        {
+            if (reader.peek() != JsonToken.BEGIN_OBJECT) return false;
+            reader.beginObject();
+            boolean found = false;
+            while (reader.hasNext())
+            {
+                String field = reader.nextName();
+                if (field.equals(name))
+                {
+                    found = true;
+                    break;
+                }
+                else if (field.equals(STATUS) && (reader.peek() == JsonToken.STRING || reader.peek() == JsonToken.NUMBER))
+                {
+                    status = reader.nextString();
+                }
+                else
+                {
+                    reader.skipValue();
+                }
+            }
+
+            if (!found) return false;
+        }
+
+        JsonToken value = reader.peek();
+        if (value == JsonToken.STRING)
+        {
+            String result = reader.nextString();
+            //an empty result is a normal reply; a failed one naming the rate limit means try again later
+            if (!"1".equals(status) && result.toLowerCase().contains("rate limit")) throw new RateLimitedException(result);
+        }
+
+        return value == JsonToken.BEGIN_ARRAY;
+    }
+}
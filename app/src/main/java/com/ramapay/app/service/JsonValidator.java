@@ -1,7 +1,9 @@
 package com.ramapay.app.service;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
@@ -91,20 +93,36 @@ public class JsonValidator
                 content.append(line);
             }
 
-            JSONObject thisObj = new JSONObject(content.toString());
-            if (thisObj.has(JSON_ERROR))
+            Object json = new JSONTokener(content.toString()).nextValue();
+            if (json instanceof JSONArray)
             {
-                String error = thisObj.getString(JSON_ERROR);
-                if (error.toLowerCase().contains(UNAUTHORIZED_ERROR) || error.toLowerCase().contains(INTERNAL_ERROR))
+                //batch reply: per-call errors, including limits, are for the batch sender to handle
+                JSONArray batch = (JSONArray) json;
+                for (int i = 0; i < batch.length(); i++)
                 {
-                    return false;
+                    JSONObject item = batch.optJSONObject(i);
+                    if (item != null && isNodeError(item)) return false;
                 }
+                return true;
             }
-            return !content.toString().toLowerCase().contains(LIMIT_EXCEEDED);
+            else if (json instanceof JSONObject)
+            {
+                return !isNodeError((JSONObject) json) && !content.toString().toLowerCase().contains(LIMIT_EXCEEDED);
+            }
+
+            return false;
         }
         catch (JSONException | IOException e)
         {
             return false;
         }
     }
+
+    //node is refusing service; try another endpoint
+    private static boolean isNodeError(JSONObject reply)
+    {
+        if (!reply.has(JSON_ERROR)) return false;
+        String error = String.valueOf(reply.opt(JSON_ERROR)).toLowerCase();
+        return error.contains(UNAUTHORIZED_ERROR) || error.contains(INTERNAL_ERROR);
+    }
 }
@@ -40,6 +40,7 @@ import com.ramapay.app.entity.PinAuthenticationCallbackInterface;
 import com.ramapay.app.entity.ServiceErrorException;
 import com.ramapay.app.entity.SignAuthenticationCallback;
 import com.ramapay.app.entity.Wallet;
+import com.ramapay.app.entity.WalletType;
 import com.ramapay.app.entity.cryptokeys.KeyEncodingType;
 import com.ramapay.app.entity.cryptokeys.KeyServiceException;
 import com.ramapay.app.util.Utils;
@@ -60,6 +61,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.math.BigInteger;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyStore;
@@ -70,6 +72,7 @@ import java.security.SecureRandom;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.security.spec.AlgorithmParameterSpec;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 import javax.crypto.Cipher;
@@ -485,6 +488,45 @@ public class KeyService implements AuthenticationCallback, PinAuthenticationCall
         return returnSig;
     }
 
+    /**
+     * Unlock the wallet's key once for a run of signatures; see {@link SigningSession}.
+     * As with signData, the authentication event must be generated before calling this.
+     *
+     * @param wallet
+     * @return the session, or null if the key can't be unlocked
+     */
+    synchronized SigningSession openSigningSession(Wallet wallet)
+    {
+        currentWallet = wallet;
+        try
+        {
+            switch (wallet.type)
+            {
+                case KEYSTORE_LEGACY:
+                case KEYSTORE:
+                    String password = wallet.type == WalletType.KEYSTORE
+                            ? unpackMnemonic()
+                            : new String(getLegacyPassword(context, wallet.address));
+                    File keyFolder = new File(context.getFilesDir(), KEYSTORE_FOLDER);
+                    return KeystoreAccountService.openSigningSession(keyFolder, wallet.address, password);
+                case HDKEY:
+                    HDWallet hdWallet = new HDWallet(unpackMnemonic(), "");
+                    PrivateKey pk = hdWallet.getKey(CoinType.ETHEREUM, "m/44'/60'/0'/0/" + wallet.hdKeyIndex);
+                    byte[] keyBytes = pk.data();
+                    SigningSession session = new SigningSession(wallet.address, new BigInteger(1, keyBytes));
+                    Arrays.fill(keyBytes, (byte) 0);
+                    return session;
+                default:
+                    return null;
+            }
+        }
+        catch (Exception e)
+        {
+            Timber.e(e);
+            return null;
+        }
+    }
+
     /**
      * Fetches keystore password for export/backup of keystore
      *
@@ -6,6 +6,7 @@ import android.text.TextUtils;
 
 import com.ramapay.app.entity.Wallet;
 import com.ramapay.app.entity.WalletType;
+import com.ramapay.app.entity.cryptokeys.KeyServiceException;
 import com.ramapay.app.util.Utils;
 import com.ramapay.hardware.SignatureFromKey;
 import com.ramapay.hardware.SignatureReturnType;
@@ -43,6 +44,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.reactivex.Completable;
 import io.reactivex.Single;
@@ -58,6 +60,8 @@ public class KeystoreAccountService implements AccountKeystoreService
     private final File databaseFolder;
     private final KeyService keyService;
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    //key folder path -> address (lower case, no 0x) -> keystore file
+    private static final Map<String, Map<String, File>> keyFileIndex = new ConcurrentHashMap<>();
 
     public KeystoreAccountService(File keyStoreFile, File baseFile, KeyService keyService)
     {
@@ -122,6 +126,7 @@ public class KeystoreAccountService implements AccountKeystoreService
                 //write new keystore to file
                 File destination = new File(keyFolder, fileName);
                 objectMapper.writeValue(destination, wFile);
+                indexKeyFile(keyFolder, destination);
 
                 wallet = new Wallet(credentials.getAddress());
                 wallet.setWalletType(WalletType.KEYSTORE);
@@ -226,6 +231,8 @@ public class KeystoreAccountService implements AccountKeystoreService
                 }
             }
         }
+
+        keyFileIndex.remove(keyFolder.getAbsolutePath());
     }
 
     private void deleteRecursive(File fp)
@@ -338,14 +345,10 @@ public class KeystoreAccountService implements AccountKeystoreService
         try
         {
             address = Numeric.cleanHexPrefix(address);
-            File[] contents = keyFolder.listFiles();
-            for (File f : contents)
+            File f = findKeyFile(keyFolder, address);
+            if (f != null)
             {
-                if (f.getName().contains(address))
-                {
-                    credentials = WalletUtils.loadCredentials(password, f);
-                    break;
-                }
+                credentials = WalletUtils.loadCredentials(password, f);
             }
         }
         catch (Exception e)
@@ -362,18 +365,127 @@ public class KeystoreAccountService implements AccountKeystoreService
         Credentials credentials = null;
 
         address = Numeric.cleanHexPrefix(address);
+        File f = findKeyFile(keyFolder, address);
+        if (f != null)
+        {
+            credentials = WalletUtils.loadCredentials(password, f);
+        }
+
+        Timber.tag("RealmDebug").d("gotcredentials + %s", address);
+        return credentials;
+    }
+
+    /**
+     * Find the keystore file for an address from the folder index, listing the folder again only if the address
+     * isn't indexed or its file has gone
+     *
+     * @param keyFolder KeyStore Folder
+     * @param address
+     * @return keystore file, or null if there isn't one
+     */
+    static File findKeyFile(File keyFolder, String address)
+    {
+        String cleanedAddr = Numeric.cleanHexPrefix(address).toLowerCase();
+        Map<String, File> index = keyFileIndex.get(keyFolder.getAbsolutePath());
+        File keyFile = index != null ? index.get(cleanedAddr) : null;
+        if (keyFile != null && keyFile.exists()) return keyFile;
+
+        index = new ConcurrentHashMap<>();
         File[] contents = keyFolder.listFiles();
-        for (File f : contents)
+        if (contents != null)
         {
-            if (f.getName().contains(address))
+            for (File f : contents)
             {
-                credentials = WalletUtils.loadCredentials(password, f);
-                break;
+                index.put(addressFromFileName(f.getName()), f);
             }
         }
+        keyFileIndex.put(keyFolder.getAbsolutePath(), index);
 
-        Timber.tag("RealmDebug").d("gotcredentials + %s", address);
-        return credentials;
+        keyFile = index.get(cleanedAddr);
+        if (keyFile == null)
+        {
+            //file not named UTC--<date>--<address>
+            for (File f : index.values())
+            {
+                if (f.getName().toLowerCase().contains(cleanedAddr)) return f;
+            }
+        }
+
+        return keyFile;
+    }
+
+    private static void indexKeyFile(File keyFolder, File keyFile)
+    {
+        Map<String, File> index = keyFileIndex.get(keyFolder.getAbsolutePath());
+        if (index != null) index.put(addressFromFileName(keyFile.getName()), keyFile);
+    }
+
+    private static String addressFromFileName(String fileName)
+    {
+        return fileName.substring(fileName.lastIndexOf("-") + 1).toLowerCase();
+    }
+
+    /**
+     * Decrypt a keystore once for a run of signatures
+     *
+     * @param keyFolder KeyStore Folder
+     * @param address
+     * @param password
+     * @return the session, or null if the keystore couldn't be decrypted
+     */
+    public static SigningSession openSigningSession(File keyFolder, String address, String password)
+    {
+        Credentials credentials = getCredentials(keyFolder, address, password);
+        if (credentials == null) return null;
+        return new SigningSession(Numeric.prependHexPrefix(address), credentials.getEcKeyPair().getPrivateKey());
+    }
+
+    @Override
+    public Single<SigningSession> openSigningSession(Wallet wallet)
+    {
+        return Single.fromCallable(() -> {
+            SigningSession session = keyService.openSigningSession(wallet);
+            if (session == null) throw new KeyServiceException("Unable to unlock key for " + wallet.address);
+            return session;
+        }).subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    public Single<List<SignatureFromKey>> signTransactions(SigningSession session, long chainId, List<RawTransaction> transactions)
+    {
+        return Single.fromCallable(() -> {
+            List<SignatureFromKey> signatures = new ArrayList<>(transactions.size());
+            for (RawTransaction rtx : transactions)
+            {
+                byte[] signData = rtx.getTransaction() instanceof Transaction1559
+                        ? TransactionEncoder.encode(rtx)
+                        : TransactionEncoder.encode(rtx, chainId);
+                signatures.add(signWithSession(session, signData));
+            }
+            return signatures;
+        }).subscribeOn(Schedulers.io());
+    }
+
+    @Override
+    public Single<List<SignatureFromKey>> signMessages(SigningSession session, List<Signable> messages)
+    {
+        return Single.fromCallable(() -> {
+            List<SignatureFromKey> signatures = new ArrayList<>(messages.size());
+            for (Signable message : messages)
+            {
+                SignatureFromKey returnSig = signWithSession(session, message.getPrehash());
+                returnSig.signature = patchSignatureVComponent(returnSig.signature);
+                signatures.add(returnSig);
+            }
+            return signatures;
+        }).subscribeOn(Schedulers.io());
+    }
+
+    private static SignatureFromKey signWithSession(SigningSession session, byte[] data) throws KeyServiceException
+    {
+        SignatureFromKey returnSig = session.sign(data);
+        if (returnSig.sigType != SignatureReturnType.SIGNATURE_GENERATED) throw new KeyServiceException(returnSig.failMessage);
+        return returnSig;
     }
 
     @Override
@@ -402,18 +514,7 @@ public class KeystoreAccountService implements AccountKeystoreService
     @Override
     public boolean hasAccount(String address)
     {
-        address = Numeric.cleanHexPrefix(address);
-        File[] contents = keyFolder.listFiles();
-        if (contents == null) return false;
-        for (File f : contents)
-        {
-            if (f.getName().contains(address))
-            {
-                return true;
-            }
-        }
-
-        return false;
+        return findKeyFile(keyFolder, address) != null;
     }
 
     @Override
@@ -22,6 +22,7 @@ import com.ramapay.app.entity.tokens.Token;
 import com.ramapay.app.entity.tokens.TokenFactory;
 import com.ramapay.app.entity.tokens.TokenInfo;
 import com.ramapay.app.repository.KeyProviderFactory;
+import com.ramapay.app.repository.Web3jClientRegistry;
 import com.ramapay.app.util.JsonUtils;
 
 import org.json.JSONArray;
@@ -33,7 +34,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Single;
 import okhttp3.OkHttpClient;
@@ -70,12 +70,7 @@ public class OpenSeaService
     public OpenSeaService()
     {
         pageOffsets.clear();
-        httpClient = new OkHttpClient.Builder()
-                .connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
-                .connectTimeout(C.READ_TIMEOUT, TimeUnit.SECONDS)
-                .writeTimeout(C.WRITE_TIMEOUT, TimeUnit.SECONDS)
-                .retryOnConnectionFailure(true)
-                .build();
+        httpClient = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.API);
     }
 
     private Request buildRequest(long networkId, String api)
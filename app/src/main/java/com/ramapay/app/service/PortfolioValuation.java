@@ -0,0 +1,302 @@
+package com.ramapay.app.service;
+
+import android.util.Pair;
+
+import com.ramapay.app.entity.tokendata.TokenTicker;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Running fiat value of a wallet, and its value 24h ago, maintained from balance and ticker updates.
+ *
+ * The wallet is loaded once from a Snapshot of its priced holdings; after that each balance change or ticker update
+ * subtracts the affected position's old contribution and adds the new one, so reading the total is O(1). Values
+ * are held as BigDecimal using the same scale and rounding as the full calculation, so the running total matches
+ * a recompute exactly; reconcile() checks this and reloads if it ever drifts.
+ */
+public class PortfolioValuation
+{
+    public static final String BASE_TICKER = "eth"; //ticker address used for a chain's base token
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private static final int VALUE_SCALE = 18;
+
+    private static final Map<String, PortfolioValuation> walletValuations = new ConcurrentHashMap<>();
+
+    public static PortfolioValuation forWallet(String walletAddress)
+    {
+        return walletValuations.computeIfAbsent(walletAddress.toLowerCase(Locale.ROOT), w -> new PortfolioValuation());
+    }
+
+    /**
+     * Apply received tickers to every loaded wallet
+     * @param tickers keyed by token address, or BASE_TICKER for the chain token
+     */
+    public static void onTickersUpdated(long chainId, Map<String, TokenTicker> tickers)
+    {
+        for (PortfolioValuation valuation : walletValuations.values())
+        {
+            valuation.updateTickers(chainId, tickers);
+        }
+    }
+
+    /**
+     * Tickers have been cleared (eg currency change); reload every wallet on its next read
+     */
+    public static void invalidateAll()
+    {
+        for (PortfolioValuation valuation : walletValuations.values())
+        {
+            valuation.invalidate();
+        }
+    }
+
+    public static class Holding
+    {
+        public final long chainId;
+        public final String tickerAddress;
+        public final BigDecimal balance; //decimal corrected
+
+        public Holding(long chainId, String tickerAddress, BigDecimal balance)
+        {
+            this.chainId = chainId;
+            this.tickerAddress = tickerAddress;
+            this.balance = balance;
+        }
+    }
+
+    public static class Snapshot
+    {
+        public final List<Holding> holdings;
+        public final Map<Long, Map<String, TokenTicker>> tickers;
+
+        public Snapshot(List<Holding> holdings, Map<Long, Map<String, TokenTicker>> tickers)
+        {
+            this.holdings = holdings;
+            this.tickers = tickers;
+        }
+    }
+
+    public static class Totals
+    {
+        public final BigDecimal value;
+        public final BigDecimal historical; //value 24h ago at today's balances
+
+        Totals(BigDecimal value, BigDecimal historical)
+        {
+            this.value = value;
+            this.historical = historical;
+        }
+
+        public Pair<Double, Double> toPair()
+        {
+            return new Pair<>(value.doubleValue(), historical.doubleValue());
+        }
+    }
+
+    private static class Position
+    {
+        BigDecimal balance;
+        BigDecimal value = BigDecimal.ZERO;
+        BigDecimal historical = BigDecimal.ZERO;
+    }
+
+    private final Map<String, Position> positions = new HashMap<>();
+    private final Map<String, TokenTicker> tickers = new HashMap<>();
+    private BigDecimal total = BigDecimal.ZERO;
+    private BigDecimal historicalTotal = BigDecimal.ZERO;
+    private boolean loaded;
+
+    PortfolioValuation()
+    {
+    }
+
+    public synchronized void load(Snapshot snapshot)
+    {
+        positions.clear();
+        tickers.clear();
+        total = BigDecimal.ZERO;
+        historicalTotal = BigDecimal.ZERO;
+
+        for (Map.Entry<Long, Map<String, TokenTicker>> chainTickers : snapshot.tickers.entrySet())
+        {
+            for (Map.Entry<String, TokenTicker> entry : chainTickers.getValue().entrySet())
+            {
+                tickers.put(key(chainTickers.getKey(), entry.getKey()), entry.getValue());
+            }
+        }
+
+        for (Holding holding : snapshot.holdings)
+        {
+            setBalance(holding.chainId, holding.tickerAddress, holding.balance);
+        }
+
+        loaded = true;
+    }
+
+    public synchronized boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * Drop the running total; the next read reloads from the database
+     */
+    public synchronized void invalidate()
+    {
+        loaded = false;
+    }
+
+    /**
+     * @param balance decimal corrected balance; zero for tokens which aren't valued (eg NFTs, spam)
+     */
+    public synchronized void updateBalance(long chainId, String tickerAddress, BigDecimal balance)
+    {
+        if (loaded) setBalance(chainId, tickerAddress, balance);
+    }
+
+    public synchronized void updateTickers(long chainId, Map<String, TokenTicker> update)
+    {
+        if (!loaded) return;
+        for (Map.Entry<String, TokenTicker> entry : update.entrySet())
+        {
+            String key = key(chainId, entry.getKey());
+            tickers.put(key, entry.getValue());
+            Position position = positions.get(key);
+            if (position != null)
+            {
+                remove(position);
+                add(position, entry.getValue());
+            }
+        }
+    }
+
+    public synchronized Totals getTotals()
+    {
+        return new Totals(total, historicalTotal);
+    }
+
+    /**
+     * Check the running total against a full recompute from the database snapshot, reloading from the snapshot
+     * if they differ
+     * @return true if the running total was correct
+     */
+    public synchronized boolean reconcile(Snapshot snapshot)
+    {
+        Totals full = computeTotals(snapshot);
+        boolean matched = loaded && full.value.compareTo(total) == 0 && full.historical.compareTo(historicalTotal) == 0;
+        if (!matched)
+        {
+            if (loaded) Timber.w("Wallet value drifted: running %s, recomputed %s", total, full.value);
+            load(snapshot);
+        }
+
+        return matched;
+    }
+
+    /**
+     * Full calculation of a wallet's value from a snapshot
+     */
+    public static Totals computeTotals(Snapshot snapshot)
+    {
+        BigDecimal value = BigDecimal.ZERO;
+        BigDecimal historical = BigDecimal.ZERO;
+        for (Holding holding : snapshot.holdings)
+        {
+            Map<String, TokenTicker> chainTickers = snapshot.tickers.get(holding.chainId);
+            TokenTicker ticker = chainTickers != null ? findTicker(chainTickers, holding.tickerAddress) : null;
+            BigDecimal[] contribution = valueOf(holding.balance, ticker);
+            value = value.add(contribution[0]);
+            historical = historical.add(contribution[1]);
+        }
+
+        return new Totals(value, historical);
+    }
+
+    /**
+     * @return fiat value of the balance now, and its value at the price 24h ago
+     */
+    public static BigDecimal[] valueOf(BigDecimal balance, TokenTicker ticker)
+    {
+        if (ticker == null || balance == null || balance.signum() <= 0) return new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO };
+        try
+        {
+            BigDecimal fiatValue = balance.multiply(new BigDecimal(ticker.price)).setScale(VALUE_SCALE, RoundingMode.DOWN);
+            BigDecimal historical = fiatValue.add(fiatValue.multiply((new BigDecimal(ticker.percentChange24h).divide(HUNDRED)).negate()));
+            return new BigDecimal[] { fiatValue, historical };
+        }
+        catch (NumberFormatException e)
+        {
+            //blank ticker
+            return new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO };
+        }
+    }
+
+    /**
+     * Matches Token.getCorrectedBalance(18) for a balance that hasn't been written to the token yet
+     */
+    public static BigDecimal correctedBalance(BigDecimal balance, int decimals)
+    {
+        if (balance == null || balance.equals(BigDecimal.ZERO)) return BigDecimal.ZERO;
+        BigDecimal decimalDivisor = BigDecimal.valueOf(Math.pow(10, decimals));
+        return decimals > 0
+                ? balance.divide(decimalDivisor, VALUE_SCALE, RoundingMode.DOWN).stripTrailingZeros() : balance;
+    }
+
+    private void setBalance(long chainId, String tickerAddress, BigDecimal balance)
+    {
+        String key = key(chainId, tickerAddress);
+        Position position = positions.get(key);
+        if (position != null) remove(position);
+
+        if (balance == null || balance.signum() <= 0)
+        {
+            positions.remove(key);
+            return;
+        }
+
+        if (position == null)
+        {
+            position = new Position();
+            positions.put(key, position);
+        }
+
+        position.balance = balance;
+        add(position, tickers.get(key));
+    }
+
+    private void add(Position position, TokenTicker ticker)
+    {
+        BigDecimal[] contribution = valueOf(position.balance, ticker);
+        position.value = contribution[0];
+        position.historical = contribution[1];
+        total = total.add(position.value);
+        historicalTotal = historicalTotal.add(position.historical);
+    }
+
+    private void remove(Position position)
+    {
+        total = total.subtract(position.value);
+        historicalTotal = historicalTotal.subtract(position.historical);
+        position.value = BigDecimal.ZERO;
+        position.historical = BigDecimal.ZERO;
+    }
+
+    private static TokenTicker findTicker(Map<String, TokenTicker> chainTickers, String tickerAddress)
+    {
+        TokenTicker ticker = chainTickers.get(tickerAddress);
+        return ticker != null ? ticker : chainTickers.get(tickerAddress.toLowerCase(Locale.ROOT));
+    }
+
+    private static String key(long chainId, String tickerAddress)
+    {
+        return tickerAddress.toLowerCase(Locale.ROOT) + "-" + chainId;
+    }
+}
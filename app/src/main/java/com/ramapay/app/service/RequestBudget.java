@@ -0,0 +1,62 @@
+package com.ramapay.app.service;
+
+/**
+ * Token bucket request budget for a rate limited API.
+ *
+ * Holds up to burst requests; one more becomes available every spacing ms. Callers pass the current time so the
+ * budget can be driven by a simulated clock in tests.
+ */
+public class RequestBudget
+{
+    private final int burst;
+    private final long spacing;
+    private double tokens;
+    private long lastRefill;
+
+    public RequestBudget(int burst, long spacing)
+    {
+        this.burst = burst;
+        this.spacing = spacing;
+        this.tokens = burst;
+    }
+
+    /**
+     * Take requests from the budget if there's room. A caller needing more than the burst may still go with a full
+     * bucket, leaving the budget in debt until it refills.
+     * @return true if the requests may be made now
+     */
+    public synchronized boolean tryAcquire(int requests, long now)
+    {
+        refill(now);
+        if (tokens < Math.min(requests, burst)) return false;
+        tokens -= requests;
+        return true;
+    }
+
+    /**
+     * @return requests that could be made now, without taking them
+     */
+    public synchronized int available(long now)
+    {
+        refill(now);
+        return (int) Math.max(0, Math.floor(tokens));
+    }
+
+    /**
+     * The API said we're over its limit; empty the bucket so it refills from nothing
+     */
+    public synchronized void onRateLimited(long now)
+    {
+        refill(now);
+        tokens = 0;
+    }
+
+    private void refill(long now)
+    {
+        if (lastRefill > 0 && now > lastRefill)
+        {
+            tokens = Math.min(burst, tokens + (double) (now - lastRefill) / spacing);
+        }
+        if (now > lastRefill) lastRefill = now;
+    }
+}
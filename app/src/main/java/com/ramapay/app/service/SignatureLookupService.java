@@ -1,14 +1,13 @@
 package com.ramapay.app.service;
 
-import com.ramapay.app.C;
 import com.ramapay.app.entity.Result;
+import com.ramapay.app.repository.Web3jClientRegistry;
 import com.ramapay.app.util.JsonUtils;
 import com.google.gson.Gson;
 
 import org.web3j.utils.Numeric;
 
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
 
 import io.reactivex.Single;
 import okhttp3.OkHttpClient;
@@ -23,11 +22,7 @@ public class SignatureLookupService
 
     public SignatureLookupService()
     {
-        this.httpClient = new OkHttpClient.Builder()
-            .connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
-            .writeTimeout(C.WRITE_TIMEOUT, TimeUnit.SECONDS)
-            .retryOnConnectionFailure(true)
-            .build();
+        this.httpClient = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.API);
     }
 
     public Single<String> getFunctionName(String payload)
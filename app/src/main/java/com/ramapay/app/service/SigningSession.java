@@ -0,0 +1,163 @@
+package com.ramapay.app.service;
+
+import static com.ramapay.app.service.KeystoreAccountService.bytesFromSignature;
+
+import android.text.format.DateUtils;
+
+import com.ramapay.hardware.SignatureFromKey;
+import com.ramapay.hardware.SignatureReturnType;
+
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Sign;
+import org.web3j.utils.Numeric;
+
+import java.io.Closeable;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * An unlocked key for signing a run of transactions or messages, eg a dapp batch or a WalletConnect session,
+ * without decrypting the keystore for every signature.
+ *
+ * The private key is held in a direct buffer, outside the Java heap, and is wiped when the session is closed, has
+ * been idle for the idle timeout, or has made its maximum number of signatures. The idle wipe is scheduled, so a
+ * session that is never used or closed again doesn't keep the key. While signing, the key is briefly
+ * rebuilt on the heap and the copy cleared afterwards; the BigInteger used by the signer can't be wiped.
+ */
+public class SigningSession implements Closeable
+{
+    public static final long IDLE_TIMEOUT = 2 * DateUtils.MINUTE_IN_MILLIS;
+    public static final int MAX_OPERATIONS = 256;
+    private static final int KEY_LENGTH = 32;
+
+    private static final ScheduledExecutorService EXPIRY = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "signing-session-expiry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String address;
+    private final ByteBuffer key = ByteBuffer.allocateDirect(KEY_LENGTH);
+    private final BigInteger publicKey;
+    private final long idleTimeout;
+    private final int maxOperations;
+    private final LongSupplier clock;
+    private long lastUse;
+    private int operations;
+    private boolean wiped;
+    private ScheduledFuture<?> expiry;
+
+    SigningSession(String address, BigInteger privateKey, long idleTimeout, int maxOperations, LongSupplier clock)
+    {
+        this.address = address;
+        this.idleTimeout = idleTimeout;
+        this.maxOperations = maxOperations;
+        this.clock = clock;
+
+        byte[] keyBytes = Numeric.toBytesPadded(privateKey, KEY_LENGTH);
+        key.put(keyBytes);
+        Arrays.fill(keyBytes, (byte) 0);
+        publicKey = Sign.publicKeyFromPrivate(privateKey);
+        lastUse = clock.getAsLong();
+        scheduleExpiry(idleTimeout + 1);
+    }
+
+    SigningSession(String address, BigInteger privateKey)
+    {
+        this(address, privateKey, IDLE_TIMEOUT, MAX_OPERATIONS, System::currentTimeMillis);
+    }
+
+    public String getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * @return true if the session can still sign; wipes the key if it has expired
+     */
+    public synchronized boolean isOpen()
+    {
+        if (!wiped && (clock.getAsLong() - lastUse > idleTimeout || operations >= maxOperations))
+        {
+            wipe();
+        }
+
+        return !wiped;
+    }
+
+    public synchronized int getOperations()
+    {
+        return operations;
+    }
+
+    /**
+     * Sign data as KeyService.signData would for a keystore wallet: keccak256 of the data, V of 27 or 28
+     * @return the signature, or a failure if the session has closed
+     */
+    public synchronized SignatureFromKey sign(byte[] data)
+    {
+        SignatureFromKey returnSig = new SignatureFromKey();
+        if (!isOpen())
+        {
+            returnSig.failMessage = "Signing session closed";
+            return returnSig;
+        }
+
+        byte[] keyBytes = new byte[KEY_LENGTH];
+        try
+        {
+            key.rewind();
+            key.get(keyBytes);
+            ECKeyPair keyPair = new ECKeyPair(new BigInteger(1, keyBytes), publicKey);
+            returnSig.signature = bytesFromSignature(Sign.signMessage(data, keyPair));
+            returnSig.sigType = SignatureReturnType.SIGNATURE_GENERATED;
+        }
+        finally
+        {
+            Arrays.fill(keyBytes, (byte) 0);
+        }
+
+        operations++;
+        lastUse = clock.getAsLong();
+        return returnSig;
+    }
+
+    @Override
+    public synchronized void close()
+    {
+        wipe();
+    }
+
+    synchronized boolean isWiped()
+    {
+        return wiped;
+    }
+
+    //use since the check was scheduled pushes the wipe back rather than rescheduling on every signature
+    private synchronized void checkExpiry()
+    {
+        if (wiped) return;
+        long idle = clock.getAsLong() - lastUse;
+        if (idle > idleTimeout) wipe();
+        else scheduleExpiry(idleTimeout - idle + 1);
+    }
+
+    private void scheduleExpiry(long delay)
+    {
+        expiry = EXPIRY.schedule(this::checkExpiry, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void wipe()
+    {
+        if (expiry != null) expiry.cancel(false);
+        key.clear();
+        while (key.hasRemaining()) key.put((byte) 0);
+        wiped = true;
+    }
+}
@@ -0,0 +1,126 @@
+package com.ramapay.app.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Token addresses waiting for a price from one ticker API, grouped by chain.
+ *
+ * Addresses are de-duplicated on add, and stay counted as queued while their batch is being fetched, until complete()
+ * is called. Batches are taken from the chains in turn so one large portfolio can't starve the others.
+ */
+public class TickerBatchQueue
+{
+    public static class Batch
+    {
+        public final long chainId;
+        public final List<String> addresses;
+
+        Batch(long chainId, List<String> addresses)
+        {
+            this.chainId = chainId;
+            this.addresses = addresses;
+        }
+    }
+
+    private final Map<Long, Set<String>> pending = new LinkedHashMap<>();
+    private final Set<String> queued = new HashSet<>(); //pending or being fetched
+    private int pendingCount;
+
+    /**
+     * @return true if the address was added, false if it was already queued or being fetched
+     */
+    public synchronized boolean add(long chainId, String address)
+    {
+        String addr = address.toLowerCase();
+        if (!queued.add(key(chainId, addr))) return false;
+
+        Set<String> chainPending = pending.get(chainId);
+        if (chainPending == null)
+        {
+            chainPending = new LinkedHashSet<>();
+            pending.put(chainId, chainPending);
+        }
+
+        chainPending.add(addr);
+        pendingCount++;
+        return true;
+    }
+
+    public synchronized void addAll(long chainId, Collection<String> addresses)
+    {
+        for (String address : addresses) add(chainId, address);
+    }
+
+    public synchronized boolean contains(long chainId, String address)
+    {
+        return queued.contains(key(chainId, address.toLowerCase()));
+    }
+
+    /**
+     * Take up to maxSize addresses from the next chain in turn
+     * @return the batch, or null if nothing is waiting
+     */
+    public synchronized Batch nextBatch(int maxSize)
+    {
+        Iterator<Map.Entry<Long, Set<String>>> chains = pending.entrySet().iterator();
+        if (!chains.hasNext()) return null;
+
+        Map.Entry<Long, Set<String>> entry = chains.next();
+        long chainId = entry.getKey();
+        Set<String> chainPending = entry.getValue();
+        chains.remove();
+
+        List<String> addresses = new ArrayList<>(Math.min(maxSize, chainPending.size()));
+        Iterator<String> itr = chainPending.iterator();
+        while (itr.hasNext() && addresses.size() < maxSize)
+        {
+            addresses.add(itr.next());
+            itr.remove();
+        }
+
+        pendingCount -= addresses.size();
+        if (!chainPending.isEmpty()) pending.put(chainId, chainPending); //back of the line
+        return new Batch(chainId, addresses);
+    }
+
+    /**
+     * The batch has been fetched; its addresses may be queued again
+     */
+    public synchronized void complete(Batch batch)
+    {
+        for (String address : batch.addresses) queued.remove(key(batch.chainId, address));
+    }
+
+    public synchronized boolean isEmpty()
+    {
+        return pendingCount == 0;
+    }
+
+    /**
+     * @return addresses waiting to be fetched
+     */
+    public synchronized int size()
+    {
+        return pendingCount;
+    }
+
+    public synchronized void clear()
+    {
+        pending.clear();
+        queued.clear();
+        pendingCount = 0;
+    }
+
+    private static String key(long chainId, String address)
+    {
+        return chainId + "-" + address;
+    }
+}
@@ -65,7 +65,6 @@ import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.math.RoundingMode;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -99,7 +98,13 @@ public class TickerService
             CHAIN_IDS, CONTRACT_ADDR, CURRENCY_TOKEN);
     private static final String TOKEN_DISCOVERY_API = String.format("https://api.token-discovery.tokenscript.org/get-raw-token-price?blockchain=evm&smartContract=%s&chain=%s",
             CONTRACT_ADDR, CHAIN_IDS);
-    private static final int    COINGECKO_MAX_FETCH = 10;
+    private static final int    COINGECKO_MAX_FETCH = 50; //token_price takes a comma separated list; keep the URL short
+    //request budgets: CoinGecko demo keys allow 30 calls/min, token-discovery is more generous
+    private static final int    COINGECKO_BURST = 5;
+    private static final long   COINGECKO_REQUEST_SPACING = 2 * DateUtils.SECOND_IN_MILLIS;
+    private static final int    TOKEN_DISCOVERY_BURST = 10;
+    private static final long   TOKEN_DISCOVERY_REQUEST_SPACING = 250;
+    private static final long   TICKER_CHECK_INTERVAL = 1; //seconds
     private static final String DEXGURU_API = "https://api.dex.guru/v1/tokens/" + CONTRACT_ADDR + "-" + CHAIN_IDS;
     private static final String CURRENCY_CONV = "currency";
     private static final boolean ALLOW_UNVERIFIED_TICKERS = false; //allows verified:false tickers from DEX.GURU. Not recommended
@@ -113,7 +118,10 @@ public class TickerService
     private double currentConversionRate = 0.0;
     private static String currentCurrencySymbolTxt;
     private static String currentCurrencySymbol;
-    private static final ConcurrentLinkedDeque<TokenCardMeta> tokenCheckQueue = new ConcurrentLinkedDeque<>();
+    private static final TickerBatchQueue coinGeckoQueue = new TickerBatchQueue();
+    private static final TickerBatchQueue discoveryQueue = new TickerBatchQueue(); //addresses CoinGecko didn't price
+    private static final RequestBudget coinGeckoBudget = new RequestBudget(COINGECKO_BURST, COINGECKO_REQUEST_SPACING);
+    private static final RequestBudget discoveryBudget = new RequestBudget(TOKEN_DISCOVERY_BURST, TOKEN_DISCOVERY_REQUEST_SPACING);
     private static final ConcurrentLinkedDeque<ContractAddress> secondaryCheckQueue = new ConcurrentLinkedDeque<>();
     private static final Map<String, TokenCardMeta> dexGuruQuery = new ConcurrentHashMap<>();
     private static long lastTickerUpdate;
@@ -128,6 +136,8 @@ public class TickerService
     @Nullable
     private Disposable mainTickerUpdate;
 
+    private volatile boolean fetchingTickers;
+
     public TickerService(OkHttpClient httpClient, PreferenceRepositoryType sharedPrefs, TokenLocalSource localSource)
     {
         this.httpClient = httpClient;
@@ -234,6 +244,7 @@ public class TickerService
     {
         return Single.fromCallable(() -> {
             int tickers = 0;
+            if (!coinGeckoBudget.tryAcquire(1, System.currentTimeMillis())) return tickers; //try again next cycle
             Request request = new Request.Builder()
                     .url(getCoinGeckoChainCall())
                     .get()
@@ -302,57 +313,15 @@ public class TickerService
 
     private boolean alreadyInQueue(TokenCardMeta tcm)
     {
-        for (TokenCardMeta thisTcm : tokenCheckQueue)
-        {
-            if (tcm.tokenId.equalsIgnoreCase(thisTcm.tokenId))
-            {
-                return true;
-            }
-        }
-
-        return dexGuruQuery.containsKey(tcm.tokenId);
-    }
-
-    private List<TokenCardMeta> nextTickerSet(int count)
-    {
-        List<TokenCardMeta> tickerList = new ArrayList<>(count);
-        long chainId = 0;
-        if (!tokenCheckQueue.isEmpty())
-        {
-            List<TokenCardMeta> addBack = new ArrayList<>();
-            TokenCardMeta firstTcm = tokenCheckQueue.removeFirst();
-            chainId = firstTcm.getChain();
-            tickerList.add(firstTcm);
-            count--;
-
-            while (!tokenCheckQueue.isEmpty() && count > 0)
-            {
-                TokenCardMeta tcm = tokenCheckQueue.removeFirst();
-                if (tcm.getChain() == chainId)
-                {
-                    tickerList.add(tcm);
-                    count--;
-                }
-                else
-                {
-                    addBack.add(tcm);
-                }
-            }
-
-            //Add back in any other TCM from other chainIds
-            for (TokenCardMeta tcm : addBack)
-            {
-                tokenCheckQueue.addFirst(tcm);
-            }
-        }
-
-        return tickerList;
+        return coinGeckoQueue.contains(tcm.getChain(), tcm.getAddress())
+                || discoveryQueue.contains(tcm.getChain(), tcm.getAddress())
+                || dexGuruQuery.containsKey(tcm.tokenId);
     }
 
     public Single<Integer> syncERC20Tickers(long chainId, List<TokenCardMeta> erc20Tokens)
     {
         //only check networks with value and if there's actually tokens to check
-        if (!EthereumNetworkRepository.hasRealValue(chainId) || erc20Tokens.isEmpty())
+        if (!EthereumNetworkRepository.hasRealValue(chainId) || !coinGeckoChainIdToAPIName.containsKey(chainId) || erc20Tokens.isEmpty())
         {
             return Single.fromCallable(() -> 0);
         }
@@ -365,11 +334,11 @@ public class TickerService
             if (!currentTickerMap.containsKey(tcm.getAddress())
                 && !alreadyInQueue(tcm))
             {
-                tokenCheckQueue.addLast(tcm);
+                coinGeckoQueue.add(chainId, tcm.getAddress());
             }
         }
 
-        if (tokenCheckQueue.isEmpty())
+        if (coinGeckoQueue.isEmpty() && discoveryQueue.isEmpty())
         {
             return Single.fromCallable(() -> 0);
         }
@@ -381,13 +350,13 @@ public class TickerService
 
     private int beginTickerCheck()
     {
-        if (!tokenCheckQueue.isEmpty() && (erc20TickerCheck == null || erc20TickerCheck.isDisposed()))
+        if (erc20TickerCheck == null || erc20TickerCheck.isDisposed())
         {
-            erc20TickerCheck = Observable.interval(2, 2, TimeUnit.SECONDS)
-                    .doOnNext(l -> checkTokenDiscoveryTickers()).subscribe();
+            erc20TickerCheck = Observable.interval(0, TICKER_CHECK_INTERVAL, TimeUnit.SECONDS)
+                    .doOnNext(l -> checkTickerQueue()).subscribe();
         }
 
-        return tokenCheckQueue.size();
+        return coinGeckoQueue.size() + discoveryQueue.size();
     }
 
     private void stopTickerCheck()
@@ -410,59 +379,152 @@ public class TickerService
         return chainId;
     }
 
-    //call API using a Single and return a mapping of TokenTickers to a separate method
-    private Single<Map<String, TokenTicker>> fetchTickers(TokenCardMeta tcm)
+    private void checkTickerQueue()
     {
-        return Single.fromCallable(() -> {
-            final String apiChainName = coinGeckoChainIdToAPIName.get(tcm.getChain());
-            Map<String, TokenTicker> tickersMap = new HashMap<>(); //empty array of tickers
+        if (coinGeckoQueue.isEmpty() && discoveryQueue.isEmpty())
+        {
+            //terminate the check cycle
+            stopTickerCheck();
+            return;
+        }
+        else if (fetchingTickers)
+        {
+            return; //previous batches still being fetched
+        }
 
-            //fetch the ticker and process the result
-            Request.Builder buildRequestTN = new Request.Builder()
-                    .url(TOKEN_DISCOVERY_API.replace(CHAIN_IDS, apiChainName).replace(CONTRACT_ADDR, tcm.getContractAddress().address)).get();
+        fetchingTickers = true;
+        Single.fromCallable(this::fetchTickerBatches)
+                .subscribeOn(Schedulers.io())
+                .observeOn(Schedulers.io())
+                .subscribe(count -> fetchingTickers = false, e -> {
+                    fetchingTickers = false;
+                    Timber.e(e);
+                }).isDisposed();
+    }
+
+    /**
+     * Fetch as many queued batches as the API budgets allow. Each batch is stored in one ticker write.
+     * @return number of tickers received
+     */
+    private int fetchTickerBatches()
+    {
+        long now = System.currentTimeMillis();
+        int received = 0;
 
-            try (okhttp3.Response response = httpClient.newCall(buildRequestTN.build())
-                    .execute())
+        while (!coinGeckoQueue.isEmpty() && coinGeckoBudget.tryAcquire(1, now))
+        {
+            TickerBatchQueue.Batch batch = coinGeckoQueue.nextBatch(COINGECKO_MAX_FETCH);
+            Map<String, TokenTicker> tickers = fetchCoinGeckoTickers(batch, now);
+            coinGeckoQueue.complete(batch);
+            if (tickers == null)
             {
-                int code = response.code();
-                if (code / 100 != 2)
-                {
-                    return tickersMap;
-                }
+                coinGeckoQueue.addAll(batch.chainId, batch.addresses); //rate limited; retry when the budget refills
+                break;
+            }
 
-                JSONArray result = new JSONArray(response.body().string());
-                TNDiscoveryTicker.toTokenTickers(tickersMap, result, currentCurrencySymbolTxt, currentConversionRate);
+            for (String address : batch.addresses)
+            {
+                if (!tickers.containsKey(address)) discoveryQueue.add(batch.chainId, address);
             }
-            catch (Exception e)
+
+            received += storeBatch(batch.chainId, tickers);
+        }
+
+        //token-discovery takes one address per call; group each chain's calls into one write
+        int calls = discoveryBudget.available(now);
+        while (calls > 0 && !discoveryQueue.isEmpty())
+        {
+            TickerBatchQueue.Batch batch = discoveryQueue.nextBatch(calls);
+            discoveryBudget.tryAcquire(batch.addresses.size(), now);
+            calls -= batch.addresses.size();
+
+            Map<String, TokenTicker> tickers = new HashMap<>();
+            for (String address : batch.addresses)
             {
-                Timber.e(e);
+                fetchDiscoveryTicker(batch.chainId, address, tickers);
             }
 
-            return tickersMap;
-        });
+            discoveryQueue.complete(batch);
+            received += storeBatch(batch.chainId, tickers);
+        }
+
+        return received;
     }
 
-    private void checkTokenDiscoveryTickers()
+    /**
+     * @return tickers keyed by lower case address, or null if CoinGecko refused the call for rate limiting
+     */
+    private Map<String, TokenTicker> fetchCoinGeckoTickers(TickerBatchQueue.Batch batch, long now)
     {
-        TokenCardMeta thisTCM = tokenCheckQueue.pollFirst();
-        if (thisTCM == null)
+        Map<String, TokenTicker> tickersMap = new HashMap<>();
+        Request.Builder buildRequest = new Request.Builder()
+                .url(COINGECKO_API.replace(CHAIN_IDS, coinGeckoChainIdToAPIName.get(batch.chainId))
+                        .replace(CONTRACT_ADDR, TextUtils.join(",", batch.addresses))
+                        .replace(CURRENCY_TOKEN, currentCurrencySymbolTxt)).get();
+        addAPIHeader(buildRequest);
+
+        try (okhttp3.Response response = httpClient.newCall(buildRequest.build())
+                .execute())
         {
-            //terminate the check cycle
-            if (erc20TickerCheck != null && !erc20TickerCheck.isDisposed()) erc20TickerCheck.dispose();
-            return;
+            int code = response.code();
+            if (code == 429)
+            {
+                coinGeckoBudget.onRateLimited(now);
+                keyCycle++; //switch to the other key
+                return null;
+            }
+            else if (code / 100 != 2)
+            {
+                return tickersMap; //leave the whole batch to token-discovery
+            }
+
+            for (CoinGeckoTicker ticker : CoinGeckoTicker.buildTickerList(response.body().string(), currentCurrencySymbolTxt, currentConversionRate))
+            {
+                tickersMap.put(ticker.address.toLowerCase(), ticker.toTokenTicker(currentCurrencySymbolTxt));
+            }
+        }
+        catch (Exception e)
+        {
+            Timber.e(e);
         }
 
-        fetchTickers(thisTCM)
-                .subscribeOn(Schedulers.io())
-                .observeOn(Schedulers.io())
-                .subscribe(tickers -> {
-                    //process ticker
-                    if (!tickers.isEmpty())
-                    {
-                        // update all the received tickers, tickers is an array of TokenTicker, how to convert this to a map?
-                        localSource.updateERC20Tickers(thisTCM.getChain(), tickers);
-                    }
-                }).isDisposed();
+        return tickersMap;
+    }
+
+    private void fetchDiscoveryTicker(long chainId, String address, Map<String, TokenTicker> tickersMap)
+    {
+        final String apiChainName = coinGeckoChainIdToAPIName.get(chainId);
+        Request.Builder buildRequestTN = new Request.Builder()
+                .url(TOKEN_DISCOVERY_API.replace(CHAIN_IDS, apiChainName).replace(CONTRACT_ADDR, address)).get();
+
+        try (okhttp3.Response response = httpClient.newCall(buildRequestTN.build())
+                .execute())
+        {
+            int code = response.code();
+            if (code == 429)
+            {
+                discoveryBudget.onRateLimited(System.currentTimeMillis());
+            }
+            else if (code / 100 == 2)
+            {
+                JSONArray result = new JSONArray(response.body().string());
+                TNDiscoveryTicker.toTokenTickers(tickersMap, result, currentCurrencySymbolTxt, currentConversionRate);
+            }
+        }
+        catch (Exception e)
+        {
+            Timber.e(e);
+        }
+    }
+
+    private int storeBatch(long chainId, Map<String, TokenTicker> tickers)
+    {
+        if (!tickers.isEmpty())
+        {
+            storeERC20Tickers(chainId, tickers);
+        }
+
+        return tickers.size();
     }
 
     private void checkPeggedTickers(long chainId, TokenTicker ticker)
@@ -514,6 +576,10 @@ public class TickerService
         Timber.d("Tickers received: %s", tickerSize);
         //store ticker values. If values have changed then update the token's update time so the wallet view will update
         localSource.updateEthTickers(ethTickers);
+        for (Map.Entry<Long, TokenTicker> entry : ethTickers.entrySet())
+        {
+            PortfolioValuation.onTickersUpdated(entry.getKey(), Collections.singletonMap(PortfolioValuation.BASE_TICKER, entry.getValue()));
+        }
         //localSource.removeOutdatedTickers();
         return tickerSize;
     }
@@ -651,7 +717,7 @@ public class TickerService
         if (ticker != null && address != null)
         {
             Single.fromCallable(() -> {
-                        localSource.updateERC20Tickers(chainId, new HashMap<String, TokenTicker>()
+                        storeERC20Tickers(chainId, new HashMap<String, TokenTicker>()
                         {{
                             put(address, ticker);
                         }});
@@ -718,7 +784,8 @@ public class TickerService
     {
         //canUpdate.clear();
         ethTickers.clear();
-        tokenCheckQueue.clear();
+        coinGeckoQueue.clear();
+        discoveryQueue.clear();
         dexGuruQuery.clear();
     }
 
@@ -763,6 +830,7 @@ public class TickerService
     {
         Single.fromCallable(() -> {
             localSource.deleteTickers();
+            PortfolioValuation.invalidateAll();
             return true;
         }).subscribeOn(Schedulers.io()).observeOn(Schedulers.io()).subscribe();
     }
@@ -849,7 +917,13 @@ public class TickerService
 
         if (!tickerUpdateMap.isEmpty())
         {
-            localSource.updateERC20Tickers(chainId, tickerUpdateMap);
+            storeERC20Tickers(chainId, tickerUpdateMap);
         }
     }
+
+    private void storeERC20Tickers(long chainId, Map<String, TokenTicker> tickers)
+    {
+        localSource.updateERC20Tickers(chainId, tickers);
+        PortfolioValuation.onTickersUpdated(chainId, tickers);
+    }
 }
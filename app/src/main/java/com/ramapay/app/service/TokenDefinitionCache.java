@@ -0,0 +1,227 @@
+package com.ramapay.app.service;
+
+import com.ramapay.app.entity.tokenscript.TokenScriptFile;
+import com.ramapay.token.tools.TokenDefinition;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import timber.log.Timber;
+
+/**
+ * Parsed TokenScript definitions, keyed by script file hash and locale.
+ *
+ * Recently used definitions are held in an in-memory LRU. Behind that each parsed definition is written to disk in
+ * serialized form, so after a restart a script is restored without any XML or DOM work. A changed script has a new
+ * hash, so its old entry is simply never read again and is eventually pruned.
+ */
+public class TokenDefinitionCache
+{
+    public static final int MEMORY_ENTRIES = 16;
+    static final int DISK_ENTRIES = 256;
+    private static final int FORMAT_VERSION = 1;
+    private static final String EXTENSION = ".tsd";
+
+    private final File cacheDir;
+    private final int diskEntries;
+    private final Map<String, TokenDefinition> definitions;
+    private final Map<String, String> fileHashes = new ConcurrentHashMap<>(); //file path and stamp -> content hash
+
+    public TokenDefinitionCache(File cacheDir)
+    {
+        this(cacheDir, MEMORY_ENTRIES, DISK_ENTRIES);
+    }
+
+    TokenDefinitionCache(File cacheDir, int memoryEntries, int diskEntries)
+    {
+        this.cacheDir = cacheDir;
+        this.diskEntries = diskEntries;
+        this.definitions = new LinkedHashMap<>(memoryEntries, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, TokenDefinition> eldest)
+            {
+                return size() > memoryEntries;
+            }
+        };
+    }
+
+    public static String key(String fileHash, Locale locale)
+    {
+        return fileHash + "-" + locale.getLanguage();
+    }
+
+    /**
+     * Return the definition for key, restoring from disk or calling parser if it isn't cached
+     */
+    public TokenDefinition load(String key, Callable<TokenDefinition> parser) throws Exception
+    {
+        TokenDefinition td = get(key);
+        if (td == null)
+        {
+            td = parser.call();
+            if (td != null) put(key, td);
+        }
+
+        return td;
+    }
+
+    public TokenDefinition get(String key)
+    {
+        synchronized (definitions)
+        {
+            TokenDefinition td = definitions.get(key);
+            if (td != null) return td;
+        }
+
+        TokenDefinition td = readFromDisk(key);
+        if (td != null)
+        {
+            synchronized (definitions)
+            {
+                definitions.put(key, td);
+            }
+        }
+
+        return td;
+    }
+
+    public void put(String key, TokenDefinition td)
+    {
+        synchronized (definitions)
+        {
+            definitions.put(key, td);
+        }
+
+        writeToDisk(key, td);
+    }
+
+    /**
+     * Drop the in-memory definitions; the disk copies remain valid as they are keyed by content
+     */
+    public void clearMemory()
+    {
+        synchronized (definitions)
+        {
+            definitions.clear();
+        }
+    }
+
+    /**
+     * Hash of a script's content. Hashing reads the file but is far cheaper than parsing it; the result is remembered
+     * until the file's modification time or size changes
+     * @param stamp identifies this version of the source, eg modified time and length
+     */
+    public String contentHash(String path, String stamp, Callable<InputStream> source) throws Exception
+    {
+        String memoKey = path + ":" + stamp;
+        String hash = fileHashes.get(memoKey);
+        if (hash == null)
+        {
+            InputStream is = source.call();
+            if (is == null) return null;
+            hash = TokenScriptFile.calcMD5(is);
+            fileHashes.put(memoKey, hash);
+        }
+
+        return hash;
+    }
+
+    public int memorySize()
+    {
+        synchronized (definitions)
+        {
+            return definitions.size();
+        }
+    }
+
+    private TokenDefinition readFromDisk(String key)
+    {
+        File file = cacheFile(key);
+        if (!file.exists()) return null;
+
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file))))
+        {
+            if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF()))
+            {
+                file.delete();
+                return null;
+            }
+
+            TokenDefinition td = (TokenDefinition) in.readObject();
+            file.setLastModified(System.currentTimeMillis()); //most recently used survive pruning
+            return td;
+        }
+        catch (Exception e)
+        {
+            //written by a different version of the definition classes, or damaged; parse again
+            Timber.d("Discarding cached definition %s: %s", key, e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeToDisk(String key, TokenDefinition td)
+    {
+        if (cacheDir == null || (!cacheDir.exists() && !cacheDir.mkdirs())) return;
+
+        File file = cacheFile(key);
+        File tmp = null;
+        try
+        {
+            tmp = File.createTempFile(key, ".tmp", cacheDir); //unique, as another thread may be writing the same key
+        }
+        catch (IOException e)
+        {
+            Timber.w(e);
+            return;
+        }
+
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp))))
+        {
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            out.writeObject(td);
+        }
+        catch (Exception e)
+        {
+            Timber.w(e);
+            tmp.delete();
+            return;
+        }
+
+        if (!tmp.renameTo(file)) tmp.delete();
+        prune();
+    }
+
+    private void prune()
+    {
+        File[] files = cacheDir.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null || files.length <= diskEntries) return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - diskEntries; i++)
+        {
+            files[i].delete();
+        }
+    }
+
+    private File cacheFile(String key)
+    {
+        return new File(cacheDir, key + EXTENSION);
+    }
+}
@@ -0,0 +1,147 @@
+package com.ramapay.app.service;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Progress of one TokenScript startup load, so a caller can wait for just the script it needs.
+ *
+ * Once the script files have been hashed it is known which stored scripts are unchanged and which are being
+ * re-parsed (pending). A script key is ready if the load is complete, or the scan is done, the key isn't pending and
+ * no new script (whose keys aren't yet known) is still being parsed.
+ */
+public class TokenScriptLoadTracker
+{
+    private final long startTime;
+    private final Set<String> pendingKeys = new HashSet<>();
+    private int unknownScripts;      //new scripts being parsed; these could define any key
+    private boolean scanned;
+    private boolean complete;
+
+    private long firstDefinitionTime;
+    private long completeTime;
+    private int files;
+    private int unchanged;
+    private int loaded;
+    private int failed;
+
+    public TokenScriptLoadTracker()
+    {
+        startTime = System.currentTimeMillis();
+    }
+
+    public synchronized void addPending(Collection<String> keys)
+    {
+        pendingKeys.addAll(keys);
+    }
+
+    public synchronized void addUnknown()
+    {
+        unknownScripts++;
+    }
+
+    public synchronized void addUnchanged()
+    {
+        unchanged++;
+    }
+
+    /**
+     * All script files have been hashed and the changed ones queued
+     */
+    public synchronized void scanComplete(int fileCount)
+    {
+        files = fileCount;
+        scanned = true;
+        notifyAll();
+    }
+
+    /**
+     * A script finished loading and its keys can now be served
+     * @param previousKeys keys the script defined before it changed, or null for a new script
+     */
+    public synchronized void published(Collection<String> previousKeys)
+    {
+        if (firstDefinitionTime == 0) firstDefinitionTime = System.currentTimeMillis();
+        loaded++;
+        release(previousKeys);
+    }
+
+    public synchronized void failed(Collection<String> previousKeys)
+    {
+        failed++;
+        release(previousKeys);
+    }
+
+    public synchronized void loadComplete()
+    {
+        complete = true;
+        completeTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    public synchronized boolean isComplete()
+    {
+        return complete;
+    }
+
+    /**
+     * Block until the script for key is ready, or the timeout expires
+     * @return true if ready
+     */
+    public synchronized boolean waitFor(String key, long timeoutMs) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!isReady(key))
+        {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            wait(remaining);
+        }
+
+        return true;
+    }
+
+    public synchronized boolean waitForAll(long timeoutMs) throws InterruptedException
+    {
+        return waitFor(null, timeoutMs);
+    }
+
+    /**
+     * @return ms from start of load to the first published definition, or -1 if none was loaded
+     */
+    public synchronized long getTimeToFirstDefinition()
+    {
+        return firstDefinitionTime > 0 ? firstDefinitionTime - startTime : -1;
+    }
+
+    /**
+     * @return ms to load all scripts, or -1 if still loading
+     */
+    public synchronized long getTotalLoadTime()
+    {
+        return complete ? completeTime - startTime : -1;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format(Locale.ROOT, "TokenScript load: %d files, %d unchanged, %d loaded, %d failed; first definition %dms, total %dms",
+                files, unchanged, loaded, failed, getTimeToFirstDefinition(), getTotalLoadTime());
+    }
+
+    private boolean isReady(String key)
+    {
+        if (complete) return true;
+        if (key == null || !scanned || unknownScripts > 0) return false;
+        return !pendingKeys.contains(key);
+    }
+
+    private void release(Collection<String> previousKeys)
+    {
+        if (previousKeys != null) pendingKeys.removeAll(previousKeys);
+        else unknownScripts--;
+        notifyAll();
+    }
+}
@@ -0,0 +1,333 @@
+package com.ramapay.app.service;
+
+import static com.ramapay.app.repository.TokensRealmSource.databaseKey;
+
+import android.text.format.DateUtils;
+
+import com.ramapay.app.entity.ContractType;
+import com.ramapay.app.entity.tokens.TokenCardMeta;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * In-memory index of tokens awaiting a balance check, ordered by the time each is next due.
+ *
+ * Base chain tokens and contract tokens are held in separate queues so that when the wallet is out of focus only
+ * chains (and the focus token) are considered. ERC20 tokens are also indexed per chain so a chain's due tokens can
+ * be handed to the batch balance fetcher together. Selecting the next token is O(log n); the full token list is
+ * only read from the database when the index is reloaded.
+ *
+ * Update intervals follow the previous weighting heuristic: 15s for the focus token and chains with a pending
+ * transaction, 20s for other chains, 60s for tokens while a token is in focus, 120s for tokens untouched for a day,
+ * otherwise TokenCardMeta.calculateUpdateFrequency(). Due tokens are served earliest first.
+ */
+public class TokenUpdateScheduler
+{
+    static final long FOCUS_INTERVAL = 15 * DateUtils.SECOND_IN_MILLIS;
+    static final long PENDING_CHAIN_INTERVAL = 15 * DateUtils.SECOND_IN_MILLIS;
+    static final long CHAIN_INTERVAL = 20 * DateUtils.SECOND_IN_MILLIS;
+    static final long BACKGROUND_TOKEN_INTERVAL = 60 * DateUtils.SECOND_IN_MILLIS;
+    static final long STALE_TOKEN_INTERVAL = 120 * DateUtils.SECOND_IN_MILLIS;
+
+    private static class Entry
+    {
+        final String key;
+        final long seq;
+        TokenCardMeta meta;
+        long lastCheck;
+        long storedUpdate;
+        long due;
+        boolean queued;
+        boolean deferred;
+
+        Entry(String key, long seq)
+        {
+            this.key = key;
+            this.seq = seq;
+        }
+
+        boolean isBase()
+        {
+            return meta.isEthereum();
+        }
+
+        boolean isBatchable()
+        {
+            return meta.type == ContractType.ERC20;
+        }
+    }
+
+    private static final Comparator<Entry> DUE_ORDER = (a, b) -> {
+        int cmp = Long.compare(a.due, b.due);
+        return cmp != 0 ? cmp : Long.compare(a.seq, b.seq);
+    };
+
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final TreeSet<Entry> chainQueue = new TreeSet<>(DUE_ORDER);
+    private final TreeSet<Entry> tokenQueue = new TreeSet<>(DUE_ORDER);
+    private final Map<Long, TreeSet<Entry>> batchQueues = new HashMap<>();
+    private final List<Entry> deferred = new ArrayList<>();
+    private final Set<Long> pendingChains = new HashSet<>();
+    private String focusKey;
+    private boolean synced = true;
+    private long syncStart;
+    private long seq;
+
+    /**
+     * Merge the database view of the wallet's tokens into the index. Check times recorded in memory take precedence
+     * over older database values; tokens no longer listed are dropped.
+     * @return number of fungible tokens not yet checked since syncStart, as used by the wallet sync status
+     */
+    public synchronized int load(TokenCardMeta[] metas, long syncStart)
+    {
+        int unSynced = 0;
+        Set<String> present = new HashSet<>();
+        for (TokenCardMeta meta : metas)
+        {
+            String key = databaseKey(meta.getChain(), meta.getAddress());
+            present.add(key);
+            boolean fungible = meta.type == ContractType.ERC20 || meta.type == ContractType.ETHEREUM;
+
+            Entry entry = entries.get(key);
+            if (entry == null)
+            {
+                if (fungible) unSynced++;
+                entry = new Entry(key, seq++);
+                entry.lastCheck = meta.lastUpdate;
+                entries.put(key, entry);
+            }
+            else
+            {
+                dequeue(entry);
+                entry.lastCheck = Math.max(entry.lastCheck, meta.lastUpdate);
+                if (fungible && entry.lastCheck < syncStart && meta.isEnabled && meta.hasValidName()) unSynced++;
+            }
+
+            entry.meta = meta;
+            entry.storedUpdate = meta.lastUpdate;
+            if (!entry.deferred) enqueue(entry, System.currentTimeMillis());
+        }
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext())
+        {
+            Entry entry = it.next().getValue();
+            if (!present.contains(entry.key))
+            {
+                dequeue(entry);
+                it.remove();
+            }
+        }
+
+        deferred.removeIf(e -> !present.contains(e.key));
+        return unSynced;
+    }
+
+    /**
+     * Take the most overdue token and mark it as checked now
+     * @param appHasFocus if false only chains and the focus token are served
+     * @return token to check, or null if nothing is due
+     */
+    public synchronized TokenCardMeta poll(long now, boolean appHasFocus)
+    {
+        while (true)
+        {
+            Entry next = chainQueue.isEmpty() ? null : chainQueue.first();
+            Entry token = appHasFocus ? (tokenQueue.isEmpty() ? null : tokenQueue.first()) : focusEntry();
+            if (token != null && (next == null || DUE_ORDER.compare(token, next) < 0)) next = token;
+
+            if (next == null || next.due > now) return null;
+
+            if (!synced && (!next.meta.isEnabled || next.meta.isNFT() || next.lastCheck > syncStart))
+            {
+                //don't look at NFTs or hidden tokens, or revisit checked ones, until the wallet has synced
+                dequeue(next);
+                next.deferred = true;
+                deferred.add(next);
+                continue;
+            }
+
+            markChecked(next, now);
+            return next.meta;
+        }
+    }
+
+    /**
+     * Take every due ERC20 token on a chain, up to max, and mark them as checked now
+     */
+    public synchronized List<TokenCardMeta> pollChainBatch(long chainId, long now, int max)
+    {
+        List<TokenCardMeta> batch = new ArrayList<>();
+        TreeSet<Entry> queue = batchQueues.get(chainId);
+        if (queue == null) return batch;
+
+        List<Entry> due = new ArrayList<>();
+        for (Entry entry : queue)
+        {
+            if (entry.due > now || due.size() >= max) break;
+            due.add(entry);
+        }
+
+        for (Entry entry : due)
+        {
+            markChecked(entry, now);
+            batch.add(entry.meta);
+        }
+
+        return batch;
+    }
+
+    public synchronized void markChecked(String key, long time)
+    {
+        Entry entry = entries.get(key);
+        if (entry != null && entry.queued) markChecked(entry, time);
+        else if (entry != null) entry.lastCheck = Math.max(entry.lastCheck, time);
+    }
+
+    public synchronized void remove(String key)
+    {
+        Entry entry = entries.remove(key);
+        if (entry != null)
+        {
+            dequeue(entry);
+            deferred.remove(entry);
+        }
+    }
+
+    public synchronized void clear()
+    {
+        entries.clear();
+        chainQueue.clear();
+        tokenQueue.clear();
+        batchQueues.clear();
+        deferred.clear();
+        pendingChains.clear();
+    }
+
+    public synchronized void setFocus(long chainId, String address)
+    {
+        focusKey = address != null ? databaseKey(chainId, address) : null;
+        //every token interval depends on whether a token is in focus
+        rescheduleTokens();
+    }
+
+    public synchronized void setPendingChain(long chainId, boolean pending)
+    {
+        boolean changed = pending ? pendingChains.add(chainId) : pendingChains.remove(chainId);
+        if (!changed) return;
+
+        for (Entry entry : new ArrayList<>(chainQueue))
+        {
+            if (entry.meta.getChain() == chainId) reschedule(entry);
+        }
+    }
+
+    public synchronized void setSynced(boolean synced, long syncStart)
+    {
+        this.syncStart = syncStart;
+        if (synced && !this.synced)
+        {
+            long now = System.currentTimeMillis();
+            for (Entry entry : deferred)
+            {
+                entry.deferred = false;
+                if (entries.get(entry.key) == entry && !entry.queued) enqueue(entry, now);
+            }
+            deferred.clear();
+        }
+        this.synced = synced;
+    }
+
+    public synchronized int size()
+    {
+        return chainQueue.size() + tokenQueue.size();
+    }
+
+    private Entry focusEntry()
+    {
+        Entry entry = focusKey != null ? entries.get(focusKey) : null;
+        return entry != null && entry.queued && !entry.isBase() ? entry : null;
+    }
+
+    private void markChecked(Entry entry, long time)
+    {
+        dequeue(entry);
+        entry.lastCheck = Math.max(entry.lastCheck, time);
+        enqueue(entry, time);
+    }
+
+    private void reschedule(Entry entry)
+    {
+        if (!entry.queued) return;
+        dequeue(entry);
+        enqueue(entry, System.currentTimeMillis());
+    }
+
+    private void rescheduleTokens()
+    {
+        for (Entry entry : new ArrayList<>(tokenQueue)) reschedule(entry);
+    }
+
+    private void enqueue(Entry entry, long now)
+    {
+        //tokens without a usable name have no update weight and were never selected
+        if (!entry.isBase() && !entry.meta.hasValidName()) return;
+
+        entry.due = entry.lastCheck + interval(entry, now);
+        entry.queued = true;
+        if (entry.isBase())
+        {
+            chainQueue.add(entry);
+        }
+        else
+        {
+            tokenQueue.add(entry);
+            if (entry.isBatchable())
+            {
+                TreeSet<Entry> queue = batchQueues.get(entry.meta.getChain());
+                if (queue == null)
+                {
+                    queue = new TreeSet<>(DUE_ORDER);
+                    batchQueues.put(entry.meta.getChain(), queue);
+                }
+                queue.add(entry);
+            }
+        }
+    }
+
+    private void dequeue(Entry entry)
+    {
+        if (!entry.queued) return;
+        entry.queued = false;
+        if (entry.isBase())
+        {
+            chainQueue.remove(entry);
+        }
+        else
+        {
+            tokenQueue.remove(entry);
+            TreeSet<Entry> queue = batchQueues.get(entry.meta.getChain());
+            if (queue != null) queue.remove(entry);
+        }
+    }
+
+    private long interval(Entry entry, long now)
+    {
+        if (entry.key.equals(focusKey)) return FOCUS_INTERVAL;
+        if (entry.isBase())
+        {
+            return pendingChains.contains(entry.meta.getChain()) ? PENDING_CHAIN_INTERVAL : CHAIN_INTERVAL;
+        }
+        if (focusKey != null) return BACKGROUND_TOKEN_INTERVAL;
+        if (entry.storedUpdate > 0 && now - entry.storedUpdate > DateUtils.DAY_IN_MILLIS) return STALE_TOKEN_INTERVAL;
+        return entry.meta.calculateUpdateFrequency();
+    }
+}
@@ -48,6 +48,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentLinkedQueue;
@@ -69,10 +70,14 @@ public class TokensService
     public static final String UNKNOWN_CONTRACT = "[Unknown Contract]";
     public static final String EXPIRED_CONTRACT = "[Expired Contract]";
     public static final long PENDING_TIME_LIMIT = 3*DateUtils.MINUTE_IN_MILLIS; //cut off pending chain after 3 minutes
+    private static final long INDEX_REFRESH_INTERVAL = DateUtils.MINUTE_IN_MILLIS; //pick up tokens added by transfer sync
+    private static final long SYNC_INDEX_REFRESH_INTERVAL = 5*DateUtils.SECOND_IN_MILLIS;
+    private static final int CHAIN_BATCH_LIMIT = 1000;
 
     private static final Map<Long, Long> pendingChainMap = new ConcurrentHashMap<>();
     private final ConcurrentLinkedDeque<Token> tokenStoreList = new ConcurrentLinkedDeque<>(); //used to hold tokens that will be stored
-    private final Map<String, Long> pendingTokenMap = new ConcurrentHashMap<>(); //used to determine which token to update next
+    private final TokenUpdateScheduler updateScheduler = new TokenUpdateScheduler(); //used to determine which token to update next
+    private volatile long nextIndexRefresh;
     private String currentAddress = null;
     private final EthereumNetworkRepositoryType ethereumNetworkRepository;
     private final TokenRepositoryType tokenRepository;
@@ -89,7 +94,8 @@ public class TokensService
     private long openSeaCheckId;
     private boolean appHasFocus;
     private static boolean walletStartup = false;
-    private long transferCheckChain;
+    private final Set<Long> transferCheckChains = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Disposable> chainBalanceChecks = new ConcurrentHashMap<>(); //in-flight multicall per chain
     private final TokenFactory tokenFactory = new TokenFactory();
     private long syncTimer;
     private long syncStart;
@@ -138,7 +144,6 @@ public class TokensService
         this.httpClient = httpClient;
         setCurrentAddress(ethereumNetworkRepository.getCurrentWalletAddress()); //set current wallet address at service startup
         appHasFocus = true;
-        transferCheckChain = 0;
         completionCallback = null;
     }
 
@@ -279,10 +284,13 @@ public class TokensService
 
         setupFilters();
 
+        //reload the running wallet value on the next read
+        PortfolioValuation.forWallet(currentAddress).invalidate();
+
         eventTimer = Single.fromCallable(() -> {
             startupPass();
             checkIssueTokens();
-            pendingTokenMap.clear();
+            resetUpdateIndex();
             checkTokensOnOKx();
             return true;
         }).subscribeOn(Schedulers.io())
@@ -290,33 +298,22 @@ public class TokensService
                 .subscribe(this::updateCycle, this::onError);
     }
 
-    // Constructs a map of tokens requiring update
-    private TokenCardMeta[] buildUpdateMap()
+    // Reload the update index from the database; between reloads tokens are scheduled in memory
+    private void refreshUpdateIndex(long currentTime)
     {
-        int unSynced = 0;
         TokenCardMeta[] tokenList = tokenRepository.fetchTokenMetasForUpdate(new Wallet(currentAddress), networkFilter);
-        for (TokenCardMeta meta : tokenList)
-        {
-            meta.lastTxUpdate = meta.lastUpdate;
-            String key = databaseKey(meta.getChain(), meta.getAddress());
-            if (!pendingTokenMap.containsKey(key))
-            {
-                if (meta.type == ContractType.ERC20 || meta.type == ContractType.ETHEREUM) unSynced++;
-                pendingTokenMap.put(key, meta.lastUpdate);
-            }
-            else if (meta.lastUpdate <= pendingTokenMap.get(key))
-            {
-                meta.lastUpdate = pendingTokenMap.get(key);
-                if ((meta.type == ContractType.ERC20 || meta.type == ContractType.ETHEREUM)
-                        && meta.lastUpdate < syncStart && meta.isEnabled && meta.hasValidName()) { unSynced++; }
-            }
-            else if ((meta.type == ContractType.ERC20 || meta.type == ContractType.ETHEREUM)
-                    && meta.lastUpdate < syncStart && meta.isEnabled && meta.hasValidName()) { unSynced++; }
-        }
+        int unSynced = updateScheduler.load(tokenList, syncStart);
 
         checkSyncStatus(unSynced, tokenList);
+        updateScheduler.setSynced(isSynced(), syncStart);
+        nextIndexRefresh = currentTime + (isSynced() ? INDEX_REFRESH_INTERVAL : SYNC_INDEX_REFRESH_INTERVAL);
+    }
 
-        return tokenList;
+    private void resetUpdateIndex()
+    {
+        updateScheduler.clear();
+        nextIndexRefresh = 0;
+        for (Long chainId : pendingChainMap.keySet()) updateScheduler.setPendingChain(chainId, true);
     }
 
     private void checkSyncStatus(int unSynced, TokenCardMeta[] tokenList)
@@ -421,11 +418,13 @@ public class TokensService
         if (queryUnknownTokensDisposable != null && !queryUnknownTokensDisposable.isDisposed()) { queryUnknownTokensDisposable.dispose(); }
         if (openSeaQueryDisposable != null && !openSeaQueryDisposable.isDisposed()) { openSeaQueryDisposable.dispose(); }
         if (okDisposable != null && !okDisposable.isDisposed()) { okDisposable.dispose(); }
+        for (Disposable d : chainBalanceChecks.values()) { d.dispose(); }
+        chainBalanceChecks.clear();
 
         pendingChainMap.clear();
         tokenStoreList.clear();
         baseTokenCheck.clear();
-        pendingTokenMap.clear();
+        resetUpdateIndex();
         unknownTokens.clear();
         chainCheckList.clear();
     }
@@ -452,11 +451,13 @@ public class TokensService
     public void setFocusToken(@NotNull Token token)
     {
         focusToken = new ContractLocator(token.getAddress(), token.tokenInfo.chainId);
+        updateScheduler.setFocus(token.tokenInfo.chainId, token.getAddress());
     }
 
     public void clearFocusToken()
     {
         focusToken = null;
+        updateScheduler.setFocus(0, null);
     }
 
     public void onWalletRefreshSwipe()
@@ -464,16 +465,6 @@ public class TokensService
         openseaService.resetOffsetRead(networkFilter);
     }
 
-    private boolean isFocusToken(Token t)
-    {
-        return focusToken != null && focusToken.equals(t);
-    }
-
-    private boolean isFocusToken(TokenCardMeta t)
-    {
-        return focusToken != null && focusToken.equals(t);
-    }
-
     /**
      * This method will add unknown token to the list and discover it
      * @param cAddr Contract Address
@@ -741,16 +732,19 @@ public class TokensService
         if (newBalance.equals(BigDecimal.valueOf(-2)))
         {
             //token deleted
+            updateValuation(t, BigDecimal.ZERO);
             return;
         }
 
+        updateValuation(t, newBalance);
+
         if (balanceChange && BuildConfig.DEBUG)
         {
             Timber.tag(TAG).d("Change Registered: * %s", t.getFullName());
         }
 
         //update check time
-        pendingTokenMap.put(databaseKey(t), System.currentTimeMillis());
+        updateScheduler.markChecked(databaseKey(t), System.currentTimeMillis());
 
         //Switch this token chain on
         if (t.isEthereum() && newBalance.compareTo(BigDecimal.ZERO) > 0)
@@ -762,11 +756,60 @@ public class TokensService
         if (t.isEthereum())
         {
             checkERC20(t.tokenInfo.chainId);
+            checkChainBalances(t.tokenInfo.chainId);
         }
 
         checkOpenSea(t.tokenInfo.chainId);
     }
 
+    /**
+     * Refresh the chain's due ERC20 balances in one multicall pass. The scheduler marks them as checked when
+     * handing them out, so the single token update queue skips them this cycle
+     * @param chainId
+     */
+    private void checkChainBalances(long chainId)
+    {
+        //one pass per chain at a time; tokens left due are picked up by the next pass
+        Disposable inFlight = chainBalanceChecks.get(chainId);
+        if (inFlight != null && !inFlight.isDisposed()) return;
+
+        List<TokenCardMeta> erc20OnChain = updateScheduler.pollChainBatch(chainId, System.currentTimeMillis(), CHAIN_BATCH_LIMIT);
+        if (erc20OnChain.isEmpty()) return;
+
+        chainBalanceChecks.put(chainId, tokenRepository.updateChainBalances(currentAddress, chainId, erc20OnChain)
+                .subscribeOn(Schedulers.io())
+                .observeOn(Schedulers.io())
+                .subscribe(updated -> onChainBalancesUpdated(chainId, updated), e -> onChainBalanceError(chainId, e)));
+    }
+
+    private void onChainBalancesUpdated(long chainId, List<Token> updated)
+    {
+        chainBalanceChecks.remove(chainId);
+        for (Token t : updated)
+        {
+            updateValuation(t, t.balance);
+        }
+    }
+
+    /**
+     * Apply a token's new raw balance to the running wallet value
+     */
+    private void updateValuation(Token t, BigDecimal newBalance)
+    {
+        if (newBalance.signum() < 0 || !EthereumNetworkRepository.hasRealValue(t.tokenInfo.chainId)) return; //balance check error
+
+        boolean valued = !t.isNonFungible() && t.group != TokenGroup.SPAM;
+        String tickerAddress = t.isEthereum() ? PortfolioValuation.BASE_TICKER : t.getAddress();
+        PortfolioValuation.forWallet(currentAddress).updateBalance(t.tokenInfo.chainId, tickerAddress,
+                valued ? PortfolioValuation.correctedBalance(newBalance, t.tokenInfo.decimals) : BigDecimal.ZERO);
+    }
+
+    private void onChainBalanceError(long chainId, Throwable throwable)
+    {
+        chainBalanceChecks.remove(chainId);
+        Timber.e(throwable);
+    }
+
     private void checkChainVisibility(Token t)
     {
         //Switch this token chain on
@@ -788,6 +831,7 @@ public class TokensService
             if (currentTime > pendingChainMap.get(chainId))
             {
                 pendingChainMap.remove(chainId);
+                updateScheduler.setPendingChain(chainId, false);
             }
         }
     }
@@ -805,7 +849,7 @@ public class TokensService
 
         NetworkInfo info = ethereumNetworkRepository.getNetworkByChain(chainId);
 
-        if (info.chainId == transferCheckChain) return; //currently checking this chainId in TransactionsNetworkClient
+        if (transferCheckChains.contains(info.chainId)) return; //currently checking this chainId in TransactionsNetworkClient
         
         Timber.tag(TAG).d("Fetch from opensea : " + currentAddress + " : " + info.getShortName());
 
@@ -981,11 +1025,22 @@ public class TokensService
     public void markChainPending(long chainId)
     {
         pendingChainMap.put(chainId, System.currentTimeMillis() + PENDING_TIME_LIMIT);
+        updateScheduler.setPendingChain(chainId, true);
     }
 
     public Single<Pair<Double, Double>> getFiatValuePair()
     {
-        return tokenRepository.getTotalValue(currentAddress, EthereumNetworkBase.getAllMainNetworks());
+        PortfolioValuation valuation = PortfolioValuation.forWallet(currentAddress);
+        if (valuation.isLoaded())
+        {
+            return Single.just(valuation.getTotals().toPair());
+        }
+
+        return tokenRepository.getValuationSnapshot(currentAddress, EthereumNetworkBase.getAllMainNetworks())
+                .map(snapshot -> {
+                    valuation.load(snapshot);
+                    return valuation.getTotals().toPair();
+                });
     }
 
     public Single<List<String>> getTickerUpdateList()
@@ -1022,84 +1077,24 @@ public class TokensService
     // Fine tune how and when tokens are updated here
 
     /**
-     * Token update heuristic - calculates which token should be updated next
+     * Token update heuristic - picks the token that should be updated next. See TokenUpdateScheduler for the
+     * intervals; the database is only read when the index is due a reload.
      * @return Token that needs updating
      */
-
-    //TODO: Integrate the transfer check update time into the priority calculation
-    //TODO: If we have done a transfer check recently then we don't need to check balance here
     public Token getNextInBalanceUpdateQueue()
     {
-        //pull all tokens from this wallet out of DB
-        TokenCardMeta[] tokenList = buildUpdateMap();
-
-        //calculate update based on last update time & importance
-        float highestWeighting = 0;
         long currentTime = System.currentTimeMillis();
+        if (currentTime >= nextIndexRefresh)
+        {
+            refreshUpdateIndex(currentTime);
+        }
+
         Token storeToken = pendingBaseCheck();
         if (storeToken == null) { storeToken = tokenStoreList.poll(); }
         if (storeToken != null) { return storeToken; }
 
-        TokenCardMeta highestToken = null;
-
-        //this list will be in order of update.
-        for (TokenCardMeta check : tokenList)
-        {
-            long lastCheckDiff = currentTime - check.lastUpdate;
-            long lastUpdateDiff = check.lastTxUpdate > 0 ? currentTime - check.lastTxUpdate : 0;
-
-            float weighting = check.calculateBalanceUpdateWeight();
-
-            if ((!check.isEnabled || check.isNFT()) && !isSynced()) continue; //don't start looking at NFT balances until we sync the chain/ERC20 tokens
-            if (!isSynced() && check.lastUpdate > syncStart) continue; //don't start updating already updated tokens until all ERC20 are checked
-            if (!appHasFocus && (!check.isEthereum() && !isFocusToken(check))) continue; //only check chains when wallet out of focus
-
-            //simply multiply the weighting by the last diff.
-            float updateFactor = weighting * (float) lastCheckDiff * (check.isEnabled ? 1 : 0.25f);
-            long cutoffCheck = check.calculateUpdateFrequency(); //normal minimum update frequency for token 30 seconds, 5 minutes for hidden token
-
-            if (!check.isEthereum() && lastUpdateDiff > DateUtils.DAY_IN_MILLIS)
-            {
-                cutoffCheck = 120*DateUtils.SECOND_IN_MILLIS;
-                updateFactor = 0.5f * updateFactor;
-            }
-
-            if (isFocusToken(check))
-            {
-                updateFactor = 3.0f * (float) lastCheckDiff;
-                cutoffCheck = 15*DateUtils.SECOND_IN_MILLIS; //focus token can be checked every 15 seconds - focus token when erc20 or chain clicked on in wallet
-            }
-            else if (check.isEthereum() && pendingChainMap.containsKey(check.getChain())) //higher priority for checking balance of pending chain
-            {
-                cutoffCheck = 15*DateUtils.SECOND_IN_MILLIS;
-                updateFactor = 4.0f * (float) lastCheckDiff; //chain has a recent transaction
-            }
-            else if (check.isEthereum())
-            {
-                cutoffCheck = 20*DateUtils.SECOND_IN_MILLIS; //update check limit for base chains is 20 seconds
-            }
-            else if (focusToken != null)
-            {
-                updateFactor = 0.1f * (float) lastCheckDiff;
-                cutoffCheck = 60*DateUtils.SECOND_IN_MILLIS; //when looking at token in detail view (ERC20TokenDetail) update other tokens at 1 minute cycle
-            }
-
-            if (updateFactor > highestWeighting && (lastCheckDiff > (float)cutoffCheck))
-            {
-                highestWeighting = updateFactor;
-                highestToken = check;
-            }
-        }
-
-        if (highestToken != null)
-        {
-            pendingTokenMap.put(databaseKey(highestToken.getChain(), highestToken.getAddress()), System.currentTimeMillis());
-            return getToken(highestToken.getChain(), highestToken.getAddress());
-        }
-        else
-        {
-            return null;
-        }
+        TokenCardMeta next = updateScheduler.poll(currentTime, appHasFocus);
+        return next != null ? getToken(next.getChain(), next.getAddress()) : null;
     }
 
     private Token pendingBaseCheck()
@@ -1216,6 +1211,7 @@ public class TokensService
             final Wallet wallet = new Wallet(walletAddr);
             tokenRepository.setEnable(wallet, cAddr, true);
             tokenRepository.setVisibilityChanged(wallet, cAddr);
+            nextIndexRefresh = 0; //pick up the visibility change on the next tick
         });
     }
 
@@ -1312,9 +1308,18 @@ public class TokensService
         return tURL;
     }
 
+    /**
+     * Flag that a chain's transfers are being read, or with 0 that no chains are
+     */
     public void checkingChain(long chainId)
     {
-        transferCheckChain = chainId;
+        if (chainId == 0) transferCheckChains.clear();
+        else transferCheckChains.add(chainId);
+    }
+
+    public void checkedChain(long chainId)
+    {
+        transferCheckChains.remove(chainId);
     }
 
     public void addBalanceCheck(Token token)
@@ -1354,6 +1359,7 @@ public class TokensService
         syncCount = sync;
         completionCallback = cb;
         syncTimer = System.currentTimeMillis();
+        nextIndexRefresh = 0;
 
         if (sync > 0)
         {
@@ -1413,7 +1419,7 @@ public class TokensService
             tokenRepository.deleteRealmTokens(new Wallet(currentAddress), metasToDelete);
             for (TokenCardMeta tcm : metasToDelete)
             {
-                pendingTokenMap.remove(databaseKey(tcm.getChain(), tcm.getAddress()));
+                updateScheduler.remove(databaseKey(tcm.getChain(), tcm.getAddress()));
             }
             return true;
         });
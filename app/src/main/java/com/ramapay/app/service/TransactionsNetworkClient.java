@@ -17,7 +17,6 @@ import android.util.Pair;
 
 import androidx.annotation.NonNull;
 
-import com.ramapay.app.BuildConfig;
 import com.ramapay.app.entity.ContractType;
 import com.ramapay.app.entity.CovalentTransaction;
 import com.ramapay.app.entity.EtherscanEvent;
@@ -35,7 +34,7 @@ import com.ramapay.app.entity.transactions.TransferEvent;
 import com.ramapay.app.repository.EthereumNetworkBase;
 import com.ramapay.app.repository.KeyProvider;
 import com.ramapay.app.repository.KeyProviderFactory;
-import com.ramapay.app.repository.TransactionsRealmCache;
+import com.ramapay.app.repository.TransactionBulkWriter;
 import com.ramapay.app.repository.entity.RealmAuxData;
 import com.ramapay.app.repository.entity.RealmToken;
 import com.ramapay.app.repository.entity.RealmTransaction;
@@ -48,6 +47,7 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -90,7 +90,6 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
     private final String POLYGONSCAN_API_KEY;
     private final String AURORASCAN_API_KEY;
     private final KeyProvider keyProvider = KeyProviderFactory.get();
-    private final String JSON_EMPTY_RESULT = "{\"result\":[]}";
 
     private final OkHttpClient httpClient;
     private final Gson gson;
@@ -181,7 +180,8 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
                     lastBlockNumber = 0;
                 }
 
-                sortedTx = syncDownwards(svs, networkInfo, tokenAddress, lastBlockNumber, 999999999);
+                //first sync replaces whatever is stored, once the explorer has returned something
+                sortedTx = syncDownwards(instance, svs, networkInfo, tokenAddress, lastBlockNumber, 999999999, syncToBlock == 0);
 
                 if (sortedTx.size() > 0)
                 {
@@ -191,13 +191,10 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
 
                     if (syncToBlock == 0 || sortedTx.size() == PAGESIZE * SYNC_PAGECOUNT)
                     {
-                        //blank all entries
-                        eraseAllTransactions(instance, networkInfo.chainId);
+                        //gap between what was read and what is stored: keep only what was just read
+                        if (syncToBlock != 0) eraseTransactionsExcept(instance, networkInfo.chainId, sortedTx);
                         writeTokenBlockRead(instance, networkInfo.chainId, Long.parseLong(sortedTx.get(0).blockNumber), TransferFetchType.ETHEREUM);
                     }
-
-                    //now write transactions
-                    writeTransactions(instance, sortedTx);
                 }
             }
             catch (JSONException e)
@@ -214,83 +211,73 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
     }
 
     /**
-     * read PAGESIZE*2 transactions down from startingBlockNumber
+     * read PAGESIZE*2 transactions down from startingBlockNumber, writing each streamed chunk to the database as it
+     * is parsed
      *
      * Note that this call is the only place that the 'earliest transaction' block can be written from.
+     *
+     * @param eraseFirst remove the chain's stored transactions before the first chunk is written
+     * @return transactions written, in block order
      */
-    private List<Transaction> syncDownwards(TokensService svs, NetworkInfo networkInfo, String tokenAddress, long lowBlockNumber, long highBlockNumber) throws Exception
+    private List<Transaction> syncDownwards(Realm instance, TokensService svs, NetworkInfo networkInfo, String tokenAddress, long lowBlockNumber, long highBlockNumber,
+                                            boolean eraseFirst) throws Exception
     {
         int page = 1;
-        HashMap<String, Transaction> txMap = new HashMap<>();
+        Set<String> hashes = new HashSet<>();
+        List<Transaction> written = new ArrayList<>();
         boolean continueReading = true;
 
         while (continueReading) // only SYNC_PAGECOUNT pages at a time for each check, to avoid congestion
         {
-            EtherscanTransaction[] myTxs = readTransactions(networkInfo, svs, tokenAddress, String.valueOf(lowBlockNumber), String.valueOf(highBlockNumber), false, page++);
-            if (myTxs.length == 0) break;
-            populateTransactionMap(txMap, myTxs, networkInfo.chainId); //use all transactions (wallet address null)
+            int txCount = readTransactions(networkInfo, svs, tokenAddress, String.valueOf(lowBlockNumber), String.valueOf(highBlockNumber), false, page++,
+                    chunk -> { //use all transactions (wallet address null)
+                        List<Transaction> txChunk = convertTransactions(chunk, hashes, networkInfo.chainId);
+                        if (txChunk.isEmpty()) return;
+                        if (eraseFirst && written.isEmpty()) eraseAllTransactions(instance, networkInfo.chainId);
+                        writeTransactions(instance, txChunk);
+                        written.addAll(txChunk);
+                    });
+            if (txCount == 0) break;
 
             if (page > SYNC_PAGECOUNT) continueReading = false;
 
-            if (myTxs.length < PAGESIZE)
+            if (txCount < PAGESIZE)
             {
                 continueReading = false;
             }
         }
 
-        return sortTransactions(txMap.values());
+        return sortTransactions(written);
     }
 
-    private void populateTransactionMap(HashMap<String, Transaction> txMap, EtherscanTransaction[] myTxs, long chainId)
+    //a transaction may repeat across pages if new ones arrive mid-sync; it is only converted once
+    private List<Transaction> convertTransactions(List<EtherscanTransaction> myTxs, Set<String> hashes, long chainId)
     {
+        List<Transaction> txList = new ArrayList<>(myTxs.size());
         for (EtherscanTransaction etx : myTxs)
         {
             Transaction tx = etx.createTransaction(null, chainId);
-            if (tx != null)
+            if (tx != null && hashes.add(tx.hash))
             {
-                txMap.put(tx.hash, tx);
+                txList.add(tx);
             }
         }
+        return txList;
     }
 
-    private EtherscanTransaction[] getEtherscanTransactions(String response) throws JSONException
-    {
-        JSONObject stateData;
-        try
-        {
-            stateData = new JSONObject(response);
-        }
-        catch (JSONException e)
-        {
-            Timber.w(e);
-            return new EtherscanTransaction[0];
-        }
-
-        JSONArray orders = stateData.getJSONArray("result");
-        return gson.fromJson(orders.toString(), EtherscanTransaction[].class);
-    }
-
-    private CovalentTransaction[] getCovalentTransactions(String response, String walletAddress) throws JSONException
+    private CovalentTransaction[] getCovalentTransactions(List<CovalentTransaction> ctxs, String walletAddress)
     {
-        if (response == null || response.length() < 80)
-        {
-            return new CovalentTransaction[0];
-        }
-        JSONObject stateData = new JSONObject(response);
-        JSONObject data = stateData.getJSONObject("data");
-        JSONArray orders = data.getJSONArray("items");
-        CovalentTransaction[] ctxs = gson.fromJson(orders.toString(), CovalentTransaction[].class);
         //reformat list to remove any transactions already seen
+        List<String> hashes = new ArrayList<>(ctxs.size());
+        for (CovalentTransaction ctx : ctxs) hashes.add(ctx.tx_hash);
+
         List<CovalentTransaction> cvList = new ArrayList<>();
         try (Realm instance = realmManager.getRealmInstance(new Wallet(walletAddress)))
         {
+            Set<String> knownHashes = TransactionBulkWriter.findKnownHashes(instance, hashes);
             for (CovalentTransaction ctx : ctxs)
             {
-                RealmTransaction realmTx = instance.where(RealmTransaction.class)
-                        .equalTo("hash", ctx.tx_hash)
-                        .findFirst();
-
-                if (realmTx == null)
+                if (!knownHashes.contains(ctx.tx_hash))
                 {
                     cvList.add(ctx);
                 }
@@ -300,57 +287,39 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         return cvList.toArray(new CovalentTransaction[0]);
     }
 
-    private EtherscanEvent[] getEtherscanEvents(String response) throws JSONException
-    {
-        JSONObject stateData = new JSONObject(response);
-        JSONArray orders = stateData.getJSONArray("result");
-        return gson.fromJson(orders.toString(), EtherscanEvent[].class);
-    }
-
     private void writeTransactions(Realm instance, List<Transaction> txList) throws Exception
     {
         if (txList.size() == 0) return;
 
-        instance.executeTransaction(r -> {
-            for (Transaction tx : txList)
-            {
-                String oldGasFeeMax = "";
-                String oldPriorityFee = "";
-                RealmTransaction realmTx = r.where(RealmTransaction.class)
-                        .equalTo("hash", tx.hash)
-                        .findFirst();
-
-                if (realmTx == null)
-                {
-                    realmTx = r.createObject(RealmTransaction.class, tx.hash);
-                }
-                else
-                {
-                    oldGasFeeMax = !TextUtils.isEmpty(realmTx.getMaxFeePerGas()) ? realmTx.getMaxFeePerGas() : tx.maxFeePerGas;
-                    oldPriorityFee = !TextUtils.isEmpty(realmTx.getPriorityFee()) ? realmTx.getPriorityFee() : tx.maxPriorityFee;
-                }
-
-                TransactionsRealmCache.fill(realmTx, tx);
-                realmTx.setMaxFeePerGas(oldGasFeeMax);
-                realmTx.setMaxPriorityFee(oldPriorityFee);
-                r.insertOrUpdate(realmTx);
-            }
-        });
+        //one write transaction per page, so a large sync doesn't hold a single long write transaction
+        for (int index = 0; index < txList.size(); index += PAGESIZE)
+        {
+            List<Transaction> page = txList.subList(index, Math.min(index + PAGESIZE, txList.size()));
+            long startTime = System.nanoTime();
+            instance.executeTransaction(r -> TransactionBulkWriter.writeTransactions(r, page));
+            TransactionBulkWriter.recordPage(page.size(), System.nanoTime() - startTime);
+        }
     }
 
-    private EtherscanTransaction[] readTransactions(NetworkInfo networkInfo, TokensService svs, String tokenAddress, String lowBlock, String highBlock, boolean ascending, int page) throws JSONException
+    /**
+     * Stream a page of transactions from the explorer into consumer
+     * @return number of transactions read
+     */
+    private int readTransactions(NetworkInfo networkInfo, TokensService svs, String tokenAddress, String lowBlock, String highBlock, boolean ascending, int page,
+                                 ExplorerResponseReader.ChunkConsumer<EtherscanTransaction> consumer) throws Exception
     {
-        if (networkInfo == null) return new EtherscanTransaction[0];
+        if (networkInfo == null) return 0;
         if (networkInfo.etherscanAPI.contains(COVALENT))
         {
-            return readCovalentTransactions(svs, tokenAddress, networkInfo, ascending, page, PAGESIZE);
+            EtherscanTransaction[] covalentTxs = readCovalentTransactions(svs, tokenAddress, networkInfo, ascending, page, PAGESIZE);
+            if (covalentTxs.length > 0) consumer.accept(Arrays.asList(covalentTxs));
+            return covalentTxs.length;
         }
         else if (networkInfo.chainId == OKX_ID)
         {
-            return new EtherscanTransaction[0];
+            return 0;
         }
 
-        String result = null;
         String fullUrl;
 
         String sort = "asc";
@@ -392,7 +361,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
 
             if (networkInfo.isCustom && !Utils.isValidUrl(networkInfo.etherscanAPI))
             {
-                return new EtherscanTransaction[0];
+                return 0;
             }
 
             Request request = new Request.Builder()
@@ -400,25 +369,29 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
                 .get()
                 .build();
 
+            boolean[] chunkWritten = { false };
             try (okhttp3.Response response = httpClient.newCall(request).execute())
             {
-                if (response.body() == null) return new EtherscanTransaction[0];
+                if (response.body() == null) return 0;
                 if (response.code() / 200 == 1)
                 {
-                    result = response.body().string();
-                    if (result.length() >= 80 && !result.contains("No transactions found"))
-                    {
-                        return getEtherscanTransactions(result);
-                    }
+                    //"No transactions found" arrives as an empty result array
+                    return ExplorerResponseReader.readArray(response.body().charStream(), gson, EtherscanTransaction.class,
+                            ExplorerResponseReader.CHUNK_SIZE, chunk -> {
+                                chunkWritten[0] = true;
+                                consumer.accept(chunk);
+                            }, "result");
                 }
             }
             catch (Exception e)
             {
+                //part of the page is already stored; fail the read so the block read marker isn't moved past it
+                if (chunkWritten[0]) throw e;
                 Timber.e(e);
             }
         }
 
-        return new EtherscanTransaction[0];
+        return 0;
     }
 
     /**
@@ -448,8 +421,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
                     Timber.d("DIAGNOSE: " + oldestBlockRead + " : " + oldestPossibleBlock);
                     if (oldestBlockRead > 0 && oldestBlockRead != oldestPossibleBlock)
                     {
-                        List<Transaction> syncTx = syncDownwards(svs, network, svs.getCurrentAddress(), 0, oldestBlockRead);
-                        writeTransactions(instance, syncTx);
+                        syncDownwards(instance, svs, network, svs.getCurrentAddress(), 0, oldestBlockRead, false);
                     }
 
                     //now re-read last blocks from DB
@@ -478,21 +450,16 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
     {
         return Single.fromCallable(() -> {
             //get latest block read
-            Map<String, List<TransferEvent>> tfMap = new HashMap<>();
+            //explorer and storage errors fail the read, so the sync scheduler backs off rather than counting a sync
             try (Realm instance = realmManager.getRealmInstance(new Wallet(walletAddress)))
             {
                 EtherscanEvent[] events = fetchEvents(instance, walletAddress, networkInfo, tfType);
-                tfMap = processEtherscanEvents(instance, walletAddress, networkInfo, svs, events, tfType);
-            }
-            catch (Exception e)
-            {
-                Timber.e(e);
+                return processEtherscanEvents(instance, walletAddress, networkInfo, svs, events, tfType);
             }
-            return tfMap;
         }).observeOn(Schedulers.io());
     }
 
-    private EtherscanEvent[] fetchEvents(Realm instance, String walletAddress, NetworkInfo networkInfo, TransferFetchType tfType) throws JSONException
+    private EtherscanEvent[] fetchEvents(Realm instance, String walletAddress, NetworkInfo networkInfo, TransferFetchType tfType) throws Exception
     {
         EtherscanEvent[] events;
         List<EtherscanEvent> eventList = new ArrayList<>();
@@ -524,8 +491,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
 
             while (true)
             {
-                String fetchTransactions = readNextTxBatch(walletAddress, networkInfo, upperBlock, lowerBlock, tfType.getValue());
-                events = getEtherscanEvents(fetchTransactions);
+                events = readNextTxBatch(walletAddress, networkInfo, upperBlock, lowerBlock, tfType.getValue());
 
                 if (events.length == 0)
                 {
@@ -694,10 +660,12 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         }
     }
 
-    private String readNextTxBatch(String walletAddress, NetworkInfo networkInfo, long upperBlock, long lowerBlock, String queryType)
+    /**
+     * @throws Exception if the explorer can't be reached or doesn't return a successful response
+     */
+    private EtherscanEvent[] readNextTxBatch(String walletAddress, NetworkInfo networkInfo, long upperBlock, long lowerBlock, String queryType) throws Exception
     {
-        if (TextUtils.isEmpty(networkInfo.etherscanAPI) || networkInfo.etherscanAPI.contains(COVALENT)) return JSON_EMPTY_RESULT; //Covalent transfers are handled elsewhere
-        String result = JSON_EMPTY_RESULT;
+        if (TextUtils.isEmpty(networkInfo.etherscanAPI) || networkInfo.etherscanAPI.contains(COVALENT)) return new EtherscanEvent[0]; //Covalent transfers are handled elsewhere
         if (lowerBlock == 0) lowerBlock = 1;
 
         String fullUrl = networkInfo.etherscanAPI + "module=account&action=" + queryType +
@@ -708,7 +676,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
 
         if (networkInfo.isCustom && !Utils.isValidUrl(networkInfo.etherscanAPI))
         {
-            return JSON_EMPTY_RESULT;
+            return new EtherscanEvent[0];
         }
 
         Request request = new Request.Builder()
@@ -720,21 +688,14 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
 
         try (okhttp3.Response response = httpClient.newCall(request).execute())
         {
-            if (response.code() / 200 == 1)
+            if (response.code() / 200 != 1 || response.body() == null)
             {
-                result = response.body().string();
-                if (result.length() < 80 && result.contains("No transactions found"))
-                {
-                    result = JSON_EMPTY_RESULT;
-                }
+                throw new IOException("Explorer transfer read failed: " + response.code());
             }
-        }
-        catch (Exception e)
-        {
-            if (BuildConfig.DEBUG) Timber.e(e);
-        }
 
-        return result;
+            return ExplorerResponseReader.readList(response.body().charStream(), gson, EtherscanEvent.class, "result")
+                    .toArray(new EtherscanEvent[0]);
+        }
     }
 
     private String getNetworkAPIToken(NetworkInfo networkInfo)
@@ -772,7 +733,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         String args = "block-signed-at-asc=" + (ascending ? "true" : "false") + "&page-number=" + (page - 1) + "&page-size=" +
                 pageSize + "&key=" + keyProvider.getCovalentKey(); //read logs to get all the transfers
         String fullUrl = networkInfo.etherscanAPI.replace(COVALENT, covalent);
-        String result = null;
+        List<CovalentTransaction> covalentTxs;
 
         Request request = new Request.Builder()
                 .url(fullUrl + args)
@@ -784,11 +745,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         {
             if (response.body() == null) return new EtherscanTransaction[0];
 
-            result = response.body().string();
-            if (result.length() < 80 && result.contains("No transactions found"))
-            {
-                return new EtherscanTransaction[0];
-            }
+            covalentTxs = ExplorerResponseReader.readList(response.body().charStream(), gson, CovalentTransaction.class, "data", "items");
         }
         catch (Exception e)
         {
@@ -796,7 +753,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
             return new EtherscanTransaction[0];
         }
 
-        CovalentTransaction[] covalentTransactions = getCovalentTransactions(result, svs.getCurrentAddress());
+        CovalentTransaction[] covalentTransactions = getCovalentTransactions(covalentTxs, svs.getCurrentAddress());
 
         EtherscanTransaction[] unhandledTxs = processCovalentEvents(covalentTransactions, svs, networkInfo);
 
@@ -1086,87 +1043,17 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
             }
         }
 
+        long startTime = System.nanoTime();
         instance.executeTransaction(r -> {
-            storeTransferData(r, networkInfo.chainId, transferEventMap);
-            storeTransactions(r, txWriteMap, networkInfo.etherscanAPI.contains(COVALENT) ? null : txFetches); //store the transaction data and initiate tx fetch if not already known
+            TransactionBulkWriter.writeTransfers(r, networkInfo.chainId, transferEventMap);
+            TransactionBulkWriter.writeEventTransactions(r, txWriteMap, networkInfo.etherscanAPI.contains(COVALENT) ? null : txFetches); //store the transaction data and initiate tx fetch if not already known
         });
+        TransactionBulkWriter.recordPage(events.length, System.nanoTime() - startTime);
 
         fetchRequiredTransactions(networkInfo.chainId, txFetches, walletAddress);
         return new Pair<>(highestBlockRead, transferEventMap);
     }
 
-    private void storeTransactions(Realm r, Map<String, Transaction> txWriteMap, HashSet<String> txFetches)
-    {
-        for (Map.Entry<String, Transaction> entry : txWriteMap.entrySet())
-        {
-            String contractAddress = entry.getKey();
-            Transaction tx = entry.getValue();
-            RealmTransaction realmTx = r.where(RealmTransaction.class)
-                    .equalTo("hash", tx.hash)
-                    .findFirst();
-
-            if (realmTx == null)
-            {
-                realmTx = r.createObject(RealmTransaction.class, tx.hash);
-                //fetch the actual transaction here
-                if (txFetches != null) txFetches.add(tx.hash);
-            }
-            else if (realmTx.getContractAddress() == null || !realmTx.getContractAddress().equalsIgnoreCase(contractAddress))
-            {
-                realmTx.setContractAddress(contractAddress);
-            }
-
-            if (realmTx.getInput() == null || realmTx.getInput().length() <= 10 || txFetches == null)
-            {
-                TransactionsRealmCache.fill(realmTx, tx);
-                realmTx.setContractAddress(contractAddress); //for indexing by contract (eg Token Activity)
-            }
-        }
-    }
-
-    private void storeTransferData(Realm instance, long chainId, Map<String, List<TransferEvent>> transferEventMap)
-    {
-        for (Map.Entry<String, List<TransferEvent>> entry : transferEventMap.entrySet())
-        {
-            String hashKey = RealmTransfer.databaseKey(chainId, entry.getKey());
-            
-            // Get all existing transfers for this hash
-            RealmResults<RealmTransfer> existingTransfers = instance.where(RealmTransfer.class)
-                    .equalTo("hash", hashKey)
-                    .findAll();
-            
-            // Build set of existing transfer keys to avoid duplicates
-            Set<String> existingTransferKeys = new HashSet<>();
-            for (RealmTransfer existing : existingTransfers)
-            {
-                String key = existing.getTokenAddress() + "_" + existing.getEventName() + "_" + existing.getTransferDetail();
-                existingTransferKeys.add(key);
-            }
-            
-            // Track keys we're writing in this batch to avoid duplicates within the batch
-            Set<String> batchTransferKeys = new HashSet<>();
-
-            //write each event set, but skip duplicates
-            for (TransferEvent thisEvent : entry.getValue())
-            {
-                String transferKey = thisEvent.contractAddress + "_" + thisEvent.activityName + "_" + thisEvent.valueList;
-                
-                // Skip if already exists in database or already added in this batch
-                if (existingTransferKeys.contains(transferKey) || batchTransferKeys.contains(transferKey))
-                {
-                    continue;
-                }
-                
-                batchTransferKeys.add(transferKey);
-                RealmTransfer realmTransfer = instance.createObject(RealmTransfer.class);
-                realmTransfer.setHashKey(chainId, entry.getKey());
-                realmTransfer.setTokenAddress(thisEvent.contractAddress);
-                realmTransfer.setEventName(thisEvent.activityName);
-                realmTransfer.setTransferDetail(thisEvent.valueList);
-            }
-        }
-    }
-
     private void blankTransferData(Realm instance, long chainId)
     {
         instance.executeTransaction(r -> {
@@ -1178,38 +1065,6 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         });
     }
 
-    /**
-     * Write the transaction to Realm
-     *
-     * @param instance Realm
-     * @param tx Transaction formed initially procedurally from the event, then from Ethereum node if we didn't already have it
-     * @param txFetches build list of transactions that need fetching
-     */
-    private void writeTransaction(Realm instance, Transaction tx, String contractAddress, HashSet<String> txFetches)
-    {
-        RealmTransaction realmTx = instance.where(RealmTransaction.class)
-                .equalTo("hash", tx.hash)
-                .findFirst();
-
-        if (realmTx == null)
-        {
-            realmTx = instance.createObject(RealmTransaction.class, tx.hash);
-
-            //fetch the actual transaction here
-            if (txFetches != null) txFetches.add(tx.hash);
-        }
-        else if (realmTx.getContractAddress() == null || !realmTx.getContractAddress().equalsIgnoreCase(contractAddress))
-        {
-            realmTx.setContractAddress(contractAddress);
-        }
-
-        if (realmTx.getInput() == null || realmTx.getInput().length() <= 10 || txFetches == null)
-        {
-            TransactionsRealmCache.fill(realmTx, tx);
-            realmTx.setContractAddress(contractAddress); //for indexing by contract (eg Token Activity)
-        }
-    }
-
     /**
      * This thread will execute in the background filling in transactions.
      * It doesn't have to be cancelled if we switch wallets because these transactions need to be fetched anyway
@@ -1298,6 +1153,21 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
         });
     }
 
+    private void eraseTransactionsExcept(Realm instance, long chainId, List<Transaction> keep)
+    {
+        String[] keepHashes = new String[keep.size()];
+        for (int i = 0; i < keepHashes.length; i++) keepHashes[i] = keep.get(i).hash;
+
+        instance.executeTransaction(r -> {
+            RealmResults<RealmTransaction> realmTx = r.where(RealmTransaction.class)
+                    .equalTo("chainId", chainId)
+                    .not().in("hash", keepHashes)
+                    .findAll();
+
+            realmTx.deleteAllFromRealm();
+        });
+    }
+
     private List<Transaction> sortTransactions(Collection<Transaction> txCollection)
     {
         List<Transaction> txList = new ArrayList<>(txCollection);
@@ -1320,7 +1190,7 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
      * Fetch token transfers from Ramestta v2 API
      * The v2 API uses a different format: /api/v2/addresses/{address}/token-transfers
      */
-    private EtherscanEvent[] fetchRamesttaTokenTransfersV2(String walletAddress, NetworkInfo networkInfo) {
+    private EtherscanEvent[] fetchRamesttaTokenTransfersV2(String walletAddress, NetworkInfo networkInfo) throws IOException {
         List<EtherscanEvent> eventList = new ArrayList<>();
         
         try {
@@ -1337,27 +1207,29 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
                 .build();
             
             try (okhttp3.Response response = httpClient.newCall(request).execute()) {
-                if (response.body() != null && response.code() / 200 == 1) {
-                    String result = response.body().string();
-                    Timber.d("Ramestta v2 token transfers response length: %d", result.length());
-                    
-                    JSONObject jsonResponse = new JSONObject(result);
-                    if (jsonResponse.has("items")) {
-                        JSONArray items = jsonResponse.getJSONArray("items");
-                        Timber.d("Found %d token transfer items", items.length());
-                        
-                        for (int i = 0; i < items.length(); i++) {
-                            JSONObject item = items.getJSONObject(i);
-                            EtherscanEvent event = parseRamesttaV2TokenTransfer(item, networkInfo.chainId);
-                            if (event != null) {
-                                eventList.add(event);
-                            }
+                if (response.body() == null || response.code() / 200 != 1) {
+                    throw new IOException("Ramestta v2 token transfer read failed: " + response.code());
+                }
+
+                String result = response.body().string();
+                Timber.d("Ramestta v2 token transfers response length: %d", result.length());
+
+                JSONObject jsonResponse = new JSONObject(result);
+                if (jsonResponse.has("items")) {
+                    JSONArray items = jsonResponse.getJSONArray("items");
+                    Timber.d("Found %d token transfer items", items.length());
+
+                    for (int i = 0; i < items.length(); i++) {
+                        JSONObject item = items.getJSONObject(i);
+                        EtherscanEvent event = parseRamesttaV2TokenTransfer(item, networkInfo.chainId);
+                        if (event != null) {
+                            eventList.add(event);
                         }
                     }
                 }
             }
-        } catch (Exception e) {
-            Timber.e(e, "Error fetching Ramestta token transfers from v2 API");
+        } catch (JSONException e) {
+            Timber.e(e, "Error parsing Ramestta token transfers from v2 API");
         }
         
         return eventList.toArray(new EtherscanEvent[0]);
@@ -1521,19 +1393,17 @@ public class TransactionsNetworkClient implements TransactionsNetworkClientType
             
             try (okhttp3.Response response = httpClient.newCall(request).execute()) {
                 if (response.body() != null && response.code() / 200 == 1) {
-                    String result = response.body().string();
-                    Timber.d("API Response length: %d", result.length());
-                    
-                    if (result.length() >= 80 && !result.contains("No transactions found")) {
-                        EtherscanTransaction[] txs = getEtherscanTransactions(result);
-                        for (EtherscanTransaction etx : txs) {
-                            Transaction tx = etx.createTransaction(walletAddress, chainId);
-                            if (tx != null) {
-                                transactions.add(tx);
-                            }
-                        }
-                        return true;
-                    }
+                    int count = ExplorerResponseReader.readArray(response.body().charStream(), gson, EtherscanTransaction.class,
+                            ExplorerResponseReader.CHUNK_SIZE, chunk -> {
+                                for (EtherscanTransaction etx : chunk) {
+                                    Transaction tx = etx.createTransaction(walletAddress, chainId);
+                                    if (tx != null) {
+                                        transactions.add(tx);
+                                    }
+                                }
+                            }, "result");
+                    Timber.d("API Response count: %d", count);
+                    return count > 0;
                 }
             }
         } catch (Exception e) {
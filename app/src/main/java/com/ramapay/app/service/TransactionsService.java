@@ -3,7 +3,6 @@ package com.ramapay.app.service;
 import android.text.TextUtils;
 import android.text.format.DateUtils;
 import android.util.LongSparseArray;
-import android.util.Pair;
 
 import androidx.annotation.Nullable;
 
@@ -14,28 +13,28 @@ import com.ramapay.app.entity.TransactionMeta;
 import com.ramapay.app.entity.TransactionType;
 import com.ramapay.app.entity.Wallet;
 import com.ramapay.app.entity.tokens.Token;
-import com.ramapay.app.entity.tokenscript.EventUtils;
-import com.ramapay.app.entity.transactionAPI.TransferFetchType;
 import com.ramapay.app.entity.transactions.TransferEvent;
+import com.ramapay.app.repository.EthereumNetworkBase;
 import com.ramapay.app.repository.EthereumNetworkRepositoryType;
 import com.ramapay.app.repository.TokenRepository;
+import com.ramapay.app.repository.TransactionHashResolver;
 import com.ramapay.app.repository.TransactionLocalSource;
 import com.ramapay.app.util.Utils;
 import com.ramapay.token.entity.ContractAddress;
 
-import org.web3j.exceptions.MessageDecodingException;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.response.EthBlock;
-import org.web3j.protocol.core.methods.response.EthTransaction;
 import org.web3j.utils.Numeric;
 
-import java.io.IOException;
 import java.math.BigInteger;
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -58,19 +57,21 @@ public class TransactionsService
     private final TransactionsNetworkClientType transactionsClient;
     private final TransactionNotificationService transactionNotificationService;
     private final TransactionLocalSource transactionsCache;
-    private int currentChainIndex;
-    private boolean firstCycle;
     private boolean firstTxCycle;
     private final LongSparseArray<Long> chainTransferCheckTimes = new LongSparseArray<>(); //TODO: Use this to coordinate token checks on chains
     private final LongSparseArray<Long> chainTransactionCheckTimes = new LongSparseArray<>();
     private static final LongSparseArray<CurrentBlockTime> currentBlocks = new LongSparseArray<>();
     private static final ConcurrentLinkedQueue<String> requiredTransactions = new ConcurrentLinkedQueue<>();
-    private final LongSparseArray<TransferFetchType> apiFetchProgress = new LongSparseArray<>();
+    private final ChainSyncScheduler syncScheduler = new ChainSyncScheduler();
+    private final Map<Long, Disposable> transferReads = new ConcurrentHashMap<>();
+    private final TransactionHashResolver hashResolver = new TransactionHashResolver(TokenRepository::getWeb3jService, EthereumNetworkBase.getBatchController());
 
     private final static int TRANSACTION_DROPPED = -1;
     private final static int TRANSACTION_SEEN = -2;
     private final static long START_CHECK_DELAY = 3;
     private final static long CHECK_CYCLE = 15;
+    private final static long TRANSFER_SYNC_TICK = 2;
+    private final static int RESOLVE_CONCURRENCY = 4;
     @Nullable
     private Disposable fetchTransactionDisposable;
     @Nullable
@@ -78,8 +79,6 @@ public class TransactionsService
     @Nullable
     private Disposable tokenTransferCheckCycle;
     @Nullable
-    private Disposable eventFetch;
-    @Nullable
     private Disposable pendingTransactionCheckCycle;
     @Nullable
     private Disposable transactionResolve;
@@ -108,8 +107,6 @@ public class TransactionsService
     {
         if (TextUtils.isEmpty(tokensService.getCurrentAddress())) return;
 
-        currentChainIndex = 0;
-        firstCycle = true;
         firstTxCycle = true;
 
         transactionsClient.checkRequiresAuxReset(tokensService.getCurrentAddress());
@@ -142,8 +139,7 @@ public class TransactionsService
     {
         if (tokenTransferCheckCycle != null && !tokenTransferCheckCycle.isDisposed()) tokenTransferCheckCycle.dispose();
 
-        tokenTransferCheckCycle = Observable.interval(firstCycle ? START_CHECK_DELAY : (START_CHECK_DELAY * 15) + 1,
-                        firstCycle ? CHECK_CYCLE / 3 : CHECK_CYCLE, TimeUnit.SECONDS)
+        tokenTransferCheckCycle = Observable.interval(START_CHECK_DELAY, TRANSFER_SYNC_TICK, TimeUnit.SECONDS)
                 .doOnNext(l -> checkTransfers()).subscribe();
     }
 
@@ -167,7 +163,6 @@ public class TransactionsService
         chainTransferCheckTimes.clear();
         chainTransactionCheckTimes.clear();
         tokensService.startUpdateCycle();
-        apiFetchProgress.clear();
 
         if (transactionCheckCycle == null || transactionCheckCycle.isDisposed())
         {
@@ -177,110 +172,99 @@ public class TransactionsService
 
     /**
      * This uses the Etherscan API routes returning ERC20 and ERC721 token transfers, both incoming and outgoing.
+     * Chains due a read are chosen by the sync scheduler; several chains can be read at once.
      */
     private void checkTransfers()
     {
         List<Long> filters = tokensService.getNetworkFilters();
-        if (tokensService.getCurrentAddress() == null || filters.size() == 0 ||
-                (BuildConfig.DEBUG && eventFetch != null)) //don't allow multiple calls while debugging
+        if (tokensService.getCurrentAddress() == null || filters.size() == 0)
         {
             return; //skip check if the service isn't set up
         }
 
-        long chainId = filters.get(currentChainIndex);
-        boolean initiateRead = readTokenMoves(chainId); //check NFTs for same chain on next iteration or advance to next chain
-
-        if (initiateRead)
-        {
-            currentChainIndex = getNextChainIndex(currentChainIndex, chainId, filters);
-        }
-    }
-
-    private int getNextChainIndex(int currentIndex, long chainId, List<Long> filters)
-    {
-        final NetworkInfo info = ethereumNetworkRepository.getNetworkByChain(chainId);
-        if (filters.size() == 0 || info == null) return 0;
-        TransferFetchType[] availableTxTypes = info.getTransferQueriesUsed();
-
-        TransferFetchType tfType = apiFetchProgress.get(chainId, TransferFetchType.ERC_20);
-
-        if (tfType.ordinal() >= availableTxTypes.length) //available API routes may be zero if unsupported (eg custom network)
+        long now = System.currentTimeMillis();
+        for (long chainId : filters)
         {
-            apiFetchProgress.put(chainId, TransferFetchType.ERC_20); // completed reads from this chain, reset to start
-            currentIndex++;
-        }
-        else
-        {
-            apiFetchProgress.put(chainId, TransferFetchType.values()[tfType.ordinal() + 1]);
+            NetworkInfo info = ethereumNetworkRepository.getNetworkByChain(chainId);
+            if (info != null) syncScheduler.setChain(chainId, info.etherscanAPI, info.getTransferQueriesUsed().length, now);
         }
 
-        if (currentIndex >= filters.size())
+        for (long chainId : syncScheduler.nextSyncs(filters, now))
         {
-            currentIndex = 0;
-            firstCycle = false;
+            readTokenMoves(chainId);
         }
-
-        return currentIndex;
     }
 
     /**
      * Sets up the next check to be on the chain that we just detected a transaction on if the transaction appeared to be a token move
      * @param chainId
-     * @param isNft
      */
-    private void setNextTransferCheck(long chainId, boolean isNft)
+    private void setNextTransferCheck(long chainId)
     {
-        List<Long> filters = tokensService.getNetworkFilters();
-        if (filters.contains(chainId))
-        {
-            currentChainIndex = filters.indexOf(chainId);
-            TransferFetchType nftSelection = ethereumNetworkRepository.getNetworkByChain(chainId).getTransferQueriesUsed().length > 1 ? TransferFetchType.ERC_721 : TransferFetchType.ERC_20;
-            apiFetchProgress.put(chainId, isNft ? nftSelection : TransferFetchType.ERC_20);
-        }
+        syncScheduler.noteActivity(chainId, System.currentTimeMillis());
     }
 
-    private boolean readTokenMoves(long chainId)
+    /**
+     * Read all the transfer routes used by the chain's explorer, one after the other
+     */
+    private void readTokenMoves(long chainId)
     {
-        //check if this route has combined NFT
         final NetworkInfo info = ethereumNetworkRepository.getNetworkByChain(chainId);
-        if (info == null || info.getTransferQueriesUsed().length == 0)
-        {
-            return true;
-        }
+        final String walletAddress = tokensService.getCurrentAddress();
+        tokensService.checkingChain(chainId);
 
-        if (eventFetch != null && !eventFetch.isDisposed())
+        Timber.tag(TAG).d("Check transfers: %s", chainId);
+        transferReads.put(chainId, Observable.fromArray(info.getTransferQueriesUsed())
+                .concatMapSingle(tfType -> transactionsClient.readTransfers(walletAddress, info, tokensService, tfType))
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .doOnNext(tfMap -> checkForIncomingTransfers(chainId, tfMap))
+                .reduce(false, (found, tfMap) -> found || hasTransfers(tfMap))
+                .subscribe(found -> handleMoveCheck(chainId, found), e -> gotReadErr(chainId, e)));
+    }
+
+    private void gotReadErr(long chainId, Throwable e)
+    {
+        transferReads.remove(chainId);
+        tokensService.checkedChain(chainId);
+        if (e instanceof ExplorerResponseReader.RateLimitedException)
         {
-            return false;
+            syncScheduler.syncRateLimited(chainId, System.currentTimeMillis());
         }
-
-        TransferFetchType tfType = apiFetchProgress.get(chainId, TransferFetchType.ERC_20);
-        if (tfType.ordinal() > 0)
+        else
         {
-            tokensService.checkingChain(chainId);
+            syncScheduler.syncFailed(chainId, System.currentTimeMillis());
         }
+        Timber.e(e);
+    }
 
-        Timber.tag(TAG).d("Check transfers: %s : NFT=%s", chainId, tfType.getValue());
-        eventFetch = transactionsClient.readTransfers(tokensService.getCurrentAddress(), info, tokensService, tfType)
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(tfMap -> handleMoveCheck(info.chainId, tfType.ordinal() > 0, tfMap), this::gotReadErr);
+    private void handleMoveCheck(long chainId, boolean foundTransfers)
+    {
+        long now = System.currentTimeMillis();
+        chainTransferCheckTimes.put(chainId, now);
+        transferReads.remove(chainId);
+        tokensService.checkedChain(chainId); //this flags to TokensService that the check is complete. This avoids race condition
+        syncScheduler.syncComplete(chainId, foundTransfers, now);
 
-        return true;
+        if (BuildConfig.DEBUG) Timber.tag(TAG).d(syncScheduler.lagReport(now));
     }
 
-    private void gotReadErr(Throwable e)
+    private boolean hasTransfers(Map<String, List<TransferEvent>> tfMap)
     {
-        eventFetch = null;
-        Timber.e(e);
+        for (List<TransferEvent> events : tfMap.values())
+        {
+            if (!events.isEmpty()) return true;
+        }
+
+        return false;
     }
 
-    private void handleMoveCheck(long chainId, boolean isNFT, Map<String, List<TransferEvent>> tfMap)
+    /**
+     * @return ms since each chain's token transfers were last read in full
+     */
+    public Map<Long, Long> getTransferSyncLags()
     {
-        chainTransferCheckTimes.put(chainId, System.currentTimeMillis());
-        if (isNFT) tokensService.checkingChain(0); //this flags to TokensService that the check is complete. This avoids race condition
-        eventFetch = null;
-
-        checkForIncomingTransfers(chainId, tfMap);
+        return syncScheduler.getSyncLags(System.currentTimeMillis());
     }
 
     private void checkForIncomingTransfers(long chainId, Map<String, List<TransferEvent>> tfMap)
@@ -459,6 +443,7 @@ public class TransactionsService
         //got a new transaction
         fetchTransactionDisposable = null;
         if (transactions.length == 0) return;
+        syncScheduler.noteActivity(token.tokenInfo.chainId, System.currentTimeMillis());
 
         Timber.tag(TAG).d("Queried for %s : %s Network transactions", token.tokenInfo.name, transactions.length);
 
@@ -537,18 +522,17 @@ public class TransactionsService
         if (transactionCheckCycle != null && !transactionCheckCycle.isDisposed()) { transactionCheckCycle.dispose(); }
         if (pendingTransactionCheckCycle != null && !pendingTransactionCheckCycle.isDisposed()) { pendingTransactionCheckCycle.dispose(); }
         if (tokenTransferCheckCycle != null && !tokenTransferCheckCycle.isDisposed()) { tokenTransferCheckCycle.dispose(); }
-        if (eventFetch != null && !eventFetch.isDisposed()) { eventFetch.dispose(); }
+        for (Disposable d : transferReads.values()) { if (!d.isDisposed()) d.dispose(); }
 
         fetchTransactionDisposable = null;
         transactionCheckCycle = null;
         pendingTransactionCheckCycle = null;
         tokenTransferCheckCycle = null;
-        eventFetch = null;
+        transferReads.clear();
         tokensService.checkingChain(0);
         chainTransferCheckTimes.clear();
         chainTransactionCheckTimes.clear();
-
-        currentChainIndex = 0;
+        syncScheduler.clear();
     }
 
     public static void addTransactionHashFetch(String txHash, long chainId, String wallet)
@@ -565,101 +549,67 @@ public class TransactionsService
         return txHash + "-" + chainId + "-" + wallet;
     }
 
+    /**
+     * Drain the queue of hashes to fetch, and resolve them a chain at a time with batched node calls
+     */
     private void checkTransactionFetchQueue()
     {
-        String txHashData = getNextUncachedTx();
-
-        if (txHashData != null)
+        Map<String, List<String>> fetches = new HashMap<>(); //chainId-wallet to hashes
+        String txHashData;
+        while ((txHashData = requiredTransactions.poll()) != null)
         {
             String[] txData = txHashData.split("-");
-            if (txData.length != 3) return;
-            final String txHash = txData[0];
-            long chainId = Long.parseLong(txData[1]);
-            final String wallet = txData[2].toLowerCase();
-
-            Timber.d("Transaction Queue: fetch tx: %s", requiredTransactions.size());
-            transactionResolve = doTransactionFetch(txHash, chainId)
-                    .map(tx -> storeTransactionIfValid(tx, wallet))
-                    .delay(1, TimeUnit.SECONDS)
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(Schedulers.io())
-                    .subscribe(tx -> checkTransactionFetchQueue(), Timber::w);
-        }
-        else
-        {
-            transactionResolve = null;
+            if (txData.length != 3) continue;
+            String group = txData[1] + "-" + txData[2].toLowerCase();
+            List<String> hashes = fetches.get(group);
+            if (hashes == null)
+            {
+                hashes = new ArrayList<>();
+                fetches.put(group, hashes);
+            }
+            hashes.add(txData[0]);
         }
-    }
 
-    private String storeTransactionIfValid(Transaction transaction, String wallet)
-    {
-        if (!TextUtils.isEmpty(transaction.blockNumber))
+        if (fetches.isEmpty())
         {
-            transactionsCache.putTransaction(new Wallet(wallet), transaction);
+            transactionResolve = null;
+            return;
         }
 
-        return transaction.blockNumber;
-    }
-
-    private Single<Transaction> doTransactionFetch(final String txHash, final long chainId)
-    {
-        final Web3j web3j = TokenRepository.getWeb3jService(chainId);
-        return EventUtils.getTransactionDetails(txHash, web3j)
-                .map(this::getBlockNumber)
-                .flatMap(blockData -> joinBlockTimestamp(blockData, web3j))
-                .map(blockData -> formTransaction(blockData, chainId))
+        Timber.d("Transaction Queue: fetch tx: %s chains", fetches.size());
+        transactionResolve = Observable.fromIterable(fetches.entrySet())
+                .flatMap(entry -> resolveTransactions(entry.getKey(), entry.getValue())
+                        .subscribeOn(Schedulers.io())
+                        .toObservable(), RESOLVE_CONCURRENCY)
                 .subscribeOn(Schedulers.io())
-                .observeOn(Schedulers.io());
-    }
-
-    private Pair<EthTransaction, BigInteger> getBlockNumber(EthTransaction etx)
-    {
-        org.web3j.protocol.core.methods.response.Transaction fetchedTx = etx.getResult(); //try to read the transaction data
-        //if transaction is complete; record it here
-        BigInteger blockNumber;
-        try
-        {
-            blockNumber = fetchedTx.getBlockNumber();
-        }
-        catch (MessageDecodingException e)
-        {
-            blockNumber = BigInteger.valueOf(-1);
-        }
-
-        return new Pair<>(etx, blockNumber);
-    }
-
-    private Single<Pair<EthTransaction, Long>> joinBlockTimestamp(Pair<EthTransaction, BigInteger> txData, Web3j web3j)
-    {
-        if (txData.second.compareTo(BigInteger.ZERO) > 0)
-        {
-            return EventUtils.getBlockDetails(txData.first.getResult().getBlockHash(), web3j)
-                        .map(blockReceipt -> new Pair<>(txData.first, blockReceipt.getBlock().getTimestamp().longValue()));
-        }
-        else
-        {
-            return Single.fromCallable(() -> new Pair<>(txData.first, 0L));
-        }
+                .observeOn(Schedulers.io())
+                .subscribe(count -> { }, Timber::w, () -> transactionResolve = null);
     }
 
-    private Transaction formTransaction(Pair<EthTransaction, Long> txData, long chainId) throws IOException
+    private Single<Integer> resolveTransactions(String group, List<String> hashes)
     {
-        if (txData.second > 0L)
-        {
-            return new Transaction(txData.first.getResult(), chainId,
-                    checkTransactionReceipt(txData.first.getResult().getHash(), chainId), txData.second);
-        }
-        else
-        {
-            return new Transaction(); // blank Tx
-        }
+        return Single.fromCallable(() -> {
+            String[] groupData = group.split("-");
+            long chainId = Long.parseLong(groupData[0]);
+            Wallet wallet = new Wallet(groupData[1]);
+
+            hashes.removeAll(transactionsCache.fetchKnownHashes(wallet, hashes));
+            if (hashes.isEmpty()) return 0;
+
+            TransactionHashResolver.Result result = hashResolver.resolve(chainId, hashes);
+            transactionsCache.putTransactions(wallet, result.mined);
+            return result.mined.size();
+        }).onErrorReturn(e -> {
+            Timber.w(e); //don't hold up the other chains
+            return 0;
+        });
     }
 
-
     public void markPending(Transaction tx)
     {
         Timber.tag(TAG).d("Marked Pending Tx Chain: %s", tx.chainId);
         tokensService.markChainPending(tx.chainId);
+        syncScheduler.setPendingChain(tx.chainId);
     }
 
     public static BigInteger getCurrentBlock(long chainId)
@@ -680,37 +630,53 @@ public class TransactionsService
         final String currentWallet = tokensService.getCurrentAddress();
         Transaction[] pendingTxs = fetchPendingTransactions();
         Timber.tag(TAG).d("Checking %s Transactions", pendingTxs.length);
+        Map<Long, List<Transaction>> chainPending = new HashMap<>();
         for (final Transaction tx : pendingTxs)
         {
-            doTransactionFetch(tx.hash, tx.chainId)
-                    .map(fetchedTx -> storeTransactionIfValid(fetchedTx, currentWallet))
+            List<Transaction> txList = chainPending.get(tx.chainId);
+            if (txList == null)
+            {
+                txList = new ArrayList<>();
+                chainPending.put(tx.chainId, txList);
+            }
+            txList.add(tx);
+        }
+
+        for (Map.Entry<Long, List<Transaction>> entry : chainPending.entrySet())
+        {
+            List<String> hashes = new ArrayList<>();
+            for (Transaction tx : entry.getValue()) hashes.add(tx.hash);
+
+            Single.fromCallable(() -> hashResolver.resolve(entry.getKey(), hashes))
+                    .map(result -> {
+                        transactionsCache.putTransactions(new Wallet(currentWallet), result.mined);
+                        return result;
+                    })
                     .subscribeOn(Schedulers.io())
                     .observeOn(Schedulers.io())
-                    .subscribe(bNumber -> {
-                        if (TextUtils.isEmpty(bNumber) && !tx.blockNumber.equals(String.valueOf(TRANSACTION_SEEN)))
+                    .subscribe(result -> {
+                        for (Transaction tx : entry.getValue())
                         {
-                            //detected the tx in the pool, mark as seen
-                            transactionsCache.markTransactionBlock(currentWallet, tx.hash, TRANSACTION_SEEN);
-                            triggerTokenMoveCheck(tx);
+                            if (result.pending.contains(tx.hash) && !tx.blockNumber.equals(String.valueOf(TRANSACTION_SEEN)))
+                            {
+                                //detected the tx in the pool, mark as seen
+                                transactionsCache.markTransactionBlock(currentWallet, tx.hash, TRANSACTION_SEEN);
+                                triggerTokenMoveCheck(tx);
+                            }
                         }
                     }, Timber::w).isDisposed();
         }
-    }
 
-    public Single<Transaction> fetchTransaction(String currentAddress, long chainId, String hash)
-    {
-        return doTransactionFetch(hash, chainId)
-                .map(fetchedTx -> {
-                    transactionsCache.putTransaction(new Wallet(currentAddress), fetchedTx);
-                    return fetchedTx;
-                });
+        syncScheduler.setPendingChains(chainPending.keySet());
     }
 
-    private boolean checkTransactionReceipt(String txHash, long chainId) throws IOException
+    public Single<Transaction> fetchTransaction(String currentAddress, long chainId, String hash)
     {
-        final Web3j web3j = TokenRepository.getWeb3jService(chainId);
-        return web3j.ethGetTransactionReceipt(txHash)
-                .send().getResult().isStatusOK();
+        return Single.fromCallable(() -> {
+            TransactionHashResolver.Result result = hashResolver.resolve(chainId, Collections.singletonList(hash));
+            transactionsCache.putTransactions(new Wallet(currentAddress), result.mined);
+            return result.mined.isEmpty() ? new Transaction() : result.mined.get(0);
+        }).subscribeOn(Schedulers.io());
     }
 
     private void triggerTokenMoveCheck(Transaction transaction)
@@ -731,7 +697,7 @@ public class TransactionsService
                 case SEND:
                     Timber.tag(TAG).d("Trigger check for %s", t.getFullName());
                     //setup next check to be for this chain
-                    setNextTransferCheck(transaction.chainId, t.isNonFungible());
+                    setNextTransferCheck(transaction.chainId);
                 default:
                     break;
             }
@@ -758,27 +724,6 @@ public class TransactionsService
         return transactionsCache.deleteAllTickers();
     }
 
-    private String getNextUncachedTx()
-    {
-        String txHashData = requiredTransactions.poll();
-        while (txHashData != null)
-        {
-            String[] txData = txHashData.split("-");
-            if (txData.length != 3) continue;
-            Transaction check = transactionsCache.fetchTransaction(new Wallet(txData[2].toLowerCase()), txData[0]);
-            if (check == null)
-            {
-                break;
-            }
-            else
-            {
-                txHashData = requiredTransactions.poll();
-            }
-        }
-
-        return txHashData;
-    }
-
     private static class CurrentBlockTime
     {
         public final long readTime;
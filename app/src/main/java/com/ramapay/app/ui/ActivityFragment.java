@@ -27,26 +27,20 @@ import com.ramapay.app.R;
 import com.ramapay.app.analytics.Analytics;
 import com.ramapay.app.entity.ActivityMeta;
 import com.ramapay.app.entity.ContractLocator;
-import com.ramapay.app.entity.TransactionMeta;
 import com.ramapay.app.entity.Wallet;
 import com.ramapay.app.interact.ActivityDataInteract;
-import com.ramapay.app.repository.entity.RealmTransaction;
-import com.ramapay.app.repository.entity.RealmTransfer;
+import com.ramapay.app.repository.RealmActivitySource;
 import com.ramapay.app.ui.widget.adapter.ActivityAdapter;
-import com.ramapay.app.ui.widget.entity.TokenTransferData;
+import com.ramapay.app.ui.widget.adapter.ActivityWindow;
 import com.ramapay.app.util.LocaleUtils;
 import com.ramapay.app.viewmodel.ActivityViewModel;
 import com.ramapay.app.widget.EmptyTransactionsView;
 import com.ramapay.app.widget.SystemView;
 
-import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 import dagger.hilt.android.AndroidEntryPoint;
 import io.realm.Realm;
-import io.realm.RealmResults;
 import timber.log.Timber;
 
 /**
@@ -61,11 +55,11 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
     private ActivityAdapter adapter;
     private RecyclerView listView;
     private SwipeRefreshLayout refreshLayout;
-    private RealmResults<RealmTransaction> realmUpdates;
     private boolean checkTimer;
     private Realm realm;
-    private long lastUpdateTime = 0;
     private boolean isVisible = false;
+    private boolean activityChanged = false;
+    private String windowWallet; //wallet the activity window is reading
     private boolean isNetworkAvailable = true;
     private ConnectivityManager connectivityManager;
     private View networkStatusBanner;
@@ -175,126 +169,53 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
 
     private void onItemsLoaded(ActivityMeta[] activityItems)
     {
-        // Stop the refresh indicator
+        //older transactions have been fetched and stored; the activity window's cursors pick them up
         if (refreshLayout != null && refreshLayout.isRefreshing())
         {
             refreshLayout.setRefreshing(false);
         }
-        
-        try (Realm realm = viewModel.getRealmInstance())
-        {
-            adapter.updateActivityItems(buildTransactionList(realm, activityItems).toArray(new ActivityMeta[0]));
-            showEmptyTx();
-
-            for (ActivityMeta am : activityItems)
-            {
-                if (am instanceof TransactionMeta && am.getTimeStampSeconds() > lastUpdateTime)
-                    lastUpdateTime = am.getTimeStampSeconds() - 60;
-            }
-        }
 
-        if (isVisible) startTxListener();
+        showEmptyTx();
     }
 
-    private void startTxListener()
+    private void openActivityWindow(Wallet wallet)
     {
-        if (viewModel.defaultWallet().getValue() == null) return;
-        if (realm == null || realm.isClosed()) realm = viewModel.getRealmInstance();
-        if (realmUpdates != null) realmUpdates.removeAllChangeListeners();
-        if (viewModel == null || viewModel.defaultWallet().getValue() == null || TextUtils.isEmpty(viewModel.defaultWallet().getValue().address))
-            return;
-
-        realmUpdates = realm.where(RealmTransaction.class).greaterThan("timeStamp", lastUpdateTime).findAllAsync();
-        realmUpdates.addChangeListener(realmTransactions -> {
-            List<TransactionMeta> metas = new ArrayList<>();
-            //make list
-            if (realmTransactions.size() == 0) return;
-            for (RealmTransaction item : realmTransactions)
-            {
-                if (viewModel.getTokensService().getNetworkFilters().contains(item.getChainId()))
-                {
-                    TransactionMeta newMeta = new TransactionMeta(item.getHash(), item.getTimeStamp(), item.getTo(), item.getChainId(), item.getBlockNumber());
-                    metas.add(newMeta);
-                    lastUpdateTime = newMeta.getTimeStampSeconds() + 1;
-                }
-            }
-
-            if (metas.size() > 0)
-            {
-                TransactionMeta[] metaArray = metas.toArray(new TransactionMeta[0]);
-                adapter.updateActivityItems(buildTransactionList(realm, metaArray).toArray(new ActivityMeta[0]));
-                systemView.hide();
-            }
-        });
-    }
+        if (wallet == null || TextUtils.isEmpty(wallet.address)) return;
+        if (wallet.address.equalsIgnoreCase(windowWallet))
+        {
+            adapter.reloadActivityWindow();
+        }
+        else
+        {
+            adapter.setActivityWindow(null); //release the cursors before closing their Realm
+            if (realm != null && !realm.isClosed()) realm.close();
+            realm = viewModel.getRealmInstance();
+
+            RealmActivitySource source = new RealmActivitySource(realm, viewModel.getTokensService().getNetworkFilters());
+            source.setChangeListener(this::onActivityChanged);
+            adapter.setActivityWindow(new ActivityWindow(source));
+            windowWallet = wallet.address;
+        }
 
-    private List<ActivityMeta> buildTransactionList(Realm realm, ActivityMeta[] activityItems)
-    {
-        //selectively filter the items with the following rules:
-        // - allow through all normal transactions with no token transfer consequences
-        // - for any transaction with token transfers; if there's only one token transfer, only show the transfer
-        // - for any transaction with more than one token transfer, show the transaction and show the child transfer consequences
-        List<ActivityMeta> filteredList = new ArrayList<>();
-        Set<String> seenTransfers = new HashSet<>(); // Track seen transfers to avoid duplicates
-
-        for (ActivityMeta am : activityItems)
+        if (refreshLayout != null && refreshLayout.isRefreshing())
         {
-            if (am instanceof TransactionMeta)
-            {
-                List<TokenTransferData> tokenTransfers = getTokenTransfersForHash(realm, (TransactionMeta) am);
-                if (tokenTransfers.size() != 1)
-                {
-                    filteredList.add(am);
-                } //only 1 token transfer ? No need to show the underlying transaction
-                
-                // Add transfers but skip duplicates
-                for (TokenTransferData ttd : tokenTransfers)
-                {
-                    // Use hash + tokenAddress + eventName + transferDetail for unique identification
-                    String transferKey = ttd.hash + "_" + ttd.tokenAddress + "_" + ttd.eventName + "_" + ttd.transferDetail;
-                    if (!seenTransfers.contains(transferKey))
-                    {
-                        seenTransfers.add(transferKey);
-                        filteredList.add(ttd);
-                    }
-                }
-            }
+            refreshLayout.setRefreshing(false);
         }
 
-        return filteredList;
+        showEmptyTx();
     }
 
-    private List<TokenTransferData> getTokenTransfersForHash(Realm realm, TransactionMeta tm)
+    private void onActivityChanged()
     {
-        List<TokenTransferData> transferData = new ArrayList<>();
-        Set<String> seenTransferKeys = new HashSet<>(); // Deduplicate at database level
-        
-        //summon realm items
-        //get matching entries for this transaction
-        RealmResults<RealmTransfer> transfers = realm.where(RealmTransfer.class)
-                .equalTo("hash", RealmTransfer.databaseKey(tm.chainId, tm.hash))
-                .findAll();
-
-        if (transfers != null && transfers.size() > 0)
+        if (isVisible)
         {
-            //list of transfers, descending in time to give ordered list
-            long nextTransferTime = transfers.size() == 1 ? tm.getTimeStamp() : tm.getTimeStamp() - 1; // if there's only 1 transfer, keep the transaction timestamp
-            for (RealmTransfer rt : transfers)
-            {
-                // Create unique key for this transfer
-                String transferKey = rt.getTokenAddress() + "_" + rt.getEventName() + "_" + rt.getTransferDetail();
-                if (!seenTransferKeys.contains(transferKey))
-                {
-                    seenTransferKeys.add(transferKey);
-                    TokenTransferData ttd = new TokenTransferData(rt.getHash(), tm.chainId,
-                            rt.getTokenAddress(), rt.getEventName(), rt.getTransferDetail(), nextTransferTime);
-                    transferData.add(ttd);
-                    nextTransferTime--;
-                }
-            }
+            adapter.reloadActivityWindow();
+            showEmptyTx();
+        }
+        else
+        {
+            activityChanged = true; //reload when the page is shown again
         }
-
-        return transferData;
     }
 
     private void initViews(View view)
@@ -323,6 +244,7 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
     private void onDefaultWallet(Wallet wallet)
     {
         adapter.setDefaultWallet(wallet);
+        openActivityWindow(wallet);
     }
 
     private void showEmptyTx()
@@ -350,8 +272,7 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
             return;
         }
         
-        //clear tx list and reload
-        adapter.clear();
+        //the activity window follows the database, so the list updates as the fetched transactions are stored
         // Force fetch latest transactions from API first, then prepare
         viewModel.forceRefreshFromApi();
     }
@@ -363,6 +284,7 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
         {
             //wallet changed, reset
             adapter.clear();
+            windowWallet = null;
             viewModel.prepare();
         }
         else
@@ -381,10 +303,9 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
     public void onDestroy()
     {
         super.onDestroy();
-        if (realmUpdates != null) realmUpdates.removeAllChangeListeners();
-        if (realm != null && !realm.isClosed()) realm.close();
         if (viewModel != null) viewModel.onDestroy();
         if (adapter != null && listView != null) adapter.onDestroy(listView);
+        if (realm != null && !realm.isClosed()) realm.close();
         
         // Unregister network callback
         try {
@@ -436,17 +357,18 @@ public class ActivityFragment extends BaseFragment implements View.OnClickListen
     public void comeIntoFocus()
     {
         isVisible = true;
-        //start listener
-        startTxListener(); //adjust for timestamp delay
+        if (activityChanged && adapter != null)
+        {
+            activityChanged = false;
+            adapter.reloadActivityWindow();
+            showEmptyTx();
+        }
     }
 
     @Override
     public void leaveFocus()
     {
         isVisible = false;
-        //stop listener
-        if (realmUpdates != null) realmUpdates.removeAllChangeListeners();
-        if (realm != null && !realm.isClosed()) realm.close();
     }
 
     @Override
@@ -95,6 +95,7 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
     private int itemLimit = 0;
     private int lastItemPos = 0;
     private boolean pendingReset = false;
+    private ActivityWindow window; //when set, rows are read from the window instead of the sorted list
 
     public ActivityAdapter(TokensService service, FetchTransactionsInteract fetchTransactionsInteract,
                            AssetDefinitionService svs, ActivityDataInteract dataInteract) {
@@ -137,11 +138,24 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
     {
         Bundle addition = new Bundle();
         addition.putString(TransactionHolder.DEFAULT_ADDRESS_ADDITIONAL, wallet.address);
-        holder.bind(items.get(position).value, addition);
+        holder.bind(getItem(position).value, addition);
         if (itemLimit > 0)
         {
             holder.setFromTokenView();
         }
+        else if (window != null)
+        {
+            if (window.needsNextPage(position))
+            {
+                handler.post(loadNextPage); //can't change the item count while binding
+            }
+            else if (position > lastItemPos && position > window.size() - 5 && dataInteract != null && System.currentTimeMillis() > fetchData)
+            {
+                //all stored activity is showing, look for older transactions
+                fetchData = System.currentTimeMillis() + 2500;
+                handler.post(checkData);
+            }
+        }
         else if (position > lastItemPos && dataInteract != null && System.currentTimeMillis() > fetchData && position > items.size() - 5)
         {
             fetchData = System.currentTimeMillis() + 2500;
@@ -167,7 +181,20 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
         if (dataInteract != null) dataInteract.fetchMoreData(earliestDate);
     }
 
+    private final Runnable loadNextPage = () -> {
+        if (window == null) return;
+        int start = window.size();
+        int added = window.loadNextPage();
+        if (added > 0) notifyItemRangeInserted(start, added);
+    };
+
     private final Runnable checkData = () -> {
+        if (window != null)
+        {
+            fetchData(window.getEarliestTime() * 1000);
+            return;
+        }
+
         //get final position time
         if (items.size() > 0)
         {
@@ -185,12 +212,41 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
 
     @Override
     public int getItemCount() {
-        return items.size();
+        return window != null ? window.size() : items.size();
     }
 
     @Override
     public int getItemViewType(int position) {
-        return items.get(position).viewType;
+        return getItem(position).viewType;
+    }
+
+    private SortedItem<?> getItem(int position)
+    {
+        return window != null ? window.get(position) : items.get(position);
+    }
+
+    /**
+     * Show rows from the window, which reads them from its source as the list is scrolled
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void setActivityWindow(ActivityWindow activityWindow)
+    {
+        if (window != null) window.close();
+        window = activityWindow;
+        items.clear();
+        if (window != null && window.size() == 0) window.loadNextPage();
+        notifyDataSetChanged();
+    }
+
+    /**
+     * The window's source changed; re-read the rows showing
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    public void reloadActivityWindow()
+    {
+        if (window == null) return;
+        window.reload();
+        notifyDataSetChanged();
     }
 
     public void setDefaultWallet(Wallet wallet) {
@@ -201,7 +257,7 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
     @Override
     public long getItemId(int position)
     {
-        Object obj = items.get(position);
+        Object obj = getItem(position);
         if (obj instanceof TransactionSortedItem)
         {
             TransactionMeta tm = ((TransactionSortedItem) obj).value;
@@ -265,6 +321,11 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
 
     public void clear() {
         items.clear();
+        if (window != null)
+        {
+            window.close();
+            window = null;
+        }
         notifyDataSetChanged();
     }
 
@@ -301,6 +362,13 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
 
     public void updateItems(List<ContractLocator> tokenContracts)
     {
+        if (window != null)
+        {
+            //only the rows on screen are bound; rebind them rather than reading the whole window
+            notifyItemRangeChanged(0, window.size());
+            return;
+        }
+
         //find items ssd
         for (int i = 0; i < items.size(); i++)
         {
@@ -351,6 +419,7 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
 
     public boolean isEmpty()
     {
+        if (window != null) return window.size() == 0;
         for (int i = 0; i < items.size(); i++)
         {
             Object item = items.get(i).value;
@@ -407,6 +476,8 @@ public class ActivityAdapter extends RecyclerView.Adapter<BinderViewHolder<?>> i
 
     public void onDestroy(RecyclerView recyclerView)
     {
+        if (window != null) window.close();
+
         //ensure all holders have their realm listeners cleaned up
         for (int childCount = recyclerView.getChildCount(), i = 0; i < childCount; ++i)
         {
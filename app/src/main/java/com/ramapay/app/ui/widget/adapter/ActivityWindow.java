@@ -0,0 +1,240 @@
+package com.ramapay.app.ui.widget.adapter;
+
+import com.ramapay.app.entity.ActivityMeta;
+import com.ramapay.app.entity.ActivitySource;
+import com.ramapay.app.entity.EventMeta;
+import com.ramapay.app.entity.TransactionMeta;
+import com.ramapay.app.ui.widget.entity.DateSortedItem;
+import com.ramapay.app.ui.widget.entity.EventSortedItem;
+import com.ramapay.app.ui.widget.entity.SortedItem;
+import com.ramapay.app.ui.widget.entity.TimestampSortedItem;
+import com.ramapay.app.ui.widget.entity.TokenTransferData;
+import com.ramapay.app.ui.widget.entity.TransactionSortedItem;
+import com.ramapay.app.ui.widget.entity.TransferSortedItem;
+import com.ramapay.app.ui.widget.holder.EventHolder;
+import com.ramapay.app.ui.widget.holder.TransactionHolder;
+import com.ramapay.app.ui.widget.holder.TransferHolder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Activity list rows built a page at a time from an ActivitySource.
+ *
+ * A page is PAGE_SIZE entries from the merged transaction and event cursors, expanded into list rows: transactions,
+ * their token transfers, event cards and date headers. Only the most recently used pages are held; for the other
+ * pages read so far just their cursor positions and row range are kept, and they are rebuilt if scrolled back to.
+ * Memory use therefore stays flat however long the history is; only the hashes of the event cards read are kept for
+ * the whole history, so a transaction is hidden behind its event card even when the two fall on different pages.
+ */
+public class ActivityWindow
+{
+    public static final int PAGE_SIZE = 50;
+    public static final int WINDOW_PAGES = 4;
+    public static final int PREFETCH_ROWS = 20;
+
+    private final ActivitySource source;
+    private final Map<Integer, SortedItem<?>[]> pages = new LinkedHashMap<Integer, SortedItem<?>[]>(WINDOW_PAGES, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SortedItem<?>[]> eldest)
+        {
+            return size() > WINDOW_PAGES;
+        }
+    };
+
+    //start of each page read so far; entry [pageCount] is the start of the next unread page
+    private int[] txStart = new int[16];
+    private int[] eventStart = new int[16];
+    private int[] rowStart = new int[16];
+    private long[] startDay = new long[16]; //date header in force before the page's first row, 0 for none
+    private final Map<String, Integer> eventIndex = new HashMap<>(); //first event card read for each transaction hash
+    private int pageCount;
+    private int pagesBuilt;
+
+    public ActivityWindow(ActivitySource source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * @return rows in the pages read so far
+     */
+    public int size()
+    {
+        return rowStart[pageCount];
+    }
+
+    public boolean hasMore()
+    {
+        return txStart[pageCount] < source.getTransactionCount() || eventStart[pageCount] < source.getEventCount();
+    }
+
+    /**
+     * @return true if position is near enough to the end of the rows read that the next page should be read
+     */
+    public boolean needsNextPage(int position)
+    {
+        return position >= size() - PREFETCH_ROWS && hasMore();
+    }
+
+    public SortedItem<?> get(int position)
+    {
+        int page = findPage(position);
+        SortedItem<?>[] rows = pages.get(page);
+        if (rows == null) rows = buildPage(page);
+        return rows[position - rowStart[page]];
+    }
+
+    /**
+     * Read the next page from the cursors
+     * @return number of rows added
+     */
+    public int loadNextPage()
+    {
+        if (!hasMore()) return 0;
+        int added = buildPage(pageCount).length;
+        pageCount++;
+        return added;
+    }
+
+    /**
+     * The cursors changed; re-read as many rows as were showing, holding only the window
+     */
+    public void reload()
+    {
+        int showing = size();
+        pages.clear();
+        eventIndex.clear();
+        pageCount = 0;
+        loadNextPage();
+        while (size() < showing && hasMore()) loadNextPage();
+    }
+
+    /**
+     * @return time of the oldest row read, in seconds
+     */
+    public long getEarliestTime()
+    {
+        if (size() == 0) return 0;
+        Object value = get(size() - 1).value;
+        return value instanceof ActivityMeta ? ((ActivityMeta) value).getTimeStampSeconds() : 0;
+    }
+
+    public int getHeldPages()
+    {
+        return pages.size();
+    }
+
+    public int getPagesBuilt()
+    {
+        return pagesBuilt;
+    }
+
+    public void close()
+    {
+        source.close();
+        pages.clear();
+        eventIndex.clear();
+    }
+
+    private int findPage(int position)
+    {
+        if (position < 0 || position >= size()) throw new IndexOutOfBoundsException("Row " + position + " of " + size());
+        //last page starting at or before position; pages which produced no rows share their start with the next
+        int low = 0;
+        int high = pageCount - 1;
+        while (low < high)
+        {
+            int mid = (low + high + 1) >>> 1;
+            if (rowStart[mid] <= position) low = mid;
+            else high = mid - 1;
+        }
+
+        return low;
+    }
+
+    private SortedItem<?>[] buildPage(int page)
+    {
+        List<SortedItem<?>> rows = new ArrayList<>();
+        int tx = txStart[page];
+        int event = eventStart[page];
+        long day = startDay[page];
+        int txCount = source.getTransactionCount();
+        int eventCount = source.getEventCount();
+
+        for (int entry = 0; entry < PAGE_SIZE && (tx < txCount || event < eventCount); entry++)
+        {
+            if (event < eventCount && (tx >= txCount || source.getEventTime(event) >= source.getTransactionTime(tx)))
+            {
+                EventMeta em = source.getEvent(event);
+                eventIndex.putIfAbsent(em.hash, event++);
+                day = addRow(rows, new EventSortedItem(EventHolder.VIEW_TYPE, em, TimestampSortedItem.DESC), em, day);
+                continue;
+            }
+
+            TransactionMeta tm = source.getTransaction(tx++);
+            if (isShownByEvent(tm.hash, event)) continue; //event card shows this transaction
+
+            //if there's only one token transfer, only show the transfer; otherwise show the transaction and its transfers
+            List<TokenTransferData> transfers = source.getTransfers(tm);
+            if (transfers.size() != 1)
+            {
+                day = addRow(rows, new TransactionSortedItem(TransactionHolder.VIEW_TYPE, tm, TimestampSortedItem.DESC), tm, day);
+            }
+
+            for (TokenTransferData ttd : transfers)
+            {
+                day = addRow(rows, new TransferSortedItem(TransferHolder.VIEW_TYPE, ttd, TimestampSortedItem.DESC), ttd, day);
+            }
+        }
+
+        if (page == pageCount)
+        {
+            ensureCapacity(page + 2);
+            txStart[page + 1] = tx;
+            eventStart[page + 1] = event;
+            rowStart[page + 1] = rowStart[page] + rows.size();
+            startDay[page + 1] = day;
+        }
+
+        SortedItem<?>[] pageRows = rows.toArray(new SortedItem<?>[0]);
+        pages.put(page, pageRows);
+        pagesBuilt++;
+        return pageRows;
+    }
+
+    //only events before the cursor count, so a page rebuilt later comes out the same as when first read
+    private boolean isShownByEvent(String hash, int eventCursor)
+    {
+        Integer index = eventIndex.get(hash);
+        return index != null && index < eventCursor;
+    }
+
+    private long addRow(List<SortedItem<?>> rows, SortedItem<?> item, ActivityMeta meta, long day)
+    {
+        DateSortedItem header = DateSortedItem.round(meta.getTimeStampSeconds());
+        if (header.getUID() != day)
+        {
+            rows.add(header);
+            day = header.getUID();
+        }
+
+        rows.add(item);
+        return day;
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (length <= txStart.length) return;
+        int newLength = Math.max(length, txStart.length * 2);
+        txStart = Arrays.copyOf(txStart, newLength);
+        eventStart = Arrays.copyOf(eventStart, newLength);
+        rowStart = Arrays.copyOf(rowStart, newLength);
+        startDay = Arrays.copyOf(startDay, newLength);
+    }
+}
@@ -12,7 +12,11 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.ramapay.app.R;
 import com.ramapay.app.repository.EthereumNetworkBase;
-import com.ramapay.app.repository.TokenRepository;
+import com.ramapay.app.repository.KeyProvider;
+import com.ramapay.app.repository.KeyProviderFactory;
+import com.ramapay.app.repository.Web3jClientRegistry;
+import com.ramapay.app.service.AWHttpServiceWaterfall;
+import com.ramapay.app.service.EndpointScorer;
 import com.ramapay.app.widget.TokenIcon;
 import com.ramapay.ethereum.NetworkInfo;
 
@@ -27,6 +31,7 @@ import io.reactivex.Single;
 import io.reactivex.android.schedulers.AndroidSchedulers;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.schedulers.Schedulers;
+import okhttp3.OkHttpClient;
 import timber.log.Timber;
 
 public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.ViewHolder> {
@@ -36,6 +41,7 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
     private final ArrayList<Disposable> disposables = new ArrayList<>();
     /** Stores whether node status is being fetched or not. Key: chainId, value: fetching status*/
     private final Map<Long, Boolean> fetchStatusMap = new ConcurrentHashMap<>();
+    private final Map<Long, EndpointSummary> healthMap = new ConcurrentHashMap<>();
 
     public NodeStatusAdapter(List<NetworkInfo> networkList)
     {
@@ -63,6 +69,14 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
             holder.itemLayout.setOnClickListener(v -> refreshNodeStatus(item.chainId, holder));
             if (nodeStatus == null) return;
 
+            EndpointSummary summary = healthMap.get(item.chainId);
+            if (summary != null)
+            {
+                holder.endpointHealth.setText(holder.itemLayout.getContext().getString(R.string.node_endpoint_health,
+                        summary.up, summary.total, summary.bestLatency, summary.maxLag));
+                holder.endpointHealth.setVisibility(View.VISIBLE);
+            }
+
             if (nodeStatus == NodeStatus.STRONG)
             {
                 holder.status.setBackgroundResource(R.drawable.ic_node_strong);
@@ -93,23 +107,54 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
         }
     }
 
+    /**
+     * Probe every endpoint of the chain with eth_blockNumber. Results land in the chain's EndpointScorer, which is
+     * also what routes live requests, so the screen shows the same health the app is acting on.
+     */
     private NodeStatus fetchNodeStatus(long chainId)
     {
         fetchStatusMap.put(chainId, true);
         NodeStatus status = NodeStatus.NOT_RESPONDING;
-        final Web3j web3j = TokenRepository.getWeb3jService(chainId);
-        try
+        String[] rpcUrls = EthereumNetworkBase.getNetwork(chainId).rpcUrls;
+        KeyProvider keys = KeyProviderFactory.get();
+        OkHttpClient client = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.RPC);
+
+        for (String url : rpcUrls)
         {
-            long startTime = System.currentTimeMillis();
-            String s = web3j.web3ClientVersion().send().getWeb3ClientVersion();
-            long endTime = System.currentTimeMillis();
-            long latency = endTime - startTime;
-            status = latency < 1000 ? NodeStatus.STRONG : NodeStatus.MEDIUM;
+            try
+            {
+                Web3j web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, chainId, client,
+                        keys.getInfuraKey(), keys.getInfuraSecret(), keys.getKlaytnKey(), false));
+                web3j.ethBlockNumber().send();
+            }
+            catch (Exception e)
+            {
+                Timber.e(e, "checkNodeStatus: exception: chainID: %s ", chainId);
+            }
         }
-        catch (Exception e)
+
+        List<EndpointScorer.Health> health = EndpointScorer.forChain(chainId).getHealth(rpcUrls);
+        int up = 0;
+        long bestLatency = Long.MAX_VALUE;
+        long maxLag = 0;
+        for (EndpointScorer.Health h : health)
         {
-            Timber.e(e, "checkNodeStatus: exception: chainID: %s ", chainId);
+            if (h.latencyMs < 0 || h.errorRate >= 0.5) continue;
+            up++;
+            bestLatency = Math.min(bestLatency, h.latencyMs);
+            maxLag = Math.max(maxLag, h.blockLag);
         }
+
+        if (up > 0)
+        {
+            status = bestLatency < 1000 ? NodeStatus.STRONG : NodeStatus.MEDIUM;
+            healthMap.put(chainId, new EndpointSummary(up, rpcUrls.length, bestLatency, maxLag));
+        }
+        else
+        {
+            healthMap.put(chainId, new EndpointSummary(0, rpcUrls.length, 0, 0));
+        }
+
         fetchStatusMap.put(chainId, false);
         return status;
     }
@@ -172,6 +217,7 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
         TokenIcon tokenIcon;
         ImageView status;
         ProgressBar loader;
+        TextView endpointHealth;
 
         ViewHolder(View view)
         {
@@ -182,6 +228,7 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
             tokenIcon = view.findViewById(R.id.token_icon);
             status = view.findViewById(R.id.image_status);
             loader = view.findViewById(R.id.loader);
+            endpointHealth = view.findViewById(R.id.endpoint_health);
         }
     }
 
@@ -189,5 +236,21 @@ public class NodeStatusAdapter extends RecyclerView.Adapter<NodeStatusAdapter.Vi
     {
         NOT_RESPONDING, STRONG, MEDIUM, WEAK
     }
+
+    private static class EndpointSummary
+    {
+        final int up;
+        final int total;
+        final long bestLatency;
+        final long maxLag;
+
+        EndpointSummary(int up, int total, long bestLatency, long maxLag)
+        {
+            this.up = up;
+            this.total = total;
+            this.bestLatency = bestLatency;
+            this.maxLag = maxLag;
+        }
+    }
 }
 
@@ -10,6 +10,7 @@ import androidx.preference.PreferenceManager;
 import com.ramapay.app.C;
 import com.ramapay.app.entity.UnableToResolveENS;
 import com.ramapay.app.entity.nftassets.NFTAsset;
+import com.ramapay.app.repository.Web3jClientRegistry;
 import com.ramapay.app.service.OpenSeaService;
 import com.ramapay.app.util.Utils;
 import com.ramapay.app.web3j.ens.EnsResolutionException;
@@ -362,7 +363,7 @@ public class AWEnsResolver
 
     private OkHttpClient setupClient()
     {
-        return new OkHttpClient.Builder()
+        return Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.API).newBuilder()
                 .connectTimeout(7, TimeUnit.SECONDS)
                 .readTimeout(7, TimeUnit.SECONDS)
                 .writeTimeout(7, TimeUnit.SECONDS)
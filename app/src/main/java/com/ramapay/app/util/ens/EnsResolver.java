@@ -6,6 +6,7 @@ import static org.web3j.protocol.core.methods.request.Transaction.createEthCallT
 import android.text.TextUtils;
 
 import com.ramapay.app.entity.tokenscript.TokenscriptFunction;
+import com.ramapay.app.repository.Web3jClientRegistry;
 import com.ramapay.app.util.Utils;
 import com.ramapay.app.web3j.ens.Contracts;
 import com.ramapay.app.web3j.ens.EnsGatewayRequestDTO;
@@ -84,7 +85,7 @@ public class EnsResolver implements Resolvable
     protected final int addressLength;
     protected long chainId;
 
-    private OkHttpClient client = new OkHttpClient();
+    private OkHttpClient client = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.API);
 
     private static DefaultFunctionReturnDecoder decoder;
 
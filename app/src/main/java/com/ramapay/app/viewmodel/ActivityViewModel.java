@@ -30,8 +30,6 @@ import io.realm.Realm;
 @HiltViewModel
 public class ActivityViewModel extends BaseViewModel
 {
-    private final int TRANSACTION_FETCH_LIMIT = 150;
-
     private final MutableLiveData<Wallet> wallet = new MutableLiveData<>();
     private final MutableLiveData<ActivityMeta[]> activityItems = new MutableLiveData<>();
 
@@ -80,31 +78,20 @@ public class ActivityViewModel extends BaseViewModel
 
     private void onDefaultWallet(Wallet defaultWallet)
     {
+        //the Activity list reads stored transactions and events through an ActivityWindow on the wallet's Realm
         wallet.postValue(defaultWallet);
-        disposable =
-                fetchTransactionsInteract.fetchTransactionMetas(defaultWallet, tokensService.getNetworkFilters(), 0, TRANSACTION_FETCH_LIMIT)
-                        .subscribeOn(Schedulers.io())
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(this::onActivityMetas, this::onError);
-    }
-
-    private void onActivityMetas(ActivityMeta[] metas)
-    {
-        activityItems.postValue(metas);
-        disposable =
-                fetchTransactionsInteract.fetchEventMetas(wallet.getValue(), tokensService.getNetworkFilters())
-                        .subscribeOn(Schedulers.io())
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(activityItems::postValue, this::onError);
     }
 
+    /**
+     * All stored activity is showing; fetch and store older transactions from the network
+     */
     public void fetchMoreTransactions(long startTime)
     {
-        disposable =
-                fetchTransactionsInteract.fetchTransactionMetas(wallet.getValue(), tokensService.getNetworkFilters(), startTime, TRANSACTION_FETCH_LIMIT)
-                        .subscribeOn(Schedulers.io())
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(metas -> onMoreActivityMetas(metas, startTime), this::onError);
+        fetchTransactions = Observable.fromIterable(tokensService.getNetworkFilters())
+                .flatMap(chainId -> transactionsService.fetchAndStoreTransactions(chainId, startTime).toObservable())
+                .subscribeOn(Schedulers.io())
+                .observeOn(AndroidSchedulers.mainThread())
+                .subscribe(activityItems::postValue, this::onError);
     }
 
     /**
@@ -129,22 +116,6 @@ public class ActivityViewModel extends BaseViewModel
                 }, this::onError);
     }
 
-    private void onMoreActivityMetas(ActivityMeta[] activityMetas, long startTime)
-    {
-        if (activityMetas.length == 0)
-        {
-            fetchTransactions = Observable.fromIterable(tokensService.getNetworkFilters())
-                    .flatMap(chainId -> transactionsService.fetchAndStoreTransactions(chainId, startTime).toObservable())
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .subscribe(activityItems::postValue, this::onError);
-        }
-        else
-        {
-            activityItems.postValue(activityMetas);
-        }
-    }
-
     public void onDestroy()
     {
         if (queryUnknownTokensDisposable != null && !queryUnknownTokensDisposable.isDisposed())
@@ -728,11 +728,13 @@ public class FunctionButtonBar extends LinearLayout implements AdapterView.OnIte
 
         findViewById(R.id.wait_buttons).setVisibility(View.VISIBLE);
 
-        //get the available map for this collection
-        assetSvs.fetchFunctionMap(token, selection, type, UpdateType.UPDATE_IF_REQUIRED)
+        //get the available map for this collection; buttons for the selected token can show before the rest arrive
+        Map<BigInteger, List<String>> availabilityMap = new HashMap<>();
+        token.setFunctionAvailability(availabilityMap);
+        assetSvs.streamFunctionMap(token, new ArrayList<>(selection), type, UpdateType.UPDATE_IF_REQUIRED)
                 .subscribeOn(Schedulers.io())
                 .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(availabilityMap -> setupTokenMap(token, availabilityMap), this::onMapFetchError)
+                .subscribe(partialMap -> updateTokenMap(availabilityMap, partialMap), this::onMapFetchError, () -> setupTokenMap(token))
                 .isDisposed();
     }
 
@@ -747,9 +749,19 @@ public class FunctionButtonBar extends LinearLayout implements AdapterView.OnIte
         return (tokenIds != null && tokenIds.size() > 0) ? tokenIds.get(0) : BigInteger.ZERO;
     }
 
-    private void setupTokenMap(@NotNull Token token, Map<BigInteger, List<String>> availabilityMap)
+    private void updateTokenMap(Map<BigInteger, List<String>> availabilityMap, Map<BigInteger, List<String>> partialMap)
+    {
+        availabilityMap.putAll(partialMap);
+        BigInteger tokenId = getSelectedTokenId(selection);
+        if (showButtons && partialMap.containsKey(tokenId))
+        {
+            populateButtons(token, tokenId);
+            showButtons();
+        }
+    }
+
+    private void setupTokenMap(@NotNull Token token)
     {
-        token.setFunctionAvailability(availabilityMap);
         functionMapComplete.release();
         findViewById(R.id.wait_buttons).setVisibility(View.GONE);
 
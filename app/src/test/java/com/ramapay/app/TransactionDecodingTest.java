@@ -17,6 +17,11 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by weiwu on 7/3/18.
@@ -100,6 +105,79 @@ public class TransactionDecodingTest
         assertThat(stringBuilder.toString(), equalTo(getBaseline()));
     }
 
+    /**
+     * One decoder is shared by the whole app; decoding on several threads at once must give the same results
+     */
+    @Test
+    public void testSharedDecoderAcrossThreads() throws Exception
+    {
+        TransactionDecoder decoder = new TransactionDecoder();
+        String expected = decodeAll(decoder);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++)
+            {
+                results.add(executor.submit(() -> decodeAll(decoder)));
+            }
+
+            for (Future<String> result : results)
+            {
+                assertEquals(expected, result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        assertThat(expected, equalTo(getBaseline()));
+    }
+
+    /**
+     * Decode rate over the soak test inputs, for comparing decoder changes
+     */
+    @Test
+    public void decodeBenchmark()
+    {
+        TransactionDecoder decoder = new TransactionDecoder();
+        int rounds = 50;
+        int args = 0;
+        for (int i = 0; i < rounds; i++) args += decodeRound(decoder); //warm up
+
+        args = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) args += decodeRound(decoder);
+        long elapsed = System.nanoTime() - start;
+
+        int decodes = rounds * inputTestList.length;
+        System.out.println(decodes + " decodes: " + (elapsed / decodes) + "ns per input, " + args + " args");
+        assertEquals(0, args % rounds);
+    }
+
+    private int decodeRound(TransactionDecoder decoder)
+    {
+        int args = 0;
+        for (String testInput : inputTestList)
+        {
+            args += decoder.decodeInput(testInput).hexArgs.size();
+        }
+
+        return args;
+    }
+
+    String decodeAll(TransactionDecoder decoder)
+    {
+        StringBuilder stringBuilder = new StringBuilder();
+        for (String testInput : inputTestList)
+        {
+            stringBuilder.append(decoder.decodeInput(testInput).buildFunctionCallText()).append(System.lineSeparator());
+        }
+
+        return stringBuilder.toString();
+    }
+
     @NonNull
     private String getBaseline() throws IOException
     {
@@ -0,0 +1,281 @@
+package com.ramapay.app.chat.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.database.Cursor;
+
+import androidx.room.Room;
+import androidx.sqlite.db.SupportSQLiteDatabase;
+import androidx.sqlite.db.SupportSQLiteStatement;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.app.chat.data.dao.MessageDao;
+import com.ramapay.app.chat.data.entity.MessageEntity;
+import com.ramapay.app.chat.data.entity.MessageKey;
+import com.ramapay.app.chat.data.entity.MessageStatus;
+import com.ramapay.app.chat.data.repository.MessagePager;
+import com.ramapay.app.chat.data.repository.MessageRepository;
+import com.ramapay.shadows.ShadowApp;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import kotlin.coroutines.Continuation;
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlin.jvm.functions.Function1;
+import kotlinx.coroutines.BuildersKt;
+import kotlinx.coroutines.flow.FlowKt;
+
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class MessagePagingTest
+{
+    private static final String WALLET = "0x1111111111111111111111111111111111111111";
+    private static final String PEER = "0x2222222222222222222222222222222222222222";
+    private static final String CONVERSATION = "conversation";
+    private static final long START = 1_700_000_000_000L;
+
+    private ChatDatabase db;
+    private MessageDao dao;
+    private MessageRepository repository;
+
+    @Before
+    public void setUp()
+    {
+        db = Room.inMemoryDatabaseBuilder(RuntimeEnvironment.getApplication(), ChatDatabase.class)
+                .allowMainThreadQueries()
+                .build();
+        dao = db.messageDao();
+        repository = new MessageRepository(dao);
+        db.getOpenHelper().getWritableDatabase().execSQL(
+                "INSERT INTO conversations (id, walletAddress, peerAddress, unreadCount, isPinned, isMuted, createdAt) VALUES (?, ?, ?, 0, 0, 0, ?)",
+                new Object[]{CONVERSATION, WALLET, PEER, START});
+    }
+
+    @After
+    public void tearDown()
+    {
+        db.close();
+    }
+
+    @Test
+    public void pagesBackThroughConversation() throws InterruptedException
+    {
+        insertMessages(0, 1000);
+        MessagePager pager = repository.pageConversation(CONVERSATION);
+
+        await(c -> pager.loadLatest(c));
+        List<MessageEntity> latest = await(c -> FlowKt.first(pager.getMessages(), c));
+        assertEquals(MessagePager.PAGE_SIZE, latest.size());
+        assertEquals(id(999), latest.get(latest.size() - 1).getId());
+
+        int pages = 0;
+        while (loadOlder(pager)) pages++;
+        assertEquals(1000 / MessagePager.PAGE_SIZE - 1, pages);
+        assertTrue(pager.getReachedStart());
+
+        //every message once, in order, though pairs share a timestamp
+        List<MessageEntity> all = await(c -> FlowKt.first(pager.getMessages(), c));
+        assertEquals(1000, all.size());
+        for (int i = 0; i < all.size(); i++) assertEquals(id(i), all.get(i).getId());
+    }
+
+    @Test
+    public void pagesByKey() throws InterruptedException
+    {
+        insertMessages(0, 120);
+
+        List<MessageKey> keys = await(c -> dao.getConversationKeysBefore(CONVERSATION, Long.MAX_VALUE, "", 49, c));
+        assertEquals(49, keys.size());
+        assertEquals(id(119), keys.get(0).getId());
+        assertEquals(id(71), keys.get(48).getId());
+
+        //the message sharing the key's timestamp starts the next page
+        MessageKey last = keys.get(48);
+        keys = await(c -> dao.getConversationKeysBefore(CONVERSATION, last.getTimestamp(), last.getId(), 49, c));
+        assertEquals(id(70), keys.get(0).getId());
+        assertEquals(last.getTimestamp(), keys.get(0).getTimestamp());
+
+        List<MessageEntity> from = await(c -> FlowKt.first(dao.getConversationMessagesFrom(CONVERSATION, last.getTimestamp(), last.getId()), c));
+        assertEquals(49, from.size());
+        assertEquals(id(71), from.get(0).getId());
+    }
+
+    @Test
+    public void searchFollowsEdits() throws InterruptedException
+    {
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        SupportSQLiteStatement insert = insertStatement(sql);
+        insertMessage(insert, "a", "Coffee tomorrow?", START);
+        insertMessage(insert, "b", "Sent the payment", START + 1);
+        insertMessage(insert, "c", "coffee after lunch then", START + 2);
+
+        assertEquals(ids("c", "a"), ids(searchConversation("coff")));
+        assertEquals(ids("a"), ids(searchConversation("coffee TOMORROW")));
+        List<MessageEntity> found = await(c -> repository.search(WALLET, "coffee", 100, c));
+        assertEquals(ids("c", "a"), ids(found));
+        found = await(c -> repository.search(PEER, "coffee", 100, c));
+        assertTrue(found.isEmpty());
+
+        sql.execSQL("UPDATE messages SET content = 'tea after lunch' WHERE id = 'c'");
+        await(c -> dao.softDelete("a", c));
+        sql.execSQL("DELETE FROM messages WHERE id = 'b'");
+
+        assertTrue(searchConversation("coffee").isEmpty());
+        assertTrue(searchConversation("payment").isEmpty());
+        assertEquals(ids("c"), ids(searchConversation("tea")));
+    }
+
+    @Test
+    public void reinsertReplacesSearchTerms() throws InterruptedException
+    {
+        await(c -> dao.insert(message("a", "Coffee tomorrow?"), c));
+        await(c -> dao.insert(message("a", "tea after lunch"), c)); //eg a backup restore over existing messages
+
+        assertTrue(searchConversation("coffee").isEmpty());
+        assertEquals(ids("a"), ids(searchConversation("tea")));
+
+        //no stale terms left in the index under the old row
+        try (Cursor cursor = db.getOpenHelper().getReadableDatabase().query("SELECT docid FROM messages_fts WHERE messages_fts MATCH 'coffee'"))
+        {
+            assertEquals(0, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void buildsMatchQuery()
+    {
+        assertEquals("\"coffee*\" \"tomorrow*\"", MessageRepository.toMatchQuery("coffee, tomorrow?"));
+        assertEquals("\"a*\" \"b*\"", MessageRepository.toMatchQuery("a OR\"b"));
+        assertNull(MessageRepository.toMatchQuery(" ?! "));
+    }
+
+    /**
+     * Opening a 100k message conversation: the whole history as before, against the latest page. Then what each
+     * re-reads when a message arrives.
+     */
+    @Test
+    public void benchmarkOpenLargeConversation() throws InterruptedException
+    {
+        insertMessages(0, 100_000);
+
+        long start = System.nanoTime();
+        List<MessageEntity> history = await(c -> FlowKt.first(dao.getMessagesForConversation(CONVERSATION), c));
+        long historyTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        MessagePager pager = repository.pageConversation(CONVERSATION);
+        await(c -> pager.loadLatest(c));
+        List<MessageEntity> page = await(c -> FlowKt.first(pager.getMessages(), c));
+        long pageTime = System.nanoTime() - start;
+
+        MessageKey first = new MessageKey(page.get(0).getTimestamp(), page.get(0).getId());
+        insertMessages(100_000, 1);
+        start = System.nanoTime();
+        List<MessageEntity> updated = await(c -> FlowKt.first(dao.getMessagesForConversation(CONVERSATION), c));
+        long historyUpdateTime = System.nanoTime() - start;
+        assertEquals(100_001, updated.size());
+        start = System.nanoTime();
+        updated = await(c -> FlowKt.first(dao.getConversationMessagesFrom(CONVERSATION, first.getTimestamp(), first.getId()), c));
+        long pageUpdateTime = System.nanoTime() - start;
+        assertEquals(MessagePager.PAGE_SIZE + 1, updated.size());
+
+        System.out.println(String.format("Open 100k message conversation: whole history %dms (%d messages), latest page %dms (%d messages)",
+                historyTime / 1_000_000, history.size(), pageTime / 1_000_000, page.size()));
+        System.out.println(String.format("New message re-read: whole history %dms, latest page %dms",
+                historyUpdateTime / 1_000_000, pageUpdateTime / 1_000_000));
+        assertEquals(100_000, history.size());
+        assertFalse(pager.getReachedStart());
+        assertTrue(pageTime < historyTime);
+    }
+
+    /**
+     * Messages two to a millisecond, so paging has timestamp ties to break.
+     */
+    private void insertMessages(int from, int count)
+    {
+        SupportSQLiteDatabase sql = db.getOpenHelper().getWritableDatabase();
+        sql.beginTransaction();
+        try
+        {
+            SupportSQLiteStatement insert = insertStatement(sql);
+            for (int i = from; i < from + count; i++) insertMessage(insert, id(i), "message " + i, START + i / 2);
+            sql.setTransactionSuccessful();
+        }
+        finally
+        {
+            sql.endTransaction();
+        }
+    }
+
+    private static SupportSQLiteStatement insertStatement(SupportSQLiteDatabase sql)
+    {
+        return sql.compileStatement(
+                "INSERT INTO messages (id, conversationId, senderAddress, recipientAddress, contentType, content, timestamp, status, isDeleted) "
+                        + "VALUES (?, ?, ?, ?, 'TEXT', ?, ?, 'DELIVERED', 0)");
+    }
+
+    private static void insertMessage(SupportSQLiteStatement insert, String id, String content, long timestamp)
+    {
+        insert.bindString(1, id);
+        insert.bindString(2, CONVERSATION);
+        insert.bindString(3, PEER);
+        insert.bindString(4, WALLET);
+        insert.bindString(5, content);
+        insert.bindLong(6, timestamp);
+        insert.executeInsert();
+    }
+
+    private static MessageEntity message(String id, String content)
+    {
+        return new MessageEntity(id, CONVERSATION, null, PEER, WALLET, "TEXT", content, null, START,
+                MessageStatus.DELIVERED, null, false, null);
+    }
+
+    private static boolean loadOlder(MessagePager pager) throws InterruptedException
+    {
+        Boolean loaded = await(c -> pager.loadOlder(c));
+        return loaded;
+    }
+
+    private List<MessageEntity> searchConversation(String text) throws InterruptedException
+    {
+        return await(c -> repository.searchConversation(CONVERSATION, text, 100, c));
+    }
+
+    private static String id(int i)
+    {
+        return String.format("msg-%06d", i);
+    }
+
+    private static List<String> ids(String... ids)
+    {
+        List<String> list = new ArrayList<>();
+        for (String id : ids) list.add(id);
+        return list;
+    }
+
+    private static List<String> ids(List<MessageEntity> messages)
+    {
+        List<String> ids = new ArrayList<>();
+        for (MessageEntity message : messages) ids.add(message.getId());
+        assertEquals(ids.size(), new HashSet<>(ids).size());
+        return ids;
+    }
+
+    private static <T> T await(Function1<Continuation<? super T>, Object> call) throws InterruptedException
+    {
+        return BuildersKt.runBlocking(EmptyCoroutineContext.INSTANCE, (scope, continuation) -> call.invoke(continuation));
+    }
+}
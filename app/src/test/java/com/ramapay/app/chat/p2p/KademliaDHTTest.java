@@ -0,0 +1,251 @@
+package com.ramapay.app.chat.p2p;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+import kotlin.coroutines.EmptyCoroutineContext;
+import kotlinx.coroutines.BuildersKt;
+
+public class KademliaDHTTest
+{
+    private static final int K = 20;
+
+    @Test
+    public void findsSameNodesAsFullSort()
+    {
+        Random random = new Random(1);
+        KademliaDHT dht = table("0xself", wallets(1000), 0);
+        List<KademliaDHT.DHTNode> all = dht.getAllNodes();
+
+        for (int i = 0; i < 200; i++)
+        {
+            byte[] target = new byte[32];
+            if (i % 4 == 0) target = all.get(random.nextInt(all.size())).getNodeId(); //a node in the table
+            else if (i % 4 == 1) target = dht.walletToNodeId("0xself"); //ourselves
+            else random.nextBytes(target);
+
+            assertEquals(closestBySort(all, target, K), wallets(dht.findClosestNodesById(target, K)));
+        }
+        assertTrue(dht.findClosestNodesById(new byte[5], K).isEmpty());
+    }
+
+    /**
+     * findClosestNodesById against collecting, measuring and sorting every node, as it used to. Tables are filled by
+     * offering 1k and 10k nodes; k-buckets keep only those that fit, so the table itself holds a few hundred.
+     */
+    @Test
+    public void benchmarkClosestNodes()
+    {
+        Random random = new Random(2);
+        for (int offered : new int[]{1_000, 10_000})
+        {
+            KademliaDHT dht = table("0xself", wallets(offered), 0);
+            List<KademliaDHT.DHTNode> all = dht.getAllNodes();
+            byte[][] targets = new byte[20_000][32];
+            for (byte[] target : targets) random.nextBytes(target);
+
+            long checksum = 0;
+            for (int i = 0; i < 2000; i++) checksum += fullSort(all, targets[i]).size() + dht.findClosestNodesById(targets[i], K).size(); //warm up
+
+            long start = System.nanoTime();
+            for (byte[] target : targets) checksum += fullSort(dht.getAllNodes(), target).size();
+            long fullSortTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] target : targets) checksum += dht.findClosestNodesById(target, K).size();
+            long indexedTime = System.nanoTime() - start;
+
+            System.out.println(String.format("Closest %d of %d nodes (%,d offered): full sort %.0f lookups/s, bucket walk %.0f lookups/s",
+                    K, all.size(), offered, targets.length * 1e9 / fullSortTime, targets.length * 1e9 / indexedTime));
+            assertTrue(checksum > 0);
+        }
+    }
+
+    /**
+     * Iterative lookups across simulated networks of 1k and 10k nodes, each node knowing a random sample of the
+     * network plus those nearest it. Counts how often the lookup finds the closest node in the whole network, and how
+     * many FIND_NODE queries it takes.
+     */
+    @Test
+    public void lookupFindsClosestNodeInNetwork() throws InterruptedException
+    {
+        for (int size : new int[]{1_000, 10_000})
+        {
+            Network network = new Network(size);
+            Random random = new Random(3);
+            int lookups = 50;
+            int found = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < lookups; i++)
+            {
+                KademliaDHT origin = network.node(random.nextInt(size));
+                byte[] target = new byte[32];
+                random.nextBytes(target);
+
+                List<KademliaDHT.Contact> closest = BuildersKt.runBlocking(EmptyCoroutineContext.INSTANCE,
+                        (scope, continuation) -> origin.lookup(target, (contact, c) -> network.query(contact, target), continuation));
+                if (!closest.isEmpty() && network.index(closest.get(0)) == network.closestTo(target)) found++;
+            }
+            long time = System.nanoTime() - start;
+
+            System.out.println(String.format("Lookup in %,d node network: closest node found %d/%d, %.1f FIND_NODE queries per lookup, %.1fms per lookup",
+                    size, found, lookups, network.queries / (double) lookups, time / 1e6 / lookups));
+            assertTrue(found >= lookups * 9 / 10);
+        }
+    }
+
+    /**
+     * Nodes are created as lookups reach them, each with a table of random nodes and its nearest ones.
+     */
+    private static class Network
+    {
+        final String[] wallets;
+        final long[] firstWords;
+        final byte[][] ids;
+        final Map<ByteBuffer, Integer> byId = new HashMap<>();
+        final Map<Integer, KademliaDHT> nodes = new HashMap<>();
+        int queries;
+
+        Network(int size)
+        {
+            wallets = wallets(size).toArray(new String[0]);
+            firstWords = new long[size];
+            ids = new byte[size][];
+            KademliaDHT hasher = new KademliaDHT(new RateLimiter());
+            for (int i = 0; i < size; i++)
+            {
+                ids[i] = hasher.walletToNodeId(wallets[i]);
+                firstWords[i] = ByteBuffer.wrap(ids[i]).getLong();
+                byId.put(ByteBuffer.wrap(ids[i]), i);
+            }
+        }
+
+        KademliaDHT node(int index)
+        {
+            KademliaDHT dht = nodes.get(index);
+            if (dht == null)
+            {
+                Random random = new Random(index);
+                List<String> known = new ArrayList<>();
+                for (int i = 0; i < 200; i++) known.add(wallets[random.nextInt(wallets.length)]);
+                for (int i : nearest(ids[index], 30)) known.add(wallets[i]);
+                dht = table(wallets[index], known, index);
+                nodes.put(index, dht);
+            }
+            return dht;
+        }
+
+        List<KademliaDHT.Contact> query(KademliaDHT.Contact contact, byte[] target)
+        {
+            queries++;
+            List<KademliaDHT.Contact> contacts = new ArrayList<>();
+            for (KademliaDHT.DHTNode node : node(index(contact)).findClosestNodesById(target, K))
+            {
+                contacts.add(new KademliaDHT.Contact(node.getNodeId(), node.getPublicIp(), node.getPublicPort()));
+            }
+            return contacts;
+        }
+
+        int index(KademliaDHT.Contact contact)
+        {
+            return byId.get(ByteBuffer.wrap(contact.getNodeId()));
+        }
+
+        int closestTo(byte[] target)
+        {
+            return nearest(target, 1).get(0);
+        }
+
+        /**
+         * Nearest by the first 64 bits of distance, which is exact for networks this size.
+         */
+        List<Integer> nearest(byte[] id, int count)
+        {
+            long word = ByteBuffer.wrap(id).getLong();
+            PriorityQueue<Integer> farthestFirst = new PriorityQueue<>(
+                    (a, b) -> Long.compareUnsigned(firstWords[b] ^ word, firstWords[a] ^ word));
+            for (int i = 0; i < firstWords.length; i++)
+            {
+                if (firstWords[i] == word) continue;
+                farthestFirst.add(i);
+                if (farthestFirst.size() > count) farthestFirst.poll();
+            }
+            List<Integer> nearest = new ArrayList<>(farthestFirst);
+            nearest.sort((a, b) -> Long.compareUnsigned(firstWords[a] ^ word, firstWords[b] ^ word));
+            return nearest;
+        }
+    }
+
+    private static KademliaDHT table(String self, List<String> wallets, int seed)
+    {
+        KademliaDHT dht = new KademliaDHT(new RateLimiter());
+        dht.initialize(self);
+        for (String wallet : wallets)
+        {
+            dht.addTrustedNode(new KademliaDHT.DHTNode(wallet, new byte[32], "10.0.0." + (seed % 250), 19372,
+                    System.currentTimeMillis(), false, null, null));
+        }
+        return dht;
+    }
+
+    private static List<String> wallets(int count)
+    {
+        List<String> wallets = new ArrayList<>();
+        for (int i = 0; i < count; i++) wallets.add(String.format("0x%040x", i));
+        return wallets;
+    }
+
+    private static List<String> wallets(List<KademliaDHT.DHTNode> nodes)
+    {
+        List<String> wallets = new ArrayList<>();
+        for (KademliaDHT.DHTNode node : nodes) wallets.add(node.getWalletAddress());
+        return wallets;
+    }
+
+    private static List<String> closestBySort(List<KademliaDHT.DHTNode> nodes, byte[] target, int count)
+    {
+        BigInteger t = new BigInteger(1, target);
+        List<KademliaDHT.DHTNode> sorted = new ArrayList<>(nodes);
+        sorted.sort((a, b) -> new BigInteger(1, a.getNodeId()).xor(t).compareTo(new BigInteger(1, b.getNodeId()).xor(t)));
+        return wallets(sorted.subList(0, Math.min(count, sorted.size())));
+    }
+
+    /**
+     * The lookup as it was: every node paired with a distance array, then the lot sorted.
+     */
+    private static List<KademliaDHT.DHTNode> fullSort(List<KademliaDHT.DHTNode> nodes, byte[] target)
+    {
+        List<Object[]> all = new ArrayList<>();
+        for (KademliaDHT.DHTNode node : nodes)
+        {
+            byte[] distance = new byte[32];
+            for (int i = 0; i < 32; i++) distance[i] = (byte) (node.getNodeId()[i] ^ target[i]);
+            all.add(new Object[]{node, distance});
+        }
+        all.sort((a, b) -> {
+            byte[] da = (byte[]) a[1];
+            byte[] db = (byte[]) b[1];
+            for (int i = 0; i < 32; i++)
+            {
+                int diff = (da[i] & 0xFF) - (db[i] & 0xFF);
+                if (diff != 0) return diff;
+            }
+            return 0;
+        });
+        List<KademliaDHT.DHTNode> closest = new ArrayList<>();
+        for (int i = 0; i < Math.min(K, all.size()); i++) closest.add((KademliaDHT.DHTNode) all.get(i)[0]);
+        return Collections.unmodifiableList(closest);
+    }
+}
@@ -0,0 +1,246 @@
+package com.ramapay.app.chat.p2p;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.app.chat.protocol.MessageCodec;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import kotlin.Unit;
+import kotlin.coroutines.Continuation;
+import kotlinx.coroutines.CoroutineScopeKt;
+import kotlinx.coroutines.Dispatchers;
+import kotlinx.coroutines.Job;
+
+public class PacketReceiverTest
+{
+    private static final int BATCH = 32; //packets in flight at once, well within the socket's receive buffer
+    private final MessageCodec codec = new MessageCodec();
+
+    @Test
+    public void readsPacketInPlace()
+    {
+        byte[] payload = "hello".getBytes();
+        MessageCodec.EncodedMessage encoded = codec.encode(MessageCodec.MessageType.CHAT_MESSAGE, payload,
+                nodeId(1), nodeId(2), MessageCodec.Flags.REQUIRE_ACK, MessageCodec.DEFAULT_TTL, new byte[MessageCodec.SIGNATURE_SIZE]);
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(MessageCodec.MAX_MESSAGE_SIZE);
+        direct.position(7); //not at the start of the buffer
+        direct.put(encoded.getBytes());
+        direct.flip().position(7);
+
+        MessageCodec.PacketView view = codec.view(direct);
+        assertNotNull(view);
+        assertEquals(MessageCodec.MessageType.CHAT_MESSAGE, view.getType());
+        assertEquals(encoded.getSequenceNumber(), view.getSequenceNumber());
+        assertTrue(view.getRequiresAck());
+        assertFalse(view.isAck());
+        assertTrue(view.isFrom(nodeId(1)));
+        assertFalse(view.isFrom(nodeId(2)));
+        assertArrayEquals(payload, view.payload());
+        assertArrayEquals(nodeId(2), view.destNodeId());
+        assertEquals(codec.decode(encoded.getBytes()), view.toDecodedMessage());
+
+        //encoding into a buffer gives the same bytes, apart from the sequence number and checksum
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.MAX_MESSAGE_SIZE);
+        int sequence = codec.encode(buffer, MessageCodec.MessageType.CHAT_MESSAGE, payload, nodeId(1), nodeId(2),
+                MessageCodec.Flags.REQUIRE_ACK, MessageCodec.DEFAULT_TTL, null);
+        buffer.flip();
+        MessageCodec.DecodedMessage decoded = codec.view(buffer).toDecodedMessage();
+        assertEquals(sequence, decoded.getSequenceNumber());
+        assertArrayEquals(payload, decoded.getPayload());
+
+        //a damaged packet is rejected
+        byte[] damaged = encoded.getBytes().clone();
+        damaged[damaged.length - MessageCodec.SIGNATURE_SIZE - 1] ^= 1;
+        assertNull(codec.decode(damaged));
+    }
+
+    @Test
+    public void keepsOrderPerPeer() throws Exception
+    {
+        int peers = 6;
+        int perPeer = 200;
+        Map<Integer, List<Integer>> handled = new ConcurrentHashMap<>();
+        AtomicInteger count = new AtomicInteger();
+
+        DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        PacketBufferPool pool = new PacketBufferPool(64, PacketReceiver.RECEIVE_BUFFER_SIZE);
+        PacketReceiver receiver = new PacketReceiver(channel, codec, new PacketReceiver.PacketHandler()
+        {
+            @Override
+            public Object onPacket(MessageCodec.PacketView packet, InetSocketAddress sender, Continuation<? super Unit> continuation)
+            {
+                int peer = packet.sourceNodeId()[31];
+                handled.computeIfAbsent(peer, p -> Collections.synchronizedList(new ArrayList<>()))
+                        .add((int) packet.payloadLong(0));
+                count.incrementAndGet();
+                return Unit.INSTANCE;
+            }
+        }, 2, pool);
+        Job job = receiver.start(CoroutineScopeKt.CoroutineScope(Dispatchers.getIO()));
+
+        try (DatagramChannel sender = DatagramChannel.open())
+        {
+            int sent = 0;
+            for (int i = 0; i < perPeer; i++)
+            {
+                for (int peer = 0; peer < peers; peer++)
+                {
+                    sender.send(ByteBuffer.wrap(encode(peer, i)), channel.getLocalAddress());
+                    if (++sent % BATCH == 0) awaitCount(count, sent);
+                }
+            }
+            awaitCount(count, sent);
+        }
+        channel.close();
+        awaitCompletion(job);
+
+        assertEquals(0, receiver.getDroppedCount());
+        for (int peer = 0; peer < peers; peer++)
+        {
+            List<Integer> sequence = handled.get(peer);
+            assertEquals(perPeer, sequence.size());
+            for (int i = 0; i < perPeer; i++) assertEquals(i, (int) sequence.get(i));
+        }
+        assertEquals(pool.getBufferCount(), pool.getAvailable());
+    }
+
+    /**
+     * Loopback packets/sec and bytes allocated per packet: the old receive path (DatagramSocket, copy, decode to
+     * arrays) against a DatagramChannel into pooled direct buffers read in place. Both copy out the payload, as the
+     * transport does for chat messages. Times and allocation cover the receive side only.
+     */
+    @Test
+    public void benchmarkReceivePath() throws Exception
+    {
+        int packets = 100_000;
+        byte[] message = codec.encode(MessageCodec.MessageType.CHAT_MESSAGE, new byte[200], nodeId(1), nodeId(2),
+                (short) 0, MessageCodec.DEFAULT_TTL, new byte[MessageCodec.SIGNATURE_SIZE]).getBytes();
+
+        try (DatagramSocket socket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             DatagramChannel channel = DatagramChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+             DatagramChannel sender = DatagramChannel.open())
+        {
+            socket.setSoTimeout(2000);
+            byte[] receiveBuffer = new byte[PacketReceiver.RECEIVE_BUFFER_SIZE];
+            DatagramPacket packet = new DatagramPacket(receiveBuffer, receiveBuffer.length);
+            ReceivePath oldPath = () -> {
+                socket.receive(packet);
+                byte[] data = Arrays.copyOf(receiveBuffer, packet.getLength());
+                InetSocketAddress from = new InetSocketAddress(packet.getAddress(), packet.getPort());
+                return codec.decode(data).getPayload().length + from.getPort();
+            };
+
+            PacketBufferPool pool = new PacketBufferPool(4, PacketReceiver.RECEIVE_BUFFER_SIZE);
+            ReceivePath newPath = () -> {
+                ByteBuffer buffer = pool.acquire();
+                InetSocketAddress from = (InetSocketAddress) channel.receive(buffer);
+                buffer.flip();
+                int length = codec.view(buffer).payload().length + from.getPort();
+                pool.release(buffer);
+                return length;
+            };
+
+            ByteBuffer outgoing = ByteBuffer.allocateDirect(message.length).put(message);
+            Result warmOld = run(oldPath, sender, outgoing, socket.getLocalSocketAddress(), packets / 10);
+            Result warmNew = run(newPath, sender, outgoing, channel.getLocalAddress(), packets / 10);
+            Result old = run(oldPath, sender, outgoing, socket.getLocalSocketAddress(), packets);
+            Result nio = run(newPath, sender, outgoing, channel.getLocalAddress(), packets);
+
+            System.out.println(String.format("Receive %,d packets of %d bytes: DatagramSocket + copy %.0f/s, %d bytes/packet; DatagramChannel + pool %.0f/s, %d bytes/packet",
+                    packets, message.length, old.perSecond, old.bytesPerPacket, nio.perSecond, nio.bytesPerPacket));
+            assertTrue(warmOld.bytesPerPacket > 0 && warmNew.bytesPerPacket >= 0);
+            assertTrue(nio.bytesPerPacket < old.bytesPerPacket);
+        }
+    }
+
+    private interface ReceivePath
+    {
+        int receive() throws IOException;
+    }
+
+    private static class Result
+    {
+        double perSecond;
+        long bytesPerPacket;
+    }
+
+    private static Result run(ReceivePath path, DatagramChannel sender, ByteBuffer outgoing, java.net.SocketAddress target, int packets) throws IOException
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long elapsed = 0;
+        long allocated = 0;
+        for (int done = 0; done < packets; done += BATCH)
+        {
+            for (int i = 0; i < BATCH; i++)
+            {
+                outgoing.rewind();
+                sender.send(outgoing, target);
+            }
+
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            for (int i = 0; i < BATCH; i++) path.receive();
+            elapsed += System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+        }
+
+        Result result = new Result();
+        result.perSecond = packets * 1e9 / elapsed;
+        result.bytesPerPacket = allocated / packets;
+        return result;
+    }
+
+    private byte[] encode(int peer, long sequence)
+    {
+        ByteBuffer payload = ByteBuffer.allocate(8).putLong(sequence);
+        return codec.encode(MessageCodec.MessageType.CHAT_MESSAGE, payload.array(), nodeId(peer), nodeId(0),
+                (short) 0, MessageCodec.DEFAULT_TTL, new byte[MessageCodec.SIGNATURE_SIZE]).getBytes();
+    }
+
+    private static byte[] nodeId(int id)
+    {
+        //spread peers over workers by the first bytes, name them by the last
+        byte[] nodeId = new byte[32];
+        nodeId[3] = (byte) id;
+        nodeId[31] = (byte) id;
+        return nodeId;
+    }
+
+    private static void awaitCount(AtomicInteger count, int target) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (count.get() < target && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertEquals(target, count.get());
+    }
+
+    private static void awaitCompletion(Job job) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!job.isCompleted() && System.currentTimeMillis() < deadline) Thread.sleep(1);
+        assertTrue(job.isCompleted());
+    }
+}
@@ -0,0 +1,412 @@
+package com.ramapay.app.chat.p2p;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.app.chat.protocol.MessageCodec;
+
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+public class ReliableDeliveryTest
+{
+    private static final InetSocketAddress ADDRESS_A = new InetSocketAddress("127.0.0.1", 1);
+    private static final InetSocketAddress ADDRESS_B = new InetSocketAddress("127.0.0.1", 2);
+    private static final byte[] NODE_A = nodeId(1);
+    private static final byte[] NODE_B = nodeId(2);
+
+    private final MessageCodec codec = new MessageCodec();
+    private final long[] now = {1_000_000};
+
+    @Test
+    public void wheelFiresOnTimeAndSkipsCancelled()
+    {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 8, now[0]);
+        wheel.schedule("soon", 25, now[0]);
+        TimerWheel.Timeout<String> cancelled = wheel.schedule("cancelled", 25, now[0]);
+        wheel.schedule("next turn", 500, now[0]); //past one turn of the wheel, 80ms
+        cancelled.cancel();
+
+        assertTrue(wheel.advance(now[0] + 20).isEmpty());
+        assertEquals(1, wheel.advance(now[0] + 30).size());
+        assertTrue(wheel.advance(now[0] + 490).isEmpty());
+        assertEquals(1, wheel.getSize()); //the cancelled timeout was swept on the way
+        assertEquals("next turn", wheel.advance(now[0] + 500).get(0).getItem());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void estimatesTimeoutFromRoundTrips()
+    {
+        ReliableDelivery.RttEstimator rtt = new ReliableDelivery.RttEstimator();
+        assertEquals(ReliableDelivery.INITIAL_RTO_MS, rtt.getTimeout());
+
+        rtt.sample(100);
+        assertEquals(300, rtt.getTimeout()); //SRTT + 4 * RTTVAR = 100 + 4 * 50
+        for (int i = 0; i < 50; i++) rtt.sample(100);
+        assertEquals(ReliableDelivery.MIN_RTO_MS, rtt.getTimeout());
+
+        rtt.backoff();
+        assertEquals(2 * ReliableDelivery.MIN_RTO_MS, rtt.getTimeout());
+        for (int i = 0; i < 20; i++) rtt.backoff();
+        assertEquals(ReliableDelivery.MAX_RTO_MS, rtt.getTimeout());
+    }
+
+    @Test
+    public void acknowledgesCumulativelyAndSelectively()
+    {
+        List<byte[]> toB = new ArrayList<>();
+        List<byte[]> toA = new ArrayList<>();
+        ReliableDelivery a = new ReliableDelivery(codec, (data, address) -> toB.add(data), () -> now[0]);
+        ReliableDelivery b = new ReliableDelivery(codec, (data, address) -> toA.add(data), () -> now[0]);
+
+        for (int i = 0; i < ReliableDelivery.INITIAL_WINDOW + 2; i++)
+        {
+            assertTrue(a.send(MessageCodec.MessageType.CHAT_MESSAGE, new byte[]{(byte) i}, NODE_A, NODE_B, ADDRESS_B));
+        }
+        assertEquals(ReliableDelivery.INITIAL_WINDOW, toB.size()); //the rest wait for the window
+        assertEquals(ReliableDelivery.INITIAL_WINDOW, a.inFlight(NODE_B));
+        int first = view(toB.get(0)).getSequenceNumber();
+
+        //the first is lost; the others arrive and are acknowledged selectively
+        for (int i = 1; i < ReliableDelivery.INITIAL_WINDOW; i++) assertTrue(b.onReceived(view(toB.get(i)), ADDRESS_A, NODE_B));
+        MessageCodec.PacketView ack = view(toA.get(2));
+        assertTrue(ack.isSelectiveAck());
+        assertEquals(first - 1, ack.getSequenceNumber());
+        assertEquals(0b1110, ack.payloadLong(0));
+
+        now[0] += 50;
+        for (byte[] data : toA) a.onAck(view(data));
+        //the queued two went out as ACKs opened the window, and the hole was resent once three later messages were
+        //acknowledged past it
+        assertEquals(3, a.inFlight(NODE_B));
+        assertEquals(1, a.getRetransmitCount());
+        assertEquals(first, view(toB.get(toB.size() - 1)).getSequenceNumber());
+        assertEquals(ReliableDelivery.MIN_RTO_MS, a.retransmitTimeout(NODE_B));
+
+        //the resent copy fills the hole, and a duplicate is acknowledged but not handled twice
+        byte[] resent = toB.get(toB.size() - 1);
+        assertTrue(b.onReceived(view(resent), ADDRESS_A, NODE_B));
+        assertFalse(b.onReceived(view(resent), ADDRESS_A, NODE_B));
+        assertTrue(b.onReceived(view(toB.get(4)), ADDRESS_A, NODE_B));
+        assertTrue(b.onReceived(view(toB.get(5)), ADDRESS_A, NODE_B));
+        ack = view(toA.get(toA.size() - 1));
+        assertEquals(first + 5, ack.getSequenceNumber());
+        assertEquals(0, ack.payloadLong(0));
+        a.onAck(ack);
+        assertEquals(0, a.inFlight(NODE_B));
+    }
+
+    @Test
+    public void resendsOnTimeoutAndGivesUp()
+    {
+        List<byte[]> sent = new ArrayList<>();
+        ReliableDelivery a = new ReliableDelivery(codec, (data, address) -> sent.add(data), () -> now[0]);
+        a.send(MessageCodec.MessageType.CHAT_MESSAGE, new byte[1], NODE_A, NODE_B, ADDRESS_B);
+
+        now[0] += ReliableDelivery.INITIAL_RTO_MS - ReliableDelivery.TICK_MS;
+        assertEquals(0, a.processTimeouts(now[0]));
+        now[0] += ReliableDelivery.TICK_MS;
+        assertEquals(1, a.processTimeouts(now[0]));
+        assertEquals(1.0, a.congestionWindow(NODE_B), 0);
+        assertEquals(2 * ReliableDelivery.INITIAL_RTO_MS, a.retransmitTimeout(NODE_B));
+
+        for (int i = 0; i < 20; i++)
+        {
+            now[0] += ReliableDelivery.MAX_RTO_MS;
+            a.processTimeouts(now[0]);
+        }
+        assertEquals(1 + ReliableDelivery.MAX_RETRIES, sent.size());
+        assertEquals(1, a.getFailedCount());
+        assertEquals(0, a.inFlight(NODE_B));
+    }
+
+    /**
+     * 500 messages sent at once over a simulated mobile link: 40ms each way, 200 packets/s with a 32 packet queue, and
+     * 5% random loss. Compares the old scheme (everything sent at once, resent after 5s on a one second scan, up to 3
+     * times, duplicates handled again) with ReliableDelivery, in simulated time.
+     */
+    @Test
+    public void benchmarkLossyLink()
+    {
+        int messages = 500;
+        Result old = simulate(new OldRetry(), messages);
+        Result reliable = simulate(new Reliable(), messages);
+
+        System.out.println(String.format("%d messages over lossy link: old retry %d delivered, %d duplicates, %d packets sent, done in %.1fs; " +
+                        "ReliableDelivery %d delivered, %d duplicates, %d packets sent, done in %.1fs",
+                messages, old.delivered, old.duplicates, old.packets, old.elapsedMs / 1000.0,
+                reliable.delivered, reliable.duplicates, reliable.packets, reliable.elapsedMs / 1000.0));
+        assertEquals(messages, reliable.delivered);
+        assertEquals(0, reliable.duplicates);
+        assertTrue(reliable.delivered >= old.delivered);
+    }
+
+    private static class Result
+    {
+        int delivered;
+        int duplicates;
+        int packets;
+        long elapsedMs;
+    }
+
+    private static class Packet implements Comparable<Packet>
+    {
+        final long arrival;
+        final byte[] data;
+        final boolean toB;
+
+        Packet(long arrival, byte[] data, boolean toB)
+        {
+            this.arrival = arrival;
+            this.data = data;
+            this.toB = toB;
+        }
+
+        @Override
+        public int compareTo(Packet other)
+        {
+            return Long.compare(arrival, other.arrival);
+        }
+    }
+
+    /**
+     * One direction of the link: packets leave one at a time, queue behind each other, and are dropped when the queue
+     * is full or at random.
+     */
+    private class Link
+    {
+        static final long PACKET_MS = 5;
+        static final long LATENCY_MS = 40;
+        static final int QUEUE = 32;
+
+        final PriorityQueue<Packet> network;
+        final Random random;
+        final boolean toB;
+        long freeAt;
+        int sent;
+
+        Link(PriorityQueue<Packet> network, Random random, boolean toB)
+        {
+            this.network = network;
+            this.random = random;
+            this.toB = toB;
+        }
+
+        void send(byte[] data)
+        {
+            sent++;
+            long start = Math.max(now[0], freeAt);
+            if ((start - now[0]) / PACKET_MS >= QUEUE) return;
+            freeAt = start + PACKET_MS;
+            if (random.nextInt(100) < 5) return;
+            network.add(new Packet(freeAt + LATENCY_MS, data, toB));
+        }
+    }
+
+    private interface Scheme
+    {
+        void start(Link toB, Link toA, int messages);
+
+        /**
+         * @return the message number if this packet reached B and delivered one, -1 otherwise
+         */
+        int receive(Packet packet);
+
+        long tickMs();
+
+        void tick();
+
+        boolean idle();
+    }
+
+    private Result simulate(Scheme scheme, int messages)
+    {
+        PriorityQueue<Packet> network = new PriorityQueue<>();
+        Random random = new Random(42);
+        Link toB = new Link(network, random, true);
+        Link toA = new Link(network, random, false);
+        long start = now[0];
+        long nextTick = start + scheme.tickMs();
+        Set<Integer> delivered = new HashSet<>();
+        Result result = new Result();
+
+        scheme.start(toB, toA, messages);
+        long end = start + 300_000;
+        while (now[0] < end && !(network.isEmpty() && scheme.idle()))
+        {
+            Packet packet = network.peek();
+            if (packet != null && packet.arrival <= nextTick)
+            {
+                network.poll();
+                now[0] = packet.arrival;
+                int message = scheme.receive(packet);
+                if (message >= 0 && !delivered.add(message)) result.duplicates++;
+                if (message >= 0) result.elapsedMs = now[0] - start;
+            }
+            else
+            {
+                now[0] = nextTick;
+                scheme.tick();
+                nextTick += scheme.tickMs();
+            }
+        }
+        result.delivered = delivered.size();
+        result.packets = toB.sent + toA.sent;
+        return result;
+    }
+
+    private class Reliable implements Scheme
+    {
+        ReliableDelivery a;
+        ReliableDelivery b;
+        int messages;
+        int next;
+
+        @Override
+        public void start(Link toB, Link toA, int messages)
+        {
+            a = new ReliableDelivery(codec, (data, address) -> toB.send(data), () -> now[0]);
+            b = new ReliableDelivery(codec, (data, address) -> toA.send(data), () -> now[0]);
+            this.messages = messages;
+            offer();
+        }
+
+        /**
+         * Queue as many messages as the peer's send queue takes; the rest are offered again later.
+         */
+        void offer()
+        {
+            while (next < messages &&
+                    a.send(MessageCodec.MessageType.CHAT_MESSAGE, ByteBuffer.allocate(8).putLong(next).array(), NODE_A, NODE_B, ADDRESS_B))
+            {
+                next++;
+            }
+        }
+
+        @Override
+        public int receive(Packet packet)
+        {
+            MessageCodec.PacketView view = view(packet.data);
+            if (!packet.toB)
+            {
+                a.onAck(view);
+                offer();
+                return -1;
+            }
+            return b.onReceived(view, ADDRESS_A, NODE_B) ? (int) view.payloadLong(0) : -1;
+        }
+
+        @Override
+        public long tickMs()
+        {
+            return ReliableDelivery.TICK_MS;
+        }
+
+        @Override
+        public void tick()
+        {
+            a.processTimeouts(now[0]);
+        }
+
+        @Override
+        public boolean idle()
+        {
+            return next == messages && a.inFlight(NODE_B) == 0;
+        }
+    }
+
+    /**
+     * The retry loop P2PTransport used before: a map of pending messages scanned every second.
+     */
+    private class OldRetry implements Scheme
+    {
+        final Map<Integer, long[]> pending = new HashMap<>(); //sequence -> sent at, retries
+        final Map<Integer, byte[]> encoded = new HashMap<>();
+        Link toB;
+        Link toA;
+
+        @Override
+        public void start(Link toB, Link toA, int messages)
+        {
+            this.toB = toB;
+            this.toA = toA;
+            for (int i = 0; i < messages; i++)
+            {
+                MessageCodec.EncodedMessage message = codec.encode(MessageCodec.MessageType.CHAT_MESSAGE,
+                        ByteBuffer.allocate(8).putLong(i).array(), NODE_A, NODE_B, MessageCodec.Flags.REQUIRE_ACK);
+                toB.send(message.getBytes());
+                pending.put(message.getSequenceNumber(), new long[]{now[0], 0});
+                encoded.put(message.getSequenceNumber(), message.getBytes());
+            }
+        }
+
+        @Override
+        public int receive(Packet packet)
+        {
+            MessageCodec.PacketView view = view(packet.data);
+            if (!packet.toB)
+            {
+                pending.remove(view.getSequenceNumber());
+                return -1;
+            }
+            //acknowledged with the sequence number it answers, which the old transport meant to do
+            toA.send(codec.encode(MessageCodec.MessageType.PONG, new byte[0], NODE_B, NODE_A, MessageCodec.Flags.IS_ACK,
+                    MessageCodec.DEFAULT_TTL, new byte[MessageCodec.SIGNATURE_SIZE], view.getSequenceNumber()).getBytes());
+            return (int) view.payloadLong(0);
+        }
+
+        @Override
+        public long tickMs()
+        {
+            return 1000;
+        }
+
+        @Override
+        public void tick()
+        {
+            for (Iterator<Map.Entry<Integer, long[]>> it = pending.entrySet().iterator(); it.hasNext(); )
+            {
+                Map.Entry<Integer, long[]> entry = it.next();
+                long[] state = entry.getValue();
+                if (now[0] - state[0] > 5000 && state[1] < 3)
+                {
+                    toB.send(encoded.get(entry.getKey()));
+                    state[0] = now[0];
+                    state[1]++;
+                }
+                if (state[1] >= 3) it.remove();
+            }
+        }
+
+        @Override
+        public boolean idle()
+        {
+            return pending.isEmpty();
+        }
+    }
+
+    private MessageCodec.PacketView view(byte[] data)
+    {
+        return codec.view(ByteBuffer.wrap(data));
+    }
+
+    private static byte[] nodeId(int id)
+    {
+        byte[] nodeId = new byte[32];
+        nodeId[0] = (byte) id;
+        return nodeId;
+    }
+}
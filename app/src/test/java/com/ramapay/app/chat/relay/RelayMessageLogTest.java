@@ -0,0 +1,244 @@
+package com.ramapay.app.chat.relay;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+public class RelayMessageLogTest
+{
+    private static final long ALICE = 0x1111L;
+    private static final long BOB = 0x2222L;
+    private static final long SENDER = 0x3333L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void indexesMessagesByRecipient() throws IOException
+    {
+        try (RelayMessageLog log = new RelayMessageLog(tempFolder.newFolder()))
+        {
+            put(log, "a1", ALICE, "first");
+            put(log, "b1", BOB, "for bob");
+            put(log, "a2", ALICE, "second");
+
+            List<RelayMessageLog.Entry> pending = log.pendingFor(ALICE, now());
+            assertEquals(2, pending.size());
+            assertEquals("a1", pending.get(0).getId());
+            assertArrayEquals(bytes("second"), log.readBlob(pending.get(1)));
+            assertEquals(bytes("first").length + bytes("for bob").length + bytes("second").length, log.getUsedBytes());
+
+            assertTrue(log.markDelivered("a1", now()));
+            assertEquals(1, log.pendingFor(ALICE, now()).size());
+            assertTrue(log.delete("b1"));
+            assertTrue(log.pendingFor(BOB, now()).isEmpty());
+            assertFalse(log.delete("b1"));
+        }
+    }
+
+    @Test
+    public void replaysTheLogOnOpen() throws IOException
+    {
+        File dir = tempFolder.newFolder();
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            put(log, "a1", ALICE, "first");
+            put(log, "a2", ALICE, "second");
+            put(log, "b1", BOB, "for bob");
+            log.markDelivered("a1", 1234);
+            log.delete("b1");
+            log.put("old", BOB, SENDER, now() - 2 * HOUR, now() - HOUR, bytes("expired"));
+        }
+
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            assertEquals(2, log.getSize());
+            assertEquals(1234, log.get("a1").getDeliveredAt());
+            assertNull(log.get("b1"));
+            assertNull(log.get("old"));
+            List<RelayMessageLog.Entry> pending = log.pendingFor(ALICE, now());
+            assertEquals(1, pending.size());
+            assertArrayEquals(bytes("second"), log.readBlob(pending.get(0)));
+            assertEquals(bytes("first").length + bytes("second").length, log.getUsedBytes());
+        }
+    }
+
+    @Test
+    public void dropsTornWriteAtTail() throws IOException
+    {
+        File dir = tempFolder.newFolder();
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            put(log, "a1", ALICE, "first");
+            put(log, "a2", ALICE, "second");
+        }
+
+        //cut the last record short, as a crash mid write would
+        File segment = dir.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw"))
+        {
+            file.setLength(file.length() - 3);
+        }
+
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            assertEquals(1, log.getSize());
+            put(log, "a3", ALICE, "third");
+        }
+
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            List<RelayMessageLog.Entry> pending = log.pendingFor(ALICE, now());
+            assertEquals(2, pending.size());
+            assertArrayEquals(bytes("third"), log.readBlob(pending.get(1)));
+        }
+    }
+
+    @Test
+    public void compactsDeadSegments() throws IOException
+    {
+        File dir = tempFolder.newFolder();
+        byte[] blob = new byte[200];
+        try (RelayMessageLog log = new RelayMessageLog(dir, 4096, RelayMessageLog.COMPACT_RATIO))
+        {
+            //a first segment of messages that stay pending, with one deleted later so its tombstone must outlive compaction
+            log.put("gone", BOB, SENDER, now(), now() + HOUR, blob);
+            for (int i = 0; i < 15; i++) log.put("keep" + i, ALICE, SENDER, now(), now() + HOUR, blob);
+            for (int i = 0; i < 100; i++) log.put("m" + i, BOB, SENDER, now(), now() + HOUR, blob);
+            log.delete("gone");
+            for (int i = 0; i < 100; i++) log.markDelivered("m" + i, now());
+            for (int i = 0; i < 20; i++) log.put("late" + i, ALICE, SENDER, now(), now() + HOUR, blob);
+
+            long before = directorySize(dir);
+            assertTrue(log.needsCompaction());
+            assertTrue(log.compact(now()) > 0);
+            assertFalse(log.needsCompaction());
+            assertTrue(directorySize(dir) < before / 2);
+
+            //delivered messages keep their metadata, not their blob
+            assertTrue(log.get("m0").getDelivered());
+            assertEquals(35 * blob.length, log.getUsedBytes());
+            assertArrayEquals(blob, log.readBlob(log.pendingFor(ALICE, now()).get(20)));
+        }
+
+        try (RelayMessageLog log = new RelayMessageLog(dir))
+        {
+            assertNull(log.get("gone"));
+            assertEquals(35, log.pendingFor(ALICE, now()).size());
+            assertTrue(log.pendingFor(BOB, now()).isEmpty());
+            assertEquals(135, log.getSize());
+            assertEquals(35 * blob.length, log.getUsedBytes());
+        }
+    }
+
+    /**
+     * Store and markDelivered throughput at growing message counts, against rewriting a JSON index per change as
+     * RelayStorage used to. Counts past 100k need a larger test heap: run with -Drelay.benchmark.max=1000000
+     */
+    @Test
+    public void benchmarkStoreAndDeliver() throws IOException
+    {
+        int max = Integer.getInteger("relay.benchmark.max", 100_000);
+        byte[] blob = new byte[256];
+        for (int count = 10_000; count <= max; count *= 10)
+        {
+            File dir = tempFolder.newFolder();
+            long storeTime;
+            long deliverTime;
+            try (RelayMessageLog log = new RelayMessageLog(dir))
+            {
+                long start = System.nanoTime();
+                for (int i = 0; i < count; i++)
+                {
+                    log.put("message-" + i, i % 1000, SENDER, now(), now() + HOUR, blob);
+                }
+                storeTime = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int i = 0; i < count; i++) log.markDelivered("message-" + i, now());
+                deliverTime = System.nanoTime() - start;
+            }
+
+            long start = System.nanoTime();
+            try (RelayMessageLog log = new RelayMessageLog(dir))
+            {
+                assertEquals(count, log.getSize());
+            }
+            long replayTime = System.nanoTime() - start;
+
+            long rewrite = jsonIndexRewrite(count, tempFolder.newFile());
+            System.out.println(String.format("%,d messages: store %.0f/s, markDelivered %.0f/s, replay %dms; JSON index rewrite %.1fms per change (%.2f/s)",
+                    count, count * 1e9 / storeTime, count * 1e9 / deliverTime, replayTime / 1_000_000, rewrite / 1e6, 1e9 / rewrite));
+            assertTrue(storeTime / count < rewrite);
+        }
+    }
+
+    /**
+     * @return nanos to write a JSON index of count messages, which the old storage did on every store and delivery
+     */
+    private static long jsonIndexRewrite(int count, File file) throws IOException
+    {
+        JSONArray index = new JSONArray();
+        for (int i = 0; i < count; i++)
+        {
+            index.put(new JSONObject()
+                    .put("id", "message-" + i)
+                    .put("recipientKeyHash", "00000000000003e8")
+                    .put("senderKeyHash", "0000000000003333")
+                    .put("receivedAt", now())
+                    .put("expiresAt", now() + HOUR)
+                    .put("size", 256)
+                    .put("delivered", false));
+        }
+
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 2; run++)
+        {
+            long start = System.nanoTime();
+            try (FileOutputStream out = new FileOutputStream(file))
+            {
+                out.write(index.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    private static void put(RelayMessageLog log, String id, long recipient, String text)
+    {
+        log.put(id, recipient, SENDER, now(), now() + HOUR, bytes(text));
+    }
+
+    private static byte[] bytes(String text)
+    {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static long now()
+    {
+        return System.currentTimeMillis();
+    }
+
+    private static long directorySize(File dir)
+    {
+        long size = 0;
+        for (File file : dir.listFiles()) size += file.length();
+        return size;
+    }
+}
@@ -0,0 +1,131 @@
+package com.ramapay.app.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class BatchSizeControllerTest
+{
+    private static final long CHAIN = 1;
+
+    private final Map<Long, BatchSizeController.Limit> stored = new HashMap<>();
+    private int loads;
+
+    private final BatchSizeController.Store store = new BatchSizeController.Store()
+    {
+        @Override
+        public Map<Long, BatchSizeController.Limit> load()
+        {
+            loads++;
+            return new HashMap<>(stored);
+        }
+
+        @Override
+        public void save(long chainId, BatchSizeController.Limit limit)
+        {
+            stored.put(chainId, limit);
+        }
+    };
+
+    @Test
+    public void startsWithProbeAndGrows()
+    {
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        assertEquals(BatchSizeController.PROBE_BATCH, controller.getLimit(CHAIN));
+
+        fullBatches(controller, BatchSizeController.GROW_AFTER);
+        assertEquals(BatchSizeController.PROBE_BATCH * 2, controller.getLimit(CHAIN));
+
+        //partial batches say nothing about capacity
+        for (int i = 0; i < 10; i++) controller.onSuccess(CHAIN, 1);
+        assertEquals(BatchSizeController.PROBE_BATCH * 2, controller.getLimit(CHAIN));
+
+        for (int i = 0; i < 20; i++) fullBatches(controller, BatchSizeController.GROW_AFTER);
+        assertEquals(64, controller.getLimit(CHAIN));
+    }
+
+    @Test
+    public void shrinksOnErrorAndDisables()
+    {
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        for (int i = 0; i < 5; i++) fullBatches(controller, BatchSizeController.GROW_AFTER);
+        assertEquals(64, controller.getLimit(CHAIN));
+
+        controller.onError(CHAIN);
+        assertEquals(32, controller.getLimit(CHAIN));
+
+        for (int i = 0; i < 10; i++) controller.onError(CHAIN);
+        assertEquals(0, controller.getLimit(CHAIN));
+    }
+
+    @Test
+    public void oversizedResponseKeepsBatching()
+    {
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        for (int i = 0; i < 5; i++) fullBatches(controller, BatchSizeController.GROW_AFTER);
+
+        controller.onOversizedResponse(CHAIN, 64);
+        assertEquals(32, controller.getLimit(CHAIN));
+        for (int i = 0; i < 10; i++) controller.onOversizedResponse(CHAIN, controller.getLimit(CHAIN));
+        assertEquals(BatchSizeController.MIN_BATCH, controller.getLimit(CHAIN));
+
+        assertTrue(BatchSizeController.isOversizedResponse("Response body too large"));
+        assertTrue(BatchSizeController.isOversizedResponse("Unsuccessful response: 413"));
+        assertTrue(BatchSizeController.isOversizedResponse("response exceeds max size of 10485760"));
+        assertFalse(BatchSizeController.isOversizedResponse("timeout"));
+        assertFalse(BatchSizeController.isOversizedResponse("Invalid response received: 429; Too Many Requests"));
+        assertFalse(BatchSizeController.isOversizedResponse("daily request count exceeds rate limit"));
+    }
+
+    @Test
+    public void learnedLimitSurvivesRestart()
+    {
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        controller.setStore(store);
+        for (int i = 0; i < 3; i++) fullBatches(controller, BatchSizeController.GROW_AFTER);
+        int learned = controller.getLimit(CHAIN);
+        assertEquals(learned, stored.get(CHAIN).batchLimit);
+
+        BatchSizeController restarted = new BatchSizeController(chainId -> 64);
+        restarted.setStore(store);
+        assertEquals(learned, restarted.getLimit(CHAIN));
+    }
+
+    @Test
+    public void disabledChainIsProbedAgainLater()
+    {
+        stored.put(CHAIN, new BatchSizeController.Limit(0, System.currentTimeMillis()));
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        controller.setStore(store);
+        assertEquals(0, controller.getLimit(CHAIN));
+
+        stored.put(CHAIN, new BatchSizeController.Limit(0, System.currentTimeMillis() - BatchSizeController.RETRY_INTERVAL - 1));
+        controller = new BatchSizeController(chainId -> 64);
+        controller.setStore(store);
+        assertEquals(BatchSizeController.PROBE_BATCH, controller.getLimit(CHAIN));
+    }
+
+    @Test
+    public void storeIsReadOnFirstUse()
+    {
+        stored.put(CHAIN, new BatchSizeController.Limit(32, System.currentTimeMillis()));
+        BatchSizeController controller = new BatchSizeController(chainId -> 64);
+        controller.setStore(store);
+        assertEquals(0, loads);
+
+        assertEquals(32, controller.getLimit(CHAIN));
+        controller.onError(CHAIN);
+        assertEquals(16, controller.getLimit(CHAIN));
+        assertEquals(1, loads);
+    }
+
+    private void fullBatches(BatchSizeController controller, int count)
+    {
+        for (int i = 0; i < count; i++) controller.onSuccess(CHAIN, controller.getLimit(CHAIN));
+    }
+}
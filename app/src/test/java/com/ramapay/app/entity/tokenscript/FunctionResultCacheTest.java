@@ -0,0 +1,140 @@
+package com.ramapay.app.entity.tokenscript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+import java.math.BigInteger;
+import java.util.Collections;
+
+public class FunctionResultCacheTest
+{
+    private static final long CHAIN = 1;
+    private static final String CONTRACT = "0x00000000000000000000000000000000000000AA";
+    private static final String WALLET = "0x0000000000000000000000000000000000c0ffee";
+
+    @Test
+    public void keySharedByIdenticalCalls()
+    {
+        String key = FunctionResultCache.key(CHAIN, CONTRACT, WALLET, encode("ownerOf", 7));
+        assertEquals(key, FunctionResultCache.key(CHAIN, CONTRACT.toLowerCase(), WALLET, encode("ownerOf", 7)));
+        assertNotEquals(key, FunctionResultCache.key(CHAIN, CONTRACT, WALLET, encode("ownerOf", 8)));
+        assertNotEquals(key, FunctionResultCache.key(CHAIN, CONTRACT, WALLET, encode("tokenURI", 7)));
+        assertNotEquals(key, FunctionResultCache.key(2, CONTRACT, WALLET, encode("ownerOf", 7)));
+        assertNotEquals(key, FunctionResultCache.key(CHAIN, CONTRACT, "0x0000000000000000000000000000000000000001", encode("ownerOf", 7)));
+    }
+
+    @Test
+    public void transfersInvalidateOlderResults()
+    {
+        FunctionResultCache cache = new FunctionResultCache(16);
+        assertFalse(cache.isWatched(CHAIN, CONTRACT));
+
+        cache.onTransfers(CHAIN, CONTRACT, 0); //event read, no transfers
+        assertTrue(cache.isWatched(CHAIN, CONTRACT));
+        assertTrue(cache.isCurrent(CHAIN, CONTRACT, 100));
+        assertFalse(cache.isCurrent(CHAIN, CONTRACT, 0)); //block not known
+
+        cache.onTransfers(CHAIN, CONTRACT.toLowerCase(), 150);
+        assertFalse(cache.isCurrent(CHAIN, CONTRACT, 100));
+        assertTrue(cache.isCurrent(CHAIN, CONTRACT, 150));
+
+        //a later read with an older (or no) transfer doesn't roll back
+        cache.onTransfers(CHAIN, CONTRACT, 120);
+        assertFalse(cache.isCurrent(CHAIN, CONTRACT, 140));
+        assertFalse(cache.isWatched(2, CONTRACT));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed()
+    {
+        FunctionResultCache cache = new FunctionResultCache(2);
+        cache.put("a", "0x01", 1, 10);
+        cache.put("b", "0x02", 1, 10);
+        cache.get("a");
+        cache.put("c", "0x03", 1, 10);
+        assertNull(cache.get("b"));
+        assertEquals("0x01", cache.get("a").value);
+        assertEquals(10, cache.get("c").block);
+
+        cache.setChainBlock(CHAIN, 500);
+        cache.setChainBlock(CHAIN, 400);
+        assertEquals(500, cache.getChainBlock(CHAIN));
+        assertEquals(0, cache.getChainBlock(2));
+    }
+
+    /**
+     * Render a 50 token collection with three function attributes every 5 seconds for 10 minutes, with a transfer
+     * every 2 minutes. Previously a cached result was refetched once it was 30 seconds old.
+     */
+    @Test
+    public void tokenViewRefreshBenchmark()
+    {
+        int tokens = 50;
+        String[] methods = { "ownerOf", "tokenURI", "level" };
+        long renderInterval = 5_000;
+        long duration = 10 * 60_000;
+        long blockTime = 12_000;
+        FunctionResultCache cache = new FunctionResultCache(FunctionResultCache.MEMORY_ENTRIES);
+        cache.onTransfers(CHAIN, CONTRACT, 0);
+
+        int calls = 0;
+        int previousCalls = 0;
+        int renders = 0;
+        long[] lastFetch = new long[tokens * methods.length];
+        long start = System.nanoTime();
+        for (long time = 0; time < duration; time += renderInterval)
+        {
+            long block = time / blockTime + 1;
+            cache.setChainBlock(CHAIN, block);
+            if (time > 0 && time % 120_000 == 0) cache.onTransfers(CHAIN, CONTRACT, block);
+
+            for (int tokenId = 0; tokenId < tokens; tokenId++)
+            {
+                for (int m = 0; m < methods.length; m++)
+                {
+                    String key = FunctionResultCache.key(CHAIN, CONTRACT, WALLET, encode(methods[m], tokenId));
+                    FunctionResultCache.Entry entry = cache.get(key);
+                    if (entry == null || !cache.isCurrent(CHAIN, CONTRACT, entry.block))
+                    {
+                        calls++;
+                        cache.put(key, "0x" + tokenId, time, cache.getChainBlock(CHAIN));
+                    }
+
+                    int index = tokenId * methods.length + m;
+                    if (time == 0 || time > lastFetch[index] + 30_000)
+                    {
+                        previousCalls++;
+                        lastFetch[index] = time;
+                    }
+                }
+            }
+            renders++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int lookups = renders * tokens * methods.length;
+        assertEquals(tokens * methods.length * 5, calls); //first render, then after each of the four transfers
+        assertTrue(calls * 3 < previousCalls);
+        System.out.println("Rendered " + lookups + " attribute values with " + calls + " contract calls ("
+                + (lookups - calls) * 100 / lookups + "% from cache) in " + elapsed / 1_000_000 + "ms; 30s refresh: "
+                + previousCalls + " calls");
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static String encode(String method, long tokenId)
+    {
+        Function function = new Function(method, Collections.<Type>singletonList(new Uint256(BigInteger.valueOf(tokenId))),
+                Collections.<TypeReference<?>>emptyList());
+        return FunctionEncoder.encode(function);
+    }
+}
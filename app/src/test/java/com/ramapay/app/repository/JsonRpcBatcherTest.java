@@ -0,0 +1,167 @@
+package com.ramapay.app.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.app.entity.BatchSizeController;
+import com.ramapay.app.service.AWHttpServiceWaterfall;
+import com.ramapay.shadows.ShadowApp;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Sends TokenScript style attribute eth_calls through AWHttpServiceWaterfall to a local stub node which answers each
+ * call with its calldata, and returns batch replies in reverse order.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class JsonRpcBatcherTest
+{
+    private static final String WALLET = "0x0000000000000000000000000000000000c0ffee";
+    private static final String CONTRACT = "0x0000000000000000000000000000000000000001";
+
+    private HttpServer server;
+    private Web3j web3j;
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private volatile boolean batchSupported = true;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            roundTrips.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            String reply;
+            if (body.startsWith("[") && batchSupported)
+            {
+                JSONArray requests = new JSONArray(body);
+                JSONArray responses = new JSONArray();
+                for (int i = requests.length() - 1; i >= 0; i--) responses.put(echoCall(requests.getJSONObject(i)));
+                reply = responses.toString();
+            }
+            else if (body.startsWith("["))
+            {
+                reply = new JSONObject().put("jsonrpc", "2.0").put("id", JSONObject.NULL)
+                        .put("error", new JSONObject().put("code", -32600).put("message", "batch not supported")).toString();
+            }
+            else
+            {
+                reply = echoCall(new JSONObject(body)).toString();
+            }
+
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, 900301, new OkHttpClient(), null, null, null, false));
+    }
+
+    @After
+    public void tearDown()
+    {
+        web3j.shutdown();
+        server.stop(0);
+    }
+
+    /**
+     * 200 token ids with three attributes each; previously one eth_call per attribute per token
+     */
+    @Test
+    public void batchesAttributeCalls() throws IOException
+    {
+        long chainId = 1;
+        int tokens = 200;
+        int attributes = 3;
+        JsonRpcBatcher batcher = new JsonRpcBatcher(new BatchSizeController(id -> 100));
+
+        Map<Long, String> expected = new HashMap<>();
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>();
+        for (int tokenId = 0; tokenId < tokens; tokenId++)
+        {
+            for (int attr = 0; attr < attributes; attr++)
+            {
+                String data = Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(tokenId * 16L + attr), 64);
+                Request<?, EthCall> request = web3j.ethCall(Transaction.createEthCallTransaction(WALLET, CONTRACT, data), DefaultBlockParameterName.LATEST);
+                expected.put(request.getId(), data);
+                requests.add(request);
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Response<?>> responses = batcher.send(web3j, chainId, requests, 1);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(tokens * attributes, responses.size());
+        for (Response<?> response : responses)
+        {
+            assertEquals(expected.get(response.getId()), ((EthCall) response).getValue());
+        }
+
+        //probe batch, then the limit grows towards the ceiling
+        assertTrue(roundTrips.get() < tokens * attributes / 10);
+        System.out.println("Resolved " + tokens * attributes + " attribute calls in " + roundTrips.get() + " round trips, "
+                + elapsed / 1_000_000 + "ms (one at a time: " + tokens * attributes + " round trips)");
+    }
+
+    @Test
+    public void fallsBackToSingleCalls() throws IOException
+    {
+        long chainId = 2;
+        batchSupported = false;
+        BatchSizeController limits = new BatchSizeController(id -> 100);
+        JsonRpcBatcher batcher = new JsonRpcBatcher(limits);
+
+        List<Request<?, ? extends Response<?>>> requests = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+        {
+            requests.add(web3j.ethCall(Transaction.createEthCallTransaction(WALLET, CONTRACT, "0x0" + i), DefaultBlockParameterName.LATEST));
+        }
+
+        List<Response<?>> responses = batcher.send(web3j, chainId, requests, 1);
+        assertEquals(10, responses.size());
+        assertEquals("0x05", ((EthCall) responses.get(5)).getValue());
+        assertEquals(0, limits.getLimit(chainId));
+    }
+
+    private static JSONObject echoCall(JSONObject request)
+    {
+        JSONObject tx = request.getJSONArray("params").getJSONObject(0);
+        return new JSONObject().put("jsonrpc", "2.0").put("id", request.get("id")).put("result", tx.getString("data"));
+    }
+}
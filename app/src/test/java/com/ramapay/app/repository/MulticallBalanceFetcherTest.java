@@ -0,0 +1,254 @@
+package com.ramapay.app.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the balance fetcher against a local stub JSON-RPC node which counts requests.
+ * Each stub token reports a balance of (token index * 1000); address 0 has no code.
+ */
+public class MulticallBalanceFetcherTest
+{
+    private static final long CHAIN_ID = 1;
+    private static final String OWNER = "0x0000000000000000000000000000000000c0ffee";
+    private static final int TOKEN_COUNT = 300;
+
+    private HttpServer server;
+    private Web3j web3j;
+    private final AtomicInteger requestCount = new AtomicInteger();
+    private volatile boolean multicallDeployed = true;
+    private volatile int maxCallsPerRequest = Integer.MAX_VALUE;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requestCount.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            byte[] reply = handleRpc(new JSONObject(body)).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(reply);
+            }
+        });
+        server.start();
+        web3j = Web3j.build(new HttpService("http://127.0.0.1:" + server.getAddress().getPort()));
+    }
+
+    @After
+    public void tearDown()
+    {
+        web3j.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void multicallCollapsesRequests()
+    {
+        List<String> tokens = buildTokens(TOKEN_COUNT);
+
+        //old path: one eth_call per token
+        MulticallBalanceFetcher fetcher = new MulticallBalanceFetcher(chainId -> web3j);
+        multicallDeployed = false;
+        Map<String, BigDecimal> single = fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        int singleRequests = requestCount.getAndSet(0);
+
+        //new path
+        multicallDeployed = true;
+        fetcher = new MulticallBalanceFetcher(chainId -> web3j);
+        Map<String, BigDecimal> batched = fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        int batchRequests = requestCount.getAndSet(0);
+
+        System.out.println("Balance requests for " + TOKEN_COUNT + " tokens: single=" + singleRequests + " multicall=" + batchRequests);
+
+        assertEquals(TOKEN_COUNT + 1, singleRequests); //includes the probe that found no multicall
+        assertEquals(2, batchRequests);
+        assertEquals(single, batched);
+        assertEquals(new BigDecimal(5000), batched.get(tokens.get(5)));
+    }
+
+    @Test
+    public void missingContractReportsNoCode()
+    {
+        List<String> tokens = buildTokens(3);
+        tokens.set(0, "0x0000000000000000000000000000000000000000");
+        MulticallBalanceFetcher fetcher = new MulticallBalanceFetcher(chainId -> web3j);
+        Map<String, BigDecimal> balances = fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+
+        assertEquals(MulticallBalanceFetcher.BALANCE_NO_CONTRACT, balances.get(tokens.get(0)));
+        assertEquals(new BigDecimal(2000), balances.get(tokens.get(2)));
+    }
+
+    @Test
+    public void fallsBackWhenNoMulticall()
+    {
+        multicallDeployed = false;
+        List<String> tokens = buildTokens(10);
+        MulticallBalanceFetcher fetcher = new MulticallBalanceFetcher(chainId -> web3j);
+
+        fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        assertEquals(11, requestCount.getAndSet(0));
+        assertFalse(fetcher.hasMulticall(CHAIN_ID));
+
+        //chain is remembered, no second probe
+        Map<String, BigDecimal> balances = fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        assertEquals(10, requestCount.get());
+        assertEquals(new BigDecimal(9000), balances.get(tokens.get(9)));
+    }
+
+    @Test
+    public void chunkShrinksOnNodeLimit()
+    {
+        maxCallsPerRequest = 60;
+        List<String> tokens = buildTokens(TOKEN_COUNT);
+        MulticallBalanceFetcher fetcher = new MulticallBalanceFetcher(chainId -> web3j);
+
+        Map<String, BigDecimal> balances = fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        assertTrue(fetcher.getChunkSize(CHAIN_ID) <= 60);
+        assertEquals(TOKEN_COUNT, balances.size());
+        assertEquals(new BigDecimal(299000), balances.get(tokens.get(299)));
+
+        //learned size is reused without further errors
+        requestCount.set(0);
+        fetcher.fetchBalances(CHAIN_ID, OWNER, tokens);
+        int chunk = fetcher.getChunkSize(CHAIN_ID);
+        assertEquals((TOKEN_COUNT + chunk - 1) / chunk, requestCount.get());
+    }
+
+    private List<String> buildTokens(int count)
+    {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            tokens.add(Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(i), 40));
+        }
+        return tokens;
+    }
+
+    private JSONObject handleRpc(JSONObject request)
+    {
+        JSONObject response = new JSONObject();
+        response.put("jsonrpc", "2.0");
+        response.put("id", request.get("id"));
+
+        JSONObject tx = request.getJSONArray("params").getJSONObject(0);
+        String to = tx.getString("to");
+        byte[] data = Numeric.hexStringToByteArray(tx.getString("data"));
+
+        if (to.equalsIgnoreCase(Multicall3.ADDRESS))
+        {
+            if (!multicallDeployed)
+            {
+                response.put("result", "0x");
+            }
+            else
+            {
+                List<String> targets = decodeTargets(data);
+                if (targets.size() > maxCallsPerRequest)
+                {
+                    response.put("error", new JSONObject().put("code", -32000).put("message", "out of gas"));
+                }
+                else
+                {
+                    response.put("result", encodeResults(targets));
+                }
+            }
+        }
+        else
+        {
+            byte[] balance = balanceFor(to);
+            response.put("result", Numeric.toHexString(balance));
+        }
+
+        return response;
+    }
+
+    private byte[] balanceFor(String token)
+    {
+        BigInteger index = Numeric.toBigInt(token);
+        if (index.signum() == 0) return new byte[0];
+        return Numeric.toBytesPadded(index.multiply(BigInteger.valueOf(1000)), 32);
+    }
+
+    private List<String> decodeTargets(byte[] data)
+    {
+        int arrayStart = 4 + readInt(data, 4);
+        int count = readInt(data, arrayStart);
+        int base = arrayStart + 32;
+        List<String> targets = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+        {
+            int tuple = base + readInt(data, base + i * 32);
+            byte[] addr = new byte[20];
+            System.arraycopy(data, tuple + 12, addr, 0, 20);
+            targets.add(Numeric.toHexString(addr));
+        }
+        return targets;
+    }
+
+    private String encodeResults(List<String> targets)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeWord(out, 32);
+        writeWord(out, targets.size());
+        List<byte[]> returns = new ArrayList<>();
+        for (String target : targets) returns.add(balanceFor(target));
+
+        int offset = 32 * targets.size();
+        for (byte[] r : returns)
+        {
+            writeWord(out, offset);
+            offset += 96 + ((r.length + 31) / 32) * 32;
+        }
+        for (byte[] r : returns)
+        {
+            writeWord(out, 1);
+            writeWord(out, 64);
+            writeWord(out, r.length);
+            out.write(r, 0, r.length);
+            int pad = ((r.length + 31) / 32) * 32 - r.length;
+            out.write(new byte[pad], 0, pad);
+        }
+        return Numeric.toHexString(out.toByteArray());
+    }
+
+    private void writeWord(ByteArrayOutputStream out, long value)
+    {
+        byte[] word = Numeric.toBytesPadded(BigInteger.valueOf(value), 32);
+        out.write(word, 0, word.length);
+    }
+
+    private int readInt(byte[] data, int index)
+    {
+        byte[] word = new byte[32];
+        System.arraycopy(data, index, word, 0, 32);
+        return new BigInteger(1, word).intValue();
+    }
+}
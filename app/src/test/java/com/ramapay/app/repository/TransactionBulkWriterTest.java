@@ -0,0 +1,252 @@
+package com.ramapay.app.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import com.ramapay.app.entity.Transaction;
+import com.ramapay.app.entity.transactions.TransferEvent;
+import com.ramapay.app.repository.entity.RealmTransaction;
+import com.ramapay.app.repository.entity.RealmTransfer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import io.realm.Realm;
+import io.realm.RealmModel;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+
+/**
+ * Runs the bulk writer against a mocked Realm backed by in-memory tables. The tables answer in() queries on hash and
+ * take rows from insert/insertOrUpdate, so the tests can check what ends up stored.
+ */
+public class TransactionBulkWriterTest
+{
+    private static final long CHAIN = 1;
+    private static final String WALLET = "0x0000000000000000000000000000000000c0ffee";
+    private static final String TOKEN1 = "0x0000000000000000000000000000000000000001";
+    private static final String TOKEN2 = "0x0000000000000000000000000000000000000002";
+    private static final String FULL_INPUT = "0xa9059cbb000000000000000000000000000000000000000000000000000000000000c0ffee";
+
+    private final Map<String, RealmTransaction> storedTx = new LinkedHashMap<>();
+    private final List<RealmTransfer> storedTransfers = new ArrayList<>();
+    private Realm realm;
+    private int txQueries;
+    private int txInsertCalls;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp()
+    {
+        realm = mock(Realm.class);
+        RealmQuery<RealmTransaction> txQuery = queryOver(storedTx.values(), RealmTransaction::getHash, true);
+        RealmQuery<RealmTransfer> transferQuery = queryOver(storedTransfers, t -> RealmTransfer.databaseKey(t.getChain(), t.getHash()), false);
+        doReturn(txQuery).when(realm).where(RealmTransaction.class);
+        doReturn(transferQuery).when(realm).where(RealmTransfer.class);
+
+        doAnswer(inv -> {
+            txInsertCalls++;
+            for (RealmTransaction tx : (Collection<RealmTransaction>) inv.getArgument(0)) storedTx.put(tx.getHash(), tx);
+            return null;
+        }).when(realm).insertOrUpdate(anyCollection());
+
+        doAnswer(inv -> {
+            storedTransfers.addAll((Collection<RealmTransfer>) inv.getArgument(0));
+            return null;
+        }).when(realm).insert(anyCollection());
+    }
+
+    @Test
+    public void hashLookupsAreBatched()
+    {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < 1201; i++) hashes.add("0x" + i);
+
+        List<List<String>> batches = TransactionBulkWriter.partition(hashes, TransactionBulkWriter.QUERY_BATCH);
+        assertEquals(3, batches.size());
+        assertEquals(500, batches.get(0).size());
+        assertEquals(500, batches.get(1).size());
+        assertEquals(201, batches.get(2).size());
+        assertEquals("0x1200", batches.get(2).get(200));
+
+        assertEquals(0, TransactionBulkWriter.partition(Collections.emptyList(), TransactionBulkWriter.QUERY_BATCH).size());
+    }
+
+    @Test
+    public void ingestStatsPerPage()
+    {
+        TransactionBulkWriter.IngestStats stats = new TransactionBulkWriter.IngestStats();
+        stats.record(800, 40_000_000L);
+        stats.record(200, 10_000_000L);
+
+        assertEquals(2, stats.getPages());
+        assertEquals(1000, stats.getItems());
+        assertEquals(25.0, stats.getAveragePageMs(), 0.001);
+        assertEquals(10.0, stats.getLastPageMs(), 0.001);
+        assertEquals(40.0, stats.getMaxPageMs(), 0.001);
+        assertEquals(20000.0, stats.getItemsPerSecond(), 0.001);
+    }
+
+    @Test
+    public void writeTransactionsInsertsPageInOneCall()
+    {
+        List<Transaction> page = new ArrayList<>();
+        for (int i = 0; i < 1100; i++) page.add(tx("0x" + i, "100", "0x"));
+
+        TransactionBulkWriter.writeTransactions(realm, page);
+
+        assertEquals(1100, storedTx.size());
+        assertEquals(3, txQueries); //one in() per QUERY_BATCH hashes, rather than a findFirst per transaction
+        assertEquals(1, txInsertCalls);
+        assertEquals("100", storedTx.get("0x1099").getBlockNumber());
+    }
+
+    @Test
+    public void writeTransactionsMergesStoredRows()
+    {
+        RealmTransaction stored = store(tx("0xa", "10", "0x"));
+        stored.setMaxFeePerGas("50");
+        stored.setMaxPriorityFee("2");
+
+        //0xa was re-mined in a later block; 0xb repeats within the page
+        TransactionBulkWriter.writeTransactions(realm, Arrays.asList(tx("0xa", "11", "0x"), tx("0xb", "12", "0x"), tx("0xb", "12", "0x")));
+
+        assertEquals(2, storedTx.size());
+        assertSame(stored, storedTx.get("0xa")); //updated in place, not re-inserted
+        assertEquals("11", stored.getBlockNumber());
+        assertEquals("50", stored.getMaxFeePerGas()); //explorer doesn't report fees; keep the ones recorded
+        assertEquals("2", stored.getPriorityFee());
+        assertEquals("12", storedTx.get("0xb").getBlockNumber());
+        assertEquals(1, txInsertCalls);
+    }
+
+    @Test
+    public void eventTransactionsAreIndexedByContract()
+    {
+        RealmTransaction stored = store(tx("0xa", "10", FULL_INPUT));
+        RealmTransaction eventOnly = store(tx("0xc", "10", "0x"));
+
+        Map<String, Transaction> txWriteMap = new HashMap<>();
+        txWriteMap.put(TOKEN1, tx("0xa", "10", "0x"));
+        txWriteMap.put(TOKEN2, tx("0xd", "14", "0x"));
+        txWriteMap.put(TOKEN1.replace("01", "03"), tx("0xc", "15", "0x"));
+        Set<String> txFetches = new HashSet<>();
+
+        TransactionBulkWriter.writeEventTransactions(realm, txWriteMap, txFetches);
+
+        //full transaction already stored: only its contract index changes
+        assertEquals(TOKEN1, stored.getContractAddress());
+        assertEquals(FULL_INPUT, stored.getInput());
+        assertEquals("10", stored.getBlockNumber());
+
+        //stored row written from an earlier event is refreshed from this one
+        assertEquals("15", eventOnly.getBlockNumber());
+
+        //unknown hash is written from the event and queued for a full fetch
+        assertEquals(Collections.singleton("0xd"), txFetches);
+        RealmTransaction inserted = storedTx.get("0xd");
+        assertNotNull(inserted);
+        assertEquals(TOKEN2, inserted.getContractAddress());
+        assertEquals("14", inserted.getBlockNumber());
+    }
+
+    @Test
+    public void covalentEventsOverwriteStoredData()
+    {
+        RealmTransaction stored = store(tx("0xa", "10", FULL_INPUT));
+        Map<String, Transaction> txWriteMap = Collections.singletonMap(TOKEN1, tx("0xa", "11", FULL_INPUT + "00"));
+
+        //Covalent supplies full transactions, so nothing is fetched and the event data is written
+        TransactionBulkWriter.writeEventTransactions(realm, txWriteMap, null);
+
+        assertEquals("11", stored.getBlockNumber());
+        assertEquals(FULL_INPUT + "00", stored.getInput());
+        assertEquals(TOKEN1, stored.getContractAddress());
+        assertEquals(1, storedTx.size());
+    }
+
+    @Test
+    public void transfersSkipStoredAndRepeatedEvents()
+    {
+        RealmTransfer existing = new RealmTransfer();
+        existing.setHashKey(CHAIN, "0xa");
+        existing.setTokenAddress(TOKEN1);
+        existing.setEventName("sent");
+        existing.setTransferDetail("amount,1");
+        storedTransfers.add(existing);
+
+        Map<String, List<TransferEvent>> transferEventMap = new HashMap<>();
+        transferEventMap.put("0xa", Arrays.asList(
+                new TransferEvent("amount,1", "sent", TOKEN1, "1"),      //already stored
+                new TransferEvent("amount,2", "received", TOKEN2, "2"))); //new event on a known transaction
+        transferEventMap.put("0xb", Arrays.asList(
+                new TransferEvent("amount,3", "sent", TOKEN1, "3"),
+                new TransferEvent("amount,3", "sent", TOKEN1, "3")));     //repeated within the page
+
+        TransactionBulkWriter.writeTransfers(realm, CHAIN, transferEventMap);
+
+        assertEquals(3, storedTransfers.size());
+        Set<String> keys = new HashSet<>();
+        for (RealmTransfer t : storedTransfers) keys.add(t.getHash() + "_" + t.getTokenAddress() + "_" + t.getEventName());
+        assertTrue(keys.contains("0xa_" + TOKEN2 + "_received"));
+        assertTrue(keys.contains("0xb_" + TOKEN1 + "_sent"));
+
+        //the same event on another chain is a different transfer
+        TransactionBulkWriter.writeTransfers(realm, CHAIN + 1, Collections.singletonMap("0xa",
+                Collections.singletonList(new TransferEvent("amount,1", "sent", TOKEN1, "1"))));
+        assertEquals(4, storedTransfers.size());
+    }
+
+    private RealmTransaction store(Transaction tx)
+    {
+        RealmTransaction realmTx = new RealmTransaction();
+        realmTx.setHash(tx.hash);
+        TransactionsRealmCache.fill(realmTx, tx);
+        storedTx.put(tx.hash, realmTx);
+        return realmTx;
+    }
+
+    private static Transaction tx(String hash, String block, String input)
+    {
+        return new Transaction(hash, "0", block, 1000, 1, WALLET, TOKEN1, "0", "21000", "1", input, "21000", CHAIN, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends RealmModel> RealmQuery<T> queryOver(Collection<T> rows, Function<T, String> key, boolean countQueries)
+    {
+        RealmQuery<T> query = mock(RealmQuery.class);
+        doAnswer(inv -> {
+            if (countQueries) txQueries++;
+            Set<String> wanted = new HashSet<>(Arrays.asList((String[]) inv.getArgument(1)));
+            List<T> matches = new ArrayList<>();
+            for (T row : rows) if (wanted.contains(key.apply(row))) matches.add(row);
+
+            RealmResults<T> results = mock(RealmResults.class);
+            doAnswer(i -> matches.iterator()).when(results).iterator();
+            RealmQuery<T> matched = mock(RealmQuery.class);
+            doReturn(results).when(matched).findAll();
+            return matched;
+        }).when(query).in(eq("hash"), any(String[].class));
+        return query;
+    }
+}
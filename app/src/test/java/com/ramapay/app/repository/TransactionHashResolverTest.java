@@ -0,0 +1,300 @@
+package com.ramapay.app.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.app.entity.BatchSizeController;
+import com.ramapay.app.entity.Transaction;
+import com.ramapay.app.service.AWHttpServiceWaterfall;
+import com.ramapay.shadows.ShadowApp;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.protocol.Web3j;
+import org.web3j.utils.Numeric;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Runs the resolver against a local stub JSON-RPC node which counts round trips. Requests go through
+ * AWHttpServiceWaterfall, as they do in the app, so batch replies pass the same response validation.
+ * Transaction i is in block i / 5 with timestamp 1000 + block; every tenth is still pending and every seventh failed.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class TransactionHashResolverTest
+{
+    private static final int TX_COUNT = 100;
+    private static final String WALLET = "0x0000000000000000000000000000000000c0ffee";
+
+    private HttpServer server;
+    private Web3j web3j;
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile boolean batchSupported = true;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            roundTrips.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            String reply;
+            if (body.startsWith("["))
+            {
+                JSONArray requests = new JSONArray(body);
+                if (batchSupported)
+                {
+                    JSONArray responses = new JSONArray();
+                    for (int i = 0; i < requests.length(); i++) responses.put(handleRpc(requests.getJSONObject(i)));
+                    reply = responses.toString();
+                }
+                else
+                {
+                    reply = new JSONObject().put("jsonrpc", "2.0").put("id", JSONObject.NULL)
+                            .put("error", new JSONObject().put("code", -32600).put("message", "batch not supported")).toString();
+                }
+            }
+            else
+            {
+                reply = handleRpc(new JSONObject(body)).toString();
+            }
+
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort();
+        web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, 900201, new OkHttpClient(), null, null, null, false));
+    }
+
+    @After
+    public void tearDown()
+    {
+        web3j.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void batchesHashesAndSharedBlocks() throws IOException
+    {
+        long chainId = 1;
+        TransactionHashResolver resolver = new TransactionHashResolver(id -> web3j, learnedLimit(chainId, 200));
+        List<String> hashes = buildHashes(TX_COUNT);
+
+        long start = System.nanoTime();
+        TransactionHashResolver.Result result = resolver.resolve(chainId, hashes);
+        long elapsed = System.nanoTime() - start;
+
+        int mined = TX_COUNT - TX_COUNT / 10;
+        //previously each hash was fetched, then its block, then its receipt, one after another
+        int previousRoundTrips = mined * 3 + TX_COUNT / 10;
+        System.out.println("Resolved " + TX_COUNT + " hashes in " + roundTrips.get() + " round trips, " + calls.get()
+                + " calls, " + elapsed / 1_000_000 + "ms (one at a time: " + previousRoundTrips + " round trips)");
+
+        assertEquals(2, roundTrips.get()); //transactions and receipts, then the blocks
+        assertEquals(TX_COUNT * 2 + blocksHoldingMined(), calls.get());
+        assertEquals(mined, result.mined.size());
+        assertEquals(TX_COUNT / 10, result.pending.size());
+        assertTrue(result.pending.contains(hashes.get(9)));
+
+        Map<String, Transaction> byHash = new HashMap<>();
+        for (Transaction tx : result.mined) byHash.put(tx.hash, tx);
+        Transaction tx = byHash.get(hashes.get(12));
+        assertEquals(1000 + 12 / 5, tx.timeStamp);
+        assertEquals(String.valueOf(12 / 5 + 100), tx.blockNumber);
+        assertEquals("0", tx.error);
+        assertEquals("1", byHash.get(hashes.get(14)).error);
+    }
+
+    @Test
+    public void knownBlocksAreNotFetchedAgain() throws IOException
+    {
+        long chainId = 2;
+        TransactionHashResolver resolver = new TransactionHashResolver(id -> web3j, learnedLimit(chainId, 200));
+        List<String> hashes = buildHashes(20);
+        resolver.resolve(chainId, hashes.subList(0, 10));
+        roundTrips.set(0);
+
+        //hashes 10-14 share a block with nothing resolved yet, hash 5-9's block is known
+        TransactionHashResolver.Result result = resolver.resolve(chainId, hashes.subList(5, 15));
+        assertEquals(2, roundTrips.get());
+        assertEquals(9, result.mined.size());
+
+        roundTrips.set(0);
+        resolver.resolve(chainId, hashes.subList(0, 15));
+        assertEquals(1, roundTrips.get());
+    }
+
+    @Test
+    public void fallsBackToSingleCalls() throws IOException
+    {
+        long chainId = 3;
+        batchSupported = false;
+        BatchSizeController limits = new BatchSizeController(id -> 200);
+        TransactionHashResolver resolver = new TransactionHashResolver(id -> web3j, limits);
+
+        TransactionHashResolver.Result result = resolver.resolve(chainId, buildHashes(20));
+        assertEquals(18, result.mined.size());
+        assertEquals(2, result.pending.size());
+        assertEquals(0, limits.getLimit(chainId)); //batching switched off for this chain
+
+        //no batch is attempted now
+        roundTrips.set(0);
+        resolver.resolve(chainId, buildHashes(5));
+        assertEquals(10, roundTrips.get());
+    }
+
+    @Test
+    public void unknownHashesAreSkipped() throws IOException
+    {
+        long chainId = 4;
+        TransactionHashResolver resolver = new TransactionHashResolver(id -> web3j, learnedLimit(chainId, 200));
+        String unknown = Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(99999), 64);
+
+        TransactionHashResolver.Result result = resolver.resolve(chainId, Collections.singletonList(unknown));
+        assertTrue(result.mined.isEmpty());
+        assertTrue(result.pending.isEmpty());
+    }
+
+    private BatchSizeController learnedLimit(long chainId, int limit)
+    {
+        BatchSizeController controller = new BatchSizeController(id -> limit);
+        controller.setStore(new BatchSizeController.Store()
+        {
+            @Override
+            public Map<Long, BatchSizeController.Limit> load()
+            {
+                return Collections.singletonMap(chainId, new BatchSizeController.Limit(limit, System.currentTimeMillis()));
+            }
+
+            @Override
+            public void save(long chainId, BatchSizeController.Limit limit)
+            {
+            }
+        });
+
+        return controller;
+    }
+
+    private int blocksHoldingMined()
+    {
+        //each block holds five transactions, at most one of which is pending
+        return TX_COUNT / 5;
+    }
+
+    private List<String> buildHashes(int count)
+    {
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < count; i++) hashes.add(hashOf(i));
+        return hashes;
+    }
+
+    private static String hashOf(int index)
+    {
+        return Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(index), 64);
+    }
+
+    private static String blockHashOf(int block)
+    {
+        return Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(0xb000 + block), 64);
+    }
+
+    private JSONObject handleRpc(JSONObject request)
+    {
+        calls.incrementAndGet();
+        JSONObject response = new JSONObject();
+        response.put("jsonrpc", "2.0");
+        response.put("id", request.get("id"));
+        JSONArray params = request.getJSONArray("params");
+
+        switch (request.getString("method"))
+        {
+            case "eth_getTransactionByHash":
+            {
+                int index = Numeric.toBigInt(params.getString(0)).intValue();
+                if (index >= TX_COUNT)
+                {
+                    response.put("result", JSONObject.NULL);
+                    break;
+                }
+
+                boolean pending = index % 10 == 9;
+                JSONObject tx = new JSONObject()
+                        .put("hash", hashOf(index))
+                        .put("nonce", "0x" + Integer.toHexString(index))
+                        .put("blockHash", pending ? JSONObject.NULL : blockHashOf(index / 5))
+                        .put("blockNumber", pending ? JSONObject.NULL : "0x" + Integer.toHexString(index / 5 + 100))
+                        .put("transactionIndex", pending ? JSONObject.NULL : "0x0")
+                        .put("from", WALLET)
+                        .put("to", "0x0000000000000000000000000000000000000001")
+                        .put("value", "0x1")
+                        .put("gas", "0x5208")
+                        .put("gasPrice", "0x3b9aca00")
+                        .put("input", "0x");
+                response.put("result", tx);
+                break;
+            }
+            case "eth_getTransactionReceipt":
+            {
+                int index = Numeric.toBigInt(params.getString(0)).intValue();
+                if (index >= TX_COUNT || index % 10 == 9)
+                {
+                    response.put("result", JSONObject.NULL);
+                    break;
+                }
+
+                JSONObject receipt = new JSONObject()
+                        .put("transactionHash", hashOf(index))
+                        .put("blockHash", blockHashOf(index / 5))
+                        .put("blockNumber", "0x" + Integer.toHexString(index / 5 + 100))
+                        .put("status", index % 7 == 0 ? "0x0" : "0x1")
+                        .put("logs", new JSONArray());
+                response.put("result", receipt);
+                break;
+            }
+            case "eth_getBlockByHash":
+            {
+                int block = Numeric.toBigInt(params.getString(0)).intValue() - 0xb000;
+                JSONObject result = new JSONObject()
+                        .put("hash", blockHashOf(block))
+                        .put("number", "0x" + Integer.toHexString(block + 100))
+                        .put("timestamp", "0x" + Integer.toHexString(1000 + block))
+                        .put("transactions", new JSONArray());
+                response.put("result", result);
+                break;
+            }
+            default:
+                response.put("error", new JSONObject().put("code", -32601).put("message", "method not found"));
+                break;
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,177 @@
+package com.ramapay.app.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.web3j.protocol.core.methods.request.Transaction.createEthCallTransaction;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.app.C;
+import com.ramapay.app.service.AWHttpServiceWaterfall;
+import com.ramapay.shadows.ShadowApp;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthCall;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Benchmarks 1,000 sequential eth_calls against a local stub node: once building a client per call as
+ * TokenRepository.getWeb3jService used to, once through Web3jClientRegistry. The stub records each
+ * distinct client socket so connection reuse is measured from the server side too.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class Web3jClientRegistryTest
+{
+    private static final long CHAIN_ID = 31337;
+    private static final int CALL_COUNT = 1000;
+    private static final String RESULT = "0x0000000000000000000000000000000000000000000000000000000000000001";
+
+    private HttpServer server;
+    private String[] rpcUrls;
+    private final Set<InetSocketAddress> clientSockets = ConcurrentHashMap.newKeySet();
+    private final List<OkHttpClient> perCallClients = new ArrayList<>();
+
+    @BeforeClass
+    public static void configureServer()
+    {
+        //the stub writes headers and body separately; without this a kept-alive connection stalls on delayed ACKs
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            clientSockets.add(exchange.getRemoteAddress());
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            JSONObject response = new JSONObject()
+                    .put("jsonrpc", "2.0")
+                    .put("id", request.get("id"))
+                    .put("result", RESULT);
+            byte[] reply = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(reply);
+            }
+        });
+        server.start();
+        rpcUrls = new String[] { "http://127.0.0.1:" + server.getAddress().getPort() };
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (OkHttpClient client : perCallClients) client.connectionPool().evictAll();
+        Web3jClientRegistry.invalidate(CHAIN_ID);
+        server.stop(0);
+    }
+
+    @Test
+    public void sequentialCallsBenchmark() throws Exception
+    {
+        //registry first: the per-call clients leave their idle connections open, which would crowd the stub server
+        Web3jClientRegistry.Stats before = Web3jClientRegistry.getStats();
+        long newTime = runCalls(chainId -> Web3jClientRegistry.getWeb3j(chainId, rpcUrls, Web3jClientRegistry.ClientType.RPC, null, null, null));
+        int newConnections = clientSockets.size();
+        Web3jClientRegistry.Stats after = Web3jClientRegistry.getStats();
+        clientSockets.clear();
+
+        long oldTime = runCalls(chainId -> buildPerCallService());
+        int oldConnections = clientSockets.size();
+
+        long opened = after.connectionsOpened - before.connectionsOpened;
+        long acquired = after.connectionsAcquired - before.connectionsAcquired;
+
+        System.out.println(CALL_COUNT + " sequential eth_calls: per-call client " + TimeUnit.NANOSECONDS.toMillis(oldTime)
+                + "ms / " + oldConnections + " connections, registry " + TimeUnit.NANOSECONDS.toMillis(newTime)
+                + "ms / " + newConnections + " connections");
+        System.out.println("Registry stats: " + after);
+
+        assertEquals(CALL_COUNT, acquired);
+        assertTrue("registry opened " + opened + " connections", opened <= 2);
+        assertTrue(newConnections <= 2);
+        assertTrue(oldConnections > newConnections);
+        assertTrue(after.getReuseRate() > 0.99);
+    }
+
+    @Test
+    public void serviceIsCachedUntilUrlsChange()
+    {
+        Web3j first = Web3jClientRegistry.getWeb3j(CHAIN_ID, rpcUrls, Web3jClientRegistry.ClientType.RPC, null, null, null);
+        assertSame(first, Web3jClientRegistry.getWeb3j(CHAIN_ID, rpcUrls.clone(), Web3jClientRegistry.ClientType.RPC, null, null, null));
+        assertNotSame(first, Web3jClientRegistry.getWeb3j(CHAIN_ID, rpcUrls, Web3jClientRegistry.ClientType.EVENTS, null, null, null));
+
+        String[] edited = { rpcUrls[0], "http://127.0.0.1:1" };
+        Web3j rebuilt = Web3jClientRegistry.getWeb3j(CHAIN_ID, edited, Web3jClientRegistry.ClientType.RPC, null, null, null);
+        assertNotSame(first, rebuilt);
+
+        Web3jClientRegistry.invalidate(CHAIN_ID);
+        assertNotSame(rebuilt, Web3jClientRegistry.getWeb3j(CHAIN_ID, edited, Web3jClientRegistry.ClientType.RPC, null, null, null));
+    }
+
+    @Test
+    public void clientsSharePoolAndDispatcher()
+    {
+        OkHttpClient rpc = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.RPC);
+        OkHttpClient api = Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.API);
+        assertSame(rpc, Web3jClientRegistry.getClient(Web3jClientRegistry.ClientType.RPC));
+        assertSame(rpc.connectionPool(), api.connectionPool());
+        assertSame(rpc.dispatcher(), api.dispatcher());
+        assertSame(rpc.connectionPool(), api.newBuilder().readTimeout(7, TimeUnit.SECONDS).build().connectionPool());
+    }
+
+    private long runCalls(LongFunction<Web3j> serviceProvider) throws Exception
+    {
+        long start = System.nanoTime();
+        for (int i = 0; i < CALL_COUNT; i++)
+        {
+            EthCall response = serviceProvider.apply(CHAIN_ID)
+                    .ethCall(createEthCallTransaction(null, "0x0000000000000000000000000000000000000001", "0x"),
+                            DefaultBlockParameterName.LATEST)
+                    .send();
+            assertEquals(RESULT, response.getValue());
+        }
+        return System.nanoTime() - start;
+    }
+
+    //construction previously done by TokenRepository.getWeb3jService on every call
+    private Web3j buildPerCallService()
+    {
+        OkHttpClient okClient = new OkHttpClient.Builder()
+                .connectTimeout(C.CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(C.READ_TIMEOUT * 3, TimeUnit.SECONDS)
+                .writeTimeout(C.LONG_WRITE_TIMEOUT, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(true)
+                .build();
+        perCallClients.add(okClient);
+
+        return Web3j.build(new AWHttpServiceWaterfall(rpcUrls, CHAIN_ID, okClient, null, null, null, false));
+    }
+}
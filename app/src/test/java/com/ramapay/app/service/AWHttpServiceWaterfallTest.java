@@ -0,0 +1,149 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.shadows.ShadowApp;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.BatchRequest;
+import org.web3j.protocol.core.BatchResponse;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okhttp3.OkHttpClient;
+
+/**
+ * Sends JSON-RPC batches through the waterfall to a local stub node; the batch reply is a JSON array, which the
+ * response validator must pass through.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class AWHttpServiceWaterfallTest
+{
+    private HttpServer server;
+    private String url;
+    private final AtomicInteger roundTrips = new AtomicInteger();
+    private volatile String batchError;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            roundTrips.incrementAndGet();
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim();
+            String reply;
+            if (body.startsWith("["))
+            {
+                JSONArray requests = new JSONArray(body);
+                JSONArray responses = new JSONArray();
+                for (int i = 0; i < requests.length(); i++) responses.put(handleRpc(requests.getJSONObject(i), batchError));
+                reply = responses.toString();
+            }
+            else
+            {
+                reply = handleRpc(new JSONObject(body), null).toString();
+            }
+
+            byte[] bytes = reply.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(bytes);
+            }
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+    }
+
+    @Test
+    public void batchReplyIsAccepted() throws IOException
+    {
+        long chainId = 900101;
+        Web3j web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, chainId, new OkHttpClient(), null, null, null, false));
+
+        BatchRequest batch = web3j.newBatch();
+        for (int i = 0; i < 10; i++) batch.add(web3j.ethBlockNumber());
+        BatchResponse responses = batch.send();
+
+        assertEquals(1, roundTrips.get());
+        assertEquals(10, responses.getResponses().size());
+        for (Response<?> response : responses.getResponses())
+        {
+            assertFalse(response.hasError());
+            assertEquals(BigInteger.valueOf(100), ((EthBlockNumber) response).getBlockNumber());
+        }
+        assertEquals(0.0, EndpointScorer.forChain(chainId).getHealth(url).errorRate, 0.0);
+    }
+
+    @Test
+    public void perCallLimitErrorsReachTheCaller() throws IOException
+    {
+        long chainId = 900102;
+        batchError = "batch limit exceeded";
+        Web3j web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, chainId, new OkHttpClient(), null, null, null, false));
+
+        BatchRequest batch = web3j.newBatch();
+        for (int i = 0; i < 4; i++) batch.add(web3j.ethBlockNumber());
+        BatchResponse responses = batch.send();
+
+        //the batch sender sees the errors and shrinks its batch size; the endpoint isn't penalised
+        assertEquals(4, responses.getResponses().size());
+        assertEquals("batch limit exceeded", responses.getResponses().get(0).getError().getMessage());
+        assertEquals(0.0, EndpointScorer.forChain(chainId).getHealth(url).errorRate, 0.0);
+    }
+
+    @Test(expected = IOException.class)
+    public void unauthorizedBatchIsRejected() throws IOException
+    {
+        long chainId = 900103;
+        batchError = "Unauthorized";
+        Web3j web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { url }, chainId, new OkHttpClient(), null, null, null, false));
+
+        BatchRequest batch = web3j.newBatch();
+        batch.add(web3j.ethBlockNumber());
+        batch.add(web3j.ethBlockNumber());
+        batch.send();
+    }
+
+    private static JSONObject handleRpc(JSONObject request, String error)
+    {
+        JSONObject response = new JSONObject()
+                .put("jsonrpc", "2.0")
+                .put("id", request.get("id"));
+        if (error != null)
+        {
+            response.put("error", new JSONObject().put("code", -32005).put("message", error));
+        }
+        else
+        {
+            response.put("result", "0x64");
+        }
+        return response;
+    }
+}
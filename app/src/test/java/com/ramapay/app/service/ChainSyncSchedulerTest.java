@@ -0,0 +1,210 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.shadows.ShadowApp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class ChainSyncSchedulerTest
+{
+    private final long now = System.currentTimeMillis();
+    private final ChainSyncScheduler scheduler = new ChainSyncScheduler();
+
+    @Test
+    public void boundsConcurrentSyncs()
+    {
+        List<Long> chains = addChains(20, 1);
+
+        List<Long> first = scheduler.nextSyncs(chains, now);
+        assertEquals(ChainSyncScheduler.MAX_CONCURRENT_SYNCS, first.size());
+        assertTrue(scheduler.nextSyncs(chains, now).isEmpty());
+
+        scheduler.syncComplete(first.get(0), false, now + 1000);
+        List<Long> next = scheduler.nextSyncs(chains, now + 1000);
+        assertEquals(1, next.size());
+        assertFalse(first.contains(next.get(0)));
+    }
+
+    @Test
+    public void chainsSharingAnExplorerShareItsBudget()
+    {
+        List<Long> chains = new ArrayList<>();
+        for (long chainId = 1; chainId <= 3; chainId++)
+        {
+            scheduler.setChain(chainId, "https://api.etherscan.io/v2/api?chainid=" + chainId, 3, now);
+            chains.add(chainId);
+        }
+        scheduler.setChain(100, "https://explorer.example.org/api", 3, now);
+        chains.add(100L);
+
+        //two of the etherscan chains fit the burst; the other explorer is unaffected
+        List<Long> started = scheduler.nextSyncs(chains, now);
+        assertEquals(3, started.size());
+        assertTrue(started.contains(100L));
+
+        //budget refills over time
+        assertTrue(scheduler.nextSyncs(chains, now + 100).isEmpty());
+        assertEquals(1, scheduler.nextSyncs(chains, now + 4 * ChainSyncScheduler.EXPLORER_REQUEST_SPACING).size());
+    }
+
+    @Test
+    public void pendingThenActiveChainsGoFirst()
+    {
+        List<Long> chains = addChains(8, 1);
+        syncAll(chains, now);
+
+        long later = now + ChainSyncScheduler.IDLE_INTERVAL * 2;
+        scheduler.setPendingChain(8);
+        scheduler.noteActivity(7, later);
+
+        List<Long> started = scheduler.nextSyncs(chains, later);
+        assertEquals(8L, (long) started.get(0));
+        assertEquals(7L, (long) started.get(1));
+    }
+
+    @Test
+    public void activityMakesChainDueAtOnce()
+    {
+        List<Long> chains = addChains(3, 1);
+        syncAll(chains, now);
+
+        assertTrue(scheduler.nextSyncs(chains, now + 1000).isEmpty());
+        scheduler.noteActivity(2, now + 1000);
+        assertEquals(Collections.singletonList(2L), scheduler.nextSyncs(chains, now + 1000));
+
+        //active chains are then read more often than idle ones
+        scheduler.syncComplete(2, true, now + 2000);
+        assertEquals(Collections.singletonList(2L), scheduler.nextSyncs(chains, now + 2000 + ChainSyncScheduler.ACTIVE_INTERVAL));
+    }
+
+    @Test
+    public void failedSyncWaitsBeforeRetry()
+    {
+        List<Long> chains = addChains(1, 1);
+        assertEquals(1, scheduler.nextSyncs(chains, now).size());
+        scheduler.syncFailed(1, now);
+
+        assertTrue(scheduler.nextSyncs(chains, now + 1000).isEmpty());
+        assertEquals(1, scheduler.nextSyncs(chains, now + ChainSyncScheduler.RETRY_INTERVAL).size());
+    }
+
+    @Test
+    public void rateLimitedSyncDrainsExplorerBudget()
+    {
+        List<Long> chains = new ArrayList<>();
+        for (long chainId = 1; chainId <= 2; chainId++)
+        {
+            scheduler.setChain(chainId, "https://api.etherscan.io/v2/api?chainid=" + chainId, 1, now);
+            chains.add(chainId);
+        }
+
+        assertEquals(Collections.singletonList(1L), scheduler.nextSyncs(Collections.singletonList(1L), now));
+        scheduler.syncRateLimited(1, now);
+
+        //the other chain on the same explorer waits for the budget to refill, and the lag isn't reset
+        assertTrue(scheduler.nextSyncs(chains, now).isEmpty());
+        assertEquals(Collections.singletonList(2L), scheduler.nextSyncs(chains, now + ChainSyncScheduler.EXPLORER_REQUEST_SPACING));
+        assertEquals(5000, scheduler.getSyncLag(1, now + 5000));
+    }
+
+    @Test
+    public void reportsSyncLag()
+    {
+        List<Long> chains = addChains(2, 1);
+        assertEquals(5000, scheduler.getSyncLag(1, now + 5000));
+
+        scheduler.nextSyncs(chains, now);
+        scheduler.syncComplete(1, false, now + 2000);
+        assertEquals(3000, scheduler.getSyncLag(1, now + 5000));
+        assertEquals(5000, scheduler.getSyncLag(2, now + 5000));
+        assertEquals(-1, scheduler.getSyncLag(99, now));
+        assertEquals(2, scheduler.getSyncLags(now).size());
+    }
+
+    /**
+     * Simulate 20 networks, each explorer request taking a second, and time a full sweep of all chains.
+     * Previously one request was made per 15 second tick, one chain after another.
+     */
+    @Test
+    public void twentyNetworkSweep()
+    {
+        int networks = 20;
+        int requestsPerChain = 3;
+        long requestTime = 1000;
+        long tick = 2000;
+        List<Long> chains = new ArrayList<>();
+        for (long chainId = 1; chainId <= networks; chainId++)
+        {
+            //a quarter of the chains share one explorer host
+            String explorer = chainId % 4 == 0 ? "https://api.etherscan.io/v2/api?chainid=" + chainId : "https://explorer" + chainId + ".example.org/api";
+            scheduler.setChain(chainId, explorer, requestsPerChain, now);
+            chains.add(chainId);
+        }
+
+        Map<Long, Long> running = new HashMap<>(); //chain, time its read completes
+        Map<Long, Long> synced = new HashMap<>();
+        long time = now;
+        int maxRunning = 0;
+        while (synced.size() < networks)
+        {
+            for (Map.Entry<Long, Long> read : new ArrayList<>(running.entrySet()))
+            {
+                if (read.getValue() > time) continue;
+                scheduler.syncComplete(read.getKey(), false, read.getValue());
+                synced.put(read.getKey(), read.getValue());
+                running.remove(read.getKey());
+            }
+            for (long chainId : scheduler.nextSyncs(chains, time))
+            {
+                running.put(chainId, time + requestsPerChain * requestTime);
+            }
+            maxRunning = Math.max(maxRunning, scheduler.getRunning());
+            time += tick;
+        }
+
+        long sweep = Collections.max(synced.values()) - now;
+        long previousSweep = networks * requestsPerChain * 15000L;
+
+        assertTrue(maxRunning <= ChainSyncScheduler.MAX_CONCURRENT_SYNCS);
+        assertTrue(sweep < previousSweep);
+        System.out.println("Synced " + networks + " networks in " + sweep / 1000 + "s (one chain at a time: "
+                + previousSweep / 1000 + "s); " + scheduler.lagReport(time));
+    }
+
+    private List<Long> addChains(int count, int requests)
+    {
+        List<Long> chains = new ArrayList<>();
+        for (long chainId = 1; chainId <= count; chainId++)
+        {
+            scheduler.setChain(chainId, "https://explorer" + chainId + ".example.org/api", requests, now);
+            chains.add(chainId);
+        }
+
+        return chains;
+    }
+
+    private void syncAll(List<Long> chains, long time)
+    {
+        while (true)
+        {
+            List<Long> started = scheduler.nextSyncs(chains, time);
+            if (started.isEmpty()) break;
+            for (long chainId : started) scheduler.syncComplete(chainId, false, time);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.shadows.ShadowApp;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.protocol.Web3j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class EndpointScorerTest
+{
+    private static final String FAST = "https://fast";
+    private static final String SLOW = "https://slow";
+    private static final String LAGGING = "https://lagging";
+
+    private final AtomicLong now = new AtomicLong(1_000_000);
+    private final EndpointScorer scorer = new EndpointScorer(now::get);
+    private final List<HttpServer> servers = new ArrayList<>();
+
+    @BeforeClass
+    public static void configureServer()
+    {
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (HttpServer server : servers) server.stop(0);
+    }
+
+    @Test
+    public void unmeasuredEndpointsRankFirst()
+    {
+        scorer.onSuccess(FAST, 50);
+        assertEquals(SLOW, scorer.rank(new String[] { FAST, SLOW }).get(0));
+    }
+
+    @Test
+    public void fasterEndpointWins()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            scorer.onSuccess(SLOW, 900);
+            scorer.onSuccess(FAST, 80);
+        }
+        assertEquals(FAST, scorer.rank(new String[] { SLOW, FAST }).get(0));
+    }
+
+    @Test
+    public void errorsOutweighLatency()
+    {
+        for (int i = 0; i < 5; i++)
+        {
+            scorer.onSuccess(SLOW, 300);
+            scorer.onSuccess(FAST, 80);
+            scorer.onError(FAST);
+        }
+        assertEquals(SLOW, scorer.rank(new String[] { FAST, SLOW }).get(0));
+    }
+
+    @Test
+    public void blockLagIsPenalised()
+    {
+        scorer.onSuccess(FAST, 80);
+        scorer.onSuccess(LAGGING, 40);
+        scorer.onBlockHeight(FAST, 1000);
+        scorer.onBlockHeight(LAGGING, 990);
+
+        assertEquals(FAST, scorer.rank(new String[] { LAGGING, FAST }).get(0));
+        assertEquals(10, scorer.getHealth(LAGGING).blockLag);
+    }
+
+    @Test
+    public void idleEndpointIsProbedAgain()
+    {
+        scorer.onSuccess(SLOW, 900);
+        now.addAndGet(EndpointScorer.EXPLORE_INTERVAL / 2);
+        scorer.onSuccess(FAST, 80);
+        assertEquals(FAST, scorer.rank(new String[] { SLOW, FAST }).get(0));
+
+        now.addAndGet(EndpointScorer.EXPLORE_INTERVAL);
+        scorer.onSuccess(FAST, 80);
+        assertEquals(SLOW, scorer.rank(new String[] { SLOW, FAST }).get(0));
+    }
+
+    @Test
+    public void p95NeedsSamples()
+    {
+        for (int i = 1; i <= 7; i++) scorer.onSuccess(FAST, i * 10);
+        assertEquals(0, scorer.getP95(FAST));
+        for (int i = 8; i <= 20; i++) scorer.onSuccess(FAST, i * 10);
+        assertEquals(190, scorer.getP95(FAST));
+    }
+
+    @Test
+    public void routesAwayFromSlowNode() throws Exception
+    {
+        long chainId = 900001;
+        AtomicInteger slowHits = new AtomicInteger();
+        AtomicInteger fastHits = new AtomicInteger();
+        String slow = startNode(300, slowHits, 100);
+        String fast = startNode(0, fastHits, 100);
+
+        Web3j web3j = Web3j.build(new AWHttpServiceWaterfall(new String[] { slow, fast }, chainId, new OkHttpClient(), null, null, null, false));
+        for (int i = 0; i < 20; i++) web3j.ethBlockNumber().send();
+
+        //the old waterfall split roughly evenly; now only the first exploration of each node goes to the slow one
+        assertTrue("slow node served " + slowHits.get(), slowHits.get() <= 2);
+        assertTrue(fastHits.get() >= 18);
+    }
+
+    @Test
+    public void hedgedRequestBeatsStalledNode() throws Exception
+    {
+        long chainId = 900002;
+        AtomicInteger primaryHits = new AtomicInteger();
+        AtomicInteger backupHits = new AtomicInteger();
+        AtomicLong primaryDelay = new AtomicLong(10);
+        String primary = startNode(primaryDelay, primaryHits, 200);
+        String backup = startNode(new AtomicLong(60), backupHits, 200);
+
+        AWHttpServiceWaterfall service = new AWHttpServiceWaterfall(new String[] { primary, backup }, chainId, new OkHttpClient(), null, null, null, false);
+        service.setHedgedRequests(true);
+        Web3j web3j = Web3j.build(service);
+
+        //establish history: primary fast, backup slower but steady
+        for (int i = 0; i < 20; i++) web3j.ethBlockNumber().send();
+        EndpointScorer chainScorer = EndpointScorer.forChain(chainId);
+        assertTrue(chainScorer.getP95(primary) > 0);
+
+        //primary stalls; the hedge to the backup should answer well before the stall ends
+        primaryDelay.set(2000);
+        long start = System.currentTimeMillis();
+        BigInteger block = web3j.ethBlockNumber().send().getBlockNumber();
+        long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals(BigInteger.valueOf(200), block);
+        assertTrue("hedged call took " + elapsed + "ms", elapsed < 1000);
+        assertTrue(backupHits.get() > 0);
+    }
+
+    private String startNode(long delayMs, AtomicInteger hits, long blockHeight) throws IOException
+    {
+        return startNode(new AtomicLong(delayMs), hits, blockHeight);
+    }
+
+    private String startNode(AtomicLong delayMs, AtomicInteger hits, long blockHeight) throws IOException
+    {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            hits.incrementAndGet();
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            try
+            {
+                Thread.sleep(delayMs.get());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            byte[] reply = new JSONObject()
+                    .put("jsonrpc", "2.0")
+                    .put("id", request.get("id"))
+                    .put("result", "0x" + Long.toHexString(blockHeight))
+                    .toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, reply.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(reply);
+            }
+        });
+        server.start();
+        servers.add(server);
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+}
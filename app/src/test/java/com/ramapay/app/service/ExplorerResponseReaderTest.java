@@ -0,0 +1,231 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.app.entity.CovalentTransaction;
+import com.ramapay.app.entity.EtherscanEvent;
+import com.ramapay.app.entity.EtherscanTransaction;
+import com.google.common.io.Resources;
+import com.google.gson.Gson;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks streamed parsing against the previous String -> JSONObject -> String -> Gson path, and benchmarks both
+ * over a 10,000 transaction Etherscan txlist response.
+ */
+public class ExplorerResponseReaderTest
+{
+    private static final int FIXTURE_TX_COUNT = 10000;
+    private final Gson gson = new Gson();
+
+    @Test
+    public void covalentResponseMatchesLegacyParse() throws Exception
+    {
+        String response = Resources.toString(Resources.getResource("covalenttxs.json"), StandardCharsets.UTF_8);
+
+        JSONArray items = new JSONObject(response).getJSONObject("data").getJSONArray("items");
+        CovalentTransaction[] legacy = gson.fromJson(items.toString(), CovalentTransaction[].class);
+        List<CovalentTransaction> streamed = ExplorerResponseReader.readList(new StringReader(response), gson, CovalentTransaction.class, "data", "items");
+
+        assertEquals(legacy.length, streamed.size());
+        for (int i = 0; i < legacy.length; i++)
+        {
+            assertEquals(legacy[i].tx_hash, streamed.get(i).tx_hash);
+            assertEquals(legacy[i].log_events.length, streamed.get(i).log_events.length);
+        }
+
+        //downstream conversion sees the same events
+        assertEquals(CovalentTransaction.toEtherscanEvents(legacy).length,
+                CovalentTransaction.toEtherscanEvents(streamed.toArray(new CovalentTransaction[0])).length);
+    }
+
+    @Test
+    public void nonArrayResultsReadNothing() throws Exception
+    {
+        assertEquals(0, read("{\"status\":\"0\",\"message\":\"NOTOK\",\"result\":\"Error! Invalid address format\"}").size());
+        assertEquals(0, read("{\"status\":\"0\",\"message\":\"No transactions found\",\"result\":[]}").size());
+        assertEquals(0, read("{\"status\":\"1\"}").size());
+        assertEquals(0, read("").size());
+    }
+
+    @Test(expected = ExplorerResponseReader.RateLimitedException.class)
+    public void rateLimitReplyThrows() throws Exception
+    {
+        //arrives with HTTP 200; reading it as no results would count the sync as done
+        read("{\"status\":\"0\",\"message\":\"NOTOK\",\"result\":\"Max rate limit reached\"}");
+    }
+
+    @Test
+    public void resultFoundAfterOtherFields() throws Exception
+    {
+        String response = "{\"status\":\"1\",\"extra\":{\"result\":[1,2]},\"result\":[{\"hash\":\"0x01\",\"blockNumber\":\"7\"}],\"tail\":[]}";
+        List<EtherscanEvent> events = ExplorerResponseReader.readList(new StringReader(response), gson, EtherscanEvent.class, "result");
+        assertEquals(1, events.size());
+        assertEquals("0x01", events.get(0).hash);
+        assertEquals("7", events.get(0).blockNumber);
+    }
+
+    @Test
+    public void elementsArriveInBoundedChunks() throws Exception
+    {
+        File fixture = writeEtherscanFixture(450);
+        List<Integer> chunkSizes = new ArrayList<>();
+        int count;
+        try (Reader reader = openFixture(fixture))
+        {
+            count = ExplorerResponseReader.readArray(reader, gson, EtherscanTransaction.class, 200,
+                    chunk -> chunkSizes.add(chunk.size()), "result");
+        }
+
+        assertEquals(450, count);
+        assertEquals(List.of(200, 200, 50), chunkSizes);
+    }
+
+    @Test
+    public void ingestBenchmark() throws Exception
+    {
+        File fixture = writeEtherscanFixture(FIXTURE_TX_COUNT);
+
+        //warm up both paths
+        legacyIngest(fixture);
+        streamingIngest(fixture);
+
+        Measurement legacy = measure(() -> legacyIngest(fixture));
+        Measurement streaming = measure(() -> streamingIngest(fixture));
+
+        System.out.println("Ingest " + FIXTURE_TX_COUNT + " txs (" + fixture.length() / 1024 + "KB): legacy " + legacy + ", streaming " + streaming);
+
+        assertEquals(FIXTURE_TX_COUNT, legacy.count);
+        assertEquals(FIXTURE_TX_COUNT, streaming.count);
+        assertTrue("streaming allocated " + streaming.allocated + " vs " + legacy.allocated, streaming.allocated < legacy.allocated);
+    }
+
+    //previous TransactionsNetworkClient path: body string, JSONObject tree, re-serialised array, Gson
+    private int legacyIngest(File fixture) throws Exception
+    {
+        String response = new String(Files.readAllBytes(fixture.toPath()), StandardCharsets.UTF_8);
+        JSONArray orders = new JSONObject(response).getJSONArray("result");
+        EtherscanTransaction[] txs = gson.fromJson(orders.toString(), EtherscanTransaction[].class);
+        int count = 0;
+        for (EtherscanTransaction tx : txs)
+        {
+            if (tx.getHash() != null) count++;
+        }
+        return count;
+    }
+
+    private int streamingIngest(File fixture) throws Exception
+    {
+        int[] count = new int[1];
+        try (Reader reader = openFixture(fixture))
+        {
+            ExplorerResponseReader.readArray(reader, gson, EtherscanTransaction.class, ExplorerResponseReader.CHUNK_SIZE, chunk -> {
+                for (EtherscanTransaction tx : chunk)
+                {
+                    if (tx.getHash() != null) count[0]++;
+                }
+            }, "result");
+        }
+        return count[0];
+    }
+
+    private List<EtherscanTransaction> read(String response) throws Exception
+    {
+        return ExplorerResponseReader.readList(new StringReader(response), gson, EtherscanTransaction.class, "result");
+    }
+
+    private Reader openFixture(File fixture) throws Exception
+    {
+        return new InputStreamReader(new FileInputStream(fixture), StandardCharsets.UTF_8);
+    }
+
+    //shape of an Etherscan txlist entry, varied per transaction
+    private File writeEtherscanFixture(int txCount) throws Exception
+    {
+        File fixture = File.createTempFile("txlist", ".json");
+        fixture.deleteOnExit();
+        try (BufferedWriter writer = Files.newBufferedWriter(fixture.toPath(), StandardCharsets.UTF_8))
+        {
+            writer.write("{\"status\":\"1\",\"message\":\"OK\",\"result\":[");
+            for (int i = 0; i < txCount; i++)
+            {
+                if (i > 0) writer.write(',');
+                long block = 19000000L - i;
+                writer.write("{\"blockNumber\":\"" + block + "\",\"timeStamp\":\"" + (1700000000L - i * 12L)
+                        + "\",\"hash\":\"0x" + String.format("%064x", i + 1) + "\",\"nonce\":\"" + i
+                        + "\",\"blockHash\":\"0x" + String.format("%064x", block) + "\",\"transactionIndex\":\"" + (i % 150)
+                        + "\",\"from\":\"0x" + String.format("%040x", i % 97) + "\",\"to\":\"0x" + String.format("%040x", 0xbeef)
+                        + "\",\"value\":\"" + (i * 1000000000L) + "\",\"gas\":\"21000\",\"gasPrice\":\"" + (20000000000L + i)
+                        + "\",\"isError\":\"0\",\"txreceipt_status\":\"1\",\"input\":\"0xa9059cbb" + String.format("%0128x", i)
+                        + "\",\"contractAddress\":\"\",\"cumulativeGasUsed\":\"" + (21000L * (i % 150 + 1))
+                        + "\",\"gasUsed\":\"21000\",\"confirmations\":\"" + (i + 12) + "\",\"methodId\":\"0xa9059cbb\""
+                        + ",\"functionName\":\"transfer(address _to, uint256 _value)\"}");
+            }
+            writer.write("]}");
+        }
+        return fixture;
+    }
+
+    private interface Ingest
+    {
+        int run() throws Exception;
+    }
+
+    private static class Measurement
+    {
+        int count;
+        long allocated;
+        long peakHeap;
+        long millis;
+
+        @Override
+        public String toString()
+        {
+            return millis + "ms, " + allocated / (1024 * 1024) + "MB allocated, " + peakHeap / (1024 * 1024) + "MB peak heap";
+        }
+    }
+
+    private Measurement measure(Ingest ingest) throws Exception
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+        {
+            if (pool.getType() == MemoryType.HEAP)
+            {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+
+        Measurement m = new Measurement();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        m.count = ingest.run();
+        m.millis = (System.nanoTime() - start) / 1000000;
+        m.allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        for (MemoryPoolMXBean pool : heapPools) m.peakHeap += pool.getPeakUsage().getUsed();
+        return m;
+    }
+}
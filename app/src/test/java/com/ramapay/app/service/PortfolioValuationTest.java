@@ -0,0 +1,172 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.app.entity.tokendata.TokenTicker;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class PortfolioValuationTest
+{
+    private static final long CHAIN_A = 1;
+    private static final long CHAIN_B = 137;
+
+    @Test
+    public void runningTotalMatchesFullRecompute()
+    {
+        Random random = new Random(42);
+        Map<String, BigDecimal> balances = new HashMap<>(); //"chainId:address" -> balance
+        Map<Long, Map<String, TokenTicker>> tickers = new HashMap<>();
+        tickers.put(CHAIN_A, new HashMap<>());
+        tickers.put(CHAIN_B, new HashMap<>());
+
+        for (int i = 0; i < 200; i++)
+        {
+            long chainId = i % 2 == 0 ? CHAIN_A : CHAIN_B;
+            String address = i < 2 ? PortfolioValuation.BASE_TICKER : "0x" + Integer.toHexString(0xa000 + i);
+            balances.put(chainId + ":" + address, randomBalance(random));
+            if (i % 5 != 0) tickers.get(chainId).put(address, randomTicker(random)); //some tokens unpriced
+        }
+
+        PortfolioValuation valuation = new PortfolioValuation();
+        valuation.load(snapshot(balances, tickers));
+        assertTrue(valuation.reconcile(snapshot(balances, tickers)));
+
+        List<String> keys = new ArrayList<>(balances.keySet());
+        for (int i = 0; i < 5000; i++)
+        {
+            String key = keys.get(random.nextInt(keys.size()));
+            long chainId = Long.parseLong(key.substring(0, key.indexOf(':')));
+            String address = key.substring(key.indexOf(':') + 1);
+
+            if (random.nextBoolean())
+            {
+                BigDecimal balance = random.nextInt(10) == 0 ? BigDecimal.ZERO : randomBalance(random);
+                balances.put(key, balance);
+                valuation.updateBalance(chainId, address, balance);
+            }
+            else
+            {
+                TokenTicker ticker = randomTicker(random);
+                tickers.get(chainId).put(address, ticker);
+                Map<String, TokenTicker> update = new HashMap<>();
+                update.put(address, ticker);
+                valuation.updateTickers(chainId, update);
+            }
+        }
+
+        PortfolioValuation.Totals full = PortfolioValuation.computeTotals(snapshot(balances, tickers));
+        assertEquals(0, full.value.compareTo(valuation.getTotals().value));
+        assertEquals(0, full.historical.compareTo(valuation.getTotals().historical));
+        assertTrue(valuation.reconcile(snapshot(balances, tickers)));
+    }
+
+    @Test
+    public void positionsLeaveAndRejoinTheTotal()
+    {
+        Map<Long, Map<String, TokenTicker>> tickers = new HashMap<>();
+        tickers.put(CHAIN_A, new HashMap<>());
+        tickers.get(CHAIN_A).put(PortfolioValuation.BASE_TICKER, new TokenTicker("2000", "10", "USD", "", 0));
+        tickers.get(CHAIN_A).put("0xabc", new TokenTicker("1", "0", "USD", "", 0));
+
+        List<PortfolioValuation.Holding> holdings = new ArrayList<>();
+        holdings.add(new PortfolioValuation.Holding(CHAIN_A, PortfolioValuation.BASE_TICKER, new BigDecimal("1.5")));
+        PortfolioValuation valuation = new PortfolioValuation();
+        valuation.load(new PortfolioValuation.Snapshot(holdings, tickers));
+
+        assertEquals(0, new BigDecimal("3000").compareTo(valuation.getTotals().value));
+        assertEquals(0, new BigDecimal("2700").compareTo(valuation.getTotals().historical));
+
+        //token appears, address case doesn't matter
+        valuation.updateBalance(CHAIN_A, "0xABC", new BigDecimal("250"));
+        assertEquals(0, new BigDecimal("3250").compareTo(valuation.getTotals().value));
+
+        //base token emptied
+        valuation.updateBalance(CHAIN_A, PortfolioValuation.BASE_TICKER, BigDecimal.ZERO);
+        assertEquals(0, new BigDecimal("250").compareTo(valuation.getTotals().value));
+        assertEquals(0, new BigDecimal("250").compareTo(valuation.getTotals().historical));
+
+        //price for a token that isn't held has no effect until it is
+        Map<String, TokenTicker> update = new HashMap<>();
+        update.put("0xdef", new TokenTicker("5", "0", "USD", "", 0));
+        valuation.updateTickers(CHAIN_A, update);
+        assertEquals(0, new BigDecimal("250").compareTo(valuation.getTotals().value));
+        valuation.updateBalance(CHAIN_A, "0xdef", BigDecimal.ONE);
+        assertEquals(0, new BigDecimal("255").compareTo(valuation.getTotals().value));
+    }
+
+    @Test
+    public void reconcileReloadsAfterDrift()
+    {
+        Map<Long, Map<String, TokenTicker>> tickers = new HashMap<>();
+        tickers.put(CHAIN_A, new HashMap<>());
+        tickers.get(CHAIN_A).put("0xabc", new TokenTicker("3", "0", "USD", "", 0));
+        List<PortfolioValuation.Holding> holdings = new ArrayList<>();
+        holdings.add(new PortfolioValuation.Holding(CHAIN_A, "0xabc", BigDecimal.TEN));
+        PortfolioValuation.Snapshot snapshot = new PortfolioValuation.Snapshot(holdings, tickers);
+
+        PortfolioValuation valuation = new PortfolioValuation();
+        assertFalse(valuation.isLoaded());
+        valuation.updateBalance(CHAIN_A, "0xabc", BigDecimal.ONE); //ignored until loaded
+        assertEquals(0, BigDecimal.ZERO.compareTo(valuation.getTotals().value));
+
+        valuation.load(snapshot);
+        valuation.updateBalance(CHAIN_A, "0xabc", BigDecimal.ONE); //missed by the database snapshot
+        assertFalse(valuation.reconcile(snapshot));
+        assertEquals(0, new BigDecimal("30").compareTo(valuation.getTotals().value));
+        assertTrue(valuation.reconcile(snapshot));
+    }
+
+    @Test
+    public void blankTickerAndCorrectedBalance()
+    {
+        BigDecimal[] blank = PortfolioValuation.valueOf(BigDecimal.ONE, new TokenTicker(0));
+        assertEquals(0, BigDecimal.ZERO.compareTo(blank[0]));
+        assertEquals(0, BigDecimal.ZERO.compareTo(blank[1]));
+
+        assertEquals(0, new BigDecimal("1.5").compareTo(PortfolioValuation.correctedBalance(new BigDecimal("1500000000000000000"), 18)));
+        assertEquals(0, new BigDecimal("12.345678").compareTo(PortfolioValuation.correctedBalance(new BigDecimal("12345678"), 6)));
+        assertEquals(0, new BigDecimal("7").compareTo(PortfolioValuation.correctedBalance(new BigDecimal("7"), 0)));
+    }
+
+    private PortfolioValuation.Snapshot snapshot(Map<String, BigDecimal> balances, Map<Long, Map<String, TokenTicker>> tickers)
+    {
+        List<PortfolioValuation.Holding> holdings = new ArrayList<>();
+        for (Map.Entry<String, BigDecimal> entry : balances.entrySet())
+        {
+            String key = entry.getKey();
+            if (entry.getValue().signum() <= 0) continue; //as the database snapshot only lists positive balances
+            holdings.add(new PortfolioValuation.Holding(Long.parseLong(key.substring(0, key.indexOf(':'))),
+                    key.substring(key.indexOf(':') + 1), entry.getValue()));
+        }
+
+        Map<Long, Map<String, TokenTicker>> tickerCopy = new HashMap<>();
+        for (Map.Entry<Long, Map<String, TokenTicker>> entry : tickers.entrySet())
+        {
+            tickerCopy.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+
+        return new PortfolioValuation.Snapshot(holdings, tickerCopy);
+    }
+
+    private BigDecimal randomBalance(Random random)
+    {
+        return PortfolioValuation.correctedBalance(new BigDecimal(Math.abs(random.nextLong())), random.nextInt(19));
+    }
+
+    private TokenTicker randomTicker(Random random)
+    {
+        String price = Double.toString(random.nextDouble() * 5000);
+        String change = Double.toString(random.nextDouble() * 40 - 20);
+        return new TokenTicker(price, change, "USD", "", System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,174 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ramapay.hardware.SignatureFromKey;
+import com.ramapay.hardware.SignatureReturnType;
+import com.ramapay.shadows.ShadowApp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Sign;
+import org.web3j.crypto.WalletFile;
+import org.web3j.utils.Numeric;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class SigningSessionTest
+{
+    private static final String PASSWORD = "test-password";
+    private static final BigInteger PRIVATE_KEY = new BigInteger("4646464646464646464646464646464646464646464646464646464646464646", 16);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private long time = 1000;
+
+    @Test
+    public void signsAsTheKeystoreWould()
+    {
+        ECKeyPair keyPair = ECKeyPair.create(PRIVATE_KEY);
+        byte[] data = "hello".getBytes(StandardCharsets.UTF_8);
+        try (SigningSession session = new SigningSession(address(keyPair), PRIVATE_KEY))
+        {
+            SignatureFromKey sig = session.sign(data);
+            assertEquals(SignatureReturnType.SIGNATURE_GENERATED, sig.sigType);
+            assertArrayEquals(KeystoreAccountService.bytesFromSignature(Sign.signMessage(data, keyPair)), sig.signature);
+        }
+    }
+
+    @Test
+    public void closesAfterMaxOperations()
+    {
+        SigningSession session = new SigningSession("0x1", PRIVATE_KEY, SigningSession.IDLE_TIMEOUT, 3, () -> time);
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(SignatureReturnType.SIGNATURE_GENERATED, session.sign(new byte[] { (byte) i }).sigType);
+        }
+
+        assertFalse(session.isOpen());
+        SignatureFromKey sig = session.sign(new byte[] { 4 });
+        assertEquals(SignatureReturnType.KEY_AUTHENTICATION_ERROR, sig.sigType);
+        assertNotNull(sig.failMessage);
+    }
+
+    @Test
+    public void closesWhenIdle()
+    {
+        SigningSession session = new SigningSession("0x1", PRIVATE_KEY, 1000, SigningSession.MAX_OPERATIONS, () -> time);
+        time += 900;
+        assertTrue(session.isOpen());
+        session.sign(new byte[] { 1 }); //use resets the idle time
+        time += 900;
+        assertTrue(session.isOpen());
+        time += 200;
+        assertFalse(session.isOpen());
+
+        SigningSession closed = new SigningSession("0x1", PRIVATE_KEY);
+        closed.close();
+        assertFalse(closed.isOpen());
+    }
+
+    @Test
+    public void idleSessionIsWipedWithoutFurtherUse() throws InterruptedException
+    {
+        SigningSession session = new SigningSession("0x1", PRIVATE_KEY, 300, SigningSession.MAX_OPERATIONS, System::currentTimeMillis);
+        Thread.sleep(150);
+        session.sign(new byte[] { 1 }); //use pushes the wipe back
+        Thread.sleep(200);
+        assertFalse(session.isWiped());
+
+        //nothing touches the session again; the scheduled check wipes the key
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!session.isWiped() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(session.isWiped());
+    }
+
+    @Test
+    public void indexFindsKeyFiles() throws IOException
+    {
+        File keyFolder = tempFolder.newFolder("keystore");
+        for (int i = 0; i < 20; i++)
+        {
+            new File(keyFolder, "UTC--2024-01-01T00-00-00.0000Z--" + Numeric.toHexStringNoPrefixZeroPadded(BigInteger.valueOf(i), 40)).createNewFile();
+        }
+
+        String target = Numeric.toHexStringNoPrefixZeroPadded(BigInteger.valueOf(7), 40);
+        assertEquals("UTC--2024-01-01T00-00-00.0000Z--" + target, KeystoreAccountService.findKeyFile(keyFolder, "0x" + target).getName());
+        assertNotNull(KeystoreAccountService.findKeyFile(keyFolder, target.toUpperCase()));
+        assertNull(KeystoreAccountService.findKeyFile(keyFolder, "0xdead"));
+
+        //a file added later is found on the next lookup
+        File added = new File(keyFolder, "UTC--2024-01-02T00-00-00.0000Z--00000000000000000000000000000000000000ff");
+        added.createNewFile();
+        assertEquals(added, KeystoreAccountService.findKeyFile(keyFolder, "0xff"));
+    }
+
+    /**
+     * Sign a 50 transaction batch, decrypting the keystore for each signature as before, then with one session
+     */
+    @Test
+    public void batchSigningBenchmark() throws Exception
+    {
+        int batch = 50;
+        File keyFolder = tempFolder.newFolder("keys");
+        ECKeyPair keyPair = ECKeyPair.create(PRIVATE_KEY);
+        String address = address(keyPair);
+        //a standard (not light) keystore, as created by most wallets and imported
+        WalletFile walletFile = org.web3j.crypto.Wallet.createStandard(PASSWORD, keyPair);
+        new ObjectMapper().writeValue(new File(keyFolder, "UTC--2024-01-01T00-00-00.0000Z--" + Numeric.cleanHexPrefix(address)), walletFile);
+
+        byte[][] payloads = new byte[batch][];
+        for (int i = 0; i < batch; i++) payloads[i] = ("tx" + i).getBytes(StandardCharsets.UTF_8);
+
+        //previous path: one keystore decrypt per signature; time a few and extrapolate
+        int sampled = 3;
+        long start = System.nanoTime();
+        for (int i = 0; i < sampled; i++)
+        {
+            Credentials credentials = KeystoreAccountService.getCredentials(keyFolder, address, PASSWORD);
+            Sign.signMessage(payloads[i], credentials.getEcKeyPair());
+        }
+        long perDecrypt = (System.nanoTime() - start) / sampled;
+
+        start = System.nanoTime();
+        try (SigningSession session = KeystoreAccountService.openSigningSession(keyFolder, address, PASSWORD))
+        {
+            assertNotNull(session);
+            for (byte[] payload : payloads)
+            {
+                SignatureFromKey sig = session.sign(payload);
+                assertEquals(SignatureReturnType.SIGNATURE_GENERATED, sig.sigType);
+            }
+            assertEquals(batch, session.getOperations());
+        }
+        long sessionTime = System.nanoTime() - start;
+
+        assertTrue(sessionTime < perDecrypt * batch);
+        System.out.println("Signed " + batch + " transactions in " + sessionTime / 1_000_000 + "ms with one session (decrypt per signature: "
+                + perDecrypt * batch / 1_000_000 + "ms)");
+    }
+
+    private static String address(ECKeyPair keyPair)
+    {
+        return Credentials.create(keyPair).getAddress();
+    }
+}
@@ -0,0 +1,146 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+public class TickerBatchQueueTest
+{
+    private final TickerBatchQueue queue = new TickerBatchQueue();
+
+    @Test
+    public void dedupesUntilBatchCompletes()
+    {
+        assertTrue(queue.add(1, "0xAbC"));
+        assertFalse(queue.add(1, "0xabc"));
+        assertTrue(queue.add(2, "0xabc")); //same address on another chain
+        assertEquals(2, queue.size());
+
+        TickerBatchQueue.Batch batch = queue.nextBatch(10);
+        assertEquals(1, batch.chainId);
+        assertEquals("0xabc", batch.addresses.get(0));
+
+        //still being fetched
+        assertFalse(queue.add(1, "0xabc"));
+        assertTrue(queue.contains(1, "0xABC"));
+
+        queue.complete(batch);
+        assertFalse(queue.contains(1, "0xabc"));
+        assertTrue(queue.add(1, "0xabc"));
+    }
+
+    @Test
+    public void batchesAreOneChainTakenInTurn()
+    {
+        for (int i = 0; i < 5; i++) queue.add(1, "0x1" + i);
+        for (int i = 0; i < 2; i++) queue.add(2, "0x2" + i);
+
+        TickerBatchQueue.Batch first = queue.nextBatch(3);
+        assertEquals(1, first.chainId);
+        assertEquals(3, first.addresses.size());
+
+        TickerBatchQueue.Batch second = queue.nextBatch(3);
+        assertEquals(2, second.chainId);
+        assertEquals(2, second.addresses.size());
+
+        TickerBatchQueue.Batch third = queue.nextBatch(3);
+        assertEquals(1, third.chainId);
+        assertEquals(2, third.addresses.size());
+
+        assertTrue(queue.isEmpty());
+        assertNull(queue.nextBatch(3));
+    }
+
+    @Test
+    public void budgetRefillsAtItsRate()
+    {
+        long now = 1000;
+        RequestBudget budget = new RequestBudget(3, 500);
+        assertEquals(3, budget.available(now));
+        assertTrue(budget.tryAcquire(3, now));
+        assertFalse(budget.tryAcquire(1, now + 100));
+        assertTrue(budget.tryAcquire(1, now + 500));
+
+        //over the limit: nothing until it refills from empty
+        budget.onRateLimited(now + 2000);
+        assertEquals(0, budget.available(now + 2000));
+        assertEquals(2, budget.available(now + 3000));
+        assertEquals(3, budget.available(now + 10000));
+    }
+
+    /**
+     * Price a 300 token portfolio spread over six chains, where CoinGecko knows 90% of the tokens and token-discovery
+     * is asked for the rest. Previously every token took its own token-discovery call, one every two seconds.
+     */
+    @Test
+    public void portfolioRefreshBenchmark()
+    {
+        int chains = 6;
+        int tokensPerChain = 50;
+        int maxBatch = 50;
+        TickerBatchQueue discovery = new TickerBatchQueue();
+        RequestBudget coinGeckoBudget = new RequestBudget(5, 2000);
+        RequestBudget discoveryBudget = new RequestBudget(10, 250);
+
+        for (long chainId = 1; chainId <= chains; chainId++)
+        {
+            for (int i = 0; i < tokensPerChain; i++)
+            {
+                queue.add(chainId, "0x" + chainId + "00" + i);
+                queue.add(chainId, "0x" + chainId + "00" + i); //listed twice, eg from two sync paths
+            }
+        }
+
+        long start = System.nanoTime();
+        long time = 0;
+        int coinGeckoCalls = 0;
+        int discoveryCalls = 0;
+        int writes = 0;
+        Set<String> priced = new HashSet<>();
+        while (!queue.isEmpty() || !discovery.isEmpty())
+        {
+            while (!queue.isEmpty() && coinGeckoBudget.tryAcquire(1, time))
+            {
+                TickerBatchQueue.Batch batch = queue.nextBatch(maxBatch);
+                coinGeckoCalls++;
+                for (String address : batch.addresses)
+                {
+                    if (address.hashCode() % 10 == 0) discovery.add(batch.chainId, address);
+                    else priced.add(batch.chainId + address);
+                }
+                queue.complete(batch);
+                writes++;
+            }
+
+            int calls = discoveryBudget.available(time);
+            while (calls > 0 && !discovery.isEmpty())
+            {
+                TickerBatchQueue.Batch batch = discovery.nextBatch(calls);
+                discoveryBudget.tryAcquire(batch.addresses.size(), time);
+                calls -= batch.addresses.size();
+                discoveryCalls += batch.addresses.size();
+                for (String address : batch.addresses) priced.add(batch.chainId + address);
+                discovery.complete(batch);
+                writes++;
+            }
+
+            time += 1000;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int tokens = chains * tokensPerChain;
+        assertEquals(tokens, priced.size());
+        assertEquals(chains, coinGeckoCalls);
+        assertTrue(coinGeckoCalls + discoveryCalls < tokens / 4);
+
+        System.out.println("Priced " + tokens + " tokens with " + coinGeckoCalls + " CoinGecko + " + discoveryCalls
+                + " token-discovery calls and " + writes + " writes in " + time / 1000 + "s simulated, "
+                + elapsed / 1000 + "us queue time (one call per token: " + tokens + " calls, " + tokens * 2 + "s)");
+    }
+}
@@ -0,0 +1,128 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.ramapay.token.tools.TokenDefinition;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TokenDefinitionCacheTest
+{
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        cacheDir = Files.createTempDirectory("tsdef").toFile();
+        cacheDir.deleteOnExit();
+    }
+
+    @Test
+    public void evictedDefinitionsRestoreFromDisk() throws Exception
+    {
+        TokenDefinitionCache cache = new TokenDefinitionCache(cacheDir, 2, 10);
+        AtomicInteger parses = new AtomicInteger();
+
+        TokenDefinition first = cache.load("a-en", () -> definition("0xa", parses));
+        cache.load("b-en", () -> definition("0xb", parses));
+        cache.load("c-en", () -> definition("0xc", parses));
+        assertEquals(3, parses.get());
+        assertEquals(2, cache.memorySize());
+
+        //evicted from memory, read back without parsing
+        TokenDefinition restored = cache.load("a-en", () -> definition("0xa", parses));
+        assertEquals(3, parses.get());
+        assertNotSame(first, restored);
+        assertEquals("0xa", restored.holdingToken);
+
+        //now held in memory again
+        assertSame(restored, cache.load("a-en", () -> definition("0xa", parses)));
+
+        //a new cache, as after a restart
+        TokenDefinitionCache warm = new TokenDefinitionCache(cacheDir, 2, 10);
+        assertEquals("0xb", warm.load("b-en", () -> definition("0xb", parses)).holdingToken);
+        assertEquals(3, parses.get());
+    }
+
+    @Test
+    public void damagedEntryIsReparsed() throws Exception
+    {
+        TokenDefinitionCache cache = new TokenDefinitionCache(cacheDir, 2, 10);
+        AtomicInteger parses = new AtomicInteger();
+        cache.load("a-en", () -> definition("0xa", parses));
+        cache.clearMemory();
+
+        try (FileOutputStream out = new FileOutputStream(new File(cacheDir, "a-en.tsd")))
+        {
+            out.write("not a definition".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("0xa", cache.load("a-en", () -> definition("0xa", parses)).holdingToken);
+        assertEquals(2, parses.get());
+        cache.clearMemory();
+        assertNotNull(cache.get("a-en")); //rewritten
+    }
+
+    @Test
+    public void diskEntriesArePruned() throws Exception
+    {
+        TokenDefinitionCache cache = new TokenDefinitionCache(cacheDir, 2, 3);
+        AtomicInteger parses = new AtomicInteger();
+        for (int i = 0; i < 5; i++)
+        {
+            String key = "k" + i + "-en";
+            cache.load(key, () -> definition("0x" + key, parses));
+            new File(cacheDir, key + ".tsd").setLastModified(1000L * (i + 1)); //fix the write order
+        }
+
+        assertEquals(3, cacheDir.listFiles((dir, name) -> name.endsWith(".tsd")).length);
+        cache.clearMemory();
+        assertNull(cache.get("k0-en"));
+        assertNotNull(cache.get("k4-en"));
+    }
+
+    @Test
+    public void contentHashFollowsFileStamp() throws Exception
+    {
+        TokenDefinitionCache cache = new TokenDefinitionCache(cacheDir);
+        AtomicInteger reads = new AtomicInteger();
+
+        String hash = cache.contentHash("/scripts/a.tsml", "100:20", () -> stream("v1", reads));
+        assertEquals(hash, cache.contentHash("/scripts/a.tsml", "100:20", () -> stream("v1", reads)));
+        assertEquals(1, reads.get());
+
+        String changed = cache.contentHash("/scripts/a.tsml", "200:20", () -> stream("v2", reads));
+        assertEquals(2, reads.get());
+        assertNotEquals(hash, changed);
+
+        assertEquals("abc-en", TokenDefinitionCache.key("abc", new Locale("en", "AU")));
+    }
+
+    private TokenDefinition definition(String holdingToken, AtomicInteger parses)
+    {
+        parses.incrementAndGet();
+        TokenDefinition td = new TokenDefinition();
+        td.holdingToken = holdingToken;
+        return td;
+    }
+
+    private ByteArrayInputStream stream(String content, AtomicInteger reads)
+    {
+        reads.incrementAndGet();
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,88 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class TokenScriptLoadTrackerTest
+{
+    private static final String DAI = "0x6b175474e89094c44da98b954eedeac495271d0f-1";
+    private static final String USDC = "0xa0b86991c6218b36c1d19d4a2e9eb0ce3606eb48-1";
+
+    @Test
+    public void unchangedScriptsAreReadyOnceScanned() throws Exception
+    {
+        TokenScriptLoadTracker tracker = new TokenScriptLoadTracker();
+        assertFalse(tracker.waitFor(DAI, 10)); //not yet known whether DAI's script changed
+
+        tracker.addUnchanged();
+        tracker.scanComplete(1);
+        assertTrue(tracker.waitFor(DAI, 10));
+        assertFalse(tracker.waitForAll(10));
+    }
+
+    @Test
+    public void callersOnlyWaitForTheirChangedScript() throws Exception
+    {
+        TokenScriptLoadTracker tracker = new TokenScriptLoadTracker();
+        List<String> daiKeys = Collections.singletonList(DAI);
+        tracker.addPending(daiKeys);
+        tracker.scanComplete(2);
+
+        assertTrue(tracker.waitFor(USDC, 10));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<Boolean> waiter = executor.submit(() -> tracker.waitFor(DAI, 5000));
+        Thread.sleep(50);
+        assertFalse(waiter.isDone());
+
+        tracker.published(daiKeys);
+        assertTrue(waiter.get(1, TimeUnit.SECONDS));
+        executor.shutdown();
+    }
+
+    @Test
+    public void newScriptsHoldUnknownKeys() throws Exception
+    {
+        TokenScriptLoadTracker tracker = new TokenScriptLoadTracker();
+        tracker.addUnknown();
+        tracker.addUnknown();
+        tracker.scanComplete(2);
+
+        assertFalse(tracker.waitFor(USDC, 10)); //could be defined by either new script
+        tracker.published(null);
+        assertFalse(tracker.waitFor(USDC, 10));
+        tracker.failed(null);
+        assertTrue(tracker.waitFor(USDC, 10));
+
+        tracker.loadComplete();
+        assertTrue(tracker.waitForAll(10));
+    }
+
+    @Test
+    public void reportsStartupTimings() throws Exception
+    {
+        TokenScriptLoadTracker tracker = new TokenScriptLoadTracker();
+        assertEquals(-1, tracker.getTimeToFirstDefinition());
+        assertEquals(-1, tracker.getTotalLoadTime());
+
+        tracker.addUnknown();
+        tracker.scanComplete(1);
+        Thread.sleep(20);
+        tracker.published(null);
+        tracker.loadComplete();
+
+        assertTrue(tracker.getTimeToFirstDefinition() >= 20);
+        assertTrue(tracker.getTotalLoadTime() >= tracker.getTimeToFirstDefinition());
+        assertTrue(tracker.toString().contains("1 files, 0 unchanged, 1 loaded, 0 failed"));
+    }
+}
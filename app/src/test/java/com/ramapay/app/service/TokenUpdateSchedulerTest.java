@@ -0,0 +1,196 @@
+package com.ramapay.app.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.text.format.DateUtils;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.ramapay.app.entity.ContractType;
+import com.ramapay.app.entity.tokendata.TokenGroup;
+import com.ramapay.app.entity.tokens.TokenCardMeta;
+import com.ramapay.shadows.ShadowApp;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+@RunWith(AndroidJUnit4.class)
+@Config(shadows = {ShadowApp.class})
+public class TokenUpdateSchedulerTest
+{
+    private static final long CHAIN = 1;
+    private static final long OTHER_CHAIN = 137;
+    private static final String WALLET = "0x000000000000000000000000000000000000beef";
+
+    private final long now = System.currentTimeMillis();
+    private final TokenUpdateScheduler scheduler = new TokenUpdateScheduler();
+
+    @Test
+    public void servesMostOverdueFirst()
+    {
+        TokenCardMeta recent = erc20(CHAIN, 1, now - 40_000);
+        TokenCardMeta old = erc20(CHAIN, 2, now - 90_000);
+        scheduler.load(new TokenCardMeta[] { recent, old }, 0);
+
+        assertEquals(old, scheduler.poll(now, true));
+        assertEquals(recent, scheduler.poll(now, true));
+        assertNull(scheduler.poll(now, true));
+
+        //checked tokens come round again after their interval
+        assertNotNull(scheduler.poll(now + recent.calculateUpdateFrequency(), true));
+    }
+
+    @Test
+    public void outOfFocusOnlyServesChains()
+    {
+        TokenCardMeta token = erc20(CHAIN, 1, now - 90_000);
+        TokenCardMeta base = base(CHAIN, now - 10_000);
+        scheduler.load(new TokenCardMeta[] { token, base }, 0);
+
+        assertNull(scheduler.poll(now, false));
+        assertEquals(base, scheduler.poll(now + 10_000, false));
+
+        //focus token is still served while out of focus
+        scheduler.setFocus(CHAIN, token.getAddress());
+        assertEquals(token, scheduler.poll(now + 10_000, false));
+    }
+
+    @Test
+    public void pendingChainIsCheckedSooner()
+    {
+        TokenCardMeta base = base(CHAIN, now);
+        scheduler.load(new TokenCardMeta[] { base }, 0);
+        assertNull(scheduler.poll(now + TokenUpdateScheduler.PENDING_CHAIN_INTERVAL, true));
+
+        scheduler.setPendingChain(CHAIN, true);
+        assertEquals(base, scheduler.poll(now + TokenUpdateScheduler.PENDING_CHAIN_INTERVAL, true));
+    }
+
+    @Test
+    public void focusSlowsOtherTokens()
+    {
+        TokenCardMeta focus = erc20(CHAIN, 1, now + DateUtils.HOUR_IN_MILLIS); //keep the focus token out of the way
+        TokenCardMeta other = erc20(CHAIN, 2, now);
+        scheduler.load(new TokenCardMeta[] { focus, other }, 0);
+        scheduler.setFocus(CHAIN, focus.getAddress());
+
+        assertNull(scheduler.poll(now + other.calculateUpdateFrequency(), true));
+        assertEquals(other, scheduler.poll(now + TokenUpdateScheduler.BACKGROUND_TOKEN_INTERVAL, true));
+
+        //normal interval resumes once focus is cleared
+        scheduler.setFocus(0, null);
+        long next = now + TokenUpdateScheduler.BACKGROUND_TOKEN_INTERVAL + other.calculateUpdateFrequency();
+        assertEquals(other, scheduler.poll(next, true));
+    }
+
+    @Test
+    public void batchTakesDueTokensOnChain()
+    {
+        List<TokenCardMeta> metas = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) metas.add(erc20(CHAIN, i, now - 60_000));
+        metas.add(erc20(CHAIN, 11, now)); //not due
+        metas.add(erc20(OTHER_CHAIN, 12, now - 60_000));
+        scheduler.load(metas.toArray(new TokenCardMeta[0]), 0);
+
+        List<TokenCardMeta> batch = scheduler.pollChainBatch(CHAIN, now, 1000);
+        assertEquals(10, batch.size());
+        for (TokenCardMeta meta : batch) assertEquals(CHAIN, meta.getChain());
+
+        //batched tokens are marked checked, only the other chain's token is left for the single queue
+        assertEquals(metas.get(11), scheduler.poll(now, true));
+        assertNull(scheduler.poll(now, true));
+    }
+
+    @Test
+    public void memoryCheckTimeSurvivesReload()
+    {
+        TokenCardMeta token = erc20(CHAIN, 1, now - 90_000);
+        scheduler.load(new TokenCardMeta[] { token }, 0);
+        assertEquals(token, scheduler.poll(now, true));
+
+        //database hasn't caught up with the check yet
+        scheduler.load(new TokenCardMeta[] { erc20(CHAIN, 1, now - 90_000) }, 0);
+        assertNull(scheduler.poll(now, true));
+    }
+
+    @Test
+    public void unsyncedWalletDefersNFTs()
+    {
+        TokenCardMeta nft = token(CHAIN, 1, now - 600_000, ContractType.ERC721, TokenGroup.NFT);
+        TokenCardMeta erc20 = erc20(CHAIN, 2, now - 60_000);
+        scheduler.load(new TokenCardMeta[] { nft, erc20 }, now);
+        scheduler.setSynced(false, now);
+
+        assertEquals(erc20, scheduler.poll(now, true));
+        assertNull(scheduler.poll(now, true));
+
+        scheduler.setSynced(true, now);
+        assertEquals(nft, scheduler.poll(now, true));
+    }
+
+    @Test
+    public void removedTokensAreDropped()
+    {
+        TokenCardMeta a = erc20(CHAIN, 1, now - 90_000);
+        TokenCardMeta b = erc20(CHAIN, 2, now - 90_000);
+        scheduler.load(new TokenCardMeta[] { a, b }, 0);
+        scheduler.load(new TokenCardMeta[] { b }, 0);
+        assertEquals(1, scheduler.size());
+
+        scheduler.remove(scheduler.poll(now, true).tokenId);
+        assertEquals(0, scheduler.size());
+    }
+
+    @Test
+    public void largeWalletSelection()
+    {
+        int count = 20000;
+        TokenCardMeta[] metas = new TokenCardMeta[count];
+        for (int i = 0; i < count; i++) metas[i] = erc20(CHAIN + (i % 5), i + 1, now - 60_000 - i);
+        scheduler.load(metas, 0);
+
+        long start = System.nanoTime();
+        Set<String> seen = new HashSet<>();
+        long lastUpdate = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++)
+        {
+            TokenCardMeta meta = scheduler.poll(now, true);
+            assertTrue(seen.add(meta.tokenId));
+            //all share an interval, so the least recently checked comes first
+            assertTrue(lastUpdate == Long.MIN_VALUE || meta.lastUpdate >= lastUpdate);
+            lastUpdate = meta.lastUpdate;
+        }
+        long elapsed = System.nanoTime() - start;
+        assertNull(scheduler.poll(now, true));
+        System.out.println("Selected " + count + " tokens in " + elapsed / 1_000_000 + "ms");
+    }
+
+    private TokenCardMeta erc20(long chainId, int index, long lastUpdate)
+    {
+        return token(chainId, index, lastUpdate, ContractType.ERC20, TokenGroup.ASSET);
+    }
+
+    private TokenCardMeta base(long chainId, long lastUpdate)
+    {
+        TokenCardMeta meta = new TokenCardMeta(chainId, WALLET, "1", lastUpdate, lastUpdate, ContractType.ETHEREUM, TokenGroup.ASSET);
+        meta.isEnabled = true;
+        return meta;
+    }
+
+    private TokenCardMeta token(long chainId, int index, long lastUpdate, ContractType type, TokenGroup group)
+    {
+        String address = String.format("0x%040x", index);
+        TokenCardMeta meta = new TokenCardMeta(chainId, address, "1", lastUpdate, lastUpdate, type, group);
+        meta.isEnabled = true;
+        return meta;
+    }
+}
@@ -0,0 +1,260 @@
+package com.ramapay.app.ui.widget.adapter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.app.entity.ActivityMeta;
+import com.ramapay.app.entity.ActivitySource;
+import com.ramapay.app.entity.EventMeta;
+import com.ramapay.app.entity.TransactionMeta;
+import com.ramapay.app.ui.widget.entity.DateSortedItem;
+import com.ramapay.app.ui.widget.entity.EventSortedItem;
+import com.ramapay.app.ui.widget.entity.SortedItem;
+import com.ramapay.app.ui.widget.entity.TokenTransferData;
+import com.ramapay.app.ui.widget.entity.TransactionSortedItem;
+import com.ramapay.app.ui.widget.entity.TransferSortedItem;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ActivityWindowTest
+{
+    private static final long START_TIME = 1700000000L; //seconds
+    private static final long HOUR = 3600;
+
+    @Test
+    public void scrollLargeHistoryBenchmark()
+    {
+        SyntheticSource source = new SyntheticSource();
+        for (int i = 0; i < 50000; i++)
+        {
+            source.addTransaction("0x" + i, START_TIME - i * HOUR / 4, i % 10 == 0 ? 2 : i % 7 == 0 ? 1 : 0);
+            if (i % 100 == 0) source.addEvent("0xe" + i, START_TIME - i * HOUR / 4 - 1);
+        }
+
+        ActivityWindow window = new ActivityWindow(source);
+        long start = System.nanoTime();
+        window.loadNextPage();
+        int maxHeld = 0;
+        long lastTime = Long.MAX_VALUE;
+        for (int position = 0; position < window.size(); position++)
+        {
+            if (window.needsNextPage(position)) window.loadNextPage();
+            SortedItem<?> item = window.get(position);
+            if (!(item instanceof DateSortedItem))
+            {
+                long time = ((ActivityMeta) item.value).getTimeStamp();
+                assertTrue(time <= lastTime);
+                lastTime = time;
+            }
+            maxHeld = Math.max(maxHeld, window.getHeldPages());
+        }
+        long scrollDown = System.nanoTime() - start;
+
+        assertFalse(window.hasMore());
+        assertEquals(50000, source.transactionsRead);
+        assertTrue(maxHeld <= ActivityWindow.WINDOW_PAGES);
+
+        //fling back to the top; evicted pages are rebuilt from the cursors
+        start = System.nanoTime();
+        for (int position = window.size() - 1; position >= 0; position -= 7)
+        {
+            window.get(position);
+        }
+        long scrollUp = System.nanoTime() - start;
+        assertTrue(window.getHeldPages() <= ActivityWindow.WINDOW_PAGES);
+
+        System.out.println("Scrolled " + window.size() + " rows: down " + (scrollDown / window.size()) + "ns/row, up "
+                + (scrollUp / (window.size() / 7)) + "ns/row; at most " + maxHeld + " pages held, "
+                + window.getPagesBuilt() + " page builds");
+    }
+
+    @Test
+    public void rowsFollowTransferAndEventRules()
+    {
+        SyntheticSource source = new SyntheticSource();
+        source.addTransaction("0xa", START_TIME, 0);                 //plain transaction
+        source.addTransaction("0xb", START_TIME - 10, 1);            //single transfer replaces the transaction
+        source.addTransaction("0xc", START_TIME - 20, 2);            //transaction and both transfers
+        source.addTransaction("0xd", START_TIME - 30, 0);
+        source.addEvent("0xd", START_TIME - 30);                     //event card shows 0xd
+        source.addTransaction("0xe", START_TIME - 2 * 24 * HOUR, 0); //a different day
+
+        ActivityWindow window = new ActivityWindow(source);
+        window.loadNextPage();
+        assertFalse(window.hasMore());
+
+        List<SortedItem<?>> rows = new ArrayList<>();
+        for (int i = 0; i < window.size(); i++) rows.add(window.get(i));
+
+        assertEquals(9, rows.size());
+        assertTrue(rows.get(0) instanceof DateSortedItem);
+        assertHash(rows.get(1), TransactionSortedItem.class, "0xa");
+        assertHash(rows.get(2), TransferSortedItem.class, "0xb");
+        assertHash(rows.get(3), TransactionSortedItem.class, "0xc");
+        assertHash(rows.get(4), TransferSortedItem.class, "0xc");
+        assertHash(rows.get(5), TransferSortedItem.class, "0xc");
+        assertHash(rows.get(6), EventSortedItem.class, "0xd");
+        assertTrue(rows.get(7) instanceof DateSortedItem);
+        assertHash(rows.get(8), TransactionSortedItem.class, "0xe");
+    }
+
+    @Test
+    public void eventCardHidesTransactionOnLaterPage()
+    {
+        SyntheticSource source = new SyntheticSource();
+        int before = ActivityWindow.PAGE_SIZE - 1;
+        for (int i = 0; i < before; i++) source.addTransaction("0x" + i, START_TIME - i * 60, 0);
+        long eventTime = START_TIME - before * 60;
+        source.addEvent("0xd", eventTime);                  //last entry of the first page
+        source.addTransaction("0xd", eventTime, 0);         //first entry of the second page
+        for (int i = 0; i < ActivityWindow.PAGE_SIZE * ActivityWindow.WINDOW_PAGES * 2; i++)
+        {
+            source.addTransaction("0xz" + i, eventTime - (i + 1) * 60, 0);
+        }
+
+        ActivityWindow window = new ActivityWindow(source);
+        while (window.hasMore()) window.loadNextPage();
+        assertEquals(1, countRows(window, "0xd"));
+
+        //the second page has been evicted; rebuilding it gives the same rows
+        int size = window.size();
+        assertEquals(1, countRows(window, "0xd"));
+        assertEquals(size, window.size());
+    }
+
+    private int countRows(ActivityWindow window, String hash)
+    {
+        int count = 0;
+        for (int i = 0; i < window.size(); i++)
+        {
+            SortedItem<?> row = window.get(i);
+            if (!(row instanceof DateSortedItem) && hash.equals(((ActivityMeta) row.value).hash)) count++;
+        }
+        return count;
+    }
+
+    @Test
+    public void reloadKeepsRowsShowing()
+    {
+        SyntheticSource source = new SyntheticSource();
+        for (int i = 0; i < 500; i++) source.addTransaction("0x" + i, START_TIME - i * 60, 0);
+
+        ActivityWindow window = new ActivityWindow(source);
+        window.loadNextPage();
+        window.loadNextPage();
+        window.loadNextPage();
+        int showing = window.size();
+
+        source.addTransaction("0xnew", START_TIME + 60, 0);
+        window.reload();
+
+        assertTrue(window.size() >= showing);
+        assertHash(window.get(1), TransactionSortedItem.class, "0xnew");
+        assertHash(window.get(2), TransactionSortedItem.class, "0x0");
+    }
+
+    private void assertHash(SortedItem<?> row, Class<?> type, String hash)
+    {
+        assertSame(type, row.getClass());
+        assertEquals(hash, ((ActivityMeta) row.value).hash);
+    }
+
+    /**
+     * In-memory stand-in for the Realm cursors, newest first
+     */
+    private static class SyntheticSource implements ActivitySource
+    {
+        private final List<Object[]> transactions = new ArrayList<>(); //hash, time, transfer count
+        private final List<Object[]> events = new ArrayList<>();
+        private final Map<String, Integer> transferCounts = new HashMap<>();
+        int transactionsRead;
+
+        void addTransaction(String hash, long time, int transfers)
+        {
+            insertNewestFirst(transactions, new Object[] { hash, time });
+            transferCounts.put(hash, transfers);
+        }
+
+        void addEvent(String hash, long time)
+        {
+            insertNewestFirst(events, new Object[] { hash, time });
+        }
+
+        private static void insertNewestFirst(List<Object[]> list, Object[] row)
+        {
+            int index = list.size();
+            while (index > 0 && (long) list.get(index - 1)[1] < (long) row[1]) index--;
+            list.add(index, row);
+        }
+
+        @Override
+        public int getTransactionCount()
+        {
+            return transactions.size();
+        }
+
+        @Override
+        public long getTransactionTime(int index)
+        {
+            return (long) transactions.get(index)[1];
+        }
+
+        @Override
+        public TransactionMeta getTransaction(int index)
+        {
+            transactionsRead++;
+            Object[] tx = transactions.get(index);
+            return new TransactionMeta((String) tx[0], (long) tx[1], "0xcontract", 1, "100");
+        }
+
+        @Override
+        public List<TokenTransferData> getTransfers(TransactionMeta tm)
+        {
+            int count = transferCounts.get(tm.hash);
+            List<TokenTransferData> transfers = new ArrayList<>();
+            long time = count == 1 ? tm.getTimeStamp() : tm.getTimeStamp() - 1;
+            for (int i = 0; i < count; i++)
+            {
+                transfers.add(new TokenTransferData(tm.hash, tm.chainId, "0xtoken", "sent", "amount," + i, time--));
+            }
+
+            return transfers;
+        }
+
+        @Override
+        public int getEventCount()
+        {
+            return events.size();
+        }
+
+        @Override
+        public long getEventTime(int index)
+        {
+            return (long) events.get(index)[1];
+        }
+
+        @Override
+        public EventMeta getEvent(int index)
+        {
+            Object[] event = events.get(index);
+            return new EventMeta((String) event[0], "Transfer", "card", (long) event[1], 1);
+        }
+
+        @Override
+        public void setChangeListener(Runnable listener)
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -19,6 +19,7 @@ import com.ramapay.token.tools.TokenDefinition;
 import com.ramapay.token.web.Ethereum.TokenscriptFunction;
 import com.ramapay.token.web.Ethereum.TransactionHandler;
 import com.ramapay.token.web.Service.CryptoFunctions;
+import com.ramapay.token.web.Service.TokenDefinitionStore;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
@@ -47,16 +48,29 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import io.reactivex.Scheduler;
+import io.reactivex.schedulers.Schedulers;
 import javax.servlet.http.HttpServletRequest;
 
 @Controller
@@ -65,7 +79,8 @@ import javax.servlet.http.HttpServletRequest;
 public class AppSiteController implements AttributeInterface
 {
     private static CryptoFunctions cryptoFunctions = new CryptoFunctions();
-    private static Map<Long, Map<String, File>> addresses;
+    private static final Map<Long, Map<String, File>> addresses = new ConcurrentHashMap<>();
+    private static final TokenDefinitionStore definitions = new TokenDefinitionStore();
     private static Map<Long, Map<String, Map<BigInteger, CachedResult>>> transactionResults = new ConcurrentHashMap<>();  //optimisation results
     private static final String appleAssociationConfig = "{\n" +
             "  \"applinks\": {\n" +
@@ -95,6 +110,16 @@ public class AppSiteController implements AttributeInterface
             "  }\n" +
             "]";
 
+    //node reads block, so they run here rather than on the servlet threads
+    private static final int RPC_THREADS = 64;
+    private static final long RENDER_DEADLINE = 5000; //ms; the page is rendered with whatever has been read by then
+    private static final String UNCONFIRMED = "unconfirmed";
+    private static final ExecutorService rpcExecutor = Executors.newFixedThreadPool(RPC_THREADS, daemonThreads("magiclink-rpc"));
+    private static final Scheduler rpcScheduler = Schedulers.from(rpcExecutor);
+    private static final ScheduledExecutorService deadlines = Executors.newSingleThreadScheduledExecutor(daemonThreads("magiclink-deadline"));
+    private static volatile long renderDeadline = RENDER_DEADLINE;
+    private static final Map<String, String> templates = new ConcurrentHashMap<>();
+
     private final MagicLinkData magicLinkData = new MagicLinkData();
     private final TokenscriptFunction tokenscriptFunction = new TokenscriptFunction() { };
     private static Path repoDir;
@@ -118,7 +143,7 @@ public class AppSiteController implements AttributeInterface
     }
 
     @GetMapping(value = "/{UniversalLink}")
-    public @ResponseBody String handleUniversalLink(
+    public @ResponseBody CompletableFuture<String> handleUniversalLink(
             @PathVariable("UniversalLink") String universalLink,
             Model model,
             HttpServletRequest request
@@ -127,7 +152,7 @@ public class AppSiteController implements AttributeInterface
     {
         if (universalLink.equals("wc"))
         {
-            return "If you are using RamaPay with WalletConnect and facing issues please take the following steps:<br/><br/>\nTry using WalletConnect V2 (or latest version)<br/>\nTry launching the application from within RamaPay app's Browser tab.<br/>";
+            return CompletableFuture.completedFuture("If you are using RamaPay with WalletConnect and facing issues please take the following steps:<br/><br/>\nTry using WalletConnect V2 (or latest version)<br/>\nTry launching the application from within RamaPay app's Browser tab.<br/>");
         }
         String domain = request.getServerName();
         ParseMagicLink parser = new ParseMagicLink(cryptoFunctions, null);
@@ -142,54 +167,53 @@ public class AppSiteController implements AttributeInterface
         }
         catch (SalesOrderMalformed e)
         {
-            return "error: " + e;
+            return CompletableFuture.completedFuture("error: " + e);
         }
         parser.getOwnerKey(data);
         return handleTokenLink(data, universalLink);
     }
 
-    private String handleTokenLink(MagicLinkData data, String universalLink
+    /**
+     * Render the page for a link. Name, symbol and the ownership check are read at once, followed by the TokenScript
+     * attributes of the first token. If the reads haven't all finished by the deadline the page is rendered with those
+     * that have.
+     */
+    CompletableFuture<String> handleTokenLink(MagicLinkData data, String universalLink
     ) throws IOException, SAXException, NoHandlerFoundException
     {
         TokenDefinition definition = getTokenDefinition(data.chainId, data.contractAddress);
+        TransactionHandler txHandler = new TransactionHandler(data.chainId);
+        long deadline = System.currentTimeMillis() + renderDeadline;
 
-        if (definition == null)
-        {
-            return renderTokenWithoutTokenScript(data, universalLink);
-        }
-        String available = "available";
-        try
-        {
-            if(data.contractType == normal)
-            {
-                checkTokensOwnedByMagicLinkCreator(data, definition);
-            }
-            else
-            {
-                checkTokensClaimableSpawnable(data);
-            }
-        }
-        catch (Exception e)
-        {
-            //if the tokens are not available, an exception will be thrown and therefore the tokens are not available
-            available = "unavailable";
-        }
+        CompletableFuture<String> tokenName = CompletableFuture.supplyAsync(() -> txHandler.getName(data.contractAddress), rpcExecutor);
+        CompletableFuture<String> symbol = CompletableFuture.supplyAsync(() -> txHandler.getSymbolOnly(data.contractAddress), rpcExecutor);
+        CompletableFuture<String> available = CompletableFuture.supplyAsync(() -> checkAvailability(txHandler, data, definition), rpcExecutor);
 
-        //get attributes
-        BigInteger firstTokenId = BigInteger.ZERO;
+        //the ownership check finds the token ids
+        Queue<TokenScriptResult.Attribute> attrs = new ConcurrentLinkedQueue<>();
+        CompletableFuture<Void> attributes = definition != null
+                ? available.thenCompose(a -> resolveAttributes(data, definition, attrs))
+                : CompletableFuture.completedFuture(null);
 
-        if (data.tokenIds != null && data.tokenIds.size() > 0)
+        return withDeadline(CompletableFuture.allOf(tokenName, symbol, available, attributes), deadline)
+                .thenApply(done -> renderPage(definition, data, universalLink, valueOf(tokenName, ""), valueOf(symbol, ""),
+                        valueOf(available, UNCONFIRMED), attrs));
+    }
+
+    private String renderPage(TokenDefinition definition, MagicLinkData data, String universalLink, String tokenName,
+                              String symbol, String available, Collection<TokenScriptResult.Attribute> attrs)
+    {
+        if (Calendar.getInstance().getTime().after(new Date(data.expiry*1000)))
         {
-            firstTokenId = data.tokenIds.get(0);
+            available = "expired";
         }
-        System.out.println(firstTokenId.toString(16));
-        ContractAddress cAddr = new ContractAddress(data.chainId, data.contractAddress);
-        StringBuilder tokenData = new StringBuilder();
-        TransactionHandler txHandler = new TransactionHandler(data.chainId);
 
-        String tokenName = txHandler.getNameOnly(data.contractAddress);
-        String symbol = txHandler.getSymbolOnly(data.contractAddress);
+        if (definition == null)
+        {
+            return formWebPage(tokenName, symbol, data, universalLink, available, "", "");
+        }
 
+        StringBuilder tokenData = new StringBuilder();
         try
         {
             TokenScriptResult.addPair(tokenData, "name", tokenName);
@@ -201,13 +225,9 @@ public class AppSiteController implements AttributeInterface
             e.printStackTrace();
         }
 
-        tokenscriptFunction.resolveAttributes(ZERO_ADDRESS, firstTokenId, this, cAddr, definition)
-                .forEach(attr -> TokenScriptResult.addPair(tokenData, attr.id, attr.text))
-                .isDisposed();
-
-        if (Calendar.getInstance().getTime().after(new Date(data.expiry*1000)))
+        for (TokenScriptResult.Attribute attr : attrs)
         {
-            available = "expired";
+            TokenScriptResult.addPair(tokenData, attr.id, attr.text);
         }
 
         String view = definition.getCardData("view");
@@ -216,40 +236,93 @@ public class AppSiteController implements AttributeInterface
         String scriptData = loadFile("templates/token_inject.js.tokenscript");
         String tokenView = String.format(scriptData, tokenData.toString(), view);
 
-        return formWebPage(txHandler, data, universalLink, available, style, tokenView);
+        return formWebPage(tokenName, symbol, data, universalLink, available, style, tokenView);
     }
 
-    private String renderTokenWithoutTokenScript(MagicLinkData data, String universalLink)
+    private String checkAvailability(TransactionHandler txHandler, MagicLinkData data, TokenDefinition definition)
     {
-        TransactionHandler txHandler = new TransactionHandler(data.chainId);
-        String available = "available";
-
-        if (Calendar.getInstance().getTime().after(new Date(data.expiry*1000)))
-        {
-            available = "expired";
-        }
         try
         {
-            if(data.contractType == normal)
+            if (data.contractType != normal)
             {
-                checkTokensOwnedByMagicLinkCreator(data);
+                checkTokensClaimableSpawnable(txHandler, data);
+            }
+            else if (definition != null)
+            {
+                checkTokensOwnedByMagicLinkCreator(txHandler, data, definition);
             }
             else
             {
-                checkTokensClaimableSpawnable(data);
+                checkTokensOwnedByMagicLinkCreator(txHandler, data);
             }
+            return "available";
         }
         catch (Exception e)
         {
-            //if exception is thrown, we assume it is not available due to balance call failing to match
-            available = "unavailable";
+            //if the tokens are not available, an exception will be thrown and therefore the tokens are not available
+            return "unavailable";
         }
+    }
+
+    /**
+     * Resolve the attributes of the link's first token into results as they arrive
+     */
+    private CompletableFuture<Void> resolveAttributes(MagicLinkData data, TokenDefinition definition, Queue<TokenScriptResult.Attribute> results)
+    {
+        BigInteger firstTokenId = BigInteger.ZERO;
 
-        return formWebPage(txHandler, data, universalLink, available, "", "");
+        if (data.tokenIds != null && data.tokenIds.size() > 0)
+        {
+            firstTokenId = data.tokenIds.get(0);
+        }
+        System.out.println(firstTokenId.toString(16));
+        ContractAddress cAddr = new ContractAddress(data.chainId, data.contractAddress);
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        tokenscriptFunction.resolveAttributes(ZERO_ADDRESS, firstTokenId, this, cAddr, definition, rpcScheduler)
+                .subscribe(results::add, error -> done.complete(null), () -> done.complete(null))
+                .isDisposed();
+        return done;
+    }
+
+    /**
+     * @return future completing when work does, or at the deadline if that's sooner. Never completes exceptionally
+     */
+    private static CompletableFuture<Void> withDeadline(CompletableFuture<?> work, long deadline)
+    {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        ScheduledFuture<?> timer = deadlines.schedule(() -> done.complete(null),
+                Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        work.whenComplete((result, error) -> {
+            timer.cancel(false);
+            done.complete(null);
+        });
+        return done;
+    }
+
+    private static <T> T valueOf(CompletableFuture<T> future, T fallback)
+    {
+        return (future.isDone() && !future.isCompletedExceptionally()) ? future.join() : fallback;
+    }
+
+    private static ThreadFactory daemonThreads(String name)
+    {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    static void setRenderDeadline(long ms)
+    {
+        renderDeadline = ms;
     }
 
     private String formWebPage(
-            TransactionHandler txHandler,
+            String tokenName,
+            String symbol,
             MagicLinkData data,
             String universalLink,
             String available,
@@ -257,8 +330,6 @@ public class AppSiteController implements AttributeInterface
             String tokenView
     )
     {
-        String tokenName = txHandler.getName(data.contractAddress);
-        String symbol = txHandler.getSymbolOnly(data.contractAddress);
         String nameWithSymbol = tokenName + "(" + symbol + ")";
 
         String price = getEthString(data.price) + " " + MagicLinkInfo.getNetworkNameById(data.chainId);
@@ -309,17 +380,14 @@ public class AppSiteController implements AttributeInterface
                 /* this is impossible to happen, because at least 1 xml should present or main() bails out */
                 throw new NoHandlerFoundException("GET", "/" + contractAddress, new HttpHeaders());
             }
-            try(FileInputStream in = new FileInputStream(xml)) {
-                // TODO: give more detail in the error
-                // TODO: reflect on this: should the page bail out for contracts with completely no matching XML?
-                definition = new TokenDefinition(in, new Locale("en"), null);
-            }
+            // TODO: give more detail in the error
+            // TODO: reflect on this: should the page bail out for contracts with completely no matching XML?
+            definition = definitions.get(chainId, contractAddress, xml);
         }
         return definition;
     }
 
-    private void checkTokensClaimableSpawnable(MagicLinkData data) throws Exception {
-        TransactionHandler txHandler = new TransactionHandler(data.chainId);
+    private void checkTokensClaimableSpawnable(TransactionHandler txHandler, MagicLinkData data) throws Exception {
         //TODO replace with real admin(s) addresses in production
         if(data.ownerAddress.equalsIgnoreCase("0xEdd6D7ba0FF9f4bC501a12529cb736CA76A4fe7e") ||
                 data.ownerAddress.equalsIgnoreCase("0x453aABe984b62eE28382c99A6d20447f7776b1fa"))
@@ -348,9 +416,8 @@ public class AppSiteController implements AttributeInterface
      * @param data
      * @throws Exception
      */
-    private void checkTokensOwnedByMagicLinkCreator(MagicLinkData data, TokenDefinition definition) throws Exception
+    private void checkTokensOwnedByMagicLinkCreator(TransactionHandler txHandler, MagicLinkData data, TokenDefinition definition) throws Exception
     {
-        TransactionHandler txHandler = new TransactionHandler(data.chainId);
         List<BigInteger> balanceArray = txHandler.getBalanceArray(data.ownerAddress, data.contractAddress);
         data.tokenIds = new ArrayList<>();
 
@@ -370,9 +437,8 @@ public class AppSiteController implements AttributeInterface
     }
 
     //For if there is no TokenScript
-    private void checkTokensOwnedByMagicLinkCreator(MagicLinkData data) throws Exception
+    private void checkTokensOwnedByMagicLinkCreator(TransactionHandler txHandler, MagicLinkData data) throws Exception
     {
-        TransactionHandler txHandler = new TransactionHandler(data.chainId);
         List<BigInteger> balanceArray = txHandler.getBalanceArray(data.ownerAddress, data.contractAddress);
         data.tokenIds = new ArrayList<>();
 
@@ -393,7 +459,6 @@ public class AppSiteController implements AttributeInterface
     }
 
     public static void main(String[] args) throws IOException { // TODO: should run System.exit() if IOException
-        addresses = new HashMap<Long, Map<String, File>>();
         SpringApplication.run(AppSiteController.class, args);
         try (Stream<Path> dirStream = Files.walk(repoDir)) {
             dirStream.filter(path -> path.toString().toLowerCase().endsWith(".tsml"))
@@ -428,10 +493,25 @@ public class AppSiteController implements AttributeInterface
             });
         }
 
+        //re-parse changed scripts on next use, and pick up new contracts
+        definitions.watch(repoDir, path -> {
+            if (path.toString().toLowerCase().endsWith(".tsml") && Files.isRegularFile(path))
+            {
+                try
+                {
+                    addContractAddresses(path);
+                }
+                catch (RuntimeException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        });
+
         loadInfuraKey();
 	}
 
-    private static void addContractAddresses(Path path) {
+    static void addContractAddresses(Path path) {
         try (InputStream input = Files.newInputStream(path))
         {
             TokenDefinition token = new TokenDefinition(input, new Locale("en"), null);
@@ -447,10 +527,9 @@ public class AppSiteController implements AttributeInterface
 
     private static void addContractsToNetwork(Long network, Map<String, File> newTokenDescriptionAddresses)
     {
-        Map<String, File> existingDefinitions = addresses.get(network);
-        if (existingDefinitions == null) existingDefinitions = new HashMap<>();
-
-        addresses.put(network, Stream.concat(existingDefinitions.entrySet().stream(), newTokenDescriptionAddresses.entrySet().stream())
+        addresses.compute(network, (n, existingDefinitions) ->
+                Stream.concat(existingDefinitions != null ? existingDefinitions.entrySet().stream() : Stream.empty(),
+                        newTokenDescriptionAddresses.entrySet().stream())
                 .collect(Collectors.toMap(
                         Map.Entry::getKey,
                         Map.Entry::getValue,
@@ -467,6 +546,10 @@ public class AppSiteController implements AttributeInterface
     }
 
     private String loadFile(String fileName) {
+        return templates.computeIfAbsent(fileName, this::readResource);
+    }
+
+    private String readResource(String fileName) {
         byte[] buffer = new byte[0];
         try {
             InputStream in = getClass()
@@ -510,11 +593,10 @@ public class AppSiteController implements AttributeInterface
     public TransactionResult storeAuxData(String wAddress, TransactionResult tResult)
     {
         String addressFunctionKey = tResult.contractAddress + "-" + tResult.attrId;
-        if (!transactionResults.containsKey(tResult.contractChainId)) transactionResults.put(tResult.contractChainId, new HashMap<>());
-        if (!transactionResults.get(tResult.contractChainId).containsKey(addressFunctionKey)) transactionResults.get(tResult.contractChainId).put(addressFunctionKey, new HashMap<>());
-        Map<BigInteger, CachedResult> tokenResultMap = transactionResults.get(tResult.contractChainId).get(addressFunctionKey);
-        tokenResultMap.put(tResult.tokenId, new CachedResult(tResult.resultTime, tResult.result));
-        transactionResults.get(tResult.contractChainId).put(addressFunctionKey, tokenResultMap);
+        //requests are served concurrently
+        transactionResults.computeIfAbsent(tResult.contractChainId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(addressFunctionKey, key -> new ConcurrentHashMap<>())
+                .put(tResult.tokenId, new CachedResult(tResult.resultTime, tResult.result));
 
         return tResult;
     }
@@ -12,71 +12,65 @@ import org.web3j.abi.datatypes.generated.Uint256;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameterName;
 import org.web3j.protocol.core.methods.request.Transaction;
-import org.web3j.protocol.core.methods.response.Web3ClientVersion;
-import org.web3j.protocol.http.HttpService;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
 import com.ramapay.token.entity.BadContract;
 import org.web3j.utils.Numeric;
-import com.ramapay.token.web.Service.EthRPCNodes;
-
-import okhttp3.OkHttpClient;
 
 public class TransactionHandler
 {
-    private static Web3j mWeb3;
+    //contract reads repeat for every view of a link; hold them briefly
+    private static final long LOOKUP_TTL = 15 * 1000;
+    private static final int MAX_LOOKUPS = 10000;
+    private static final Map<String, CachedLookup> lookups = new ConcurrentHashMap<>();
 
-    public TransactionHandler(long networkId)
+    private static class CachedLookup
     {
-        String nodeURL = EthRPCNodes.getNodeURLByNetworkId(networkId);
-        OkHttpClient.Builder builder = new OkHttpClient.Builder();
-        builder.connectTimeout(20, TimeUnit.SECONDS);
-        builder.readTimeout(20, TimeUnit.SECONDS);
-        HttpService service = new HttpService(nodeURL, builder.build(), false);
-        mWeb3 = Web3j.build(service);
-        try
-        {
-            Web3ClientVersion web3ClientVersion = mWeb3.web3ClientVersion().sendAsync().get();
-            System.out.println(web3ClientVersion.getWeb3ClientVersion());
-        }
-        catch (Exception e)
+        final Object value;
+        final long expiry;
+
+        CachedLookup(Object value, long expiry)
         {
-            e.printStackTrace();
+            this.value = value;
+            this.expiry = expiry;
         }
     }
 
+    private final long networkId;
+    private final Web3j web3j;
+
+    public TransactionHandler(long networkId)
+    {
+        this.networkId = networkId;
+        this.web3j = Web3jPool.get(networkId);
+    }
+
     public List<BigInteger> getBalanceArray(String address, String contractAddress) throws Exception
     {
-        List<BigInteger> result = new ArrayList<>();
-        org.web3j.abi.datatypes.Function function = balanceOfArray(address);
-        List<Uint256> indices = callSmartContractFunctionArray(function, contractAddress, address);
-        if (indices == null) throw new BadContract();
-        for (Uint256 val : indices)
-        {
-            result.add(val.getValue());
-        }
-        return result;
+        return cached("balance-" + contractAddress + "-" + address, () -> {
+            List<BigInteger> result = new ArrayList<>();
+            org.web3j.abi.datatypes.Function function = balanceOfArray(address);
+            List<Uint256> indices = callSmartContractFunctionArray(function, contractAddress, address);
+            if (indices == null) throw new BadContract();
+            for (Uint256 val : indices)
+            {
+                result.add(val.getValue());
+            }
+            return Collections.unmodifiableList(result);
+        });
     }
 
     public String getNameOnly(String address)
     {
-        String name = "";
-        try
-        {
-            name = callSmartContractAndGetResult(address, stringParam("name"));
-        }
-        catch (Exception e)
-        {
-            e.printStackTrace();
-        }
-
-        return name;
+        return getName(address);
     }
 
     public String getSymbolOnly(String address)
@@ -84,7 +78,7 @@ public class TransactionHandler
         String symbol = "";
         try
         {
-            symbol = callSmartContractAndGetResult(address, stringParam("symbol"));
+            symbol = cached("symbol-" + address, () -> callSmartContractAndGetResult(address, stringParam("symbol")));
         }
         catch (Exception e)
         {
@@ -99,7 +93,7 @@ public class TransactionHandler
         String name = "";
         try
         {
-            name = callSmartContractAndGetResult(address, stringParam("name"));
+            name = cached("name-" + address, () -> callSmartContractAndGetResult(address, stringParam("name")));
         }
         catch (Exception e)
         {
@@ -126,10 +120,14 @@ public class TransactionHandler
         List<BigInteger> castBalances = new ArrayList<>();
         try
         {
-            List<Uint256> balances = callSmartContractAndGetResult(contractAddress, getBalances721TicketToken(owner));
-            for(Uint256 token: balances) {
-                castBalances.add(token.getValue());
-            }
+            castBalances = cached("balance721-" + contractAddress + "-" + owner, () -> {
+                List<BigInteger> balances = new ArrayList<>();
+                List<Uint256> tokens = callSmartContractAndGetResult(contractAddress, getBalances721TicketToken(owner));
+                for(Uint256 token: tokens) {
+                    balances.add(token.getValue());
+                }
+                return Collections.unmodifiableList(balances);
+            });
         }
         catch (Exception e)
         {
@@ -138,6 +136,27 @@ public class TransactionHandler
         return castBalances;
     }
 
+    /**
+     * Result of a recent identical read on this chain, or of fetch. Failures aren't cached.
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T cached(String key, Callable<T> fetch) throws Exception
+    {
+        String fullKey = networkId + "-" + key.toLowerCase();
+        long now = System.currentTimeMillis();
+        CachedLookup lookup = lookups.get(fullKey);
+        if (lookup != null && lookup.expiry > now) return (T) lookup.value;
+
+        T value = fetch.call();
+        if (value != null)
+        {
+            if (lookups.size() >= MAX_LOOKUPS) lookups.values().removeIf(l -> l.expiry <= now);
+            if (lookups.size() >= MAX_LOOKUPS) lookups.clear();
+            lookups.put(fullKey, new CachedLookup(value, now + LOOKUP_TTL));
+        }
+        return value;
+    }
+
     private <T> T callSmartContractAndGetResult(String address, org.web3j.abi.datatypes.Function function) throws Exception
     {
         String responseValue = callSmartContractFunction(function, address);
@@ -164,7 +183,7 @@ public class TransactionHandler
 
     private String makeEthCall(Transaction transaction) throws ExecutionException, InterruptedException
     {
-        org.web3j.protocol.core.methods.response.EthCall ethCall = mWeb3.ethCall(transaction,
+        org.web3j.protocol.core.methods.response.EthCall ethCall = web3j.ethCall(transaction,
                 DefaultBlockParameterName.LATEST)
                 .sendAsync().get();
         return ethCall.getValue();
@@ -0,0 +1,57 @@
+package com.ramapay.token.web.Ethereum;
+
+import com.ramapay.token.web.Service.EthRPCNodes;
+
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.http.HttpService;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+
+/**
+ * One Web3j client per chain, all sharing a single OkHttp client so node connections are pooled and kept alive
+ * across requests. Web3j is thread safe; clients are created on first use and kept for the life of the server.
+ */
+public class Web3jPool
+{
+    private static final int MAX_REQUESTS_PER_HOST = 64;
+    private static final OkHttpClient httpClient = buildClient();
+    private static final Map<Long, Web3j> clients = new ConcurrentHashMap<>();
+    private static volatile LongFunction<String> nodeURLs = EthRPCNodes::getNodeURLByNetworkId;
+
+    public static Web3j get(long chainId)
+    {
+        return clients.computeIfAbsent(chainId, id -> Web3j.build(new HttpService(nodeURLs.apply(id), httpClient, false)));
+    }
+
+    /**
+     * Use other node URLs, eg a local node for load testing. Existing clients are dropped.
+     */
+    public static void setNodeURLs(LongFunction<String> urls)
+    {
+        nodeURLs = urls;
+        clients.clear();
+    }
+
+    private static OkHttpClient buildClient()
+    {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(MAX_REQUESTS_PER_HOST * 4);
+        dispatcher.setMaxRequestsPerHost(MAX_REQUESTS_PER_HOST);
+
+        return new OkHttpClient.Builder()
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(10, TimeUnit.SECONDS)
+                .writeTimeout(10, TimeUnit.SECONDS)
+                .retryOnConnectionFailure(false)
+                .connectionPool(new ConnectionPool(MAX_REQUESTS_PER_HOST, 5, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .build();
+    }
+}
@@ -0,0 +1,148 @@
+package com.ramapay.token.web.Service;
+
+import com.ramapay.token.tools.TokenDefinition;
+
+import org.xml.sax.SAXException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Parsed TokenScript definitions, per chain and contract address, so a request doesn't re-read and parse the XML.
+ *
+ * A definition is dropped when its file changes; watch() follows the repository dir for that. One instance is shared by
+ * concurrent requests: the only thing a request sets on it is the TokenScript context, which is the same contract and
+ * attribute source for every request on that definition.
+ */
+public class TokenDefinitionStore
+{
+    private static class Entry
+    {
+        final TokenDefinition definition;
+        final Path file;
+
+        Entry(TokenDefinition definition, Path file)
+        {
+            this.definition = definition;
+            this.file = file;
+        }
+    }
+
+    private final Map<String, Entry> definitions = new ConcurrentHashMap<>();
+    private WatchService watcher;
+
+    /**
+     * @return the definition for the contract, parsing xml if it isn't cached
+     */
+    public TokenDefinition get(long chainId, String address, File xml) throws IOException, SAXException
+    {
+        String key = chainId + "-" + address.toLowerCase();
+        Entry entry = definitions.get(key);
+        if (entry == null)
+        {
+            try (FileInputStream in = new FileInputStream(xml))
+            {
+                entry = new Entry(new TokenDefinition(in, new Locale("en"), null), xml.toPath().toAbsolutePath());
+            }
+            //two requests may parse the same file at once; either result will do
+            definitions.put(key, entry);
+        }
+
+        return entry.definition;
+    }
+
+    /**
+     * Drop definitions parsed from file
+     */
+    public void invalidate(Path file)
+    {
+        Path changed = file.toAbsolutePath();
+        definitions.values().removeIf(entry -> entry.file.equals(changed));
+    }
+
+    public int size()
+    {
+        return definitions.size();
+    }
+
+    /**
+     * Watch repoDir and its sub dirs, dropping the definition of any file changed or removed
+     * @param onChange also told of each changed file, eg to re-read the contracts it covers
+     */
+    public synchronized void watch(Path repoDir, Consumer<Path> onChange) throws IOException
+    {
+        if (watcher != null) return;
+        watcher = repoDir.getFileSystem().newWatchService();
+        try (Stream<Path> dirs = Files.walk(repoDir))
+        {
+            for (Path dir : (Iterable<Path>) dirs.filter(Files::isDirectory)::iterator)
+            {
+                register(dir);
+            }
+        }
+
+        Thread thread = new Thread(() -> watchLoop(onChange), "tokenscript-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void register(Path dir) throws IOException
+    {
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    private void watchLoop(Consumer<Path> onChange)
+    {
+        try
+        {
+            while (true)
+            {
+                WatchKey key = watcher.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents())
+                {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                    {
+                        //lost track of what changed
+                        definitions.clear();
+                        continue;
+                    }
+
+                    Path changed = dir.resolve((Path) event.context());
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed))
+                    {
+                        register(changed);
+                        continue;
+                    }
+
+                    invalidate(changed);
+                    if (onChange != null) onChange.accept(changed);
+                }
+
+                key.reset();
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException e)
+        {
+            //server shutting down
+        }
+        catch (IOException e)
+        {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ramapay.token.web;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.ramapay.token.entity.MagicLinkData;
+import com.ramapay.token.tools.ParseMagicLink;
+import com.ramapay.token.web.Ethereum.Web3jPool;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.simple.JsonArray;
+import org.json.simple.JsonObject;
+import org.json.simple.Jsoner;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.abi.TypeEncoder;
+import org.web3j.abi.datatypes.DynamicArray;
+import org.web3j.abi.datatypes.Utf8String;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.utils.Numeric;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load harness for MagicLink rendering: concurrent requests for a TokenScript backed link, against a local stub node
+ * which counts the RPC calls made and answers after a delay. Reports throughput, p99 latency and node calls per request.
+ */
+public class MagicLinkLoadTest
+{
+    private static final long CHAIN_ID = 1;
+    private static final String CONTRACT = "0xa66a3f08068174e8f005112a8b2c7a507a822335";
+    private static final String OWNER = "0x007bEe82BDd9e866b2bd114780a47f2261C684E3";
+    private static final String NAME = selector("name()");
+    private static final String SYMBOL = selector("symbol()");
+    private static final String BALANCE_OF = selector("balanceOf(address)");
+    private static final long NODE_LATENCY = 20;
+
+    private HttpServer server;
+    private ExecutorService nodeExecutor;
+    private final AtomicInteger rpcCalls = new AtomicInteger();
+    private volatile long balanceLatency = NODE_LATENCY;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            rpcCalls.incrementAndGet();
+            JsonObject request = Jsoner.deserialize(readBody(exchange.getRequestBody()), new JsonObject());
+            JsonObject reply = new JsonObject();
+            reply.put("jsonrpc", "2.0");
+            reply.put("id", request.get("id"));
+            reply.put("result", answer(request));
+            sleep(BALANCE_OF.equals(callSelector(request)) ? balanceLatency : NODE_LATENCY);
+
+            byte[] bytes = reply.toJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody())
+            {
+                os.write(bytes);
+            }
+        });
+        nodeExecutor = Executors.newFixedThreadPool(64);
+        server.setExecutor(nodeExecutor);
+        server.start();
+
+        String nodeURL = "http://127.0.0.1:" + server.getAddress().getPort();
+        Web3jPool.setNodeURLs(chainId -> nodeURL);
+        AppSiteController.addContractAddresses(Paths.get("../lib/src/test/ts/fifa.tsml"));
+    }
+
+    @After
+    public void tearDown()
+    {
+        server.stop(0);
+        nodeExecutor.shutdown();
+        AppSiteController.setRenderDeadline(5000);
+    }
+
+    /**
+     * A spike of requests for one shared link, all handed off at once as the servlet container would
+     */
+    @Test
+    public void rendersLinksUnderLoad() throws Exception
+    {
+        int requests = 400;
+        AppSiteController controller = new AppSiteController();
+
+        List<CompletableFuture<Long>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++)
+        {
+            long requestStart = System.nanoTime();
+            results.add(controller.handleTokenLink(linkData(OWNER), "link").thenApply(page -> {
+                assertTrue(page.contains("Tokens available"));
+                return System.nanoTime() - requestStart;
+            }));
+        }
+        long handOff = System.nanoTime() - start;
+
+        List<Long> latencies = new ArrayList<>();
+        for (CompletableFuture<Long> result : results) latencies.add(result.get());
+        long elapsed = System.nanoTime() - start;
+
+        Collections.sort(latencies);
+        long p99 = latencies.get((int) Math.ceil(latencies.size() * 0.99) - 1);
+        double perSecond = requests * 1e9 / elapsed;
+        double callsPerRequest = (double) rpcCalls.get() / requests;
+
+        assertEquals(requests, latencies.size());
+        //name, symbol and balance are shared between requests for the same link
+        assertTrue(callsPerRequest < 1);
+        System.out.println(String.format("Rendered %d links: %.0f req/s, p99 %dms, %.2f node calls per request, request threads held %dms in total",
+                requests, perSecond, p99 / 1_000_000, callsPerRequest, handOff / 1_000_000));
+    }
+
+    /**
+     * Links from many different owners, so each needs its own balance read
+     */
+    @Test
+    public void rendersManyLinksInParallel() throws Exception
+    {
+        int requests = 200;
+        AppSiteController controller = new AppSiteController();
+        controller.handleTokenLink(linkData(OWNER), "link").get(); //parse the script and connect before timing
+
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < requests; i++)
+        {
+            results.add(controller.handleTokenLink(linkData(Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(i + 1), 40)), "link"));
+        }
+        for (CompletableFuture<String> result : results) assertTrue(result.get().contains("Tokens available"));
+        long elapsed = System.nanoTime() - start;
+
+        //one at a time would take at least a node round trip per link
+        assertTrue(elapsed < requests * NODE_LATENCY * 1_000_000);
+        System.out.println(String.format("Rendered %d links with separate balance reads in %dms (%.0f req/s); serially at least %dms",
+                requests, elapsed / 1_000_000, requests * 1e9 / elapsed, requests * NODE_LATENCY));
+    }
+
+    /**
+     * A node too slow to answer the ownership check before the deadline: the page still renders, without the status
+     */
+    @Test
+    public void rendersWhatIsReadyAtDeadline() throws Exception
+    {
+        AppSiteController controller = new AppSiteController();
+        AppSiteController.setRenderDeadline(300);
+        balanceLatency = 3000;
+
+        long start = System.nanoTime();
+        String page = controller.handleTokenLink(linkData("0x00000000000000000000000000000000000000aa"), "link").get();
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(page.contains("Tokens unconfirmed"));
+        assertTrue(page.contains("FIFA WC2018"));
+        assertTrue(elapsed < 2000);
+    }
+
+    private static MagicLinkData linkData(String owner)
+    {
+        MagicLinkData data = new MagicLinkData();
+        data.chainId = CHAIN_ID;
+        data.contractAddress = CONTRACT;
+        data.contractType = ParseMagicLink.normal;
+        data.ownerAddress = owner;
+        data.indices = new int[] { 0, 1 };
+        data.ticketCount = 2;
+        data.expiry = System.currentTimeMillis() / 1000 + 3600;
+        data.price = 0.1;
+        return data;
+    }
+
+    private static String callSelector(JsonObject request)
+    {
+        if (!"eth_call".equals(request.get("method"))) return null;
+
+        JsonArray params = (JsonArray) request.get("params");
+        String data = (String) ((JsonObject) params.get(0)).get("data");
+        return data.substring(0, 10);
+    }
+
+    private static String answer(JsonObject request)
+    {
+        String selector = callSelector(request);
+        if (selector == null) return "0x0";
+
+        if (selector.equals(BALANCE_OF))
+        {
+            DynamicArray<Uint256> balance = new DynamicArray<>(Uint256.class, Arrays.asList(
+                    new Uint256(BigInteger.valueOf(0x1001)), new Uint256(BigInteger.valueOf(0x1002)), new Uint256(BigInteger.ZERO)));
+            return "0x" + TypeEncoder.encode(new Uint256(32)) + TypeEncoder.encode(balance);
+        }
+        else
+        {
+            return encodeString(selector.equals(NAME) ? "FIFA WC2018" : selector.equals(SYMBOL) ? "SHANKAI" : "");
+        }
+    }
+
+    private static void sleep(long ms)
+    {
+        try
+        {
+            Thread.sleep(ms);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String selector(String signature)
+    {
+        return Hash.sha3String(signature).substring(0, 10);
+    }
+
+    private static String encodeString(String value)
+    {
+        return "0x" + TypeEncoder.encode(new Uint256(32)) + TypeEncoder.encode(new Utf8String(value));
+    }
+
+    private static String readBody(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -3,6 +3,7 @@ package com.ramapay.token.entity;
 import com.ramapay.token.tools.TokenDefinition;
 
 import java.math.BigInteger;
+import java.util.List;
 
 /**
  * Created by James on 22/05/2019.
@@ -12,6 +13,10 @@ public interface AttributeInterface
 {
     TransactionResult getFunctionResult(ContractAddress contract, Attribute attr, BigInteger tokenId);
     TransactionResult storeAuxData(String walletAddress, TransactionResult tResult);
+    default void storeAuxData(String walletAddress, List<TransactionResult> tResults)
+    {
+        for (TransactionResult tResult : tResults) storeAuxData(walletAddress, tResult);
+    }
     boolean resolveOptimisedAttr(ContractAddress contract, Attribute attr, TransactionResult transactionResult);
 
     String getWalletAddr();
@@ -1,5 +1,6 @@
 package com.ramapay.token.entity;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,7 +9,7 @@ import java.util.Map;
  * Created by James on 2/05/2019.
  * Stormbird in Sydney
  */
-public class ContractInfo
+public class ContractInfo implements Serializable
 {
     public final String contractInterface;
     public final Map<Long, List<String>> addresses = new HashMap<>();
@@ -1,5 +1,6 @@
 package com.ramapay.token.entity;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,7 +8,7 @@ import java.util.Map;
  * Created by James on 28/05/2019.
  * Stormbird in Sydney
  */
-public class EthereumTransaction
+public class EthereumTransaction implements Serializable
 {
     public Map<String, TokenscriptElement> args = new HashMap<>();
 }
@@ -2,6 +2,7 @@ package com.ramapay.token.entity;
 
 import com.ramapay.token.tools.TokenDefinition;
 
+import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,7 +12,7 @@ import java.util.List;
  * Stormbird in Singapore
  */
 
-public class FunctionDefinition
+public class FunctionDefinition implements Serializable
 {
     public ContractInfo contract;
     public String method;
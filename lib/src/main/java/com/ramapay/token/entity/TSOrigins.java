@@ -2,10 +2,12 @@ package com.ramapay.token.entity;
 
 import org.xml.sax.SAXException;
 
+import java.io.Serializable;
+
 /**
  * Created by JB on 27/07/2020.
  */
-public class TSOrigins
+public class TSOrigins implements Serializable
 {
     private TSOriginType type;
     private String originName;
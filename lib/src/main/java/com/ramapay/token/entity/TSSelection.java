@@ -4,6 +4,7 @@ import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.xml.sax.SAXException;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.ListIterator;
@@ -16,7 +17,7 @@ import static org.w3c.dom.Node.ELEMENT_NODE;
 /**
  * Created by JB on 21/05/2020.
  */
-public class TSSelection
+public class TSSelection implements Serializable
 {
     public TSFilterNode head = null;
     public String denialMessage = null;
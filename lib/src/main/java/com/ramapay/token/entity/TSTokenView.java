@@ -11,6 +11,7 @@ import static org.w3c.dom.Node.TEXT_NODE;
 
 import com.ramapay.token.tools.TokenDefinition;
 
+import java.io.Serializable;
 import java.util.Objects;
 
 /**
@@ -18,7 +19,7 @@ import java.util.Objects;
  *
  * Created by JB on 8/05/2020.
  */
-public class TSTokenView
+public class TSTokenView implements Serializable
 {
     private String tokenView = "";
     private String style = "";
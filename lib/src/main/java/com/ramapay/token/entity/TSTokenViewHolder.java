@@ -1,12 +1,13 @@
 package com.ramapay.token.entity;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Created by JB on 8/05/2020.
  */
-public class TSTokenViewHolder
+public class TSTokenViewHolder implements Serializable
 {
     public Map<String, Attribute> localAttributeTypes = new HashMap<>();
     public Map<String, TSTokenView> views = new HashMap<>();
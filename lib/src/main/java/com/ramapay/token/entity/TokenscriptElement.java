@@ -1,10 +1,12 @@
 package com.ramapay.token.entity;
 
+import java.io.Serializable;
+
 /**
  * Created by James on 28/05/2019.
  * Stormbird in Sydney
  */
-public class TokenscriptElement
+public class TokenscriptElement implements Serializable
 {
     public String localRef;
     public String ref;
@@ -14,6 +14,7 @@ public class TransactionResult
     public final long contractChainId;
     public String result;
     public long resultTime;
+    public long resultBlock; //block the result was read at, 0 if not known
     public final String attrId;
 
     public TransactionResult(long chainId, String address, BigInteger tokenId, Attribute attr)
@@ -27,6 +28,7 @@ public class TransactionResult
         this.attrId = attr.name;
         result = null;
         resultTime = 0;
+        resultBlock = 0;
     }
 
     public boolean needsUpdating(long lastTxTime)
@@ -43,6 +43,7 @@ import org.xml.sax.SAXException;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.text.DateFormat;
@@ -61,7 +62,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
-public class TokenDefinition
+public class TokenDefinition implements Serializable
 {
     public final Map<String, Attribute> attributes = new HashMap<>();
     protected Locale locale;
@@ -74,10 +75,10 @@ public class TokenDefinition
     private final TSTokenViewHolder tokenViews = new TSTokenViewHolder();
     private final Map<String, TSSelection> selections = new HashMap<>();
     private final Map<String, TSActivityView> activityCards = new HashMap<>();
-    private final Map<String, Element> viewContent = new HashMap<>();
+    private transient Map<String, Element> viewContent = new HashMap<>(); //only needed while parsing
 
     public String nameSpace;
-    public TokenscriptContext context;
+    public transient TokenscriptContext context;
     public String holdingToken = null;
     private int actionCount;
     private TSOrigins defaultOrigin = null;
@@ -662,7 +663,7 @@ public class TokenDefinition
 
     public Element getViewContent(String name)
     {
-        return this.viewContent.get(name);
+        return this.viewContent != null ? this.viewContent.get(name) : null;
     }
 
     private TSActivityView processActivityView(Element card) throws Exception
@@ -1756,7 +1757,8 @@ public class TokenDefinition
      */
     public String getCardData(String tag)
     {
-        TSTokenView view = tokenViews.views.get("view");
+        TSTokenView view = tokenViews.getTSView("view");
+        if (view == null) return "";
 
         if (tag.equals("view")) return view.getTokenView();
         else if (tag.equals("style")) return view.getStyle();
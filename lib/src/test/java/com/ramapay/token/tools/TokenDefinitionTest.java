@@ -1,12 +1,18 @@
 package com.ramapay.token.tools;
 
+import com.ramapay.token.entity.Attribute;
 import com.ramapay.token.entity.ContractInfo;
 import com.ramapay.token.entity.ParseResult;
+import com.ramapay.token.entity.TSAction;
 import org.junit.Test;
 import org.xml.sax.SAXException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Locale;
 import static junit.framework.TestCase.assertNotNull;
 import static org.junit.Assert.assertEquals;
@@ -45,6 +51,58 @@ public class TokenDefinitionTest implements ParseResult
         }
     }
 
+    @Test
+    public void ParsedDefinitionSurvivesSerialization() throws Exception
+    {
+        for (String fileName : new String[] { "src/test/ts/DAI.tsml", "src/test/ts/entrytoken.canonicalized.xml", "src/test/ts/fifa.tsml" })
+        {
+            TokenDefinition parsed = new TokenDefinition(new FileInputStream(fileName), new Locale("en"), this);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes))
+            {
+                out.writeObject(parsed);
+            }
+
+            TokenDefinition restored;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())))
+            {
+                restored = (TokenDefinition) in.readObject();
+            }
+
+            assertEquals(parsed.holdingToken, restored.holdingToken);
+            assertEquals(parsed.nameSpace, restored.nameSpace);
+            assertEquals(parsed.getTokenNameList(), restored.getTokenNameList());
+            assertEquals(parsed.getViews(), restored.getViews());
+            assertEquals(parsed.getTokenView("item-view"), restored.getTokenView("item-view"));
+            assertEquals(parsed.hasEvents(), restored.hasEvents());
+
+            assertEquals(parsed.contracts.keySet(), restored.contracts.keySet());
+            for (String name : parsed.contracts.keySet())
+            {
+                assertEquals(parsed.contracts.get(name).addresses, restored.contracts.get(name).addresses);
+            }
+
+            assertEquals(parsed.attributes.keySet(), restored.attributes.keySet());
+            for (Attribute attr : parsed.attributes.values())
+            {
+                Attribute copy = restored.attributes.get(attr.name);
+                assertEquals(attr.label, copy.label);
+                assertEquals(attr.as, copy.as);
+                assertEquals(attr.members, copy.members);
+                assertEquals(attr.function != null ? attr.function.method : null, copy.function != null ? copy.function.method : null);
+            }
+
+            assertEquals(parsed.getActions().keySet(), restored.getActions().keySet());
+            for (TSAction action : parsed.getActions().values())
+            {
+                TSAction copy = restored.getActions().get(action.name);
+                assertEquals(action.view.getTokenView(), copy.view.getTokenView());
+                assertEquals(action.function != null ? action.function.method : null, copy.function != null ? copy.function.method : null);
+            }
+        }
+    }
+
     @Test(expected = SAXException.class)
     public void BadLocaleShouldThrowException() throws IOException, SAXException {
         TokenDefinition ticketAsset = new TokenDefinition(new FileInputStream(entryTokenTestFile), new Locale("asdf"), this);